@@ -24,22 +24,35 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 import org.apache.beam.sdk.coders.MapCoder;
 import org.apache.beam.sdk.coders.SetCoder;
 import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
 import org.apache.beam.sdk.transforms.windowing.WindowFn;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Sets;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-/** An {@link ActiveWindowSet} for merging {@link WindowFn} implementations. */
+/**
+ * An {@link ActiveWindowSet} for merging {@link WindowFn} implementations.
+ *
+ * <p>For {@link Sessions}, which merge overlapping {@link IntervalWindow IntervalWindows}, the
+ * windows are also kept in an index ordered by start time, which is built on the first {@link
+ * #merge} so that work which does not merge windows does not pay for it. The windows present after
+ * a merge are disjoint, so each {@link #merge} only needs to present the windows added since the
+ * previous merge and the windows of the index that overlap them to {@link WindowFn#mergeWindows},
+ * rather than all the windows of the key.
+ */
 @SuppressWarnings({"nullness", "keyfor"}) // TODO(https://github.com/apache/beam/issues/20497)
 public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWindowSet<W> {
   private final WindowFn<Object, W> windowFn;
@@ -63,6 +76,23 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   /** Handle representing our state in the backend. */
   private final ValueState<Map<W, Set<W>>> valueState;
 
+  /** Whether {@link #windowFn} is {@link Sessions}, whose windows are indexed for merging. */
+  private final boolean indexWindows;
+
+  /**
+   * The windows which have been merged with all the windows overlapping them, ordered by start
+   * time. These windows are disjoint. Null until the first {@link #merge} and unless {@link
+   * #indexWindows} is set. Not persisted.
+   */
+  private @Nullable TreeSet<IntervalWindow> mergedWindows;
+
+  /**
+   * The windows added since the last merge, or since this set was read before the first merge,
+   * which may overlap each other and the windows in {@link #mergedWindows}. Only maintained if
+   * {@link #indexWindows} is set. Not persisted.
+   */
+  private final Set<W> unmergedWindows;
+
   public MergingActiveWindowSet(WindowFn<Object, W> windowFn, StateInternals state) {
     this.windowFn = windowFn;
 
@@ -75,13 +105,24 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     // is stymied until it is available.
     activeWindowToStateAddressWindows = emptyIfNull(valueState.read());
     originalActiveWindowToStateAddressWindows = deepCopy(activeWindowToStateAddressWindows);
+
+    indexWindows = windowFn.getClass().equals(Sessions.class);
+    unmergedWindows = new LinkedHashSet<>();
   }
 
   @Override
   public void cleanupTemporaryWindows() {
     // All NEW windows can be forgotten since they must have ended up being merged into
     // some other ACTIVE window.
-    activeWindowToStateAddressWindows.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    Iterator<Map.Entry<W, Set<W>>> iterator =
+        activeWindowToStateAddressWindows.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<W, Set<W>> entry = iterator.next();
+      if (entry.getValue().isEmpty()) {
+        iterator.remove();
+        removedFromIndex(entry.getKey());
+      }
+    }
   }
 
   @Override
@@ -122,6 +163,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       // Add window as NEW.
       activeWindowToStateAddressWindows.put(window, new LinkedHashSet<>());
+      addedToIndex(window);
     }
   }
 
@@ -146,6 +188,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       Set<W> stateAddressWindows = new LinkedHashSet<>();
       stateAddressWindows.add(window);
       activeWindowToStateAddressWindows.put(window, stateAddressWindows);
+      addedToIndex(window);
     }
   }
 
@@ -153,12 +196,28 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   public void addActiveForTesting(W window, Iterable<W> stateAddressWindows) {
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       activeWindowToStateAddressWindows.put(window, Sets.newLinkedHashSet(stateAddressWindows));
+      addedToIndex(window);
     }
   }
 
   @Override
   public void remove(W window) {
     activeWindowToStateAddressWindows.remove(window);
+    removedFromIndex(window);
+  }
+
+  /** Adds {@code window}, which has become NEW or ACTIVE, to the merge index. */
+  private void addedToIndex(W window) {
+    if (indexWindows) {
+      unmergedWindows.add(window);
+    }
+  }
+
+  /** Removes {@code window}, which is no longer ACTIVE or NEW, from the merge index. */
+  private void removedFromIndex(W window) {
+    if (indexWindows && !unmergedWindows.remove(window) && mergedWindows != null) {
+      mergedWindows.remove((IntervalWindow) window);
+    }
   }
 
   private class MergeContextImpl extends WindowFn<Object, W>.MergeContext {
@@ -166,10 +225,12 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     private final List<Collection<W>> allToBeMerged;
     private final List<W> allMergeResults;
     private final Set<W> seen;
+    private final Collection<W> windows;
 
-    public MergeContextImpl(MergeCallback<W> mergeCallback) {
+    public MergeContextImpl(MergeCallback<W> mergeCallback, Collection<W> windows) {
       windowFn.super();
       this.mergeCallback = mergeCallback;
+      this.windows = windows;
       allToBeMerged = new ArrayList<>();
       allMergeResults = new ArrayList<>();
       seen = new HashSet<>();
@@ -177,7 +238,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
     @Override
     public Collection<W> windows() {
-      return activeWindowToStateAddressWindows.keySet();
+      return windows;
     }
 
     @Override
@@ -220,7 +281,19 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
   @Override
   public void merge(MergeCallback<W> mergeCallback) throws Exception {
-    MergeContextImpl context = new MergeContextImpl(mergeCallback);
+    if (indexWindows && mergedWindows == null) {
+      mergedWindows = buildIndex();
+    }
+    if (mergedWindows != null && unmergedWindows.isEmpty()) {
+      // All windows are already disjoint.
+      return;
+    }
+    MergeContextImpl context =
+        new MergeContextImpl(
+            mergeCallback,
+            mergedWindows == null
+                ? activeWindowToStateAddressWindows.keySet()
+                : windowsToMerge(mergedWindows));
 
     // See what the window function does with the NEW and already ACTIVE windows.
     // Entering userland.
@@ -228,6 +301,69 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
     // Actually do the merging and invoke the callbacks.
     context.recordMerges();
+
+    if (mergedWindows != null) {
+      // Whatever remains of the windows which were presented for merging is now disjoint.
+      for (W window : unmergedWindows) {
+        if (activeWindowToStateAddressWindows.containsKey(window)) {
+          mergedWindows.add((IntervalWindow) window);
+        }
+      }
+      unmergedWindows.clear();
+    }
+  }
+
+  /**
+   * Returns the index of the windows which were read with this set and are still present. Those
+   * were merged before they were persisted, so are expected to be disjoint.
+   */
+  private TreeSet<IntervalWindow> buildIndex() {
+    TreeSet<IntervalWindow> windows = new TreeSet<>();
+    for (W window : activeWindowToStateAddressWindows.keySet()) {
+      if (!unmergedWindows.contains(window)) {
+        windows.add((IntervalWindow) window);
+      }
+    }
+    if (!isDisjoint(windows)) {
+      // Not expected, but merge them all again.
+      unmergedWindows.addAll(activeWindowToStateAddressWindows.keySet());
+      windows.clear();
+    }
+    return windows;
+  }
+
+  /**
+   * Returns the windows added since the last merge along with the merged windows overlapping any
+   * of them, which are removed from {@code mergedWindows} and added to {@link #unmergedWindows}.
+   *
+   * <p>Any merged window overlapping the union of some of the returned windows overlaps one of
+   * them, and since the merged windows are disjoint, that must be one of the added windows. So no
+   * other windows can take part in a merge.
+   */
+  @SuppressWarnings("unchecked")
+  private Collection<W> windowsToMerge(TreeSet<IntervalWindow> mergedWindows) {
+    List<W> overlapping = new ArrayList<>();
+    for (W window : unmergedWindows) {
+      IntervalWindow interval = (IntervalWindow) window;
+      // Since the merged windows are disjoint, those ordered before the window overlap it only if
+      // the last of them does, and those starting within the window do.
+      IntervalWindow lower = mergedWindows.lower(interval);
+      if (lower != null && lower.intersects(interval)) {
+        overlapping.add((W) lower);
+        mergedWindows.remove(lower);
+      }
+      Iterator<IntervalWindow> iterator = mergedWindows.tailSet(interval, true).iterator();
+      while (iterator.hasNext()) {
+        IntervalWindow next = iterator.next();
+        if (!next.intersects(interval)) {
+          break;
+        }
+        overlapping.add((W) next);
+        iterator.remove();
+      }
+    }
+    unmergedWindows.addAll(overlapping);
+    return new ArrayList<>(unmergedWindows);
   }
 
   /**
@@ -269,6 +405,9 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     }
 
     activeWindowToStateAddressWindows.put(mergeResult, newStateAddressWindows);
+    if (mergedWindows != null) {
+      unmergedWindows.add(mergeResult);
+    }
 
     merged(mergeResult);
   }
@@ -400,6 +539,18 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     }
   }
 
+  /** Returns whether the windows, ordered by start time, are disjoint. */
+  private static boolean isDisjoint(TreeSet<IntervalWindow> windows) {
+    IntervalWindow previous = null;
+    for (IntervalWindow window : windows) {
+      if (previous != null && previous.intersects(window)) {
+        return false;
+      }
+      previous = window;
+    }
+    return true;
+  }
+
   /** Return a deep copy of {@code multimap}. */
   private static <W> Map<W, Set<W>> deepCopy(Map<W, Set<W>> multimap) {
     Map<W, Set<W>> newMultimap = new HashMap<>();
@@ -56,7 +56,11 @@ public class DirtyState implements Serializable {
    * <p>Should be called <b>after</b> modification of the value.
    */
   public void afterModification() {
-    dirty.set(State.DIRTY);
+    // Only write the state when it changes, so that repeated modifications of a metric don't keep
+    // invalidating the cache line of the state.
+    if (dirty.get() != State.DIRTY) {
+      dirty.set(State.DIRTY);
+    }
   }
 
   /**
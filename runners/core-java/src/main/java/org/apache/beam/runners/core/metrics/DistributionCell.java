@@ -57,12 +57,20 @@ public class DistributionCell implements Distribution, MetricCell<DistributionDa
   /** Increment the distribution by the given amount. */
   @Override
   public void update(long n) {
-    update(DistributionData.singleton(n));
+    DistributionData original;
+    do {
+      original = value.get();
+    } while (!value.compareAndSet(original, original.combine(n)));
+    dirty.afterModification();
   }
 
   @Override
   public void update(long sum, long count, long min, long max) {
-    update(DistributionData.create(sum, count, min, max));
+    DistributionData original;
+    do {
+      original = value.get();
+    } while (!value.compareAndSet(original, original.combine(sum, count, min, max)));
+    dirty.afterModification();
   }
 
   void update(DistributionData data) {
@@ -18,8 +18,10 @@
 package org.apache.beam.runners.core.metrics;
 
 import static org.apache.beam.runners.core.metrics.MonitoringInfoConstants.TypeUrns.DISTRIBUTION_INT64_TYPE;
+import static org.apache.beam.runners.core.metrics.MonitoringInfoConstants.TypeUrns.HISTOGRAM_DOUBLE_TYPE;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoConstants.TypeUrns.LATEST_INT64_TYPE;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoConstants.TypeUrns.SUM_INT64_TYPE;
+import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeDoubleHistogram;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Counter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Distribution;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Gauge;
@@ -206,13 +208,30 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
     return updates.build();
   }
 
+  private ImmutableList<MetricUpdate<HistogramData>> extractHistogramUpdates(boolean onlyDirty) {
+    ImmutableList.Builder<MetricUpdate<HistogramData>> updates = ImmutableList.builder();
+    histograms.forEach(
+        (key, value) -> {
+          if (!onlyDirty || value.getDirty().beforeCommit()) {
+            // Snapshot the histogram, the cell keeps recording into its data.
+            updates.add(
+                MetricUpdate.create(
+                    MetricKey.create(stepName, key.getKey()), value.getCumulative().copy()));
+          }
+        });
+    return updates.build();
+  }
+
   /**
    * Return the cumulative values for any metrics that have changed since the last time updates were
    * committed.
    */
   public MetricUpdates getUpdates() {
     return MetricUpdates.create(
-        extractUpdates(counters), extractUpdates(distributions), extractUpdates(gauges));
+        extractUpdates(counters),
+        extractUpdates(distributions),
+        extractUpdates(gauges),
+        extractHistogramUpdates(true));
   }
 
   /** @return The MonitoringInfo metadata from the metric. */
@@ -308,6 +327,32 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
     return builder.build();
   }
 
+  /**
+   * @param metricUpdate
+   * @return The MonitoringInfo generated from the user histogram metricUpdate.
+   */
+  private @Nullable MonitoringInfo histogramUpdateToMonitoringInfo(
+      MetricUpdate<HistogramData> metricUpdate) {
+    // Only user histograms have a MonitoringInfo type in the model. System histograms, such as API
+    // request latencies, are reported by the runners through their own channels.
+    MetricName metricName = metricUpdate.getKey().metricName();
+    if (metricName instanceof MonitoringInfoMetricName
+        && !MonitoringInfoConstants.Urns.USER_HISTOGRAM_DOUBLE.equals(
+            ((MonitoringInfoMetricName) metricName).getUrn())) {
+      return null;
+    }
+    SimpleMonitoringInfoBuilder builder =
+        metricToMonitoringMetadata(
+            metricUpdate.getKey(),
+            MonitoringInfoConstants.TypeUrns.HISTOGRAM_DOUBLE_TYPE,
+            MonitoringInfoConstants.Urns.USER_HISTOGRAM_DOUBLE);
+    if (builder == null) {
+      return null;
+    }
+    builder.setDoubleHistogramValue(metricUpdate.getUpdate());
+    return builder.build();
+  }
+
   /** Return the cumulative values for any metrics in this container as MonitoringInfos. */
   @Override
   public Iterable<MonitoringInfo> getMonitoringInfos() {
@@ -335,6 +380,13 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
         monitoringInfos.add(mi);
       }
     }
+
+    for (MetricUpdate<HistogramData> metricUpdate : metricUpdates.histogramUpdates()) {
+      MonitoringInfo mi = histogramUpdateToMonitoringInfo(metricUpdate);
+      if (mi != null) {
+        monitoringInfos.add(mi);
+      }
+    }
     return monitoringInfos;
   }
 
@@ -402,6 +454,7 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
     counters.forEachValue(counter -> counter.getDirty().afterCommit());
     distributions.forEachValue(distribution -> distribution.getDirty().afterCommit());
     gauges.forEachValue(gauge -> gauge.getDirty().afterCommit());
+    histograms.forEachValue(histogram -> histogram.getDirty().afterCommit());
   }
 
   private <UserT extends Metric, UpdateT, CellT extends MetricCell<UpdateT>>
@@ -423,7 +476,8 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
     return MetricUpdates.create(
         extractCumulatives(counters),
         extractCumulatives(distributions),
-        extractCumulatives(gauges));
+        extractCumulatives(gauges),
+        extractHistogramUpdates(false));
   }
 
   /** Update values of this {@link MetricsContainerImpl} by merging the value of another cell. */
@@ -454,6 +508,12 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
     gauge.update(decodeInt64Gauge(monitoringInfo.getPayload()));
   }
 
+  private void updateForHistogramDoubleType(MonitoringInfo monitoringInfo) {
+    MetricName metricName = MonitoringInfoMetricName.of(monitoringInfo);
+    HistogramData data = decodeDoubleHistogram(monitoringInfo.getPayload());
+    getHistogram(metricName, data.getBucketType()).update(data);
+  }
+
   /** Update values of this {@link MetricsContainerImpl} by reading from {@code monitoringInfos}. */
   public void update(Iterable<MonitoringInfo> monitoringInfos) {
     for (MonitoringInfo monitoringInfo : monitoringInfos) {
@@ -474,6 +534,10 @@ public class MetricsContainerImpl implements Serializable, MetricsContainer {
           updateForLatestInt64Type(monitoringInfo);
           break;
 
+        case HISTOGRAM_DOUBLE_TYPE:
+          updateForHistogramDoubleType(monitoringInfo);
+          break;
+
         default:
           LOG.warn("Unsupported metric type {}", monitoringInfo.getType());
       }
@@ -34,6 +34,7 @@ import org.apache.beam.runners.core.metrics.MetricUpdates.MetricUpdate;
 import org.apache.beam.sdk.metrics.MetricKey;
 import org.apache.beam.sdk.metrics.MetricResult;
 import org.apache.beam.sdk.metrics.MetricResults;
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.util.JsonFormat;
@@ -136,6 +137,7 @@ public class MetricsContainerStepMap implements Serializable {
     Map<MetricKey, MetricResult<Long>> counters = new HashMap<>();
     Map<MetricKey, MetricResult<DistributionData>> distributions = new HashMap<>();
     Map<MetricKey, MetricResult<GaugeData>> gauges = new HashMap<>();
+    Map<MetricKey, MetricResult<HistogramData>> histograms = new HashMap<>();
 
     attemptedMetricsContainers.forEachMetricContainer(
         container -> {
@@ -144,6 +146,7 @@ public class MetricsContainerStepMap implements Serializable {
           mergeAttemptedResults(
               distributions, cumulative.distributionUpdates(), DistributionData::combine);
           mergeAttemptedResults(gauges, cumulative.gaugeUpdates(), GaugeData::combine);
+          mergeAttemptedResults(histograms, cumulative.histogramUpdates(), HistogramData::combine);
         });
     committedMetricsContainers.forEachMetricContainer(
         container -> {
@@ -152,6 +155,7 @@ public class MetricsContainerStepMap implements Serializable {
           mergeCommittedResults(
               distributions, cumulative.distributionUpdates(), DistributionData::combine);
           mergeCommittedResults(gauges, cumulative.gaugeUpdates(), GaugeData::combine);
+          mergeCommittedResults(histograms, cumulative.histogramUpdates(), HistogramData::combine);
         });
 
     return new DefaultMetricResults(
@@ -161,7 +165,8 @@ public class MetricsContainerStepMap implements Serializable {
             .collect(toList()),
         gauges.values().stream()
             .map(result -> result.transform(GaugeData::extractResult))
-            .collect(toList()));
+            .collect(toList()),
+        histograms.values());
   }
 
   /** Return the cumulative values for any metrics in this container as MonitoringInfos. */
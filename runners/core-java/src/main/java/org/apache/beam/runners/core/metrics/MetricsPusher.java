@@ -20,29 +20,63 @@ package org.apache.beam.runners.core.metrics;
 import static org.apache.beam.runners.core.metrics.MetricsContainerStepMap.asAttemptedOnlyMetricResults;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.GaugeResult;
+import org.apache.beam.sdk.metrics.MetricKey;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
 import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
 import org.apache.beam.sdk.metrics.MetricResults;
+import org.apache.beam.sdk.metrics.MetricsFilter;
 import org.apache.beam.sdk.metrics.MetricsOptions;
 import org.apache.beam.sdk.metrics.MetricsSink;
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.sdk.util.InstanceBuilder;
-import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-/** Component that regularly merges metrics and pushes them to a metrics sink. */
+/**
+ * Component that regularly merges metrics and pushes them to a metrics sink.
+ *
+ * <p>The metrics are written to the sink by a separate thread, so that a slow sink doesn't delay
+ * the pushes. At most {@link MetricsOptions#getMetricsPushQueueCapacity()} writes wait for the
+ * sink, further writes are dropped. The pushed metrics can be restricted to {@link
+ * MetricsOptions#getMetricsPushNamespaces() some namespaces}, to the {@link
+ * MetricsOptions#getMetricsPushOnlyChanged() metrics that changed} since they were last written,
+ * and split into {@link MetricsOptions#getMetricsPushBatchSize() batches} of metrics.
+ */
 @SuppressWarnings({
   "nullness" // TODO(https://github.com/apache/beam/issues/20497)
 })
 public class MetricsPusher implements Serializable {
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsPusher.class);
+  private static final long FINAL_WRITES_TIMEOUT_SECONDS = 30;
 
   private MetricsSink metricsSink;
   private long period;
+  private boolean onlyChanged;
+  private @Nullable List<String> namespaces;
+  private int batchSize;
+  private int queueCapacity;
   private transient @Nullable ScheduledFuture<?> scheduledFuture;
+  private transient @Nullable ThreadPoolExecutor writer;
+  private transient @Nullable WrittenMetrics writtenMetrics;
   private transient PipelineResult pipelineResult;
   private MetricsContainerStepMap metricsContainerStepMap;
 
@@ -53,6 +87,10 @@ public class MetricsPusher implements Serializable {
     this.metricsContainerStepMap = metricsContainerStepMap;
     this.pipelineResult = pipelineResult;
     period = pipelineOptions.getMetricsPushPeriod();
+    onlyChanged = pipelineOptions.getMetricsPushOnlyChanged();
+    namespaces = pipelineOptions.getMetricsPushNamespaces();
+    batchSize = pipelineOptions.getMetricsPushBatchSize();
+    queueCapacity = pipelineOptions.getMetricsPushQueueCapacity();
     // calls the constructor of MetricsSink implementation specified in
     // pipelineOptions.getMetricsSink() passing the pipelineOptions
     metricsSink =
@@ -76,6 +114,27 @@ public class MetricsPusher implements Serializable {
 
   private void tearDown() {
     pushMetrics();
+    if (writer != null) {
+      // Wait for the queued writes, so that the final metrics are written.
+      writer.shutdown();
+      try {
+        if (!writer.awaitTermination(FINAL_WRITES_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          LOG.warn(
+              "The final metrics were not written to the sink within {} seconds.",
+              FINAL_WRITES_TIMEOUT_SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (metricsSink instanceof AutoCloseable) {
+      // Release the resources of the sink, such as the port of a server, for the next pipeline.
+      try {
+        ((AutoCloseable) metricsSink).close();
+      } catch (Exception e) {
+        LOG.warn("Failed to close the metrics sink.", e);
+      }
+    }
     if (!scheduledFuture.isCancelled()) {
       scheduledFuture.cancel(true);
     }
@@ -91,18 +150,15 @@ public class MetricsPusher implements Serializable {
     }
   }
 
-  private void pushMetrics() {
+  void pushMetrics() {
     if (!(metricsSink instanceof NoOpMetricsSink)) {
       try {
         // merge metrics
         MetricResults metricResults = asAttemptedOnlyMetricResults(metricsContainerStepMap);
-        MetricQueryResults metricQueryResults = metricResults.allMetrics();
-        if ((Iterables.size(metricQueryResults.getDistributions()) != 0)
-            || (Iterables.size(metricQueryResults.getGauges()) != 0)
-            || (Iterables.size(metricQueryResults.getCounters()) != 0)) {
-          metricsSink.writeMetrics(metricQueryResults);
+        MetricQueryResults metricQueryResults = metricResults.queryMetrics(filter());
+        for (MetricQueryResults batch : toBatches(metricQueryResults)) {
+          write(batch);
         }
-
       } catch (Exception e) {
         MetricsPushException metricsPushException = new MetricsPushException(e);
         metricsPushException.printStackTrace();
@@ -110,6 +166,162 @@ public class MetricsPusher implements Serializable {
     }
   }
 
+  private MetricsFilter filter() {
+    MetricsFilter.Builder filter = MetricsFilter.builder();
+    if (namespaces != null) {
+      for (String namespace : namespaces) {
+        filter.addNameFilter(MetricNameFilter.inNamespace(namespace));
+      }
+    }
+    return filter.build();
+  }
+
+  /**
+   * Splits the metrics to write into batches of at most {@code batchSize} metrics, skipping the
+   * metrics that didn't change since they were last written if {@code onlyChanged} is set.
+   */
+  private List<MetricQueryResults> toBatches(MetricQueryResults metricQueryResults) {
+    if (writtenMetrics == null) {
+      writtenMetrics = new WrittenMetrics();
+    }
+    Batcher batcher = new Batcher();
+    for (MetricResult<Long> counter : metricQueryResults.getCounters()) {
+      if (!onlyChanged || writtenMetrics.counters.hasChanged(counter)) {
+        batcher.counters.add(counter);
+        batcher.added();
+      }
+    }
+    for (MetricResult<DistributionResult> distribution : metricQueryResults.getDistributions()) {
+      if (!onlyChanged || writtenMetrics.distributions.hasChanged(distribution)) {
+        batcher.distributions.add(distribution);
+        batcher.added();
+      }
+    }
+    for (MetricResult<GaugeResult> gauge : metricQueryResults.getGauges()) {
+      if (!onlyChanged || writtenMetrics.gauges.hasChanged(gauge)) {
+        batcher.gauges.add(gauge);
+        batcher.added();
+      }
+    }
+    for (MetricResult<HistogramData> histogram : metricQueryResults.getHistograms()) {
+      if (!onlyChanged || writtenMetrics.histograms.hasChanged(histogram)) {
+        batcher.histograms.add(histogram);
+        batcher.added();
+      }
+    }
+    batcher.flush();
+    return batcher.batches;
+  }
+
+  private void write(MetricQueryResults batch) {
+    if (writer == null) {
+      writer =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("MetricsPusher-writer")
+                  .build(),
+              (task, executor) ->
+                  LOG.warn(
+                      "Dropping metrics, {} writes are already waiting for the sink.",
+                      executor.getQueue().size()));
+    }
+    WrittenMetrics written = writtenMetrics;
+    writer.execute(
+        () -> {
+          try {
+            metricsSink.writeMetrics(batch);
+            // Dropped or failed writes aren't recorded, so that changed metrics are pushed again.
+            written.record(batch);
+          } catch (Exception e) {
+            LOG.warn("Failed to write metrics to the sink.", e);
+          }
+        });
+  }
+
+  /** Waits until the writes queued for the sink are done. */
+  @VisibleForTesting
+  void awaitWrites() throws InterruptedException {
+    while (writer != null && writer.getCompletedTaskCount() < writer.getTaskCount()) {
+      Thread.sleep(10);
+    }
+  }
+
+  /** Splits metrics into {@link MetricQueryResults} of at most {@code batchSize} metrics. */
+  private class Batcher {
+    private final List<MetricQueryResults> batches = new ArrayList<>();
+    private List<MetricResult<Long>> counters = new ArrayList<>();
+    private List<MetricResult<DistributionResult>> distributions = new ArrayList<>();
+    private List<MetricResult<GaugeResult>> gauges = new ArrayList<>();
+    private List<MetricResult<HistogramData>> histograms = new ArrayList<>();
+    private int size = 0;
+
+    private void added() {
+      size++;
+      if (batchSize > 0 && size >= batchSize) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (size == 0) {
+        return;
+      }
+      batches.add(MetricQueryResults.create(counters, distributions, gauges, histograms));
+      counters = new ArrayList<>();
+      distributions = new ArrayList<>();
+      gauges = new ArrayList<>();
+      histograms = new ArrayList<>();
+      size = 0;
+    }
+  }
+
+  /** The last values of the metrics written to the sink. */
+  private static class WrittenMetrics {
+    private final WrittenValues<Long> counters = new WrittenValues<>();
+    private final WrittenValues<DistributionResult> distributions = new WrittenValues<>();
+    // The timestamp of a gauge changes whenever it is set, even to the same value.
+    private final WrittenValues<GaugeResult> gauges = new WrittenValues<>(GaugeResult::getValue);
+    private final WrittenValues<HistogramData> histograms = new WrittenValues<>();
+
+    private void record(MetricQueryResults batch) {
+      counters.record(batch.getCounters());
+      distributions.record(batch.getDistributions());
+      gauges.record(batch.getGauges());
+      histograms.record(batch.getHistograms());
+    }
+  }
+
+  /** The last written values of metrics, as the part of the values compared to detect changes. */
+  private static class WrittenValues<T> {
+    private final Map<MetricKey, Object> values = new ConcurrentHashMap<>();
+    private final Function<T, Object> comparedValue;
+
+    private WrittenValues() {
+      this(value -> value);
+    }
+
+    private WrittenValues(Function<T, Object> comparedValue) {
+      this.comparedValue = comparedValue;
+    }
+
+    private boolean hasChanged(MetricResult<T> result) {
+      return !Objects.equals(
+          values.get(result.getKey()), comparedValue.apply(result.getAttempted()));
+    }
+
+    private void record(Iterable<MetricResult<T>> results) {
+      for (MetricResult<T> result : results) {
+        values.put(result.getKey(), comparedValue.apply(result.getAttempted()));
+      }
+    }
+  }
+
   /** Exception related to MetricsPusher to wrap technical exceptions. */
   public static class MetricsPushException extends Exception {
     MetricsPushException(Throwable cause) {
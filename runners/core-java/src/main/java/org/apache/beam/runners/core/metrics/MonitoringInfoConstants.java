@@ -62,6 +62,8 @@ public final class MonitoringInfoConstants {
         extractUrn(MonitoringInfoSpecs.Enum.API_REQUEST_COUNT);
     public static final String API_REQUEST_LATENCIES =
         extractUrn(MonitoringInfoSpecs.Enum.API_REQUEST_LATENCIES);
+    // User histograms are not part of the MonitoringInfoSpecs of the model yet.
+    public static final String USER_HISTOGRAM_DOUBLE = "beam:metric:user:histogram_double:v1";
 
     static {
       // Validate that compile time constants match the values stored in the protos.
@@ -162,6 +164,8 @@ public final class MonitoringInfoConstants {
     public static final String BOTTOM_N_INT64_TYPE = "beam:metrics:bottom_n_int64:v1";
     public static final String BOTTOM_N_DOUBLE_TYPE = "beam:metrics:bottom_n_double:v1";
     public static final String PROGRESS_TYPE = "beam:metrics:progress:v1";
+    // Histograms are not part of the MonitoringInfoTypeUrns of the model yet.
+    public static final String HISTOGRAM_DOUBLE_TYPE = "beam:metrics:histogram_double:v1";
 
     static {
       // Validate that compile time constants match the values stored in the protos.
@@ -23,6 +23,7 @@ import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.util.ByteStringOutputStream;
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
 import org.joda.time.Instant;
 
@@ -30,6 +31,8 @@ import org.joda.time.Instant;
 public class MonitoringInfoEncodings {
   private static final Coder<Long> VARINT_CODER = VarLongCoder.of();
   private static final Coder<Double> DOUBLE_CODER = DoubleCoder.of();
+  private static final int LINEAR_BUCKETS = 0;
+  private static final int EXPONENTIAL_BUCKETS = 1;
 
   /** Encodes to {@link MonitoringInfoConstants.TypeUrns#DISTRIBUTION_INT64_TYPE}. */
   public static ByteString encodeInt64Distribution(DistributionData data) {
@@ -137,4 +140,82 @@ public class MonitoringInfoEncodings {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Encodes to {@link MonitoringInfoConstants.TypeUrns#HISTOGRAM_DOUBLE_TYPE}.
+   *
+   * <p>The encoding holds the bucket type, the counts of the values below and above the range of
+   * the buckets, and the index and count of each non-empty bucket, so that sparsely populated
+   * histograms with many buckets stay small.
+   */
+  public static ByteString encodeDoubleHistogram(HistogramData data) {
+    ByteStringOutputStream output = new ByteStringOutputStream();
+    try {
+      HistogramData.BucketType bucketType = data.getBucketType();
+      if (bucketType instanceof HistogramData.LinearBuckets) {
+        HistogramData.LinearBuckets linearBuckets = (HistogramData.LinearBuckets) bucketType;
+        output.write(LINEAR_BUCKETS);
+        DOUBLE_CODER.encode(linearBuckets.getStart(), output);
+        DOUBLE_CODER.encode(linearBuckets.getWidth(), output);
+      } else if (bucketType instanceof HistogramData.ExponentialBuckets) {
+        HistogramData.ExponentialBuckets exponentialBuckets =
+            (HistogramData.ExponentialBuckets) bucketType;
+        output.write(EXPONENTIAL_BUCKETS);
+        DOUBLE_CODER.encode(exponentialBuckets.getStart(), output);
+        DOUBLE_CODER.encode(exponentialBuckets.getGrowthFactor(), output);
+      } else {
+        throw new IllegalArgumentException("Unsupported histogram bucket type " + bucketType);
+      }
+      int numBuckets = bucketType.getNumBuckets();
+      VARINT_CODER.encode((long) numBuckets, output);
+      VARINT_CODER.encode(data.getBottomBucketCount(), output);
+      VARINT_CODER.encode(data.getTopBucketCount(), output);
+      // Each non-empty bucket is written as the distance from the previous one and its count,
+      // terminated by a distance of zero.
+      int previousIndex = -1;
+      for (int i = 0; i < numBuckets; i++) {
+        long count = data.getCount(i);
+        if (count != 0) {
+          VARINT_CODER.encode((long) (i - previousIndex), output);
+          VARINT_CODER.encode(count, output);
+          previousIndex = i;
+        }
+      }
+      VARINT_CODER.encode(0L, output);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return output.toByteString();
+  }
+
+  /** Decodes from {@link MonitoringInfoConstants.TypeUrns#HISTOGRAM_DOUBLE_TYPE}. */
+  public static HistogramData decodeDoubleHistogram(ByteString payload) {
+    InputStream input = payload.newInput();
+    try {
+      int bucketTypeId = input.read();
+      double start = DOUBLE_CODER.decode(input);
+      double widthOrGrowthFactor = DOUBLE_CODER.decode(input);
+      int numBuckets = VARINT_CODER.decode(input).intValue();
+      HistogramData data;
+      if (bucketTypeId == LINEAR_BUCKETS) {
+        data = HistogramData.linear(start, widthOrGrowthFactor, numBuckets);
+      } else if (bucketTypeId == EXPONENTIAL_BUCKETS) {
+        data = HistogramData.exponential(start, widthOrGrowthFactor, numBuckets);
+      } else {
+        throw new IllegalArgumentException("Unsupported histogram bucket type " + bucketTypeId);
+      }
+      data.incBottomBucketCount(VARINT_CODER.decode(input));
+      data.incTopBucketCount(VARINT_CODER.decode(input));
+      int index = -1;
+      for (long distance = VARINT_CODER.decode(input);
+          distance != 0;
+          distance = VARINT_CODER.decode(input)) {
+        index += (int) distance;
+        data.incBucketCount(index, VARINT_CODER.decode(input));
+      }
+      return data;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
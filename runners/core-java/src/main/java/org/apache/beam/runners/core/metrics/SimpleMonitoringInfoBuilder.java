@@ -20,6 +20,7 @@ package org.apache.beam.runners.core.metrics;
 import static org.apache.beam.model.pipeline.v1.MetricsApi.monitoringInfoSpec;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleCounter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleDistribution;
+import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleHistogram;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Counter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Distribution;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Gauge;
@@ -30,6 +31,7 @@ import java.util.Map;
 import org.apache.beam.model.pipeline.v1.MetricsApi.MonitoringInfo;
 import org.apache.beam.model.pipeline.v1.MetricsApi.MonitoringInfoSpec;
 import org.apache.beam.model.pipeline.v1.MetricsApi.MonitoringInfoSpecs;
+import org.apache.beam.sdk.util.HistogramData;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
@@ -148,6 +150,16 @@ public class SimpleMonitoringInfoBuilder {
     return this;
   }
 
+  /**
+   * Encodes the value and sets the type to {@link
+   * MonitoringInfoConstants.TypeUrns#HISTOGRAM_DOUBLE_TYPE}.
+   */
+  public SimpleMonitoringInfoBuilder setDoubleHistogramValue(HistogramData data) {
+    this.builder.setPayload(encodeDoubleHistogram(data));
+    this.builder.setType(MonitoringInfoConstants.TypeUrns.HISTOGRAM_DOUBLE_TYPE);
+    return this;
+  }
+
   /** Sets the MonitoringInfo label to the given name and value. */
   public SimpleMonitoringInfoBuilder setLabel(String labelName, String labelValue) {
     this.builder.putLabels(labelName, labelValue);
@@ -21,10 +21,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
@@ -245,4 +251,67 @@ public class MergingActiveWindowSetTest {
     // For then on we are back to the eager case.
     assertEquals(ImmutableSet.of(window(1, 10)), set.readStateAddresses(window(1, 12)));
   }
+
+  @Test
+  public void testIncrementalMergeMatchesFullMerge() throws Exception {
+    Random random = new Random(17);
+    List<Long> instants = new ArrayList<>();
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < 20; i++) {
+        long instant = random.nextInt(2000);
+        instants.add(instant);
+        add(instant);
+      }
+      set.merge(callback);
+      for (IntervalWindow window : set.getActiveAndNewWindows()) {
+        set.ensureWindowIsActive(window);
+      }
+      set.checkInvariants();
+      assertEquals(sessions(instants), set.getActiveAndNewWindows());
+      if (round % 10 == 0) {
+        // Reloading the persisted state rebuilds the index of merged windows.
+        set.persist();
+        set = new MergingActiveWindowSet<>(windowFn, state);
+      }
+    }
+  }
+
+  @Test
+  public void testMergeOnlyTouchesOverlappingWindows() throws Exception {
+    for (long instant = 0; instant < 1000; instant += 15) {
+      add(instant);
+    }
+    set.merge(callback);
+    verifyNoInteractions(callback);
+
+    // Bridge the gap between the windows starting at 105 and 120.
+    add(112);
+    merge(ImmutableList.of(window(105, 10), window(112, 10), window(120, 10)), window(105, 25));
+    assertEquals(66, set.getActiveAndNewWindows().size());
+
+    // Merging again without new windows has nothing to do.
+    @SuppressWarnings("unchecked")
+    ActiveWindowSet.MergeCallback<IntervalWindow> otherCallback =
+        mock(ActiveWindowSet.MergeCallback.class);
+    set.merge(otherCallback);
+    verifyNoInteractions(otherCallback);
+  }
+
+  /** Returns the sessions of the given instants, computed by sorting them. */
+  private Set<IntervalWindow> sessions(List<Long> instants) {
+    List<Long> sorted = new ArrayList<>(instants);
+    Collections.sort(sorted);
+    Set<IntervalWindow> sessions = new HashSet<>();
+    long start = sorted.get(0);
+    long end = start + 10;
+    for (long instant : sorted) {
+      if (instant >= end) {
+        sessions.add(new IntervalWindow(new Instant(start), new Instant(end)));
+        start = instant;
+      }
+      end = Math.max(end, instant + 10);
+    }
+    sessions.add(new IntervalWindow(new Instant(start), new Instant(end)));
+    return sessions;
+  }
 }
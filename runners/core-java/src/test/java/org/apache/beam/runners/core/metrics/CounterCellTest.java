@@ -20,6 +20,11 @@ package org.apache.beam.runners.core.metrics;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.beam.sdk.metrics.MetricName;
 import org.junit.Assert;
 import org.junit.Test;
@@ -52,6 +57,30 @@ public class CounterCellTest {
     assertThat(cell.getDirty().beforeCommit(), equalTo(false));
   }
 
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int j = 0; j < 10_000; j++) {
+                    cell.inc();
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(cell.getCumulative(), equalTo(40_000L));
+    assertThat(cell.getDirty().beforeCommit(), equalTo(true));
+  }
+
   @Test
   public void testEquals() {
     CounterCell counterCell = new CounterCell(MetricName.named("namespace", "name"));
@@ -56,6 +56,20 @@ public class DirtyStateTest {
         is(true));
   }
 
+  @Test
+  public void repeatedChangesDuringCommit() {
+    dirty.afterModification();
+    dirty.afterModification();
+    assertThat(dirty.beforeCommit(), is(true));
+    dirty.afterModification();
+    dirty.afterModification();
+    dirty.afterCommit();
+    assertThat(
+        "Changes after beforeCommit should be dirty after afterCommit",
+        dirty.beforeCommit(),
+        is(true));
+  }
+
   @Test
   public void testEquals() {
     DirtyState dirtyState = new DirtyState();
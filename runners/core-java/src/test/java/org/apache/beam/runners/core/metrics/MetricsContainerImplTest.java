@@ -269,6 +269,63 @@ public class MetricsContainerImplTest {
     assertThat(actualMonitoringInfos, containsInAnyOrder(builder1.build(), builder2.build()));
   }
 
+  @Test
+  public void testMonitoringInfosArePopulatedForUserHistograms() {
+    MetricsContainerImpl testObject = new MetricsContainerImpl("step1");
+    HistogramData.BucketType bucketType = HistogramData.ExponentialBuckets.of(1, 2, 10);
+    HistogramCell c1 = testObject.getHistogram(MetricName.named("ns", "name1"), bucketType);
+    c1.update(5.0);
+    c1.update(100.0);
+
+    HistogramData expected = HistogramData.exponential(1, 2, 10);
+    expected.record(5.0, 100.0);
+    SimpleMonitoringInfoBuilder builder1 = new SimpleMonitoringInfoBuilder();
+    builder1
+        .setUrn(MonitoringInfoConstants.Urns.USER_HISTOGRAM_DOUBLE)
+        .setLabel(MonitoringInfoConstants.Labels.NAMESPACE, "ns")
+        .setLabel(MonitoringInfoConstants.Labels.NAME, "name1")
+        .setLabel(MonitoringInfoConstants.Labels.PTRANSFORM, "step1")
+        .setDoubleHistogramValue(expected);
+
+    ArrayList<MonitoringInfo> actualMonitoringInfos = new ArrayList<MonitoringInfo>();
+    for (MonitoringInfo mi : testObject.getMonitoringInfos()) {
+      actualMonitoringInfos.add(mi);
+    }
+
+    assertThat(actualMonitoringInfos, containsInAnyOrder(builder1.build()));
+
+    // The histogram is restored from its MonitoringInfo.
+    MetricsContainerImpl restored = new MetricsContainerImpl("step1");
+    restored.update(actualMonitoringInfos);
+    assertEquals(
+        expected,
+        restored
+            .getHistogram(
+                MonitoringInfoMetricName.of(actualMonitoringInfos.get(0)), bucketType)
+            .getCumulative());
+    // The restored histogram is reported with the same MonitoringInfo.
+    ArrayList<MonitoringInfo> relayedMonitoringInfos = new ArrayList<MonitoringInfo>();
+    for (MonitoringInfo mi : restored.getMonitoringInfos()) {
+      relayedMonitoringInfos.add(mi);
+    }
+    assertThat(relayedMonitoringInfos, containsInAnyOrder(builder1.build()));
+  }
+
+  @Test
+  public void testMonitoringInfosAreNotPopulatedForSystemHistograms() {
+    MetricsContainerImpl testObject = new MetricsContainerImpl("step1");
+    HashMap<String, String> labels = new HashMap<>();
+    labels.put(MonitoringInfoConstants.Labels.SERVICE, "service");
+    HistogramCell c1 =
+        testObject.getHistogram(
+            MonitoringInfoMetricName.named(
+                MonitoringInfoConstants.Urns.API_REQUEST_LATENCIES, labels),
+            HistogramData.LinearBuckets.of(0, 10, 10));
+    c1.update(5.0);
+
+    assertThat(testObject.getMonitoringInfos(), emptyIterable());
+  }
+
   @Test
   public void testMonitoringInfosArePopulatedForSystemDistributions() {
     MetricsContainerImpl testObject = new MetricsContainerImpl("step1");
@@ -36,10 +36,12 @@ import org.apache.beam.sdk.metrics.Gauge;
 import org.apache.beam.sdk.metrics.GaugeResult;
 import org.apache.beam.sdk.metrics.MetricName;
 import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
 import org.apache.beam.sdk.metrics.MetricResults;
 import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.metrics.MetricsEnvironment;
 import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.util.HistogramData;
 import org.hamcrest.collection.IsIterableWithSize;
 import org.joda.time.Instant;
 import org.junit.Assert;
@@ -132,6 +134,37 @@ public class MetricsContainerStepMapTest {
     assertIterableSize(allres.getGauges(), 2);
   }
 
+  @Test
+  public void testHistogramsAreMergedAcrossContainers() {
+    HistogramData.BucketType bucketType = HistogramData.ExponentialBuckets.of(1, 2, 10);
+    MetricName histogramName = MetricName.named(NAMESPACE, "myHistogram");
+    MetricsContainerImpl container1 = new MetricsContainerImpl(null);
+    container1.getHistogram(histogramName, bucketType).update(5.0);
+    MetricsContainerImpl container2 = new MetricsContainerImpl(null);
+    container2.getHistogram(histogramName, bucketType).update(100.0);
+
+    MetricsContainerStepMap attemptedMetrics = new MetricsContainerStepMap();
+    attemptedMetrics.update(STEP1, container1);
+    attemptedMetrics.update(STEP1, container2);
+    attemptedMetrics.update(STEP2, container2);
+    MetricsContainerStepMap committedMetrics = new MetricsContainerStepMap();
+    committedMetrics.update(STEP1, container1);
+
+    MetricQueryResults step1res =
+        asMetricResults(attemptedMetrics, committedMetrics)
+            .queryMetrics(MetricsFilter.builder().addStep(STEP1).build());
+
+    HistogramData attempted = HistogramData.exponential(1, 2, 10);
+    attempted.record(5.0, 100.0);
+    HistogramData committed = HistogramData.exponential(1, 2, 10);
+    committed.record(5.0);
+    assertIterableSize(step1res.getHistograms(), 1);
+    MetricResult<HistogramData> result = step1res.getHistograms().iterator().next();
+    Assert.assertEquals(histogramName, result.getName());
+    Assert.assertEquals(attempted, result.getAttempted());
+    Assert.assertEquals(committed, result.getCommitted());
+  }
+
   @Test
   public void testCounterCommittedUnsupportedInAttemptedAccumulatedMetricResults() {
     MetricsContainerStepMap attemptedMetrics = new MetricsContainerStepMap();
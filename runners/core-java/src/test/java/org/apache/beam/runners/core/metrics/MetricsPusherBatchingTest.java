@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.metrics.MetricName;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsOptions;
+import org.apache.beam.sdk.metrics.MetricsSink;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests for the filtering and batching of the metrics pushed by {@link MetricsPusher}. */
+@RunWith(JUnit4.class)
+public class MetricsPusherBatchingTest {
+  private static final String STEP = "step";
+
+  /** A sink recording the written metrics, failing the first write if requested. */
+  public static class RecordingMetricsSink implements MetricsSink, AutoCloseable {
+    private static final BlockingQueue<MetricQueryResults> WRITES = new LinkedBlockingQueue<>();
+    private static final AtomicBoolean FAIL_NEXT_WRITE = new AtomicBoolean();
+    private static final AtomicBoolean CLOSED = new AtomicBoolean();
+
+    public RecordingMetricsSink(MetricsOptions pipelineOptions) {}
+
+    @Override
+    public void writeMetrics(MetricQueryResults metricQueryResults) throws Exception {
+      if (FAIL_NEXT_WRITE.getAndSet(false)) {
+        throw new Exception("Failing write");
+      }
+      WRITES.add(metricQueryResults);
+    }
+
+    @Override
+    public void close() {
+      CLOSED.set(true);
+    }
+  }
+
+  private final MetricsContainerStepMap metrics = new MetricsContainerStepMap();
+  private MetricsOptions options;
+
+  @Before
+  public void before() {
+    RecordingMetricsSink.WRITES.clear();
+    RecordingMetricsSink.FAIL_NEXT_WRITE.set(false);
+    RecordingMetricsSink.CLOSED.set(false);
+    options = PipelineOptionsFactory.create().as(MetricsOptions.class);
+    options.setMetricsSink(RecordingMetricsSink.class);
+  }
+
+  private void inc(String namespace, String name, long value) {
+    metrics.getContainer(STEP).getCounter(MetricName.named(namespace, name)).inc(value);
+  }
+
+  private static List<String> counterNames(MetricQueryResults results) {
+    List<String> names = new ArrayList<>();
+    for (MetricResult<Long> counter : results.getCounters()) {
+      names.add(counter.getName().getName());
+    }
+    return names;
+  }
+
+  private static MetricQueryResults nextWrite() throws InterruptedException {
+    return RecordingMetricsSink.WRITES.poll(10, TimeUnit.SECONDS);
+  }
+
+  private static void assertNoMoreWrites() throws InterruptedException {
+    assertNull(RecordingMetricsSink.WRITES.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testPushesAllMetrics() throws Exception {
+    inc("ns", "c1", 1);
+    inc("ns", "c2", 2);
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    pusher.pushMetrics();
+    pusher.pushMetrics();
+
+    assertThat(counterNames(nextWrite()), containsInAnyOrder("c1", "c2"));
+    assertThat(counterNames(nextWrite()), containsInAnyOrder("c1", "c2"));
+    assertNoMoreWrites();
+  }
+
+  @Test
+  public void testPushesOnlyChangedMetrics() throws Exception {
+    options.setMetricsPushOnlyChanged(true);
+    inc("ns", "c1", 1);
+    inc("ns", "c2", 2);
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    pusher.pushMetrics();
+    pusher.awaitWrites();
+    assertThat(counterNames(nextWrite()), containsInAnyOrder("c1", "c2"));
+
+    inc("ns", "c1", 1);
+    pusher.pushMetrics();
+    pusher.awaitWrites();
+    MetricQueryResults changed = nextWrite();
+    assertThat(counterNames(changed), contains("c1"));
+    assertEquals(2L, (long) changed.getCounters().iterator().next().getAttempted());
+
+    pusher.pushMetrics();
+    assertNoMoreWrites();
+  }
+
+  @Test
+  public void testPushesOnlyChangedGaugeValues() throws Exception {
+    options.setMetricsPushOnlyChanged(true);
+    GaugeCell gauge = metrics.getContainer(STEP).getGauge(MetricName.named("ns", "g1"));
+    gauge.update(GaugeData.create(5L, new Instant(1L)));
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    pusher.pushMetrics();
+    pusher.awaitWrites();
+    assertEquals(1, Iterables.size(nextWrite().getGauges()));
+
+    // Setting the gauge to the same value again only moves its timestamp.
+    gauge.update(GaugeData.create(5L, new Instant(2L)));
+    pusher.pushMetrics();
+    assertNoMoreWrites();
+  }
+
+  @Test
+  public void testClosesSinkWhenPipelineTerminates() throws Exception {
+    inc("ns", "c1", 1);
+    PipelineResult pipelineResult = Mockito.mock(PipelineResult.class);
+    when(pipelineResult.getState()).thenReturn(PipelineResult.State.DONE);
+    MetricsPusher pusher = new MetricsPusher(metrics, options, pipelineResult);
+
+    pusher.start();
+
+    assertThat(counterNames(nextWrite()), contains("c1"));
+    for (int i = 0; i < 1000 && !RecordingMetricsSink.CLOSED.get(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(RecordingMetricsSink.CLOSED.get());
+  }
+
+  @Test
+  public void testPushesFailedWritesAgain() throws Exception {
+    options.setMetricsPushOnlyChanged(true);
+    inc("ns", "c1", 1);
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    RecordingMetricsSink.FAIL_NEXT_WRITE.set(true);
+    pusher.pushMetrics();
+    pusher.awaitWrites();
+    assertNoMoreWrites();
+
+    pusher.pushMetrics();
+    assertThat(counterNames(nextWrite()), contains("c1"));
+  }
+
+  @Test
+  public void testPushesOnlyMetricsInNamespaces() throws Exception {
+    options.setMetricsPushNamespaces(Collections.singletonList("pushed"));
+    inc("pushed", "c1", 1);
+    inc("ignored", "c2", 1);
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    pusher.pushMetrics();
+
+    assertThat(counterNames(nextWrite()), contains("c1"));
+    assertNoMoreWrites();
+  }
+
+  @Test
+  public void testPushesMetricsInBatches() throws Exception {
+    options.setMetricsPushBatchSize(2);
+    for (int i = 0; i < 5; i++) {
+      inc("ns", "c" + i, 1);
+    }
+    MetricsPusher pusher = new MetricsPusher(metrics, options, null);
+
+    pusher.pushMetrics();
+
+    List<String> names = new ArrayList<>();
+    for (int expectedSize : new int[] {2, 2, 1}) {
+      List<String> batch = counterNames(nextWrite());
+      assertEquals(expectedSize, batch.size());
+      names.addAll(batch);
+    }
+    assertThat(names, containsInAnyOrder("c0", "c1", "c2", "c3", "c4"));
+    assertNoMoreWrites();
+  }
+}
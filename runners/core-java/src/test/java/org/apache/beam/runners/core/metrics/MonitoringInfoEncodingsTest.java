@@ -18,16 +18,19 @@
 package org.apache.beam.runners.core.metrics;
 
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeDoubleCounter;
+import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeDoubleHistogram;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Counter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Distribution;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.decodeInt64Gauge;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleCounter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleDistribution;
+import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeDoubleHistogram;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Counter;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Distribution;
 import static org.apache.beam.runners.core.metrics.MonitoringInfoEncodings.encodeInt64Gauge;
 import static org.junit.Assert.assertEquals;
 
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
 import org.joda.time.Instant;
 import org.junit.Test;
@@ -77,4 +80,22 @@ public class MonitoringInfoEncodingsTest {
     assertEquals(ByteString.copyFrom(new byte[] {0x3f, (byte) 0xf0, 0, 0, 0, 0, 0, 0}), payload);
     assertEquals(1.0, decodeDoubleCounter(payload), 0.001);
   }
+
+  @Test
+  public void testLinearHistogramEncoding() {
+    HistogramData data = HistogramData.linear(0, 2, 3);
+    data.record(-1, 1, 5, 5, 6);
+    ByteString payload = encodeDoubleHistogram(data);
+    assertEquals(data, decodeDoubleHistogram(payload));
+  }
+
+  @Test
+  public void testExponentialHistogramEncoding() {
+    HistogramData data = HistogramData.exponential(1, 1.1, 200);
+    data.record(0.5, 1, 1000, 1000, 1e9);
+    ByteString payload = encodeDoubleHistogram(data);
+    assertEquals(data, decodeDoubleHistogram(payload));
+    // Only the non-empty buckets are encoded.
+    assertEquals(26, payload.size());
+  }
 }
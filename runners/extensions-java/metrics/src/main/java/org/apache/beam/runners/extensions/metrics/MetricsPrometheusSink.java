@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.extensions.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.GaugeResult;
+import org.apache.beam.sdk.metrics.MetricKey;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsOptions;
+import org.apache.beam.sdk.metrics.MetricsSink;
+import org.apache.beam.sdk.util.HistogramData;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Sink serving the last pushed metrics in the Prometheus text format, on the {@code /metrics}
+ * endpoint of an HTTP server listening on {@link MetricsOptions#getMetricsPrometheusPort()}. No
+ * external service is needed, Prometheus scrapes the endpoint directly.
+ *
+ * <p>The Prometheus metric name is in the form of metricNamespace_metricName, with the characters
+ * not allowed by Prometheus replaced by underscores, and the step is reported in a {@code step}
+ * label. Counters and gauges are reported as such, distributions as summaries with the minimum and
+ * maximum as the 0 and 1 quantiles, and histograms as histograms with an approximate sum. Only
+ * attempted values are reported. A metric whose Prometheus names collide with a metric of another
+ * type is not reported.
+ *
+ * <p>The server starts with the first write and keeps serving the last values until the sink is
+ * closed. The metrics pusher closes it once the final values of the pipeline are written, which
+ * frees the port for the next pipeline run in the same JVM.
+ */
+@SuppressWarnings({
+  "nullness" // TODO(https://github.com/apache/beam/issues/20497)
+})
+public class MetricsPrometheusSink implements MetricsSink, AutoCloseable {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final Pattern INVALID_NAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_:]");
+  private final int port;
+  private final Map<MetricKey, MetricResult<Long>> counters = new ConcurrentHashMap<>();
+  private final Map<MetricKey, MetricResult<DistributionResult>> distributions =
+      new ConcurrentHashMap<>();
+  private final Map<MetricKey, MetricResult<GaugeResult>> gauges = new ConcurrentHashMap<>();
+  private final Map<MetricKey, MetricResult<HistogramData>> histograms = new ConcurrentHashMap<>();
+  private transient HttpServer server;
+
+  public MetricsPrometheusSink(MetricsOptions pipelineOptions) {
+    this.port = pipelineOptions.getMetricsPrometheusPort();
+  }
+
+  /**
+   * Updates the served values of the metrics in metricQueryResults. The values of the metrics that
+   * are not in metricQueryResults are kept, so that the sink can be used with pushes of only the
+   * changed metrics.
+   */
+  @Override
+  public void writeMetrics(MetricQueryResults metricQueryResults) throws Exception {
+    startServer();
+    for (MetricResult<Long> counter : metricQueryResults.getCounters()) {
+      counters.put(counter.getKey(), counter);
+    }
+    for (MetricResult<DistributionResult> distribution : metricQueryResults.getDistributions()) {
+      distributions.put(distribution.getKey(), distribution);
+    }
+    for (MetricResult<GaugeResult> gauge : metricQueryResults.getGauges()) {
+      gauges.put(gauge.getKey(), gauge);
+    }
+    for (MetricResult<HistogramData> histogram : metricQueryResults.getHistograms()) {
+      histograms.put(histogram.getKey(), histogram);
+    }
+  }
+
+  private synchronized void startServer() throws IOException {
+    if (server == null) {
+      // The server threads inherit the daemon status of the thread writing the metrics, which is a
+      // daemon thread in MetricsPusher, so that the server doesn't keep the JVM alive.
+      server = HttpServer.create(new InetSocketAddress(port), 0);
+      server.createContext("/metrics", this::handle);
+      server.start();
+    }
+  }
+
+  /** Returns the port the server listens on, once started. */
+  synchronized int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] response = render().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(response);
+    }
+  }
+
+  /** Renders the served metrics in the Prometheus text format. */
+  String render() {
+    Families families = new Families();
+    for (MetricResult<Long> counter : counters.values()) {
+      String name = name(counter.getKey());
+      String labels = labels(counter.getKey());
+      StringBuilder family = families.family(name, "counter", "");
+      if (family != null) {
+        sample(family, name, labels, counter.getAttempted());
+      }
+    }
+    for (MetricResult<GaugeResult> gauge : gauges.values()) {
+      String name = name(gauge.getKey());
+      String labels = labels(gauge.getKey());
+      StringBuilder family = families.family(name, "gauge", "");
+      if (family != null) {
+        sample(family, name, labels, gauge.getAttempted().getValue());
+      }
+    }
+    for (MetricResult<DistributionResult> distribution : distributions.values()) {
+      String name = name(distribution.getKey());
+      String labels = labels(distribution.getKey());
+      DistributionResult value = distribution.getAttempted();
+      StringBuilder family = families.family(name, "summary", "", "_sum", "_count");
+      if (family != null) {
+        // The minimum and maximum are the 0 and 1 quantiles of the summary.
+        sample(family, name, withLabel(labels, "quantile", "0"), value.getMin());
+        sample(family, name, withLabel(labels, "quantile", "1"), value.getMax());
+        sample(family, name + "_sum", labels, value.getSum());
+        sample(family, name + "_count", labels, value.getCount());
+      }
+    }
+    for (MetricResult<HistogramData> histogram : histograms.values()) {
+      String name = name(histogram.getKey());
+      String labels = labels(histogram.getKey());
+      StringBuilder family = families.family(name, "histogram", "", "_bucket", "_sum", "_count");
+      if (family != null) {
+        histogram(family, name, labels, histogram.getAttempted());
+      }
+    }
+    return families.toString();
+  }
+
+  private static void histogram(
+      StringBuilder family, String name, String labels, HistogramData value) {
+    HistogramData.BucketType bucketType = value.getBucketType();
+    double rangeFrom = bucketType.getRangeFrom();
+    // Prometheus buckets are cumulative, the values below the range fall in the first one.
+    long count = value.getBottomBucketCount();
+    // The recorded values aren't kept, their sum is approximated by placing the values of each
+    // bucket at its middle, and the values out of the range at its bounds.
+    double sum = count * rangeFrom;
+    sample(family, name + "_bucket", withLabel(labels, "le", Double.toString(rangeFrom)), count);
+    for (int i = 0; i < bucketType.getNumBuckets(); i++) {
+      long bucketCount = value.getCount(i);
+      double lowerBound = rangeFrom + bucketType.getAccumulatedBucketSize(i);
+      sum += bucketCount * (lowerBound + bucketType.getBucketSize(i) / 2);
+      count += bucketCount;
+      double upperBound = rangeFrom + bucketType.getAccumulatedBucketSize(i + 1);
+      sample(family, name + "_bucket", withLabel(labels, "le", Double.toString(upperBound)), count);
+    }
+    sum += value.getTopBucketCount() * bucketType.getRangeTo();
+    count += value.getTopBucketCount();
+    sample(family, name + "_bucket", withLabel(labels, "le", "+Inf"), count);
+    sample(family, name + "_sum", labels, sum);
+    sample(family, name + "_count", labels, count);
+  }
+
+  /**
+   * The metric families to render, by name. The samples of a metric must be grouped after its TYPE
+   * line, and the sample names of a family must not be used by another family.
+   */
+  private static class Families {
+    private final Map<String, StringBuilder> families = new TreeMap<>();
+    /** The family, as its name and type, of each sample name. */
+    private final Map<String, String> sampleFamilies = new HashMap<>();
+
+    /**
+     * Returns the family with the given name and type, or null if it collides with a family of
+     * another type, in which case the metric is not rendered.
+     */
+    private @Nullable StringBuilder family(String name, String type, String... sampleSuffixes) {
+      String nameAndType = name + " " + type;
+      for (String suffix : sampleSuffixes) {
+        String sampleFamily = sampleFamilies.get(name + suffix);
+        if (sampleFamily != null && !sampleFamily.equals(nameAndType)) {
+          return null;
+        }
+      }
+      for (String suffix : sampleSuffixes) {
+        sampleFamilies.put(name + suffix, nameAndType);
+      }
+      return families.computeIfAbsent(
+          name, n -> new StringBuilder("# TYPE ").append(nameAndType).append('\n'));
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder output = new StringBuilder();
+      families.values().forEach(output::append);
+      return output.toString();
+    }
+  }
+
+  private static void sample(StringBuilder family, String name, String labels, long value) {
+    family.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static void sample(StringBuilder family, String name, String labels, double value) {
+    family.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String withLabel(String labels, String label, String value) {
+    String added = label + "=\"" + value + "\"";
+    return labels.isEmpty()
+        ? "{" + added + "}"
+        : labels.substring(0, labels.length() - 1) + "," + added + "}";
+  }
+
+  private static String name(MetricKey key) {
+    String name =
+        INVALID_NAME_CHARACTERS
+            .matcher(key.metricName().getNamespace() + "_" + key.metricName().getName())
+            .replaceAll("_");
+    return Character.isDigit(name.charAt(0)) ? "_" + name : name;
+  }
+
+  private static String labels(MetricKey key) {
+    String step = key.stepName();
+    if (step == null || step.isEmpty()) {
+      return "";
+    }
+    String escaped = step.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    return "{step=\"" + escaped + "\"}";
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.extensions.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.MetricKey;
+import org.apache.beam.sdk.metrics.MetricName;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.util.HistogramData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for MetricsPrometheusSink. */
+public class MetricsPrometheusSinkTest {
+  private MetricsPrometheusSink sink;
+
+  @Before
+  public void before() {
+    MetricsOptions pipelineOptions = PipelineOptionsFactory.create().as(MetricsOptions.class);
+    pipelineOptions.setMetricsPrometheusPort(0);
+    sink = new MetricsPrometheusSink(pipelineOptions);
+  }
+
+  @After
+  public void after() {
+    sink.close();
+  }
+
+  @Test
+  public void testServesMetrics() throws Exception {
+    sink.writeMetrics(new CustomMetricQueryResults(false));
+
+    HttpURLConnection connection =
+        (HttpURLConnection)
+            new URL(String.format("http://localhost:%s/metrics", sink.getPort())).openConnection();
+    StringBuilder response = new StringBuilder();
+    try (BufferedReader in =
+        new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        response.append(line).append('\n');
+      }
+    }
+    String expected =
+        "# TYPE ns1_n1 counter\n"
+            + "ns1_n1{step=\"s1\"} 20\n"
+            + "# TYPE ns1_n2 summary\n"
+            + "ns1_n2{step=\"s2\",quantile=\"0\"} 3\n"
+            + "ns1_n2{step=\"s2\",quantile=\"1\"} 9\n"
+            + "ns1_n2_sum{step=\"s2\"} 25\n"
+            + "ns1_n2_count{step=\"s2\"} 4\n"
+            + "# TYPE ns1_n3 gauge\n"
+            + "ns1_n3{step=\"s3\"} 120\n";
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    assertEquals("text/plain; version=0.0.4; charset=utf-8", connection.getContentType());
+    assertEquals(expected, response.toString());
+  }
+
+  @Test
+  public void testKeepsMetricsMissingFromLaterWrites() throws Exception {
+    sink.writeMetrics(new CustomMetricQueryResults(false));
+    MetricKey key = MetricKey.create("s1", MetricName.named("ns1", "n1"));
+    sink.writeMetrics(
+        MetricQueryResults.create(
+            Collections.singletonList(MetricResult.attempted(key, 30L)),
+            Collections.emptyList(),
+            Collections.emptyList()));
+
+    String rendered = sink.render();
+    assertTrue(rendered.contains("ns1_n1{step=\"s1\"} 30\n"));
+    assertTrue(rendered.contains("ns1_n3{step=\"s3\"} 120\n"));
+  }
+
+  @Test
+  public void testRendersHistograms() throws Exception {
+    HistogramData histogram = HistogramData.exponential(1, 2, 2);
+    histogram.record(0.5, 1, 2, 3, 10);
+    MetricKey key = MetricKey.create("my \"step\"", MetricName.named("my.namespace", "latency"));
+    sink.writeMetrics(
+        MetricQueryResults.create(
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.emptyList(),
+            Collections.singletonList(MetricResult.attempted(key, histogram))));
+
+    String expected =
+        "# TYPE my_namespace_latency histogram\n"
+            + "my_namespace_latency_bucket{step=\"my \\\"step\\\"\",le=\"1.0\"} 1\n"
+            + "my_namespace_latency_bucket{step=\"my \\\"step\\\"\",le=\"2.0\"} 2\n"
+            + "my_namespace_latency_bucket{step=\"my \\\"step\\\"\",le=\"4.0\"} 4\n"
+            + "my_namespace_latency_bucket{step=\"my \\\"step\\\"\",le=\"+Inf\"} 5\n"
+            + "my_namespace_latency_sum{step=\"my \\\"step\\\"\"} 12.5\n"
+            + "my_namespace_latency_count{step=\"my \\\"step\\\"\"} 5\n";
+    assertEquals(expected, sink.render());
+  }
+
+  @Test
+  public void testSkipsCollidingMetrics() throws Exception {
+    MetricKey counterKey = MetricKey.create("s1", MetricName.named("ns1", "x_count"));
+    MetricKey minCounterKey = MetricKey.create("s1", MetricName.named("ns1", "x_min"));
+    MetricKey distributionKey = MetricKey.create("s1", MetricName.named("ns1", "x"));
+    sink.writeMetrics(
+        MetricQueryResults.create(
+            Arrays.asList(
+                MetricResult.attempted(counterKey, 1L), MetricResult.attempted(minCounterKey, 2L)),
+            Collections.singletonList(
+                MetricResult.attempted(distributionKey, DistributionResult.create(3, 1, 3, 3))),
+            Collections.emptyList()));
+
+    // The count of the distribution ns1_x would be a sample of the counter ns1_x_count.
+    String expected =
+        "# TYPE ns1_x_count counter\n"
+            + "ns1_x_count{step=\"s1\"} 1\n"
+            + "# TYPE ns1_x_min counter\n"
+            + "ns1_x_min{step=\"s1\"} 2\n";
+    assertEquals(expected, sink.render());
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker.jmh;
+
+import java.util.Collection;
+import org.apache.beam.runners.core.ActiveWindowSet;
+import org.apache.beam.runners.core.InMemoryStateInternals;
+import org.apache.beam.runners.core.MergingActiveWindowSet;
+import org.apache.beam.runners.core.StateInternals;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.MergeOverlappingIntervalWindows;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.apache.beam.sdk.transforms.windowing.WindowMappingFn;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks merging new session windows into a {@link MergingActiveWindowSet} for a key which
+ * already has many active windows, comparing {@link Sessions}, which only merges the windows
+ * overlapping the new ones, with a window fn which merges all windows of the key. As in a work
+ * item, each iteration reads the set from state, merges once and persists it.
+ */
+public class MergingActiveWindowSetBenchmark {
+  private static final Duration GAP = Duration.millis(10);
+
+  @State(Scope.Thread)
+  public static class ActiveWindows {
+    @Param({"100", "1000", "10000"})
+    public int numWindows = 100;
+
+    @Param({"sessions", "fullMerge"})
+    public String windowFn = "sessions";
+
+    WindowFn<Object, IntervalWindow> fn;
+    StateInternals state;
+    long next;
+
+    @Setup
+    public void setup() {
+      fn =
+          "sessions".equals(windowFn)
+              ? Sessions.withGapDuration(GAP)
+              : new FullMergeSessions(Sessions.withGapDuration(GAP));
+      state = InMemoryStateInternals.forKey("key");
+      MergingActiveWindowSet<IntervalWindow> set = new MergingActiveWindowSet<>(fn, state);
+      for (int i = 0; i < numWindows; i++) {
+        set.ensureWindowExists(window(i));
+        set.ensureWindowIsActive(window(i));
+      }
+      set.persist();
+      next = numWindows;
+    }
+  }
+
+  /**
+   * Reads the active windows of the key, adds a new session made of two overlapping windows, merges
+   * it, closes the oldest session and persists the windows.
+   */
+  @Benchmark
+  public void mergeNewWindows(ActiveWindows windows, Blackhole bh) throws Exception {
+    MergingActiveWindowSet<IntervalWindow> set =
+        new MergingActiveWindowSet<>(windows.fn, windows.state);
+    long session = windows.next++;
+    IntervalWindow window = window(session);
+    set.ensureWindowExists(window);
+    set.ensureWindowExists(new IntervalWindow(window.start().plus(1), window.end()));
+    set.merge(new ConsumingCallback(bh));
+    set.ensureWindowIsActive(window);
+    // Close the oldest session to keep the number of windows constant.
+    set.remove(window(session - windows.numWindows));
+    set.persist();
+  }
+
+  /** Returns the window of the session with the given index, disjoint from the others. */
+  private static IntervalWindow window(long session) {
+    return new IntervalWindow(new Instant(session * 100), GAP);
+  }
+
+  /** A merge callback consuming the merged windows. */
+  private static class ConsumingCallback implements ActiveWindowSet.MergeCallback<IntervalWindow> {
+    private final Blackhole bh;
+
+    ConsumingCallback(Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void prefetchOnMerge(Collection<IntervalWindow> toBeMerged, IntervalWindow result) {}
+
+    @Override
+    public void onMerge(Collection<IntervalWindow> toBeMerged, IntervalWindow result) {
+      bh.consume(toBeMerged);
+      bh.consume(result);
+    }
+  }
+
+  /** {@link Sessions} which the active window set can't merge incrementally. */
+  private static class FullMergeSessions extends WindowFn<Object, IntervalWindow> {
+    private final Sessions sessions;
+
+    FullMergeSessions(Sessions sessions) {
+      this.sessions = sessions;
+    }
+
+    @Override
+    public Collection<IntervalWindow> assignWindows(AssignContext c) {
+      throw new UnsupportedOperationException("Windows are not assigned by the benchmark");
+    }
+
+    @Override
+    public void mergeWindows(MergeContext c) throws Exception {
+      MergeOverlappingIntervalWindows.mergeWindows(c);
+    }
+
+    @Override
+    public boolean isCompatible(WindowFn<?, ?> other) {
+      return other instanceof FullMergeSessions;
+    }
+
+    @Override
+    public Coder<IntervalWindow> windowCoder() {
+      return sessions.windowCoder();
+    }
+
+    @Override
+    public WindowMappingFn<IntervalWindow> getDefaultWindowMappingFn() {
+      return sessions.getDefaultWindowMappingFn();
+    }
+  }
+}
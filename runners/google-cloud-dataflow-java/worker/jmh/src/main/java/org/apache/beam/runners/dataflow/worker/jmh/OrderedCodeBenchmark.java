@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker.jmh;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.beam.runners.dataflow.worker.OrderedCode;
+import org.apache.beam.runners.dataflow.worker.OrderedCodeDecoder;
+import org.apache.beam.runners.dataflow.worker.OrderedCodeEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks comparing {@link OrderedCode} with {@link OrderedCodeEncoder} and {@link
+ * OrderedCodeDecoder} for keys made of a string followed by numbers.
+ */
+public class OrderedCodeBenchmark {
+  private static final int KEYS = 1_000;
+
+  @State(Scope.Thread)
+  public static class Keys {
+    @Param({"heap", "direct"})
+    public String bufferType = "heap";
+
+    final String[] strings = new String[KEYS];
+    final long[] numbers = new long[KEYS];
+    final byte[][] encodedKeys = new byte[KEYS][];
+    OrderedCodeEncoder encoder;
+
+    @Setup
+    public void setup() {
+      for (int i = 0; i < KEYS; i++) {
+        strings[i] = "user/" + i + "/session\u0000" + (i * 31);
+        numbers[i] = i % 2 == 0 ? i * 1_000_003L : -i * 7_919L;
+        OrderedCode orderedCode = new OrderedCode();
+        orderedCode.writeBytes(strings[i].getBytes(StandardCharsets.UTF_8));
+        orderedCode.writeSignedNumIncreasing(numbers[i]);
+        orderedCode.writeNumIncreasing(i);
+        encodedKeys[i] = orderedCode.getEncodedBytes();
+      }
+      encoder = OrderedCodeEncoder.growable(64, "direct".equals(bufferType));
+    }
+  }
+
+  @Benchmark
+  public void encodeOrderedCode(Keys keys, Blackhole bh) {
+    for (int i = 0; i < KEYS; i++) {
+      OrderedCode orderedCode = new OrderedCode();
+      orderedCode.writeBytes(keys.strings[i].getBytes(StandardCharsets.UTF_8));
+      orderedCode.writeSignedNumIncreasing(keys.numbers[i]);
+      orderedCode.writeNumIncreasing(i);
+      bh.consume(orderedCode.getEncodedBytes());
+    }
+  }
+
+  @Benchmark
+  public void encodeOrderedCodeEncoder(Keys keys, Blackhole bh) {
+    OrderedCodeEncoder encoder = keys.encoder;
+    for (int i = 0; i < KEYS; i++) {
+      encoder.reset();
+      encoder.writeUtf8(keys.strings[i]);
+      encoder.writeSignedNumIncreasing(keys.numbers[i]);
+      encoder.writeNumIncreasing(i);
+      bh.consume(encoder.getEncodedBuffer());
+    }
+  }
+
+  @Benchmark
+  public void decodeOrderedCode(Keys keys, Blackhole bh) {
+    for (int i = 0; i < KEYS; i++) {
+      OrderedCode orderedCode = new OrderedCode(keys.encodedKeys[i]);
+      bh.consume(orderedCode.readBytes());
+      bh.consume(orderedCode.readSignedNumIncreasing());
+      bh.consume(orderedCode.readNumIncreasing());
+    }
+  }
+
+  @Benchmark
+  public void decodeOrderedCodeDecoder(Keys keys, Blackhole bh) {
+    for (int i = 0; i < KEYS; i++) {
+      OrderedCodeDecoder decoder = new OrderedCodeDecoder(keys.encodedKeys[i]);
+      bh.consume(decoder.readBytes());
+      bh.consume(decoder.readSignedNumIncreasing());
+      bh.consume(decoder.readNumIncreasing());
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import org.apache.beam.runners.dataflow.worker.WindmillStateReader.StateTag;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.Cache;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.CacheBuilder;
+
+/**
+ * Process-wide estimate of the encoded size of bags, used by {@link WindmillStateReader} to choose
+ * the {@code fetch_max_bytes} of bag reads instead of the fixed {@link
+ * WindmillStateReader#INITIAL_MAX_BAG_BYTES} and {@link
+ * WindmillStateReader#CONTINUATION_MAX_BAG_BYTES}.
+ *
+ * <p>Bags which were previously read in full are requested with a first page large enough to hold
+ * them, avoiding continuation round trips for bags slightly larger than the default first page, and
+ * avoiding over-fetching for bags which are known to be small. Bags which were truncated by the
+ * first page grow the estimate so that subsequent reads request larger pages.
+ *
+ * <p>This class is thread-safe.
+ */
+class BagFetchSizeEstimator {
+  /** Lower bound on the bytes requested for the first page of a bag. */
+  @VisibleForTesting static final long MIN_INITIAL_FETCH_BYTES = 1L << 20; // 1MB
+
+  // Number of tags for which observed sizes are retained.
+  private static final long MAX_TRACKED_TAGS = 100_000;
+
+  private final Cache<StateTag<?>, Long> observedBytes =
+      CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_TAGS).concurrencyLevel(4).build();
+
+  /** Returns the {@code fetch_max_bytes} to use when requesting the first page of a bag. */
+  public long initialFetchBytes(StateTag<?> stateTag) {
+    Long observed = observedBytes.getIfPresent(positionless(stateTag));
+    if (observed == null) {
+      return WindmillStateReader.INITIAL_MAX_BAG_BYTES;
+    }
+    return clamp(
+        withHeadroom(observed),
+        MIN_INITIAL_FETCH_BYTES,
+        WindmillStateReader.CONTINUATION_MAX_BAG_BYTES);
+  }
+
+  /** Returns the {@code fetch_max_bytes} to use when requesting a continuation page of a bag. */
+  public long continuationFetchBytes(StateTag<?> stateTag) {
+    Long observed = observedBytes.getIfPresent(positionless(stateTag));
+    if (observed == null) {
+      return WindmillStateReader.CONTINUATION_MAX_BAG_BYTES;
+    }
+    return clamp(
+        withHeadroom(observed),
+        WindmillStateReader.INITIAL_MAX_BAG_BYTES,
+        WindmillStateReader.CONTINUATION_MAX_BAG_BYTES);
+  }
+
+  /** Records that the complete contents of the bag were read and totalled {@code bytes}. */
+  public void recordCompleteRead(StateTag<?> stateTag, long bytes) {
+    // Exponentially weighted so that a single outlier does not dominate future requests.
+    observedBytes
+        .asMap()
+        .merge(positionless(stateTag), bytes, (previous, latest) -> (3 * previous + latest) / 4);
+  }
+
+  /**
+   * Records that the first page of the bag held {@code bytes} but the bag was larger than that
+   * page.
+   */
+  public void recordTruncatedRead(StateTag<?> stateTag, long bytes) {
+    // The bag is at least this large, so grow the estimate if it was smaller.
+    observedBytes.asMap().merge(positionless(stateTag), bytes, Math::max);
+  }
+
+  private static long withHeadroom(long bytes) {
+    return bytes + bytes / 4;
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static StateTag<?> positionless(StateTag<?> stateTag) {
+    return stateTag.getRequestPosition() == null
+        ? stateTag
+        : StateTag.of(stateTag.getKind(), stateTag.getTag(), stateTag.getStateFamily());
+  }
+}
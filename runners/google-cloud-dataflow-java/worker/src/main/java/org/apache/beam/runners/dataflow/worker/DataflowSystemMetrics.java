@@ -36,6 +36,8 @@ public class DataflowSystemMetrics {
     WINDMILL_STATE_BYTES_READ("WindmillStateBytesRead"),
     WINDMILL_STATE_BYTES_WRITTEN("WindmillStateBytesWritten"),
     WINDMILL_MAX_WORK_ITEM_COMMIT_BYTES("WindmillMaxWorkItemCommitBytes"),
+    WINDMILL_COMMIT_QUEUE_MSECS("dataflow_streaming_engine_commit_queue_msecs"),
+    WINDMILL_MAX_COMMIT_QUEUE_MSECS("dataflow_streaming_engine_max_commit_queue_msecs"),
     JAVA_HARNESS_USED_MEMORY("dataflow_java_harness_used_memory"),
     JAVA_HARNESS_MAX_MEMORY("dataflow_java_harness_max_memory"),
     JAVA_HARNESS_RESTARTS("dataflow_java_harness_restarts"),
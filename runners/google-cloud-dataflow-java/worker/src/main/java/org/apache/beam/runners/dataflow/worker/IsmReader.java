@@ -108,6 +108,15 @@ public abstract class IsmReader<V> extends NativeReader<WindowedValue<IsmRecord<
   public abstract IsmPrefixReaderIterator overKeyComponents(
       List<?> keyComponents, int shardId, RandomAccessData keyBytes) throws IOException;
 
+  /**
+   * Hints that records having any of the given lists of key components as a prefix are about to be
+   * read, allowing the reader to load the data blocks containing them together.
+   *
+   * <p>Key component lists with less than the required number of shard key components are ignored.
+   * The default implementation does nothing.
+   */
+  public void prefetch(List<? extends List<?>> keyComponentsList) throws IOException {}
+
   /** Returns whether this ISM reader has been initialized. */
   public abstract boolean isInitialized();
 
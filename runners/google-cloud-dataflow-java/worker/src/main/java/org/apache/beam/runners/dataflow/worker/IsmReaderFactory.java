@@ -40,6 +40,7 @@ import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.util.WindowedValue.WindowedValueCoder;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.MoreObjects;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableMap;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableSortedMap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
@@ -130,6 +131,13 @@ public class IsmReaderFactory implements ReaderFactory {
                         .<IsmReaderImpl.IsmShardKey,
                             WeightedValue<
                                 NavigableMap<RandomAccessData, WindowedValue<IsmRecord<V>>>>>
+                            getDataCache(),
+                    // Index blocks share the worker-wide data cache with the data blocks, keyed
+                    // by file and offset, so that they outlive any single reader.
+                    execContext
+                        .<IsmReaderImpl.IsmIndexKey,
+                            WeightedValue<
+                                ImmutableSortedMap<RandomAccessData, IsmReaderImpl.IsmShardKey>>>
                             getDataCache()));
   }
 
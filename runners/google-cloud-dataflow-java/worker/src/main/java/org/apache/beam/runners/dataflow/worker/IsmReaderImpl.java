@@ -40,8 +40,10 @@ import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.beam.runners.dataflow.internal.IsmFormat;
 import org.apache.beam.runners.dataflow.internal.IsmFormat.Footer;
@@ -94,6 +96,12 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
 
   static final int MAX_SHARD_INDEX_AND_FOOTER_SIZE = 1024 * 1024;
 
+  /**
+   * The approximate heap size of a decoded index entry excluding its key bytes, accounting for the
+   * {@link IsmShardKey}, the {@link RandomAccessData} key and its array header and the map entry.
+   */
+  static final int INDEX_ENTRY_OVERHEAD_BYTES = 128;
+
   private final ResourceId resourceId;
   private final IsmRecordCoder<V> coder;
 
@@ -125,6 +133,15 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
           IsmShardKey, WeightedValue<NavigableMap<RandomAccessData, WindowedValue<IsmRecord<V>>>>>
       cache;
 
+  /**
+   * A cache instance which if set on this reader is used to share the decoded index blocks of each
+   * shard with other readers of the same file, such as readers re-created after a previous reader
+   * for the file was garbage collected.
+   */
+  private final @Nullable Cache<
+          IsmIndexKey, WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>>>
+      indexCache;
+
   /**
    * Produces a reader for the specified {@code resourceId} and {@code coder}. See {@link IsmFormat}
    * for encoded format details.
@@ -134,11 +151,27 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
       IsmRecordCoder<V> coder,
       Cache<IsmShardKey, WeightedValue<NavigableMap<RandomAccessData, WindowedValue<IsmRecord<V>>>>>
           cache) {
+    this(resourceId, coder, cache, null);
+  }
+
+  /**
+   * Produces a reader for the specified {@code resourceId} and {@code coder} which shares the index
+   * blocks it reads through {@code indexCache}. See {@link IsmFormat} for encoded format details.
+   */
+  IsmReaderImpl(
+      final ResourceId resourceId,
+      IsmRecordCoder<V> coder,
+      Cache<IsmShardKey, WeightedValue<NavigableMap<RandomAccessData, WindowedValue<IsmRecord<V>>>>>
+          cache,
+      @Nullable
+          Cache<IsmIndexKey, WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>>>
+              indexCache) {
     checkNotNull(cache);
     IsmFormat.validateCoderIsCompatible(coder);
     this.resourceId = resourceId;
     this.coder = coder;
     this.cache = cache;
+    this.indexCache = indexCache;
   }
 
   @Override
@@ -234,6 +267,67 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
     return footer.getNumberOfKeys() == 0;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The data blocks which may contain any of the key prefixes and are not already cached are
+   * read in increasing offset order over a single channel, so that nearby blocks are read through
+   * instead of each requiring a separate seek.
+   */
+  @Override
+  public void prefetch(List<? extends List<?>> keyComponentsList) throws IOException {
+    if (keyComponentsList.isEmpty()) {
+      return;
+    }
+    SideInputReadCounter readCounter = IsmReader.getCurrentSideInputCounter();
+    Optional<SeekableByteChannel> inChannel =
+        initializeFooterAndShardIndex(Optional.<SeekableByteChannel>absent(), readCounter);
+    try {
+      if (footer.getNumberOfKeys() == 0) {
+        return;
+      }
+
+      // Find the blocks which may contain each key prefix, ordered by their position in the file.
+      NavigableMap<Long, IsmShardKey> blocksToRead = new TreeMap<>();
+      for (List<?> keyComponents : keyComponentsList) {
+        if (keyComponents.size() < coder.getNumberOfShardKeyCoders(keyComponents)) {
+          continue;
+        }
+        RandomAccessData keyBytes = new RandomAccessData();
+        int shardId = coder.encodeAndHash(keyComponents, keyBytes);
+        if (!shardIdToShardMap.containsKey(shardId)) {
+          continue;
+        }
+        inChannel = initializeForKeyedRead(shardId, inChannel, readCounter);
+        if (!bloomFilterMightContain(keyBytes)) {
+          continue;
+        }
+        NavigableMap<RandomAccessData, IsmShardKey> indexInShard = indexPerShard.get(shardId);
+        for (IsmShardKey block :
+            indexInShard.subMap(indexInShard.floorKey(keyBytes), keyBytes.increment()).values()) {
+          if (cache.getIfPresent(block) == null) {
+            blocksToRead.put(block.startOffset, block);
+          }
+        }
+      }
+      if (blocksToRead.isEmpty()) {
+        return;
+      }
+
+      SeekableByteChannel rawChannel = openIfNeeded(inChannel);
+      inChannel = Optional.of(rawChannel);
+      try (Closeable readerCloseable = IsmReader.setSideInputReadContext(readCounter)) {
+        for (IsmShardKey block : blocksToRead.values()) {
+          cache.get(block, () -> new IsmCacheLoader(block).call(rawChannel));
+        }
+      } catch (ExecutionException e) {
+        throw new IOException("Failed to prefetch data blocks for resourceId: " + resourceId, e);
+      }
+    } finally {
+      closeIfPresent(inChannel);
+    }
+  }
+
   @Override
   public ResourceId getResourceId() {
     return resourceId;
@@ -492,6 +586,39 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
     }
   }
 
+  /** A unique key used to describe the index block of an Ism shard. */
+  static final class IsmIndexKey {
+    private final String resourceId;
+    private final long indexOffset;
+
+    IsmIndexKey(String resourceId, long indexOffset) {
+      this.resourceId = resourceId;
+      this.indexOffset = indexOffset;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(IsmIndexKey.class)
+          .add("resource id", resourceId)
+          .add("indexOffset", indexOffset)
+          .toString();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof IsmIndexKey)) {
+        return false;
+      }
+      IsmIndexKey key = (IsmIndexKey) obj;
+      return indexOffset == key.indexOffset && Objects.equals(resourceId, key.resourceId);
+    }
+
+    @Override
+    public int hashCode() {
+      return resourceId.hashCode() * 31 + Longs.hashCode(indexOffset);
+    }
+  }
+
   /**
    * Initializes the footer, shard index, Bloom filter and index for the requested shard id if they
    * have not been initialized yet. Re-uses the provided channel, returning it or a new one if this
@@ -550,12 +677,23 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
               startOfNextBlock,
               resourceId);
 
+          final long endOfIndex = startOfNextBlock;
+          Callable<WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>>> loader =
+              () -> {
+                SeekableByteChannel rawChannel =
+                    openIfNeeded(Optional.fromNullable(rawChannelReference.get()));
+                rawChannelReference.set(rawChannel);
+                return readIndexBlockForShard(resourceId, shardWithIndex, endOfIndex, rawChannel);
+              };
           try {
-            SeekableByteChannel rawChannel =
-                openIfNeeded(Optional.fromNullable(rawChannelReference.get()));
-            rawChannelReference.set(rawChannel);
-            return readIndexBlockForShard(resourceId, shardWithIndex, startOfNextBlock, rawChannel);
-          } catch (IOException e) {
+            if (indexCache == null) {
+              return loader.call().getValue();
+            }
+            return indexCache
+                .get(
+                    new IsmIndexKey(resourceId.toString(), shardWithIndex.getIndexOffset()), loader)
+                .getValue();
+          } catch (Exception e) {
             // Wrapping with RuntimeException
             throw new RuntimeException(
                 "Failed to read shard index for resourceId: " + resourceId + " shardId: " + shardId,
@@ -567,10 +705,19 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
     return Optional.fromNullable(rawChannelReference.get());
   }
 
-  /** Read index block for a shard. */
-  private static ImmutableSortedMap<RandomAccessData, IsmShardKey> readIndexBlockForShard(
-      ResourceId resourceId, IsmShard shard, long startOfNextBlock, SeekableByteChannel rawChannel)
-      throws IOException {
+  /**
+   * Read index block for a shard. The index is weighed by the approximate heap size of its decoded
+   * entries, which is typically several times larger than its prefix-compressed encoding.
+   */
+  private static WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>>
+      readIndexBlockForShard(
+          ResourceId resourceId,
+          IsmShard shard,
+          long startOfNextBlock,
+          SeekableByteChannel rawChannel)
+          throws IOException {
+    // All entries share a single copy of the resource id.
+    String resourceIdString = resourceId.toString();
 
     // Open the channel if needed and seek to the start of the index.
     rawChannel.position(shard.getIndexOffset());
@@ -593,10 +740,11 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
         resourceId);
     // Insert the entry that happens at the beginning limiting the shard block by the
     // first keys block offset.
+    RandomAccessData firstKeyBytes = new RandomAccessData(0);
     builder.put(
-        new RandomAccessData(0),
-        new IsmShardKey(
-            resourceId.toString(), new RandomAccessData(0), shard.getBlockOffset(), currentOffset));
+        firstKeyBytes,
+        new IsmShardKey(resourceIdString, firstKeyBytes, shard.getBlockOffset(), currentOffset));
+    long weight = indexEntryWeight(firstKeyBytes);
 
     // While another index entry exists, insert an index entry with the key, and offsets
     // that limit the range of the shard block.
@@ -627,7 +775,8 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
           resourceId);
       builder.put(
           currentKeyBytes,
-          new IsmShardKey(resourceId.toString(), currentKeyBytes, currentOffset, nextOffset));
+          new IsmShardKey(resourceIdString, currentKeyBytes, currentOffset, nextOffset));
+      weight += indexEntryWeight(currentKeyBytes);
 
       currentKeyBytes = nextKeyBytes;
       currentOffset = nextOffset;
@@ -636,10 +785,15 @@ public class IsmReaderImpl<V> extends IsmReader<V> {
     // Upper bound the last entry with the index offset.
     builder.put(
         currentKeyBytes,
-        new IsmShardKey(
-            resourceId.toString(), currentKeyBytes, currentOffset, shard.getIndexOffset()));
+        new IsmShardKey(resourceIdString, currentKeyBytes, currentOffset, shard.getIndexOffset()));
+    weight += indexEntryWeight(currentKeyBytes);
+
+    return WeightedValue.of(builder.build(), weight + resourceIdString.length());
+  }
 
-    return builder.build();
+  /** Returns the approximate heap size of an index entry with the given key. */
+  private static long indexEntryWeight(RandomAccessData keyBytes) {
+    return INDEX_ENTRY_OVERHEAD_BYTES + keyBytes.array().length;
   }
 
   /** A function which takes an IsmShardKey fully describing a data block to read and return. */
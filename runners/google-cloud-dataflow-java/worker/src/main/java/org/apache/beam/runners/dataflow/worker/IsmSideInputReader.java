@@ -31,9 +31,11 @@ import java.io.IOException;
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -126,6 +128,12 @@ public class IsmSideInputReader implements SideInputReader {
   private static final ExecutorService SHARED_EXECUTOR_SERVICE =
       Executors.newFixedThreadPool(64 /* concurrency limit */);
 
+  /**
+   * The number of entries whose keys and values are prefetched together when iterating over a map
+   * or multimap.
+   */
+  private static final int ENTRY_PREFETCH_BATCH_SIZE = 64;
+
   private final ExecutorService executorService;
   private final Set<TupleTag<?>> singletonMaterializedTags;
   /** A map from tuple tag to non-empty IsmReaders. */
@@ -710,6 +718,35 @@ public class IsmSideInputReader implements SideInputReader {
     return readerIterators;
   }
 
+  /**
+   * Prefetches the records having any of the provided lists of key components as a prefix, from
+   * all readers in parallel.
+   */
+  private <V> void prefetch(List<IsmReader<V>> readers, List<? extends List<?>> keyComponentsList)
+      throws IOException {
+    List<Callable<Void>> callables = new ArrayList<>(readers.size());
+    for (final IsmReader<V> reader : readers) {
+      callables.add(
+          () -> {
+            reader.prefetch(keyComponentsList);
+            return null;
+          });
+    }
+
+    try {
+      for (Future<Void> result : executorService.invokeAll(callables)) {
+        result.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      // Attempt to propagate the cause if possible.
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e);
+    }
+  }
+
   /**
    * Finds the metadata associated with the specific key components. Returns null if the metadata
    * does not exist.
@@ -997,9 +1034,15 @@ public class IsmSideInputReader implements SideInputReader {
     /**
      * An entry set iterator that backs this map which utilizes the [META, Window, Index] records to
      * locate subsequent keys.
+     *
+     * <p>Keys are located in batches of {@link #ENTRY_PREFETCH_BATCH_SIZE}. The records of each
+     * batch are prefetched together, allowing the readers to load the blocks containing them in a
+     * single pass over each file instead of seeking once per key.
      */
     private class EntrySetIterator implements Iterator<Entry<K, V2>> {
       long position = 0;
+      /** The keys at positions [position, position + keys.size()), which have been prefetched. */
+      final Deque<K> keys = new ArrayDeque<>();
 
       @Override
       public boolean hasNext() {
@@ -1015,21 +1058,40 @@ public class IsmSideInputReader implements SideInputReader {
         final K key;
         final V2 value;
         try {
-          key =
-              findMetadata(
-                  readers,
-                  ImmutableList.of(IsmFormat.getMetadataKey(), window, position + 1),
-                  keyCoder);
+          if (keys.isEmpty()) {
+            prefetchKeys();
+          }
+          key = keys.getFirst();
           value = get(key);
         } catch (IOException e) {
           throw new IllegalStateException(e);
         }
         // Once we have fetched the key and value we can increment the position knowing that
         // an exception won't be thrown, thus allowing retries.
+        keys.removeFirst();
         position += 1;
         return new StructuralMapEntry<>(keyCoder, key, value);
       }
 
+      private void prefetchKeys() throws IOException {
+        long end = Math.min(size, position + ENTRY_PREFETCH_BATCH_SIZE);
+        List<List<?>> metadataKeyComponents = new ArrayList<>();
+        for (long index = position + 1; index <= end; index++) {
+          metadataKeyComponents.add(ImmutableList.of(IsmFormat.getMetadataKey(), window, index));
+        }
+        prefetch(readers, metadataKeyComponents);
+
+        List<K> batch = new ArrayList<>(metadataKeyComponents.size());
+        List<List<?>> entryKeyComponents = new ArrayList<>(metadataKeyComponents.size());
+        for (List<?> keyComponents : metadataKeyComponents) {
+          K key = findMetadata(readers, keyComponents, keyCoder);
+          batch.add(key);
+          entryKeyComponents.add(ImmutableList.of(key, window));
+        }
+        prefetch(readers, entryKeyComponents);
+        keys.addAll(batch);
+      }
+
       @Override
       public void remove() {
         throw new UnsupportedOperationException();
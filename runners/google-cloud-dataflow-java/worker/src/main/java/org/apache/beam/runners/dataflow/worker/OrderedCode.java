@@ -74,7 +74,7 @@ public class OrderedCode {
    * This array maps encoding length to header bits in the first two bytes for SignedNumIncreasing
    * encoding.
    */
-  private static final byte[][] LENGTH_TO_HEADER_BITS = {
+  static final byte[][] LENGTH_TO_HEADER_BITS = {
     {0, 0},
     {(byte) 0x80, 0},
     {(byte) 0xc0, 0},
@@ -92,7 +92,7 @@ public class OrderedCode {
    * This array maps encoding lengths to the header bits that overlap with the payload and need
    * fixing during readSignedNumIncreasing.
    */
-  private static final long[] LENGTH_TO_MASK = {
+  static final long[] LENGTH_TO_MASK = {
     0L,
     0x80L,
     0xc000L,
@@ -113,7 +113,7 @@ public class OrderedCode {
    * number n, we count the bits in ~n. That is, length = BITS_TO_LENGTH[log2Floor(n < 0 ? ~n : n) +
    * 1].
    */
-  private static final short[] BITS_TO_LENGTH = {
+  static final short[] BITS_TO_LENGTH = {
     1, 1, 1, 1, 1, 1, 1,
     2, 2, 2, 2, 2, 2, 2,
     3, 3, 3, 3, 3, 3, 3,
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.ESCAPE1;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.ESCAPE2;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.FF_CHARACTER;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.INFINITY;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.NULL_CHARACTER;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.SEPARATOR;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a sequence of items in the {@link OrderedCode} format from a {@link ByteBuffer}, such as
+ * one produced by {@link OrderedCodeEncoder}.
+ *
+ * <p>Items are read from the position of the supplied buffer up to its limit. The decoder reads
+ * from its own view of the buffer and never modifies the position of the supplied buffer. Numeric
+ * items and {@link #readInfinity INFINITY} are decoded without allocating.
+ *
+ * <p><b>This class is NOT thread safe.</b>
+ */
+public final class OrderedCodeDecoder {
+  private final ByteBuffer buffer;
+
+  /** Creates a decoder over the remaining bytes of {@code encoded}. */
+  public OrderedCodeDecoder(ByteBuffer encoded) {
+    this.buffer = encoded.duplicate();
+  }
+
+  /** Creates a decoder over {@code encoded}, which should not be modified while decoding. */
+  public OrderedCodeDecoder(byte[] encoded) {
+    this(ByteBuffer.wrap(encoded));
+  }
+
+  /**
+   * Returns the next byte array item.
+   *
+   * @see OrderedCodeEncoder#writeBytes(byte[])
+   */
+  public byte[] readBytes() {
+    int position = buffer.position();
+    int limit = buffer.limit();
+
+    // Determine the length of the decoded array. We only scan up to "limit - 1" since a valid item
+    // must end with a two byte terminator: 'ESCAPE1 SEPARATOR'.
+    int decodedLength = 0;
+    boolean valid = false;
+    int i = position;
+    while (i < limit - 1) {
+      byte b = buffer.get(i++);
+      if (b == ESCAPE1) {
+        b = buffer.get(i++);
+        if (b == SEPARATOR) {
+          valid = true;
+          break;
+        } else if (b != NULL_CHARACTER) {
+          throw invalid();
+        }
+      } else if (b == ESCAPE2) {
+        if (buffer.get(i++) != FF_CHARACTER) {
+          throw invalid();
+        }
+      }
+      decodedLength++;
+    }
+    if (!valid) {
+      throw invalid();
+    }
+
+    byte[] decoded = new byte[decodedLength];
+    int outIndex = 0;
+    int j = position;
+    while (outIndex < decodedLength) {
+      byte b = buffer.get(j++);
+      if (b == ESCAPE1 || b == ESCAPE2) {
+        // ESCAPE1 NULL_CHARACTER represents '\0' and ESCAPE2 FF_CHARACTER represents '\xff'.
+        j++;
+      }
+      decoded[outIndex++] = b;
+    }
+    buffer.position(i);
+    return decoded;
+  }
+
+  /**
+   * Returns the next byte array item decoded as a UTF-8 string.
+   *
+   * @see OrderedCodeEncoder#writeUtf8(CharSequence)
+   */
+  public String readUtf8() {
+    return new String(readBytes(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the next long item encoded as a uint64.
+   *
+   * @see OrderedCodeEncoder#writeNumIncreasing(long)
+   */
+  public long readNumIncreasing() {
+    int position = buffer.position();
+    if (buffer.limit() - position < 1) {
+      throw invalid();
+    }
+    int len = buffer.get(position);
+    if (len < 0 || len > 8 || position + len + 1 > buffer.limit()) {
+      throw invalid();
+    }
+
+    long result = 0;
+    for (int i = position + 1; i <= position + len; i++) {
+      result = (result << 8) | (buffer.get(i) & 0xff);
+    }
+    buffer.position(position + len + 1);
+    return result;
+  }
+
+  /**
+   * Returns the next long item encoded as an int64.
+   *
+   * @see OrderedCodeEncoder#writeSignedNumIncreasing(long)
+   */
+  public long readSignedNumIncreasing() {
+    int position = buffer.position();
+    int available = buffer.limit() - position;
+    if (available < 1) {
+      throw invalid();
+    }
+
+    long xorMask = ((buffer.get(position) & 0x80) == 0) ? ~0L : 0L;
+    int firstByte = (buffer.get(position) & 0xff) ^ (int) (xorMask & 0xff);
+
+    // Calculate and test the length, and set x to the raw (unmasked) result.
+    int len;
+    long x;
+    if (firstByte != 0xff) {
+      len = Integer.numberOfLeadingZeros(firstByte ^ 0xff) - 24;
+      if (available < len) {
+        throw invalid();
+      }
+      x = xorMask; // Sign extend using xorMask.
+      for (int i = position; i < position + len; i++) {
+        x = (x << 8) | (buffer.get(i) & 0xff);
+      }
+    } else {
+      len = 8;
+      if (available < len) {
+        throw invalid();
+      }
+      int secondByte = (buffer.get(position + 1) & 0xff) ^ (int) (xorMask & 0xff);
+      if (secondByte >= 0x80) {
+        if (secondByte < 0xc0) {
+          len = 9;
+        } else {
+          int thirdByte =
+              available < 3 ? 0xff : (buffer.get(position + 2) & 0xff) ^ (int) (xorMask & 0xff);
+          if (secondByte == 0xc0 && thirdByte < 0x80) {
+            len = 10;
+          } else {
+            // Either len > 10 or len == 10 and #bits > 63.
+            throw invalid();
+          }
+        }
+        if (available < len) {
+          throw invalid();
+        }
+      }
+      x = buffer.getLong(position + len - 8);
+    }
+
+    x ^= OrderedCode.LENGTH_TO_MASK[len]; // Remove spurious header bits.
+
+    if (len != OrderedCode.BITS_TO_LENGTH[Long.SIZE - Long.numberOfLeadingZeros(x < 0 ? ~x : x)]) {
+      throw invalid();
+    }
+    buffer.position(position + len);
+    return x;
+  }
+
+  /**
+   * Consumes the INFINITY item if it is next. Returns whether INFINITY was present.
+   *
+   * @see OrderedCodeEncoder#writeInfinity()
+   */
+  public boolean readInfinity() {
+    int position = buffer.position();
+    int available = buffer.limit() - position;
+    if (available < 1) {
+      throw invalid();
+    }
+    if (available >= 2
+        && buffer.get(position) == ESCAPE2
+        && buffer.get(position + 1) == INFINITY) {
+      buffer.position(position + 2);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns all remaining bytes without decoding them.
+   *
+   * @see OrderedCodeEncoder#writeTrailingBytes(byte[])
+   */
+  public byte[] readTrailingBytes() {
+    if (!buffer.hasRemaining()) {
+      throw invalid();
+    }
+    byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  /** Returns the next {@code len} bytes without decoding them. */
+  public byte[] readBytes(int len) {
+    if (buffer.remaining() < len) {
+      throw invalid();
+    }
+    byte[] result = new byte[len];
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * Returns true if there are encoded bytes which haven't been read. This doesn't imply anything
+   * about the validity of the remaining bytes.
+   */
+  public boolean hasRemainingEncodedBytes() {
+    return buffer.hasRemaining();
+  }
+
+  private static IllegalArgumentException invalid() {
+    return new IllegalArgumentException("Invalid encoded byte array");
+  }
+}
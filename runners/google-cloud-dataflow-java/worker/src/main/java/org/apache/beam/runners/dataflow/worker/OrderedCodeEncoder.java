@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.ESCAPE1;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.ESCAPE2;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.FF_CHARACTER;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.INFINITY;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.NULL_CHARACTER;
+import static org.apache.beam.runners.dataflow.worker.OrderedCode.SEPARATOR;
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a sequence of items in the {@link OrderedCode} format directly into a {@link ByteBuffer}.
+ *
+ * <p>The encoded bytes are identical to those returned by {@link OrderedCode#getEncodedBytes()}
+ * for the same sequence of writes, but no intermediate array is allocated per item. An encoder
+ * either owns a growable heap or direct buffer, which can be {@link #reset} and reused to encode
+ * many values, or appends to a caller-supplied buffer of fixed capacity.
+ *
+ * <p>Use {@link OrderedCodeDecoder} to read the items back.
+ *
+ * <p><b>This class is NOT thread safe.</b>
+ */
+public final class OrderedCodeEncoder {
+  private static final int DEFAULT_INITIAL_CAPACITY = 64;
+  /** The largest capacity a grown buffer is allocated with, as some VMs reserve array headers. */
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private ByteBuffer buffer;
+  private final int start;
+  private final boolean growable;
+
+  private OrderedCodeEncoder(ByteBuffer buffer, boolean growable) {
+    this.buffer = buffer;
+    this.start = buffer.position();
+    this.growable = growable;
+  }
+
+  /** Creates an encoder writing into a growable heap buffer. */
+  public static OrderedCodeEncoder create() {
+    return growable(DEFAULT_INITIAL_CAPACITY, false);
+  }
+
+  /**
+   * Creates an encoder writing into a growable buffer with the given initial capacity. The buffer,
+   * and any buffer it is replaced with when growing, is a direct buffer if {@code direct} is set.
+   */
+  public static OrderedCodeEncoder growable(int initialCapacity, boolean direct) {
+    checkArgument(initialCapacity > 0, "initialCapacity must be positive: %s", initialCapacity);
+    return new OrderedCodeEncoder(
+        direct ? ByteBuffer.allocateDirect(initialCapacity) : ByteBuffer.allocate(initialCapacity),
+        true);
+  }
+
+  /**
+   * Creates an encoder appending to {@code buffer} from its current position. Writes which do not
+   * fit within the remaining capacity of the buffer throw a {@link BufferOverflowException}.
+   */
+  public static OrderedCodeEncoder wrap(ByteBuffer buffer) {
+    return new OrderedCodeEncoder(buffer, false);
+  }
+
+  /**
+   * Encodes the byte array item, followed by a separator.
+   *
+   * @see OrderedCode#writeBytes(byte[])
+   */
+  public void writeBytes(byte[] value) {
+    writeBytes(value, 0, value.length);
+  }
+
+  /**
+   * Encodes {@code length} bytes of {@code value} starting at {@code offset} as a byte array item,
+   * followed by a separator.
+   *
+   * @see OrderedCode#writeBytes(byte[])
+   */
+  public void writeBytes(byte[] value, int offset, int length) {
+    // Every byte is escaped to at most two bytes.
+    ensureRemaining(2L * length + 2);
+    int copyStart = offset;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      byte b = value[i];
+      if (b == ESCAPE1 || b == ESCAPE2) {
+        buffer.put(value, copyStart, i - copyStart);
+        buffer.put(b);
+        buffer.put(b == ESCAPE1 ? NULL_CHARACTER : FF_CHARACTER);
+        copyStart = i + 1;
+      }
+    }
+    buffer.put(value, copyStart, end - copyStart);
+    buffer.put(ESCAPE1);
+    buffer.put(SEPARATOR);
+  }
+
+  /**
+   * Encodes the UTF-8 representation of {@code value} as a byte array item, followed by a
+   * separator. This is equivalent to {@code writeBytes(value.toString().getBytes(UTF_8))} without
+   * materializing the bytes; unpaired surrogates are likewise replaced with {@code '?'}.
+   */
+  public void writeUtf8(CharSequence value) {
+    int length = value.length();
+    // Each char encodes to at most three bytes, and only '\0' requires escaping. UTF-8 never
+    // produces the byte 0xff.
+    ensureRemaining(3L * length + 2);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == 0) {
+        buffer.put(ESCAPE1);
+        buffer.put(NULL_CHARACTER);
+      } else if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | (c >>> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        char low;
+        if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(low = value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, low);
+          buffer.put((byte) (0xf0 | (codePoint >>> 18)));
+          buffer.put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+          buffer.put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+          buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+          i++;
+        } else {
+          buffer.put((byte) '?');
+        }
+      } else {
+        buffer.put((byte) (0xe0 | (c >>> 12)));
+        buffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    buffer.put(ESCAPE1);
+    buffer.put(SEPARATOR);
+  }
+
+  /**
+   * Encodes the long item, treated as a uint64, in big-endian format.
+   *
+   * @see OrderedCode#writeNumIncreasing(long)
+   */
+  public void writeNumIncreasing(long value) {
+    // A length byte followed by the value with leading zero bytes dropped.
+    int len = (Long.SIZE - Long.numberOfLeadingZeros(value) + 7) / 8;
+    ensureRemaining(len + 1);
+    buffer.put((byte) len);
+    for (int shift = 8 * (len - 1); shift >= 0; shift -= 8) {
+      buffer.put((byte) (value >>> shift));
+    }
+  }
+
+  /**
+   * Encodes the long item, treated as an int64, in big-endian format.
+   *
+   * @see OrderedCode#writeSignedNumIncreasing(long)
+   */
+  public void writeSignedNumIncreasing(long value) {
+    long x = value < 0 ? ~value : value;
+    if (x < 64) { // Fast path for encoding length == 1.
+      ensureRemaining(1);
+      buffer.put((byte) (OrderedCode.LENGTH_TO_HEADER_BITS[1][0] ^ value));
+      return;
+    }
+    int len = OrderedCode.BITS_TO_LENGTH[Long.SIZE - Long.numberOfLeadingZeros(x)];
+    ensureRemaining(len);
+    // The last len bytes of the value in network byte order, sign extended to 10 bytes, with the
+    // header bits for the length applied to the first two of them.
+    byte signByte = value < 0 ? (byte) 0xff : 0;
+    for (int i = 10 - len; i < 10; i++) {
+      byte b = i < 2 ? signByte : (byte) (value >>> (8 * (9 - i)));
+      if (i == 10 - len) {
+        b ^= OrderedCode.LENGTH_TO_HEADER_BITS[len][0];
+      } else if (i == 11 - len) {
+        b ^= OrderedCode.LENGTH_TO_HEADER_BITS[len][1];
+      }
+      buffer.put(b);
+    }
+  }
+
+  /**
+   * Encodes the INFINITY item.
+   *
+   * @see OrderedCode#writeInfinity()
+   */
+  public void writeInfinity() {
+    ensureRemaining(2);
+    buffer.put(ESCAPE2);
+    buffer.put(INFINITY);
+  }
+
+  /**
+   * Appends the byte array item without encoding it.
+   *
+   * @see OrderedCode#writeTrailingBytes(byte[])
+   */
+  public void writeTrailingBytes(byte[] value) {
+    if ((value == null) || (value.length == 0)) {
+      throw new IllegalArgumentException("Value cannot be null or have 0 elements");
+    }
+    ensureRemaining(value.length);
+    buffer.put(value);
+  }
+
+  /** Returns the number of encoded bytes. */
+  public int size() {
+    return buffer.position() - start;
+  }
+
+  /** Discards all encoded bytes, allowing the buffer to be reused. */
+  public void reset() {
+    buffer.position(start);
+  }
+
+  /**
+   * Returns a read-only view of the encoded bytes. The view shares the underlying buffer and is
+   * invalidated by subsequent writes or {@link #reset}.
+   */
+  public ByteBuffer getEncodedBuffer() {
+    ByteBuffer encoded = buffer.asReadOnlyBuffer();
+    encoded.limit(buffer.position());
+    encoded.position(start);
+    return encoded.slice();
+  }
+
+  /** Returns a copy of the encoded bytes. */
+  public byte[] getEncodedBytes() {
+    byte[] encoded = new byte[size()];
+    getEncodedBuffer().get(encoded);
+    return encoded;
+  }
+
+  /**
+   * Grows the buffer, if it is growable, so that at least {@code bytes} more bytes fit. {@code
+   * bytes} is an upper bound computed in {@code long}, which for very large items may exceed the
+   * largest possible buffer; the buffer is then grown to that size, and writes which still do not
+   * fit throw a {@link BufferOverflowException}.
+   */
+  private void ensureRemaining(long bytes) {
+    if (buffer.remaining() >= bytes || !growable) {
+      return;
+    }
+    int capacity =
+        (int) Math.min(MAX_CAPACITY, Math.max(2L * buffer.capacity(), buffer.position() + bytes));
+    ByteBuffer grown =
+        buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+}
@@ -104,4 +104,11 @@ public class SideInputTrackingIsmReader<V> extends IsmReader<V> {
       return delegate.overKeyComponents(keyComponents, shardId, keyBytes);
     }
   }
+
+  @Override
+  public void prefetch(List<? extends List<?>> keyComponentsList) throws IOException {
+    try (Closeable counterCloser = IsmReader.setSideInputReadContext(readCounter)) {
+      delegate.prefetch(keyComponentsList);
+    }
+  }
 }
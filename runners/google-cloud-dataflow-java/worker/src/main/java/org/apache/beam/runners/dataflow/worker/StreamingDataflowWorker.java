@@ -48,16 +48,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -79,6 +82,7 @@ import org.apache.beam.runners.dataflow.worker.StreamingDataflowWorker.Work.Stat
 import org.apache.beam.runners.dataflow.worker.StreamingModeExecutionContext.StreamingModeExecutionStateRegistry;
 import org.apache.beam.runners.dataflow.worker.apiary.FixMultiOutputInfosOnParDoInstructions;
 import org.apache.beam.runners.dataflow.worker.counters.Counter;
+import org.apache.beam.runners.dataflow.worker.counters.CounterFactory.CounterMean;
 import org.apache.beam.runners.dataflow.worker.counters.CounterSet;
 import org.apache.beam.runners.dataflow.worker.counters.DataflowCounterUpdateExtractor;
 import org.apache.beam.runners.dataflow.worker.counters.NameContext;
@@ -133,6 +137,7 @@ import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Splitter;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.Cache;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.CacheBuilder;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.EvictingQueue;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableMap;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ListMultimap;
@@ -181,6 +186,7 @@ public class StreamingDataflowWorker {
   // Maximum number of threads for processing.  Currently each thread processes one key at a time.
   static final int MAX_PROCESSING_THREADS = 300;
   static final long THREAD_EXPIRATION_TIME_SEC = 60;
+  static final int MAX_STATE_READ_AHEAD_THREADS = 16;
   static final long TARGET_COMMIT_BUNDLE_BYTES = 32 << 20;
   static final int MAX_COMMIT_QUEUE_BYTES = 500 << 20; // 500MB
   static final int NUM_COMMIT_STREAMS = 1;
@@ -356,6 +362,7 @@ public class StreamingDataflowWorker {
     private Windmill.WorkItemCommitRequest request;
     private ComputationState computationState;
     private Work work;
+    private final long queuedNanos;
 
     public Commit(
         Windmill.WorkItemCommitRequest request, ComputationState computationState, Work work) {
@@ -363,6 +370,7 @@ public class StreamingDataflowWorker {
       assert request.getSerializedSize() > 0;
       this.computationState = computationState;
       this.work = work;
+      this.queuedNanos = System.nanoTime();
     }
 
     public Windmill.WorkItemCommitRequest getRequest() {
@@ -380,13 +388,19 @@ public class StreamingDataflowWorker {
     public int getSize() {
       return request.getSerializedSize();
     }
+
+    /** Returns the time in milliseconds since this commit was queued. */
+    public long getQueuedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedNanos);
+    }
   }
 
   // Maps from computation ids to per-computation state.
   private final ConcurrentMap<String, ComputationState> computationMap = new ConcurrentHashMap<>();
-  private final WeightedBoundedQueue<Commit> commitQueue =
-      new WeightedBoundedQueue<>(
-          MAX_COMMIT_QUEUE_BYTES, commit -> Math.min(MAX_COMMIT_QUEUE_BYTES, commit.getSize()));
+  // Commits are sharded across queues by key, each drained by its own commit thread. The
+  // MAX_COMMIT_QUEUE_BYTES budget is split evenly between the queues. Commits for a key are always
+  // made from the same queue so they are sent in the order they were queued.
+  private final List<WeightedBoundedQueue<Commit>> commitQueues;
 
   // Cache of tokens to commit callbacks.
   // Using Cache with time eviction policy helps us to prevent memory leak when callback ids are
@@ -408,7 +422,7 @@ public class StreamingDataflowWorker {
   private final BoundedQueueExecutor workUnitExecutor;
   private final WindmillServerStub windmillServer;
   private final Thread dispatchThread;
-  private final Thread commitThread;
+  private final List<Thread> commitThreads;
   private final AtomicLong activeCommitBytes = new AtomicLong();
   private final AtomicBoolean running = new AtomicBoolean();
   private final StateFetcher stateFetcher;
@@ -430,6 +444,8 @@ public class StreamingDataflowWorker {
   private final Counter<Long, Long> windmillStateBytesRead;
   private final Counter<Long, Long> windmillStateBytesWritten;
   private final Counter<Long, Long> windmillQuotaThrottling;
+  private final Counter<Long, CounterMean<Long>> windmillCommitQueueMsecs;
+  private final Counter<Long, Long> windmillMaxCommitQueueMsecs;
   // Built-in cumulative counters.
   private final Counter<Long, Long> javaHarnessUsedMemory;
   private final Counter<Long, Long> javaHarnessMaxMemory;
@@ -464,6 +480,13 @@ public class StreamingDataflowWorker {
 
   private final ReaderCache readerCache;
 
+  // Process-wide estimate of bag sizes used to size bag reads. Null unless enabled by the
+  // adaptive_bag_fetch_sizes experiment.
+  private final @Nullable BagFetchSizeEstimator bagFetchSizeEstimator;
+  // Executor used to fetch continuation pages of state ahead of their use. Null unless enabled by
+  // the windmill_state_read_ahead experiment.
+  private final @Nullable ExecutorService stateReadAheadExecutor;
+
   private final WorkUnitClient workUnitClient;
   private final CompletableFuture<Void> isDoneFuture;
   private final Function<MapTask, MutableNetwork<Node, Edge>> mapTaskToNetwork;
@@ -576,11 +599,15 @@ public class StreamingDataflowWorker {
       Supplier<Instant> clock,
       Function<String, ScheduledExecutorService> executorSupplier)
       throws IOException {
-    this.stateCache = new WindmillStateCache(options.getWorkerCacheMb());
+    this.stateCache =
+        new WindmillStateCache(
+            options.getWorkerCacheMb(), hasExperiment(options, "cache_encoded_state_values"));
     this.readerCache =
         new ReaderCache(
             Duration.standardSeconds(options.getReaderCacheTimeoutSec()),
             Executors.newCachedThreadPool());
+    this.bagFetchSizeEstimator =
+        hasExperiment(options, "adaptive_bag_fetch_sizes") ? new BagFetchSizeEstimator() : null;
     this.mapTaskExecutorFactory = mapTaskExecutorFactory;
     this.workUnitClient = workUnitClient;
     this.options = options;
@@ -606,6 +633,12 @@ public class StreamingDataflowWorker {
     this.windmillQuotaThrottling =
         pendingDeltaCounters.longSum(
             StreamingSystemCounterNames.WINDMILL_QUOTA_THROTTLING.counterName());
+    this.windmillCommitQueueMsecs =
+        pendingDeltaCounters.longMean(
+            StreamingSystemCounterNames.WINDMILL_COMMIT_QUEUE_MSECS.counterName());
+    this.windmillMaxCommitQueueMsecs =
+        pendingDeltaCounters.longMax(
+            StreamingSystemCounterNames.WINDMILL_MAX_COMMIT_QUEUE_MSECS.counterName());
     this.javaHarnessUsedMemory =
         pendingCumulativeCounters.longSum(
             StreamingSystemCounterNames.JAVA_HARNESS_USED_MEMORY.counterName());
@@ -633,6 +666,10 @@ public class StreamingDataflowWorker {
             chooseMaximumBundlesOutstanding(),
             chooseMaximumBytesOutstanding(),
             threadFactory);
+    this.stateReadAheadExecutor =
+        hasExperiment(options, "windmill_state_read_ahead")
+            ? createStateReadAheadExecutor(chooseMaximumNumberOfThreads())
+            : null;
 
     maxSinkBytes =
         hasExperiment(options, "disable_limiting_bundle_sink_bytes")
@@ -661,21 +698,35 @@ public class StreamingDataflowWorker {
     dispatchThread.setPriority(Thread.MIN_PRIORITY);
     dispatchThread.setName("DispatchThread");
 
-    commitThread =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                if (windmillServiceEnabled) {
-                  streamingCommitLoop();
-                } else {
-                  commitLoop();
+    int numCommitThreads = Math.max(1, options.getWindmillServiceCommitThreads());
+    int maxCommitQueueBytes = MAX_COMMIT_QUEUE_BYTES / numCommitThreads;
+    ImmutableList.Builder<WeightedBoundedQueue<Commit>> commitQueuesBuilder =
+        ImmutableList.builder();
+    ImmutableList.Builder<Thread> commitThreadsBuilder = ImmutableList.builder();
+    for (int i = 0; i < numCommitThreads; i++) {
+      WeightedBoundedQueue<Commit> commitQueue =
+          new WeightedBoundedQueue<>(
+              maxCommitQueueBytes, commit -> Math.min(maxCommitQueueBytes, commit.getSize()));
+      Thread commitThread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  if (windmillServiceEnabled) {
+                    streamingCommitLoop(commitQueue);
+                  } else {
+                    commitLoop(commitQueue);
+                  }
                 }
-              }
-            });
-    commitThread.setDaemon(true);
-    commitThread.setPriority(Thread.MAX_PRIORITY);
-    commitThread.setName("CommitThread");
+              });
+      commitThread.setDaemon(true);
+      commitThread.setPriority(Thread.MAX_PRIORITY);
+      commitThread.setName(numCommitThreads == 1 ? "CommitThread" : "CommitThread-" + i);
+      commitQueuesBuilder.add(commitQueue);
+      commitThreadsBuilder.add(commitThread);
+    }
+    commitQueues = commitQueuesBuilder.build();
+    commitThreads = commitThreadsBuilder.build();
 
     this.publishCounters = publishCounters;
     this.windmillServer = options.getWindmillServerStub();
@@ -708,6 +759,27 @@ public class StreamingDataflowWorker {
     return MAX_PROCESSING_THREADS;
   }
 
+  /**
+   * Returns an executor for reading state ahead of its use, with at most {@link
+   * #MAX_STATE_READ_AHEAD_THREADS} threads and one queued read per processing thread. Reads beyond
+   * that are rejected, and the state they would have read is read when it is needed instead.
+   */
+  private static ExecutorService createStateReadAheadExecutor(int maxProcessingThreads) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            MAX_STATE_READ_AHEAD_THREADS,
+            MAX_STATE_READ_AHEAD_THREADS,
+            THREAD_EXPIRATION_TIME_SEC,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxProcessingThreads),
+            new ThreadFactoryBuilder()
+                .setNameFormat("WindmillStateReadAhead-%d")
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   private int chooseMaximumBundlesOutstanding() {
     int maxBundles = options.getMaxBundlesFromWindmillOutstanding();
     if (maxBundles > 0) {
@@ -757,7 +829,9 @@ public class StreamingDataflowWorker {
 
     memoryMonitorThread.start();
     dispatchThread.start();
-    commitThread.start();
+    for (Thread commitThread : commitThreads) {
+      commitThread.start();
+    }
     ExecutionStateSampler.instance().start();
 
     // Periodically report workers counters and other updates.
@@ -884,13 +958,21 @@ public class StreamingDataflowWorker {
       running.set(false);
       dispatchThread.interrupt();
       dispatchThread.join();
-      // We need to interrupt the commitThread in case it is blocking on pulling
-      // from the commitQueue.
-      commitThread.interrupt();
-      commitThread.join();
+      // We need to interrupt the commit threads in case they are blocking on pulling
+      // from their commit queues.
+      for (Thread commitThread : commitThreads) {
+        commitThread.interrupt();
+      }
+      for (Thread commitThread : commitThreads) {
+        commitThread.join();
+      }
       memoryMonitor.stop();
       memoryMonitorThread.join();
       workUnitExecutor.shutdown();
+      if (stateReadAheadExecutor != null) {
+        // Work items waiting for reads which were dropped read them themselves.
+        stateReadAheadExecutor.shutdownNow();
+      }
       for (ComputationState state : computationMap.values()) {
         state.close();
       }
@@ -1269,7 +1351,7 @@ public class StreamingDataflowWorker {
     if (workItem.getSourceState().getOnlyFinalize()) {
       outputBuilder.setSourceStateUpdates(Windmill.SourceState.newBuilder().setOnlyFinalize(true));
       work.setState(State.COMMIT_QUEUED);
-      commitQueue.put(new Commit(outputBuilder.build(), computationState, work));
+      queueCommit(new Commit(outputBuilder.build(), computationState, work));
       return;
     }
 
@@ -1282,6 +1364,7 @@ public class StreamingDataflowWorker {
             mapTask.getStageName(), s -> new StageInfo(s, mapTask.getSystemName(), this));
 
     ExecutionState executionState = null;
+    WindmillStateReader stateReader = null;
     String counterName = "dataflow_source_bytes_processed-" + mapTask.getSystemName();
 
     try {
@@ -1374,7 +1457,7 @@ public class StreamingDataflowWorker {
             new ExecutionState(mapTaskExecutor, context, keyCoder, executionStateTracker);
       }
 
-      WindmillStateReader stateReader =
+      stateReader =
           new WindmillStateReader(
               metricTrackingWindmillServer,
               computationId,
@@ -1389,7 +1472,9 @@ public class StreamingDataflowWorker {
                     work.setState(State.PROCESSING);
                   }
                 };
-              });
+              },
+              bagFetchSizeEstimator,
+              stateReadAheadExecutor);
       StateFetcher localStateFetcher = stateFetcher.byteTrackingView();
 
       // If the read output KVs, then we can decode Windmill's byte key into a userland
@@ -1481,7 +1566,7 @@ public class StreamingDataflowWorker {
         commitRequest = buildWorkItemTruncationRequest(key, workItem, estimatedCommitSize);
       }
 
-      commitQueue.put(new Commit(commitRequest, computationState, work));
+      queueCommit(new Commit(commitRequest, computationState, work));
 
       // Compute shuffle and state byte statistics these will be flushed asynchronously.
       long stateBytesWritten =
@@ -1575,6 +1660,11 @@ public class StreamingDataflowWorker {
             ShardedKey.create(key, workItem.getShardingKey()), workItem.getWorkToken());
       }
     } finally {
+      if (stateReader != null) {
+        // The work item has been committed or has failed, so it no longer needs state read ahead.
+        stateReader.close();
+      }
+
       // Update total processing time counters. Updating in finally clause ensures that
       // work items causing exceptions are also accounted in time spent.
       long processingTimeMsecs =
@@ -1603,7 +1693,18 @@ public class StreamingDataflowWorker {
     return outputBuilder.build();
   }
 
-  private void commitLoop() {
+  private void queueCommit(Commit commit) {
+    int shard = Math.floorMod(commit.getRequest().getKey().hashCode(), commitQueues.size());
+    commitQueues.get(shard).put(commit);
+  }
+
+  private void recordCommitQueueLatency(Commit commit) {
+    long queuedMillis = commit.getQueuedMillis();
+    windmillCommitQueueMsecs.addValue(queuedMillis);
+    windmillMaxCommitQueueMsecs.addValue(queuedMillis);
+  }
+
+  private void commitLoop(WeightedBoundedQueue<Commit> commitQueue) {
     Map<ComputationState, Windmill.ComputationCommitWorkRequest.Builder> computationRequestMap =
         new HashMap<>();
     while (running.get()) {
@@ -1622,6 +1723,7 @@ public class StreamingDataflowWorker {
       while (commit != null) {
         ComputationState computationState = commit.getComputationState();
         commit.getWork().setState(State.COMMITTING);
+        recordCommitQueueLatency(commit);
         Windmill.ComputationCommitWorkRequest.Builder computationRequestBuilder =
             computationRequestMap.get(computationState);
         if (computationRequestBuilder == null) {
@@ -1640,9 +1742,12 @@ public class StreamingDataflowWorker {
       }
       Windmill.CommitWorkRequest commitRequest = commitRequestBuilder.build();
       LOG.trace("Commit: {}", commitRequest);
-      activeCommitBytes.set(commitBytes);
-      windmillServer.commitWork(commitRequest);
-      activeCommitBytes.set(0);
+      activeCommitBytes.addAndGet(commitBytes);
+      try {
+        windmillServer.commitWork(commitRequest);
+      } finally {
+        activeCommitBytes.addAndGet(-commitBytes);
+      }
       for (Map.Entry<ComputationState, Windmill.ComputationCommitWorkRequest.Builder> entry :
           computationRequestMap.entrySet()) {
         ComputationState computationState = entry.getKey();
@@ -1682,6 +1787,7 @@ public class StreamingDataflowWorker {
               ShardedKey.create(request.getKey(), request.getShardingKey()),
               request.getWorkToken());
         })) {
+      recordCommitQueueLatency(commit);
       return true;
     } else {
       // Back out the stats changes since the commit wasn't consumed.
@@ -1693,7 +1799,8 @@ public class StreamingDataflowWorker {
 
   // Helper to batch additional commits into the commit stream as long as they fit.
   // Returns a commit that was removed from the queue but not consumed or null.
-  private Commit batchCommitsToStream(CommitWorkStream commitStream) {
+  private Commit batchCommitsToStream(
+      WeightedBoundedQueue<Commit> commitQueue, CommitWorkStream commitStream) {
     int commits = 1;
     while (running.get()) {
       Commit commit;
@@ -1715,7 +1822,7 @@ public class StreamingDataflowWorker {
     return null;
   }
 
-  private void streamingCommitLoop() {
+  private void streamingCommitLoop(WeightedBoundedQueue<Commit> commitQueue) {
     WindmillStreamPool<CommitWorkStream> streamPool =
         WindmillStreamPool.create(
             NUM_COMMIT_STREAMS, COMMIT_STREAM_TIMEOUT, windmillServer::commitWorkStream);
@@ -1735,7 +1842,7 @@ public class StreamingDataflowWorker {
       }
       // Batch additional commits to the stream and possibly make an un-batched commit the next
       // initial commit.
-      initialCommit = batchCommitsToStream(commitStream);
+      initialCommit = batchCommitsToStream(commitQueue, commitStream);
       commitStream.flush();
       streamPool.releaseStream(commitStream);
     }
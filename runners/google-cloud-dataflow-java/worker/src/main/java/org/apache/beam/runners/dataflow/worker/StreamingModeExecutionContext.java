@@ -630,11 +630,20 @@ public class StreamingModeExecutionContext extends DataflowExecutionContext<Step
     private Table<String, StateNamespace, TimerData> modifiedUserTimerKeys = null;
 
     private void onUserTimerModified(TimerData timerData) {
+      @Nullable
+      TimerData previousTimer =
+          modifiedUserTimerKeys.put(
+              WindmillTimerInternals.getTimerDataKey(timerData),
+              timerData.getNamespace(),
+              timerData);
+      // Drop the superseded modification so that timers which are reset for every element do not
+      // accumulate stale entries which would have to be skipped when firing timers.
+      if (previousTimer != null && !previousTimer.getDeleted()) {
+        getModifiedUserTimersOrdered(previousTimer.getDomain()).remove(previousTimer);
+      }
       if (!timerData.getDeleted()) {
         getModifiedUserTimersOrdered(timerData.getDomain()).add(timerData);
       }
-      modifiedUserTimerKeys.put(
-          WindmillTimerInternals.getTimerDataKey(timerData), timerData.getNamespace(), timerData);
     }
 
     private boolean timerModified(TimerData timerData) {
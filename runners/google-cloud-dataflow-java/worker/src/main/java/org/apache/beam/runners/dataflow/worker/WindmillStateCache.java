@@ -50,6 +50,10 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * * processing key * state_family * namespace) by a single thread at a time. {@link
  * StreamingDataflowWorker} ensures that a single computation * processing key is executing on one
  * thread at a time, so this is safe.
+ *
+ * <p>If {@link #cachesEncodedValues()} is set, state implementations which support it hold their
+ * cached contents in encoded form and decode them lazily when read. The weight of such entries is
+ * then the exact encoded byte count rather than an estimate of the decoded objects.
  */
 public class WindmillStateCache implements StatusDataProvider {
   // Convert Megabytes to bytes
@@ -71,8 +75,14 @@ public class WindmillStateCache implements StatusDataProvider {
   private final ConcurrentMap<WindmillComputationKey, ForKey> keyIndex =
       new MapMaker().weakValues().concurrencyLevel(4).makeMap();
   private final long workerCacheBytes; // Copy workerCacheMb and convert to bytes.
+  private final boolean cacheEncodedValues;
 
   public WindmillStateCache(long workerCacheMb) {
+    this(workerCacheMb, false);
+  }
+
+  public WindmillStateCache(long workerCacheMb, boolean cacheEncodedValues) {
+    this.cacheEncodedValues = cacheEncodedValues;
     final Weigher<Weighted, Weighted> weigher = Weighers.weightedKeysAndValues();
     workerCacheBytes = workerCacheMb * MEGABYTES;
     stateCache =
@@ -119,6 +129,11 @@ public class WindmillStateCache implements StatusDataProvider {
     return stateCache.stats();
   }
 
+  /** Whether cached state values should be kept in their encoded form. */
+  public boolean cachesEncodedValues() {
+    return cacheEncodedValues;
+  }
+
   /** Per-computation view of the state cache. */
   public class ForComputation {
 
@@ -212,6 +227,10 @@ public class WindmillStateCache implements StatusDataProvider {
       return stateFamily;
     }
 
+    public boolean cachesEncodedValues() {
+      return cacheEncodedValues;
+    }
+
     public <T extends State> @Nullable T get(StateNamespace namespace, StateTag<T> address) {
       StateId id = new StateId(forKey, stateFamily, namespace);
       @SuppressWarnings("nullness") // Unsure how to annotate lambda return allowing null.
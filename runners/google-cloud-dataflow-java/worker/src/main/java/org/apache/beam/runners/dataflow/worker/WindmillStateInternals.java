@@ -18,6 +18,7 @@
 package org.apache.beam.runners.dataflow.worker;
 
 import com.google.auto.value.AutoValue;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,6 +59,7 @@ import org.apache.beam.runners.dataflow.worker.windmill.Windmill.TagSortedListIn
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.TagSortedListUpdateRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.WorkItemCommitRequest;
 import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.Coder.Context;
 import org.apache.beam.sdk.coders.CoderException;
@@ -169,7 +171,14 @@ class WindmillStateInternals<K> implements StateInternals {
           }
           WindmillBag<T> result = (WindmillBag<T>) cache.get(namespace, address);
           if (result == null) {
-            result = new WindmillBag<>(namespace, address, stateFamily, elemCoder, isNewKey);
+            result =
+                new WindmillBag<>(
+                    namespace,
+                    address,
+                    stateFamily,
+                    elemCoder,
+                    isNewKey,
+                    cache.cachesEncodedValues());
           }
           result.initializeForWorkItem(reader, scopedReadStateSupplier);
           return result;
@@ -278,7 +287,14 @@ class WindmillStateInternals<K> implements StateInternals {
           }
           WindmillValue<T> result = (WindmillValue<T>) cache.get(namespace, address);
           if (result == null) {
-            result = new WindmillValue<>(namespace, address, stateFamily, coder, isNewKey);
+            result =
+                new WindmillValue<>(
+                    namespace,
+                    address,
+                    stateFamily,
+                    coder,
+                    isNewKey,
+                    cache.cachesEncodedValues());
           }
           result.initializeForWorkItem(reader, scopedReadStateSupplier);
           return result;
@@ -465,6 +481,7 @@ class WindmillStateInternals<K> implements StateInternals {
     private final ByteString stateKey;
     private final String stateFamily;
     private final Coder<T> coder;
+    private final boolean cacheEncodedValue;
 
     /** Whether we've modified the value since creation of this state. */
     private boolean modified = false;
@@ -472,6 +489,12 @@ class WindmillStateInternals<K> implements StateInternals {
     private boolean valueIsKnown = false;
     /** The size of the encoded value */
     private long cachedSize = -1;
+    /**
+     * If caching encoded values, the encoded form of the known non-{@literal null} value. The value
+     * is decoded from this on the first read of a work item, and the decoded value is dropped when
+     * persisting, so that the cached state is only weighed and held in its encoded form.
+     */
+    private ByteString cachedEncodedValue = null;
 
     private T value;
 
@@ -480,12 +503,14 @@ class WindmillStateInternals<K> implements StateInternals {
         StateTag<ValueState<T>> address,
         String stateFamily,
         Coder<T> coder,
-        boolean isNewKey) {
+        boolean isNewKey,
+        boolean cacheEncodedValue) {
       this.namespace = namespace;
       this.address = address;
       this.stateKey = encodeKey(namespace, address);
       this.stateFamily = stateFamily;
       this.coder = coder;
+      this.cacheEncodedValue = cacheEncodedValue;
       if (isNewKey) {
         this.valueIsKnown = true;
         this.value = null;
@@ -496,6 +521,7 @@ class WindmillStateInternals<K> implements StateInternals {
     public void clear() {
       modified = true;
       valueIsKnown = true;
+      cachedEncodedValue = null;
       value = null;
     }
 
@@ -511,6 +537,8 @@ class WindmillStateInternals<K> implements StateInternals {
       try (Closeable scope = scopedReadState()) {
         if (!valueIsKnown) {
           cachedSize = -1;
+        } else if (cachedEncodedValue != null && value == null) {
+          value = coder.decode(cachedEncodedValue.newInput(), Coder.Context.OUTER);
         }
         value = getFuture().get();
         valueIsKnown = true;
@@ -528,6 +556,7 @@ class WindmillStateInternals<K> implements StateInternals {
       modified = true;
       valueIsKnown = true;
       cachedSize = -1;
+      cachedEncodedValue = null;
       this.value = value;
     }
 
@@ -551,6 +580,14 @@ class WindmillStateInternals<K> implements StateInternals {
         cachedSize = encoded.size();
       }
 
+      if (cacheEncodedValue && encoded != null && value != null) {
+        cachedEncodedValue = encoded;
+      }
+      if (cachedEncodedValue != null) {
+        // Only retain the encoded form while cached, the value is decoded on the next read.
+        value = null;
+      }
+
       // Place in cache to avoid a future read.
       cache.put(namespace, address, this, cachedSize);
 
@@ -2266,6 +2303,12 @@ class WindmillStateInternals<K> implements StateInternals {
     private final ByteString stateKey;
     private final String stateFamily;
     private final Coder<T> elemCoder;
+    /**
+     * If set, {@link #cachedValues} is built from the encoded values rather than holding the
+     * decoded values. They are decoded into {@link #decodedValues} by the first read of a work
+     * item.
+     */
+    private final boolean cacheEncodedValues;
 
     private boolean cleared = false;
     /**
@@ -2275,6 +2318,12 @@ class WindmillStateInternals<K> implements StateInternals {
      * contents.
      */
     private ConcatIterables<T> cachedValues = null;
+    /**
+     * If caching encoded values, the decoded {@link #cachedValues} once read in the current work
+     * item, so that iterating the bag repeatedly decodes it once. Dropped when persisting, so that
+     * the cache only holds and weighs the encoded values.
+     */
+    private @Nullable List<T> decodedValues = null;
 
     private List<T> localAdditions = new ArrayList<>();
     private long encodedSize = 0;
@@ -2284,12 +2333,14 @@ class WindmillStateInternals<K> implements StateInternals {
         StateTag<BagState<T>> address,
         String stateFamily,
         Coder<T> elemCoder,
-        boolean isNewKey) {
+        boolean isNewKey,
+        boolean cacheEncodedValues) {
       this.namespace = namespace;
       this.address = address;
       this.stateKey = encodeKey(namespace, address);
       this.stateFamily = stateFamily;
       this.elemCoder = elemCoder;
+      this.cacheEncodedValues = cacheEncodedValues;
       if (isNewKey) {
         this.cachedValues = new ConcatIterables<>();
       }
@@ -2299,6 +2350,7 @@ class WindmillStateInternals<K> implements StateInternals {
     public void clear() {
       cleared = true;
       cachedValues = new ConcatIterables<>();
+      decodedValues = null;
       localAdditions = new ArrayList<>();
       encodedSize = 0;
     }
@@ -2307,21 +2359,24 @@ class WindmillStateInternals<K> implements StateInternals {
      * Return iterable over all bag values in Windmill which should contribute to overall bag
      * contents.
      */
-    private Iterable<T> fetchData(Future<Iterable<T>> persistedData) {
+    @SuppressWarnings("unchecked")
+    private Iterable<T> fetchData(Future<? extends Iterable<?>> persistedData) {
       try (Closeable scope = scopedReadState()) {
         if (cachedValues != null) {
-          return cachedValues.snapshot();
+          return cachedSnapshot();
         }
-        Iterable<T> data = persistedData.get();
+        Iterable<?> data = persistedData.get();
+        Iterable<T> values =
+            cacheEncodedValues ? decoding((Iterable<byte[]>) data) : (Iterable<T>) data;
         if (data instanceof Weighted) {
           // We have a known bounded amount of data; cache it.
           cachedValues = new ConcatIterables<>();
-          cachedValues.extendWith(data);
+          cachedValues.extendWith(values);
           encodedSize = ((Weighted) data).getWeight();
-          return cachedValues.snapshot();
+          return cachedSnapshot();
         } else {
           // This is an iterable that may not fit in memory at once; don't cache it.
-          return data;
+          return values;
         }
       } catch (InterruptedException | ExecutionException | IOException e) {
         if (e instanceof InterruptedException) {
@@ -2331,6 +2386,16 @@ class WindmillStateInternals<K> implements StateInternals {
       }
     }
 
+    private Iterable<T> cachedSnapshot() {
+      if (!cacheEncodedValues) {
+        return cachedValues.snapshot();
+      }
+      if (decodedValues == null) {
+        decodedValues = Collections.unmodifiableList(Lists.newArrayList(cachedValues.snapshot()));
+      }
+      return decodedValues;
+    }
+
     public boolean valuesAreCached() {
       return cachedValues != null;
     }
@@ -2375,6 +2440,10 @@ class WindmillStateInternals<K> implements StateInternals {
       WorkItemCommitRequest.Builder commitBuilder = WorkItemCommitRequest.newBuilder();
 
       Windmill.TagBag.Builder bagUpdatesBuilder = null;
+      List<byte[]> encodedAdditions =
+          cacheEncodedValues && cachedValues != null && !localAdditions.isEmpty()
+              ? new ArrayList<>(localAdditions.size())
+              : null;
 
       if (cleared) {
         bagUpdatesBuilder = commitBuilder.addBagUpdatesBuilder();
@@ -2396,6 +2465,9 @@ class WindmillStateInternals<K> implements StateInternals {
             // We'll capture this value in the cache below.
             // Capture the value's size now since we have it.
             encodedSize += encoded.size();
+            if (encodedAdditions != null) {
+              encodedAdditions.add(encoded.toByteArray());
+            }
           }
           bagUpdatesBuilder.addValues(encoded);
         }
@@ -2409,7 +2481,8 @@ class WindmillStateInternals<K> implements StateInternals {
         if (!localAdditions.isEmpty()) {
           // Capture the local additions in the cached value since we and
           // Windmill are now in agreement.
-          cachedValues.extendWith(localAdditions);
+          cachedValues.extendWith(
+              encodedAdditions != null ? decoding(encodedAdditions) : localAdditions);
         }
         // We now know the complete bag contents, and any read on it will yield a
         // cached value, so cache it for future reads.
@@ -2419,12 +2492,33 @@ class WindmillStateInternals<K> implements StateInternals {
       // Don't reuse the localAdditions object; we don't want future changes to it to
       // modify the value of cachedValues.
       localAdditions = new ArrayList<>();
+      decodedValues = null;
 
       return commitBuilder.buildPartial();
     }
 
-    private Future<Iterable<T>> getFuture() {
-      return cachedValues != null ? null : reader.bagFuture(stateKey, stateFamily, elemCoder);
+    private Future<? extends Iterable<?>> getFuture() {
+      if (cachedValues != null) {
+        return null;
+      }
+      if (cacheEncodedValues) {
+        // Read the values without decoding them, they are decoded when iterated.
+        return reader.bagFuture(stateKey, stateFamily, ByteArrayCoder.of());
+      }
+      return reader.bagFuture(stateKey, stateFamily, elemCoder);
+    }
+
+    /** Returns a view of {@code encodedValues} which decodes each value as it is iterated. */
+    private Iterable<T> decoding(Iterable<byte[]> encodedValues) {
+      return Iterables.transform(
+          encodedValues,
+          encoded -> {
+            try {
+              return elemCoder.decode(new ByteArrayInputStream(encoded), Coder.Context.OUTER);
+            } catch (IOException e) {
+              throw new IllegalStateException("Unable to decode bag value using " + elemCoder, e);
+            }
+          });
     }
   }
 
@@ -2700,7 +2794,13 @@ class WindmillStateInternals<K> implements StateInternals {
       this.bag =
           (cachedBag != null)
               ? cachedBag
-              : new WindmillBag<>(namespace, internalBagAddress, stateFamily, accumCoder, isNewKey);
+              : new WindmillBag<>(
+                  namespace,
+                  internalBagAddress,
+                  stateFamily,
+                  accumCoder,
+                  isNewKey,
+                  cache.cachesEncodedValues());
       this.combineFn = combineFn;
       this.localAdditionsAccum = combineFn.createAccumulator();
     }
@@ -34,9 +34,13 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
@@ -89,6 +93,9 @@ class WindmillStateReader {
 
   public static final long CONTINUATION_MAX_BAG_BYTES = 32L << 20; // 32MB
 
+  /** Smallest fetch_max_bytes of a bag page which is read ahead. See {@link PagingIterable}. */
+  @VisibleForTesting static final long MIN_READ_AHEAD_BAG_BYTES = 1L << 20; // 1MB
+
   /**
    * Ideal maximum bytes in a TagMultimapFetchResponse response. However, Windmill will always
    * return at least one value if possible irrespective of this limit.
@@ -230,7 +237,24 @@ class WindmillStateReader {
 
   private final MetricTrackingWindmillServerStub server;
 
-  private long bytesRead = 0L;
+  // If non-null, used to choose the page sizes of bag reads.
+  private final @Nullable BagFetchSizeEstimator bagFetchSizeEstimator;
+
+  // If non-null, continuation pages are fetched on this executor once half of the previous page
+  // has been consumed, rather than when the next page is first needed.
+  private final @Nullable Executor readAheadExecutor;
+
+  // Reads ahead which have been submitted to readAheadExecutor but have not finished.
+  private final Set<ReadAhead> pendingReadAheads = ConcurrentHashMap.newKeySet();
+
+  // The fetch_max_bytes of bag pages being read ahead, chosen by the iterator consuming them.
+  private final ConcurrentHashMap<StateTag<?>, Long> readAheadFetchBytes =
+      new ConcurrentHashMap<>();
+
+  // Set once the work item is done with this reader, after which nothing is read ahead.
+  private volatile boolean closed = false;
+
+  private final AtomicLong bytesRead = new AtomicLong();
 
   public WindmillStateReader(
       MetricTrackingWindmillServerStub server,
@@ -238,13 +262,27 @@ class WindmillStateReader {
       ByteString key,
       long shardingKey,
       long workToken,
-      Supplier<AutoCloseable> readWrapperSupplier) {
+      Supplier<AutoCloseable> readWrapperSupplier,
+      @Nullable BagFetchSizeEstimator bagFetchSizeEstimator,
+      @Nullable Executor readAheadExecutor) {
     this.server = server;
     this.computation = computation;
     this.key = key;
     this.shardingKey = shardingKey;
     this.workToken = workToken;
     this.readWrapperSupplier = readWrapperSupplier;
+    this.bagFetchSizeEstimator = bagFetchSizeEstimator;
+    this.readAheadExecutor = readAheadExecutor;
+  }
+
+  public WindmillStateReader(
+      MetricTrackingWindmillServerStub server,
+      String computation,
+      ByteString key,
+      long shardingKey,
+      long workToken,
+      Supplier<AutoCloseable> readWrapperSupplier) {
+    this(server, computation, key, shardingKey, workToken, readWrapperSupplier, null, null);
   }
 
   public WindmillStateReader(
@@ -422,23 +460,50 @@ class WindmillStateReader {
 
     @Override
     public T get() throws InterruptedException, ExecutionException {
-      if (!delegate().isDone() && reader != null) {
-        // Only one thread per reader, so no race here.
-        reader.startBatchAndBlock();
+      @Nullable AutoCloseable readWrapper = startRead();
+      try {
+        return super.get();
+      } finally {
+        closeReadWrapper(readWrapper);
       }
-      reader = null;
-      return super.get();
     }
 
     @Override
     public T get(long timeout, TimeUnit unit)
         throws InterruptedException, ExecutionException, TimeoutException {
-      if (!delegate().isDone() && reader != null) {
-        // Only one thread per reader, so no race here.
-        reader.startBatchAndBlock();
+      @Nullable AutoCloseable readWrapper = startRead();
+      try {
+        return super.get(timeout, unit);
+      } finally {
+        closeReadWrapper(readWrapper);
+      }
+    }
+
+    /**
+     * Fetches the value if it has not been read yet. If it is instead being read ahead by another
+     * thread, returns a read wrapper to close once it has been waited for, so that the wait is
+     * tracked like any other blocking read.
+     */
+    private @Nullable AutoCloseable startRead() {
+      WindmillStateReader reader = this.reader;
+      this.reader = null;
+      if (delegate().isDone() || reader == null) {
+        return null;
+      }
+      // Only the processing thread starts batches. Reads ahead run concurrently, but each only
+      // fetches a lookup it removed from pendingLookups, so no lookup is fetched twice.
+      reader.startBatchAndBlock();
+      return delegate().isDone() ? null : reader.readWrapperSupplier.get();
+    }
+
+    private static void closeReadWrapper(@Nullable AutoCloseable readWrapper) {
+      if (readWrapper != null) {
+        try {
+          readWrapper.close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
       }
-      reader = null;
-      return super.get(timeout, unit);
     }
   }
 
@@ -560,6 +625,11 @@ class WindmillStateReader {
   }
 
   public void startBatchAndBlock() {
+    // Reads ahead which have not started are fetched now instead, along with everything else.
+    for (ReadAhead readAhead : pendingReadAheads) {
+      readAhead.unschedule();
+    }
+
     // First, drain work out of the pending lookups into a set. These will be the items we fetch.
     HashSet<StateTag<?>> toFetch = Sets.newHashSet();
     try {
@@ -588,29 +658,118 @@ class WindmillStateReader {
         return;
       }
 
-      Windmill.KeyedGetDataRequest request = createRequest(toFetch);
-      Windmill.KeyedGetDataResponse response;
+      fetch(toFetch, true);
+    } catch (Exception e) {
+      // Set up all the remaining futures for this key to throw an exception. This ensures that if
+      // the exception is caught that all futures have been completed and do not block.
+      failFetches(toFetch, e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Finishes the use of this reader by a work item, whether it succeeded or failed. Reads ahead
+   * which have not started are dropped, and no more are started.
+   */
+  public void close() {
+    closed = true;
+    for (ReadAhead readAhead : pendingReadAheads) {
+      readAhead.unschedule();
+    }
+  }
+
+  /**
+   * Fetches {@code stateTag}, which must be a pending lookup, on the read-ahead executor so that it
+   * is likely to be available by the time it is needed. Bag pages are fetched with at most {@code
+   * fetchMaxBytes}.
+   */
+  private void readAhead(StateTag<?> stateTag, long fetchMaxBytes) {
+    if (readAheadExecutor == null || closed || !pendingLookups.remove(stateTag)) {
+      // There is nothing to read ahead with, or the tag was already fetched with other lookups.
+      return;
+    }
+    if (stateTag.getKind() == Kind.BAG) {
+      readAheadFetchBytes.put(stateTag, fetchMaxBytes);
+    }
+    ReadAhead readAhead = new ReadAhead(stateTag);
+    pendingReadAheads.add(readAhead);
+    try {
+      readAheadExecutor.execute(readAhead);
+    } catch (RejectedExecutionException e) {
+      // The executor is saturated or shut down, so the page will be read when it is needed.
+      readAhead.unschedule();
+    }
+  }
+
+  /** A fetch of a single lookup on the read-ahead executor. */
+  private class ReadAhead implements Runnable {
+    private final StateTag<?> stateTag;
+    // Set once the fetch has started or been unscheduled, whichever happens first.
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    private ReadAhead(StateTag<?> stateTag) {
+      this.stateTag = stateTag;
+    }
+
+    @Override
+    public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      Set<StateTag<?>> toFetch = Sets.newHashSet(stateTag);
+      try {
+        fetch(toFetch, false);
+      } catch (Throwable t) {
+        // Nothing waits for this thread, so the failure is surfaced by the future of the lookup.
+        failFetches(toFetch, t);
+      } finally {
+        pendingReadAheads.remove(this);
+      }
+    }
+
+    /** Returns the lookup to the pending lookups, unless its fetch has already started. */
+    private void unschedule() {
+      if (claimed.compareAndSet(false, true)) {
+        pendingReadAheads.remove(this);
+        readAheadFetchBytes.remove(stateTag);
+        pendingLookups.add(stateTag);
+      }
+    }
+  }
+
+  /**
+   * Fetches {@code toFetch}, removing tags as their futures are completed. Only fetches on the
+   * processing thread are tracked as blocking reads. Its waits for reads ahead are tracked instead.
+   */
+  private void fetch(Set<StateTag<?>> toFetch, boolean onProcessingThread) throws Exception {
+    Windmill.KeyedGetDataRequest request = createRequest(toFetch);
+    Windmill.KeyedGetDataResponse response;
+    if (onProcessingThread) {
       try (AutoCloseable readWrapper = readWrapperSupplier.get()) {
         response = server.getStateData(computation, request);
       }
-      if (response == null) {
-        throw new RuntimeException("Windmill unexpectedly returned null for request " + request);
-      }
+    } else {
+      response = server.getStateData(computation, request);
+    }
+    if (response == null) {
+      throw new RuntimeException("Windmill unexpectedly returned null for request " + request);
+    }
 
-      // Removes tags from toFetch as they are processed.
-      consumeResponse(response, toFetch);
-    } catch (Exception e) {
-      // Set up all the remaining futures for this key to throw an exception. This ensures that if
-      // the exception is caught that all futures have been completed and do not block.
-      for (StateTag<?> stateTag : toFetch) {
-        waiting.get(stateTag).future.setException(e);
+    // Removes tags from toFetch as they are processed.
+    consumeResponse(response, toFetch);
+  }
+
+  private void failFetches(Set<StateTag<?>> toFetch, Throwable t) {
+    for (StateTag<?> stateTag : toFetch) {
+      CoderAndFuture<?> coderAndFuture = waiting.get(stateTag);
+      if (coderAndFuture != null) {
+        coderAndFuture.future.setException(t);
       }
-      throw new RuntimeException(e);
     }
   }
 
   public long getBytesRead() {
-    return bytesRead;
+    return bytesRead.get();
   }
 
   private Windmill.KeyedGetDataRequest createRequest(Iterable<StateTag<?>> toFetch) {
@@ -632,10 +791,21 @@ class WindmillStateReader {
                   .setTag(stateTag.getTag())
                   .setStateFamily(stateTag.getStateFamily());
           if (stateTag.getRequestPosition() == null) {
-            bag.setFetchMaxBytes(INITIAL_MAX_BAG_BYTES);
+            bag.setFetchMaxBytes(
+                bagFetchSizeEstimator == null
+                    ? INITIAL_MAX_BAG_BYTES
+                    : bagFetchSizeEstimator.initialFetchBytes(stateTag));
           } else {
             // We're asking for the next page.
-            bag.setFetchMaxBytes(CONTINUATION_MAX_BAG_BYTES);
+            long fetchMaxBytes =
+                bagFetchSizeEstimator == null
+                    ? CONTINUATION_MAX_BAG_BYTES
+                    : bagFetchSizeEstimator.continuationFetchBytes(stateTag);
+            Long readAheadBytes = readAheadFetchBytes.remove(stateTag);
+            if (readAheadBytes != null) {
+              fetchMaxBytes = Math.min(fetchMaxBytes, readAheadBytes);
+            }
+            bag.setFetchMaxBytes(fetchMaxBytes);
             bag.setRequestPosition((Long) stateTag.getRequestPosition());
             continuation = true;
           }
@@ -761,7 +931,7 @@ class WindmillStateReader {
   }
 
   private void consumeResponse(Windmill.KeyedGetDataResponse response, Set<StateTag<?>> toFetch) {
-    bytesRead += response.getSerializedSize();
+    bytesRead.addAndGet(response.getSerializedSize());
     if (response.getFailed()) {
       throw new KeyTokenInvalidException(key.toStringUtf8());
     }
@@ -917,7 +1087,7 @@ class WindmillStateReader {
   }
 
   /** The deserialized values in {@code bag} as a read-only array list. */
-  private <T> List<T> bagPageValues(TagBag bag, Coder<T> elemCoder) {
+  private <T> WeightedList<T> bagPageValues(TagBag bag, Coder<T> elemCoder) {
     if (bag.getValuesCount() == 0) {
       return new WeightedList<T>(Collections.<T>emptyList());
     }
@@ -1030,7 +1200,15 @@ class WindmillStateReader {
         coderAndFuture.getNonDoneFuture(stateTag);
     try {
       Coder<T> coder = coderAndFuture.<T>getAndClearCoder();
-      List<T> values = this.bagPageValues(bag, coder);
+      WeightedList<T> values = this.bagPageValues(bag, coder);
+      if (bagFetchSizeEstimator != null && stateTag.getRequestPosition() == null) {
+        long pageBytes = values.getWeight();
+        if (bag.hasContinuationPosition()) {
+          bagFetchSizeEstimator.recordTruncatedRead(stateTag, pageBytes);
+        } else {
+          bagFetchSizeEstimator.recordCompleteRead(stateTag, pageBytes);
+        }
+      }
       future.set(
           new ValuesAndContPosition<>(
               values, bag.hasContinuationPosition() ? bag.getContinuationPosition() : null));
@@ -1202,6 +1380,14 @@ class WindmillStateReader {
    *       only retain the first. Thus the maximum memory pressure is one page plus one page per
    *       call to iterator.
    * </ol>
+   *
+   * <p>If the reader has a read-ahead executor, the request for the next page is issued in the
+   * background once half of the current page has been consumed, so that consuming the rest of the
+   * page overlaps with fetching the next one. This adds at most one more page of memory pressure
+   * per iterator. Bag pages read ahead start at {@link #CONTINUATION_MAX_BAG_BYTES}, like pages
+   * which are not read ahead. Each following one is half as large if the previous one was fetched
+   * before the iterator needed it, down to {@link #MIN_READ_AHEAD_BAG_BYTES}, and otherwise twice
+   * as large, up to {@link #CONTINUATION_MAX_BAG_BYTES} again.
    */
   private static class PagingIterable<ContinuationT, ResultT> implements Iterable<ResultT> {
     /**
@@ -1235,20 +1421,38 @@ class WindmillStateReader {
     public Iterator<ResultT> iterator() {
       return new AbstractIterator<ResultT>() {
         private Iterator<ResultT> currentPage = firstPage.iterator();
+        // The number of values of the current page to return before reading the next one ahead.
+        private int valuesBeforeReadAhead = firstPage.size() / 2;
         private StateTag<ContinuationT> nextPagePos = secondPagePos;
         private Future<ValuesAndContPosition<ResultT, ContinuationT>> pendingNextPage =
             // NOTE: The results of continuation page reads are never cached.
             reader.continuationFuture(nextPagePos, coder);
+        private boolean readingAhead = false;
+        private long readAheadBytes = CONTINUATION_MAX_BAG_BYTES;
+        // Bytes of all pages read by this iterator, used to estimate the size of bags.
+        private long bytesRead = weightOf(firstPage);
 
         @Override
         protected ResultT computeNext() {
           while (true) {
             if (currentPage.hasNext()) {
+              if (valuesBeforeReadAhead-- == 0 && pendingNextPage != null) {
+                reader.readAhead(nextPagePos, readAheadBytes);
+                readingAhead = true;
+              }
               return currentPage.next();
             }
             if (pendingNextPage == null) {
               return endOfData();
             }
+            if (readingAhead) {
+              // Fetch larger pages while they are consumed faster than they are fetched.
+              readAheadBytes =
+                  pendingNextPage.isDone()
+                      ? Math.max(MIN_READ_AHEAD_BAG_BYTES, readAheadBytes / 2)
+                      : Math.min(CONTINUATION_MAX_BAG_BYTES, readAheadBytes * 2);
+              readingAhead = false;
+            }
 
             ValuesAndContPosition<ResultT, ContinuationT> valuesAndContPosition;
             try {
@@ -1260,6 +1464,14 @@ class WindmillStateReader {
               throw new RuntimeException("Unable to read value from state", e);
             }
             currentPage = valuesAndContPosition.values.iterator();
+            valuesBeforeReadAhead = valuesAndContPosition.values.size() / 2;
+            bytesRead += weightOf(valuesAndContPosition.values);
+            if (valuesAndContPosition.continuationPosition == null
+                && nextPagePos.getKind() == Kind.BAG
+                && reader.bagFetchSizeEstimator != null) {
+              // This is the last page, so the whole bag has now been read.
+              reader.bagFetchSizeEstimator.recordCompleteRead(nextPagePos, bytesRead);
+            }
             StateTag.Builder<ContinuationT> nextPageBuilder =
                 StateTag.of(
                         nextPagePos.getKind(),
@@ -1284,5 +1496,9 @@ class WindmillStateReader {
         }
       };
     }
+
+    private static long weightOf(List<?> page) {
+      return page instanceof Weighted ? ((Weighted) page).getWeight() : 0;
+    }
   }
 }
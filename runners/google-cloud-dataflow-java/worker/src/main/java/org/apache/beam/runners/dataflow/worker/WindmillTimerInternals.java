@@ -21,7 +21,7 @@ import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Pr
 import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.function.Consumer;
 import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateNamespaces;
@@ -32,14 +32,11 @@ import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
-import org.apache.beam.sdk.util.ExposedByteArrayInputStream;
-import org.apache.beam.sdk.util.ExposedByteArrayOutputStream;
 import org.apache.beam.sdk.util.VarInt;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.HashBasedTable;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Table;
-import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Table.Cell;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
@@ -60,15 +57,14 @@ class WindmillTimerInternals implements TimerInternals {
       BoundedWindow.TIMESTAMP_MAX_VALUE.plus(Duration.millis(1));
 
   private static final String TIMER_HOLD_PREFIX = "/h";
-  // Map from timer id to its TimerData. If it is to be deleted, we still need
-  // its time domain here. Note that TimerData is unique per ID and namespace,
-  // though technically in Windmill this is only enforced per ID and namespace
-  // and TimeDomain. This TimerInternals is scoped to a step and key, shared
-  // across namespaces.
-  private Table<String, StateNamespace, TimerData> timers = HashBasedTable.create();
-
-  // Map from timer id to whether it is to be deleted or set
-  private Table<String, StateNamespace, Boolean> timerStillPresent = HashBasedTable.create();
+  // Map from namespace and timer id to the last modification of the timer, which is a deleted
+  // TimerData if the timer is to be deleted. Repeated modifications of a timer are coalesced into
+  // a single mutation at commit. If it is to be deleted, we still need its time domain here. Note
+  // that TimerData is unique per ID and namespace, though technically in Windmill this is only
+  // enforced per ID and namespace and TimeDomain. This TimerInternals is scoped to a step and key,
+  // shared across namespaces. Rows are keyed by namespace so that the namespace, which is costly
+  // to encode, is only encoded once per commit.
+  private final Table<StateNamespace, String, TimerData> timers = HashBasedTable.create();
 
   private Instant inputDataWatermark;
   private Instant processingTime;
@@ -109,8 +105,7 @@ class WindmillTimerInternals implements TimerInternals {
   @Override
   public void setTimer(TimerData timerKey) {
     String timerDataKey = getTimerDataKey(timerKey.getTimerId(), timerKey.getTimerFamilyId());
-    timers.put(timerDataKey, timerKey.getNamespace(), timerKey);
-    timerStillPresent.put(timerDataKey, timerKey.getNamespace(), true);
+    timers.put(timerKey.getNamespace(), timerDataKey, timerKey);
     onTimerModified.accept(timerKey);
   }
 
@@ -139,9 +134,9 @@ class WindmillTimerInternals implements TimerInternals {
   @Override
   public void deleteTimer(TimerData timerKey) {
     String timerDataKey = getTimerDataKey(timerKey.getTimerId(), timerKey.getTimerFamilyId());
-    timers.put(timerDataKey, timerKey.getNamespace(), timerKey);
-    timerStillPresent.put(timerDataKey, timerKey.getNamespace(), false);
-    onTimerModified.accept(timerKey.deleted());
+    TimerData deletedTimer = timerKey.deleted();
+    timers.put(timerKey.getNamespace(), timerDataKey, deletedTimer);
+    onTimerModified.accept(deletedTimer);
   }
 
   @Override
@@ -202,59 +197,72 @@ class WindmillTimerInternals implements TimerInternals {
   }
 
   public void persistTo(Windmill.WorkItemCommitRequest.Builder outputBuilder) {
-    for (Cell<String, StateNamespace, Boolean> cell : timerStillPresent.cellSet()) {
-      // Regardless of whether it is set or not, it must have some TimerData stored so we
-      // can know its time domain
-      TimerData timerData = timers.get(cell.getRowKey(), cell.getColumnKey());
-
-      Timer.Builder timer =
-          buildWindmillTimerFromTimerData(
-              stateFamily, prefix, timerData, outputBuilder.addOutputTimersBuilder());
-
-      if (cell.getValue()) {
-        // Setting the timer. If it is a user timer, set a hold.
-
-        // Only set a hold if it's needed and if the hold is before the end of the global window.
-        if (needsWatermarkHold(timerData)) {
-          if (timerData
-              .getOutputTimestamp()
-              .isBefore(GlobalWindow.INSTANCE.maxTimestamp().plus(Duration.millis(1)))) {
-            // Setting a timer, clear any prior hold and set to the new value
-            outputBuilder
-                .addWatermarkHoldsBuilder()
-                .setTag(timerHoldTag(prefix, timerData))
-                .setStateFamily(stateFamily)
-                .setReset(true)
-                .addTimestamps(
-                    WindmillTimeUtils.harnessToWindmillTimestamp(timerData.getOutputTimestamp()));
-          } else {
-            // Clear the hold in case a previous iteration of this timer set one.
-            outputBuilder
-                .addWatermarkHoldsBuilder()
-                .setTag(timerHoldTag(prefix, timerData))
-                .setStateFamily(stateFamily)
-                .setReset(true);
-          }
-        }
-      } else {
-        // Deleting a timer. If it is a user timer, clear the hold
-        timer.clearTimestamp();
-        timer.clearMetadataTimestamp();
-        // Clear the hold even if it's the end of the global window in order to maintain update
-        // compatibility.
-        if (needsWatermarkHold(timerData)) {
-          // We are deleting timer; clear the hold
+    String prefixString = prefix.byteString().toStringUtf8();
+    for (Map.Entry<StateNamespace, Map<String, TimerData>> row : timers.rowMap().entrySet()) {
+      String namespaceKey = row.getKey().stringKey();
+      for (TimerData timerData : row.getValue().values()) {
+        persistTimer(outputBuilder, prefixString, namespaceKey, timerData);
+      }
+    }
+
+    // Wipe the unpersisted state
+    timers.clear();
+  }
+
+  private void persistTimer(
+      Windmill.WorkItemCommitRequest.Builder outputBuilder,
+      String prefixString,
+      String namespaceKey,
+      TimerData timerData) {
+    // Regardless of whether it is set or not, it must have some TimerData stored so we
+    // can know its time domain
+    Timer.Builder timer =
+        buildWindmillTimerFromTimerData(
+            stateFamily,
+            timerTag(prefixString, namespaceKey, timerData),
+            timerData,
+            outputBuilder.addOutputTimersBuilder());
+
+    if (!timerData.getDeleted()) {
+      // Setting the timer. If it is a user timer, set a hold.
+
+      // Only set a hold if it's needed and if the hold is before the end of the global window.
+      if (needsWatermarkHold(timerData)) {
+        if (timerData
+            .getOutputTimestamp()
+            .isBefore(GlobalWindow.INSTANCE.maxTimestamp().plus(Duration.millis(1)))) {
+          // Setting a timer, clear any prior hold and set to the new value
+          outputBuilder
+              .addWatermarkHoldsBuilder()
+              .setTag(timerHoldTag(prefixString, namespaceKey, timerData))
+              .setStateFamily(stateFamily)
+              .setReset(true)
+              .addTimestamps(
+                  WindmillTimeUtils.harnessToWindmillTimestamp(timerData.getOutputTimestamp()));
+        } else {
+          // Clear the hold in case a previous iteration of this timer set one.
           outputBuilder
               .addWatermarkHoldsBuilder()
-              .setTag(timerHoldTag(prefix, timerData))
+              .setTag(timerHoldTag(prefixString, namespaceKey, timerData))
               .setStateFamily(stateFamily)
               .setReset(true);
         }
       }
+    } else {
+      // Deleting a timer. If it is a user timer, clear the hold
+      timer.clearTimestamp();
+      timer.clearMetadataTimestamp();
+      // Clear the hold even if it's the end of the global window in order to maintain update
+      // compatibility.
+      if (needsWatermarkHold(timerData)) {
+        // We are deleting timer; clear the hold
+        outputBuilder
+            .addWatermarkHoldsBuilder()
+            .setTag(timerHoldTag(prefixString, namespaceKey, timerData))
+            .setStateFamily(stateFamily)
+            .setReset(true);
+      }
     }
-
-    // Wipe the unpersisted state
-    timers.clear();
   }
 
   private boolean needsWatermarkHold(TimerData timerData) {
@@ -281,8 +289,13 @@ class WindmillTimerInternals implements TimerInternals {
       WindmillNamespacePrefix prefix,
       TimerData timerData,
       Timer.Builder builder) {
+    return buildWindmillTimerFromTimerData(
+        stateFamily, timerTag(prefix, timerData), timerData, builder);
+  }
 
-    builder.setTag(timerTag(prefix, timerData)).setType(timerType(timerData.getDomain()));
+  private static Timer.Builder buildWindmillTimerFromTimerData(
+      @Nullable String stateFamily, ByteString tag, TimerData timerData, Timer.Builder builder) {
+    builder.setTag(tag).setType(timerType(timerData.getDomain()));
 
     if (stateFamily != null) {
       builder.setStateFamily(stateFamily);
@@ -416,37 +429,23 @@ class WindmillTimerInternals implements TimerInternals {
    * <p>This is necessary because Windmill will deduplicate based only on this tag.
    */
   public static ByteString timerTag(WindmillNamespacePrefix prefix, TimerData timerData) {
-    String tagString;
-    ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream();
-    try {
-      if (useNewTimerTagEncoding(timerData)) {
-        tagString =
-            new StringBuilder()
-                .append(prefix.byteString().toStringUtf8()) // this never ends with a slash
-                .append(
-                    timerData.getNamespace().stringKey()) // this must begin and end with a slash
-                .append('+')
-                .append(timerData.getTimerId()) // this is arbitrary; currently unescaped
-                .append('+')
-                .append(timerData.getTimerFamilyId())
-                .toString();
-        out.write(tagString.getBytes(StandardCharsets.UTF_8));
-      } else {
-        // Timers without timerFamily would have timerFamily would be an empty string
-        tagString =
-            new StringBuilder()
-                .append(prefix.byteString().toStringUtf8()) // this never ends with a slash
-                .append(
-                    timerData.getNamespace().stringKey()) // this must begin and end with a slash
-                .append('+')
-                .append(timerData.getTimerId()) // this is arbitrary; currently unescaped
-                .toString();
-        out.write(tagString.getBytes(StandardCharsets.UTF_8));
-      }
-      return ByteString.readFrom(new ExposedByteArrayInputStream(out.toByteArray()));
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    return timerTag(
+        prefix.byteString().toStringUtf8(), timerData.getNamespace().stringKey(), timerData);
+  }
+
+  private static ByteString timerTag(
+      String prefixString, String namespaceKey, TimerData timerData) {
+    StringBuilder tagString =
+        new StringBuilder()
+            .append(prefixString) // this never ends with a slash
+            .append(namespaceKey) // this must begin and end with a slash
+            .append('+')
+            .append(timerData.getTimerId()); // this is arbitrary; currently unescaped
+    // Timers without timerFamily would have timerFamily would be an empty string
+    if (useNewTimerTagEncoding(timerData)) {
+      tagString.append('+').append(timerData.getTimerFamilyId());
     }
+    return ByteString.copyFromUtf8(tagString.toString());
   }
 
   /**
@@ -454,31 +453,24 @@ class WindmillTimerInternals implements TimerInternals {
    * hold that is only freed after the timer fires.
    */
   public static ByteString timerHoldTag(WindmillNamespacePrefix prefix, TimerData timerData) {
-    String tagString;
-    if ("".equals(timerData.getTimerFamilyId())) {
-      tagString =
-          new StringBuilder()
-              .append(prefix.byteString().toStringUtf8()) // this never ends with a slash
-              .append(TIMER_HOLD_PREFIX) // this never ends with a slash
-              .append(timerData.getNamespace().stringKey()) // this must begin and end with a slash
-              .append('+')
-              .append(timerData.getTimerId()) // this is arbitrary; currently unescaped
-              .toString();
-    } else {
-      tagString =
-          new StringBuilder()
-              .append(prefix.byteString().toStringUtf8()) // this never ends with a slash
-              .append(TIMER_HOLD_PREFIX) // this never ends with a slash
-              .append(timerData.getNamespace().stringKey()) // this must begin and end with a slash
-              .append('+')
-              .append(timerData.getTimerId()) // this is arbitrary; currently unescaped
-              .append('+')
-              .append(
-                  timerData.getTimerFamilyId()) // use to differentiate same timerId in different
-              // timerMap
-              .toString();
+    return timerHoldTag(
+        prefix.byteString().toStringUtf8(), timerData.getNamespace().stringKey(), timerData);
+  }
+
+  private static ByteString timerHoldTag(
+      String prefixString, String namespaceKey, TimerData timerData) {
+    StringBuilder tagString =
+        new StringBuilder()
+            .append(prefixString) // this never ends with a slash
+            .append(TIMER_HOLD_PREFIX) // this never ends with a slash
+            .append(namespaceKey) // this must begin and end with a slash
+            .append('+')
+            .append(timerData.getTimerId()); // this is arbitrary; currently unescaped
+    if (!"".equals(timerData.getTimerFamilyId())) {
+      // use to differentiate same timerId in different timerMap
+      tagString.append('+').append(timerData.getTimerFamilyId());
     }
-    return ByteString.copyFromUtf8(tagString);
+    return ByteString.copyFromUtf8(tagString.toString());
   }
 
   @VisibleForTesting
@@ -72,6 +72,14 @@ public interface StreamingDataflowWorkerOptions extends DataflowWorkerHarnessOpt
 
   void setActiveWorkRefreshPeriodMillis(int value);
 
+  @Description(
+      "Number of threads committing work to Windmill. Each thread has its own commit queue and "
+          + "commit streams, and work items are assigned to a thread by the hash of their key.")
+  @Default.Integer(1)
+  int getWindmillServiceCommitThreads();
+
+  void setWindmillServiceCommitThreads(int value);
+
   @Description("Necessary duration for a commit to be considered stuck and invalidated.")
   @Default.Integer(10 * 60 * 1000)
   int getStuckCommitDurationMillis();
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.beam.runners.dataflow.worker.WindmillStateReader.StateTag;
+import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BagFetchSizeEstimator}. */
+@RunWith(JUnit4.class)
+public class BagFetchSizeEstimatorTest {
+  private static final long MB = 1L << 20;
+
+  private static final StateTag<Long> TAG =
+      StateTag.of(StateTag.Kind.BAG, ByteString.copyFromUtf8("tag"), "family");
+  private static final StateTag<Long> CONTINUATION_TAG =
+      StateTag.of(StateTag.Kind.BAG, ByteString.copyFromUtf8("tag"), "family", 42L);
+  private static final StateTag<Long> OTHER_TAG =
+      StateTag.of(StateTag.Kind.BAG, ByteString.copyFromUtf8("other"), "family");
+
+  private final BagFetchSizeEstimator estimator = new BagFetchSizeEstimator();
+
+  @Test
+  public void testUnknownTagUsesDefaults() {
+    assertEquals(WindmillStateReader.INITIAL_MAX_BAG_BYTES, estimator.initialFetchBytes(TAG));
+    assertEquals(
+        WindmillStateReader.CONTINUATION_MAX_BAG_BYTES,
+        estimator.continuationFetchBytes(CONTINUATION_TAG));
+  }
+
+  @Test
+  public void testCompleteReadSizesFirstPage() {
+    estimator.recordCompleteRead(TAG, 12 * MB);
+    assertEquals(15 * MB, estimator.initialFetchBytes(TAG));
+    assertEquals(15 * MB, estimator.continuationFetchBytes(CONTINUATION_TAG));
+    assertEquals(WindmillStateReader.INITIAL_MAX_BAG_BYTES, estimator.initialFetchBytes(OTHER_TAG));
+
+    // Later reads are averaged with earlier ones.
+    estimator.recordCompleteRead(TAG, 4 * MB);
+    assertEquals(12 * MB + MB / 2, estimator.initialFetchBytes(TAG));
+
+    estimator.recordCompleteRead(TAG, 1000 * MB);
+    assertEquals(WindmillStateReader.CONTINUATION_MAX_BAG_BYTES, estimator.initialFetchBytes(TAG));
+  }
+
+  @Test
+  public void testSmallBagFetchSizesAreBounded() {
+    estimator.recordCompleteRead(TAG, 100);
+    assertEquals(BagFetchSizeEstimator.MIN_INITIAL_FETCH_BYTES, estimator.initialFetchBytes(TAG));
+    assertEquals(
+        WindmillStateReader.INITIAL_MAX_BAG_BYTES,
+        estimator.continuationFetchBytes(CONTINUATION_TAG));
+  }
+
+  @Test
+  public void testTruncatedReadGrowsEstimate() {
+    estimator.recordCompleteRead(CONTINUATION_TAG, 4 * MB);
+    assertEquals(5 * MB, estimator.initialFetchBytes(TAG));
+    estimator.recordTruncatedRead(TAG, 8 * MB);
+    assertEquals(10 * MB, estimator.initialFetchBytes(TAG));
+    estimator.recordTruncatedRead(TAG, 2 * MB);
+    assertEquals(10 * MB, estimator.initialFetchBytes(TAG));
+  }
+}
@@ -56,6 +56,7 @@ import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.runners.dataflow.util.RandomAccessData;
 import org.apache.beam.runners.dataflow.worker.DataflowOperationContext.DataflowExecutionState;
 import org.apache.beam.runners.dataflow.worker.IsmReaderImpl.CachedTailSeekableByteChannel;
+import org.apache.beam.runners.dataflow.worker.IsmReaderImpl.IsmIndexKey;
 import org.apache.beam.runners.dataflow.worker.IsmReaderImpl.IsmShardKey;
 import org.apache.beam.runners.dataflow.worker.profiler.ScopedProfiler.NoopProfileScope;
 import org.apache.beam.runners.dataflow.worker.util.ValueInEmptyWindows;
@@ -77,6 +78,7 @@ import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.Cache;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.cache.CacheBuilder;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.FluentIterable;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableSortedMap;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.primitives.Ints;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.primitives.UnsignedBytes;
@@ -381,6 +383,80 @@ public class IsmReaderTest {
     assertEquals(0, cache.size());
   }
 
+  @Test
+  public void testPrefetchLoadsBlocksOfRequestedKeys() throws Exception {
+    File tmpFile = tmpFolder.newFile();
+    List<IsmRecord<byte[]>> data = new ArrayList<>();
+    // Use enough data so that initialization does not load all the blocks into the cache.
+    for (int i = 0; i < IsmReaderImpl.MAX_SHARD_INDEX_AND_FOOTER_SIZE / TEST_BLOCK_SIZE + 1; ++i) {
+      data.add(
+          IsmRecord.<byte[]>of(
+              ImmutableList.of(EMPTY, Ints.toByteArray(i)), new byte[TEST_BLOCK_SIZE]));
+    }
+    writeElementsToFile(data, tmpFile);
+
+    IsmReader<byte[]> reader =
+        new IsmReaderImpl<byte[]>(
+            FileSystems.matchSingleFileSpec(tmpFile.getAbsolutePath()).resourceId(), CODER, cache);
+    reader.prefetch(
+        ImmutableList.of(
+            ImmutableList.of(EMPTY, Ints.toByteArray(700)),
+            ImmutableList.of(EMPTY, Ints.toByteArray(3)),
+            // Not enough key components to identify a shard, ignored.
+            ImmutableList.of()));
+    long prefetchedBlocks = cache.size();
+    assertTrue(prefetchedBlocks > 0);
+
+    // Reading the prefetched keys does not need to load any more blocks.
+    for (int i : Arrays.asList(3, 700)) {
+      IsmReader<byte[]>.IsmPrefixReaderIterator iterator =
+          reader.overKeyComponents(ImmutableList.of(EMPTY, Ints.toByteArray(i)));
+      assertTrue(iterator.start());
+      assertArrayEquals(
+          Ints.toByteArray(i), (byte[]) iterator.getCurrent().getValue().getKeyComponent(1));
+    }
+    assertEquals(prefetchedBlocks, cache.size());
+  }
+
+  @Test
+  public void testIndexBlocksAreSharedAcrossReaders() throws Exception {
+    File tmpFile = tmpFolder.newFile();
+    List<IsmRecord<byte[]>> data = new ArrayList<>();
+    for (int i = 0; i < IsmReaderImpl.MAX_SHARD_INDEX_AND_FOOTER_SIZE / TEST_BLOCK_SIZE + 1; ++i) {
+      data.add(
+          IsmRecord.<byte[]>of(
+              ImmutableList.of(EMPTY, Ints.toByteArray(i)), new byte[TEST_BLOCK_SIZE]));
+    }
+    writeElementsToFile(data, tmpFile);
+
+    Cache<IsmIndexKey, WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>>>
+        indexCache =
+            CacheBuilder.newBuilder()
+                .weigher(Weighers.fixedWeightKeys(1))
+                .maximumWeight(10_000_000)
+                .recordStats()
+                .build();
+    for (int i = 0; i < 2; ++i) {
+      IsmReader<byte[]> reader =
+          new IsmReaderImpl<byte[]>(
+              FileSystems.matchSingleFileSpec(tmpFile.getAbsolutePath()).resourceId(),
+              CODER,
+              cache,
+              indexCache);
+      assertTrue(reader.overKeyComponents(ImmutableList.of(EMPTY, Ints.toByteArray(5))).start());
+    }
+    assertEquals(1, indexCache.size());
+    assertEquals(1, indexCache.stats().missCount());
+    assertEquals(1, indexCache.stats().hitCount());
+
+    // The index is weighed by its decoded size rather than its encoded size.
+    WeightedValue<ImmutableSortedMap<RandomAccessData, IsmShardKey>> index =
+        Iterables.getOnlyElement(indexCache.asMap().values());
+    assertTrue(
+        index.getWeight()
+            >= (long) index.getValue().size() * IsmReaderImpl.INDEX_ENTRY_OVERHEAD_BYTES);
+  }
+
   /** Write input elements to the specified file. */
   static void writeElementsToFile(Iterable<IsmRecord<byte[]>> elements, File tmpFile)
       throws Exception {
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OrderedCodeDecoder}. */
+@RunWith(JUnit4.class)
+public class OrderedCodeDecoderTest {
+
+  @Test
+  public void testDecodesOrderedCode() {
+    Random random = new Random(4389234L);
+    for (int iteration = 0; iteration < 1000; iteration++) {
+      byte[] bytes = new byte[random.nextInt(20)];
+      random.nextBytes(bytes);
+      long unsigned = random.nextLong() >>> random.nextInt(64);
+      long signed = random.nextLong() >> random.nextInt(64);
+
+      OrderedCode orderedCode = new OrderedCode();
+      orderedCode.writeBytes(bytes);
+      orderedCode.writeNumIncreasing(unsigned);
+      orderedCode.writeSignedNumIncreasing(signed);
+      orderedCode.writeInfinity();
+      orderedCode.writeTrailingBytes(new byte[] {'x', 'y'});
+
+      OrderedCodeDecoder decoder = new OrderedCodeDecoder(orderedCode.getEncodedBytes());
+      assertArrayEquals(bytes, decoder.readBytes());
+      assertFalse(decoder.readInfinity());
+      assertEquals(unsigned, decoder.readNumIncreasing());
+      assertEquals(signed, decoder.readSignedNumIncreasing());
+      assertTrue(decoder.readInfinity());
+      assertArrayEquals(new byte[] {'x', 'y'}, decoder.readTrailingBytes());
+      assertFalse(decoder.hasRemainingEncodedBytes());
+    }
+  }
+
+  @Test
+  public void testRoundTripThroughDirectBuffer() {
+    OrderedCodeEncoder encoder = OrderedCodeEncoder.growable(2, true);
+    encoder.writeUtf8("key\u0000\u00e9");
+    encoder.writeSignedNumIncreasing(Long.MIN_VALUE);
+    encoder.writeSignedNumIncreasing(Long.MAX_VALUE);
+    encoder.writeNumIncreasing(-1L);
+    encoder.writeBytes(new byte[] {(byte) 0xff, 0x00});
+    encoder.writeTrailingBytes(new byte[] {1, 2, 3});
+
+    ByteBuffer encoded = encoder.getEncodedBuffer();
+    OrderedCodeDecoder decoder = new OrderedCodeDecoder(encoded);
+    assertEquals("key\u0000\u00e9", decoder.readUtf8());
+    assertEquals(Long.MIN_VALUE, decoder.readSignedNumIncreasing());
+    assertEquals(Long.MAX_VALUE, decoder.readSignedNumIncreasing());
+    assertEquals(-1L, decoder.readNumIncreasing());
+    assertArrayEquals(new byte[] {(byte) 0xff, 0x00}, decoder.readBytes());
+    assertArrayEquals(new byte[] {1, 2}, decoder.readBytes(2));
+    assertArrayEquals(new byte[] {3}, decoder.readTrailingBytes());
+    // The decoder does not consume the supplied buffer.
+    assertEquals(0, encoded.position());
+  }
+
+  @Test
+  public void testInvalidEncodings() {
+    byte[][] invalidBytes = {{}, {'a'}, {'a', 0x00}, {'a', 0x00, 0x02}, {(byte) 0xff, 0x01}};
+    for (byte[] encoded : invalidBytes) {
+      try {
+        new OrderedCodeDecoder(encoded).readBytes();
+        fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    byte[][] invalidNumbers = {{}, {9}, {2, 1}};
+    for (byte[] encoded : invalidNumbers) {
+      try {
+        new OrderedCodeDecoder(encoded).readNumIncreasing();
+        fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    byte[][] invalidSignedNumbers = {{}, {(byte) 0xc0}, {(byte) 0xff, (byte) 0xff}};
+    for (byte[] encoded : invalidSignedNumbers) {
+      try {
+        new OrderedCodeDecoder(encoded).readSignedNumIncreasing();
+        fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OrderedCodeEncoder}. */
+@RunWith(JUnit4.class)
+public class OrderedCodeEncoderTest {
+  private static final long[] INTERESTING_LONGS = {
+    0L,
+    1L,
+    -1L,
+    63L,
+    64L,
+    -64L,
+    -65L,
+    255L,
+    256L,
+    1L << 31,
+    -(1L << 31),
+    1L << 55,
+    (1L << 55) - 1,
+    1L << 62,
+    Long.MAX_VALUE,
+    Long.MIN_VALUE,
+    Long.MIN_VALUE + 1
+  };
+
+  @Test
+  public void testMatchesOrderedCodeForNumbers() {
+    for (long value : INTERESTING_LONGS) {
+      OrderedCode orderedCode = new OrderedCode();
+      orderedCode.writeNumIncreasing(value);
+      orderedCode.writeSignedNumIncreasing(value);
+      OrderedCodeEncoder encoder = OrderedCodeEncoder.create();
+      encoder.writeNumIncreasing(value);
+      encoder.writeSignedNumIncreasing(value);
+      assertArrayEquals(
+          "Value " + value, orderedCode.getEncodedBytes(), encoder.getEncodedBytes());
+    }
+  }
+
+  @Test
+  public void testMatchesOrderedCodeForRandomSequences() {
+    Random random = new Random(8345234L);
+    for (int iteration = 0; iteration < 1000; iteration++) {
+      OrderedCode orderedCode = new OrderedCode();
+      OrderedCodeEncoder encoder = OrderedCodeEncoder.growable(1, iteration % 2 == 0);
+      for (int item = 0; item < 5; item++) {
+        switch (random.nextInt(4)) {
+          case 0:
+            byte[] bytes = new byte[random.nextInt(20)];
+            random.nextBytes(bytes);
+            orderedCode.writeBytes(bytes);
+            encoder.writeBytes(bytes);
+            break;
+          case 1:
+            long unsigned = random.nextLong() >>> random.nextInt(64);
+            orderedCode.writeNumIncreasing(unsigned);
+            encoder.writeNumIncreasing(unsigned);
+            break;
+          case 2:
+            long signed = random.nextLong() >> random.nextInt(64);
+            orderedCode.writeSignedNumIncreasing(signed);
+            encoder.writeSignedNumIncreasing(signed);
+            break;
+          default:
+            orderedCode.writeInfinity();
+            encoder.writeInfinity();
+            break;
+        }
+      }
+      assertArrayEquals(orderedCode.getEncodedBytes(), encoder.getEncodedBytes());
+    }
+  }
+
+  @Test
+  public void testWriteBytesEscapesSpecialCharacters() {
+    byte[] value = {'a', 0x00, 'b', (byte) 0xff, 0x00, 'c'};
+    OrderedCode orderedCode = new OrderedCode();
+    orderedCode.writeBytes(value);
+    orderedCode.writeTrailingBytes(new byte[] {'z'});
+    OrderedCodeEncoder encoder = OrderedCodeEncoder.create();
+    encoder.writeBytes(new byte[] {'-', 'a', 0x00, 'b', (byte) 0xff, 0x00, 'c', '-'}, 1, 6);
+    encoder.writeTrailingBytes(new byte[] {'z'});
+    assertArrayEquals(orderedCode.getEncodedBytes(), encoder.getEncodedBytes());
+  }
+
+  @Test
+  public void testWriteUtf8MatchesWriteBytes() {
+    String[] values = {
+      "",
+      "abc",
+      "a\u0000b",
+      "\u00e9t\u00e9",
+      "\u4e16\u754c",
+      "\ud83d\ude00",
+      "bad\ud83dpair\ude00"
+    };
+    for (String value : values) {
+      OrderedCodeEncoder bytesEncoder = OrderedCodeEncoder.create();
+      bytesEncoder.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+      OrderedCodeEncoder utf8Encoder = OrderedCodeEncoder.create();
+      utf8Encoder.writeUtf8(value);
+      assertArrayEquals(
+          "Value " + value, bytesEncoder.getEncodedBytes(), utf8Encoder.getEncodedBytes());
+    }
+  }
+
+  @Test
+  public void testResetReusesBuffer() {
+    OrderedCodeEncoder encoder = OrderedCodeEncoder.growable(4, true);
+    encoder.writeSignedNumIncreasing(Long.MIN_VALUE);
+    encoder.writeBytes(new byte[100]);
+    assertTrue(encoder.getEncodedBuffer().isDirect());
+    encoder.reset();
+    assertEquals(0, encoder.size());
+    encoder.writeNumIncreasing(1L);
+    assertArrayEquals(new byte[] {1, 1}, encoder.getEncodedBytes());
+  }
+
+  @Test
+  public void testWrapAppendsAtPosition() {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.put((byte) 'x');
+    OrderedCodeEncoder encoder = OrderedCodeEncoder.wrap(buffer);
+    encoder.writeNumIncreasing(0x0102L);
+    assertEquals(4, buffer.position());
+    assertArrayEquals(new byte[] {2, 1, 2}, encoder.getEncodedBytes());
+
+    ByteBuffer view = encoder.getEncodedBuffer();
+    assertTrue(view.isReadOnly());
+    assertEquals(3, view.remaining());
+
+    encoder.reset();
+    assertEquals(1, buffer.position());
+  }
+
+  @Test
+  public void testWrapThrowsWhenFull() {
+    OrderedCodeEncoder encoder = OrderedCodeEncoder.wrap(ByteBuffer.allocate(4));
+    encoder.writeNumIncreasing(1L);
+    try {
+      encoder.writeNumIncreasing(Long.MAX_VALUE);
+      fail("Expected BufferOverflowException.");
+    } catch (BufferOverflowException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testEncodingIsOrderPreserving() {
+    for (long a : INTERESTING_LONGS) {
+      for (long b : INTERESTING_LONGS) {
+        OrderedCodeEncoder first = OrderedCodeEncoder.create();
+        first.writeSignedNumIncreasing(a);
+        OrderedCodeEncoder second = OrderedCodeEncoder.create();
+        second.writeSignedNumIncreasing(b);
+        int comparison = compareUnsigned(first.getEncodedBytes(), second.getEncodedBytes());
+        assertEquals(Integer.signum(Long.compare(a, b)), Integer.signum(comparison));
+      }
+    }
+  }
+
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      int comparison = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+}
@@ -23,6 +23,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.api.services.dataflow.model.CounterMetadata;
@@ -41,6 +42,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.beam.runners.core.SideInputReader;
 import org.apache.beam.runners.core.StateNamespaceForTest;
+import org.apache.beam.runners.core.StateNamespaces;
 import org.apache.beam.runners.core.TimerInternals;
 import org.apache.beam.runners.core.TimerInternals.TimerData;
 import org.apache.beam.runners.core.metrics.ExecutionStateSampler;
@@ -48,6 +50,7 @@ import org.apache.beam.runners.core.metrics.ExecutionStateTracker;
 import org.apache.beam.runners.core.metrics.ExecutionStateTracker.ExecutionState;
 import org.apache.beam.runners.dataflow.options.DataflowWorkerHarnessOptions;
 import org.apache.beam.runners.dataflow.worker.DataflowExecutionContext.DataflowExecutionStateTracker;
+import org.apache.beam.runners.dataflow.worker.DataflowExecutionContext.DataflowStepContext;
 import org.apache.beam.runners.dataflow.worker.MetricsToCounterUpdateConverter.Kind;
 import org.apache.beam.runners.dataflow.worker.StreamingModeExecutionContext.StreamingModeExecutionState;
 import org.apache.beam.runners.dataflow.worker.StreamingModeExecutionContext.StreamingModeExecutionStateRegistry;
@@ -62,6 +65,7 @@ import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.View;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.util.SerializableUtils;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.vendor.grpc.v1p54p0.com.google.protobuf.ByteString;
@@ -150,6 +154,64 @@ public class StreamingModeExecutionContextTest {
     assertThat(timer.getType(), equalTo(Windmill.Timer.Type.WATERMARK));
   }
 
+  @Test
+  public void testModifiedUserTimersFireOnce() {
+    Windmill.WorkItemCommitRequest.Builder outputBuilder =
+        Windmill.WorkItemCommitRequest.newBuilder();
+    NameContext nameContext = NameContextsForTests.nameContextForTest();
+    DataflowOperationContext operationContext =
+        executionContext.createOperationContext(nameContext);
+    DataflowStepContext userStepContext =
+        executionContext.getStepContext(operationContext).namespacedToUser();
+    TimerData bundleTimer =
+        TimerData.of(
+            "bundle",
+            StateNamespaces.global(),
+            new Instant(10000),
+            new Instant(10000),
+            TimeDomain.EVENT_TIME);
+    Windmill.WorkItem.Builder workItemBuilder =
+        Windmill.WorkItem.newBuilder().setKey(ByteString.EMPTY).setWorkToken(17L);
+    workItemBuilder
+        .getTimersBuilder()
+        .addTimers(
+            WindmillTimerInternals.timerDataToWindmillTimer(
+                "testStateFamily", WindmillNamespacePrefix.USER_NAMESPACE_PREFIX, bundleTimer));
+    executionContext.start(
+        "key",
+        workItemBuilder.build(),
+        new Instant(1000), // input watermark
+        null, // output watermark
+        null, // synchronized processing time
+        stateReader,
+        stateFetcher,
+        outputBuilder);
+
+    TimerInternals timerInternals = userStepContext.timerInternals();
+    for (int i = 1; i <= 100; i++) {
+      timerInternals.setTimer(
+          StateNamespaces.global(),
+          "expiry",
+          "",
+          new Instant(i * 10),
+          new Instant(i * 10),
+          TimeDomain.EVENT_TIME);
+    }
+
+    assertThat(
+        userStepContext.getNextFiredTimer(GlobalWindow.Coder.INSTANCE),
+        equalTo(
+            TimerData.of(
+                "expiry",
+                StateNamespaces.global(),
+                new Instant(1000),
+                new Instant(1000),
+                TimeDomain.EVENT_TIME)));
+    assertThat(
+        userStepContext.getNextFiredTimer(GlobalWindow.Coder.INSTANCE), equalTo(bundleTimer));
+    assertNull(userStepContext.getNextFiredTimer(GlobalWindow.Coder.INSTANCE));
+  }
+
   @Test
   public void testTimerInternalsProcessingTimeSkew() {
     Windmill.WorkItemCommitRequest.Builder outputBuilder =
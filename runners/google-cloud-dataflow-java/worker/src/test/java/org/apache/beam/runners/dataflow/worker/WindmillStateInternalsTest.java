@@ -23,7 +23,9 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
@@ -3023,6 +3025,8 @@ public class WindmillStateInternalsTest {
 
     Iterable<String> readResult2 = bag.read();
     assertThat(readResult2, Matchers.containsInAnyOrder("hello", "world", "goodbye"));
+    // The cached values are decoded once per work item, not on every iteration.
+    assertSame(Iterables.get(readResult2, 0), Iterables.get(bag.read(), 0));
     bag.clear();
     // Make sure that cached iterables have not changed after clear.
     assertThat(readResult2, Matchers.containsInAnyOrder("hello", "world", "goodbye"));
@@ -3055,6 +3059,122 @@ public class WindmillStateInternalsTest {
     Mockito.verifyNoMoreInteractions(mockReader);
   }
 
+  @Test
+  public void testCachedEncodedValue() throws Exception {
+    cache = new WindmillStateCache(options.getWorkerCacheMb(), true);
+    resetUnderTest();
+
+    StateTag<ValueState<String>> addr = StateTags.value("value", StringUtf8Coder.of());
+    ValueState<String> value = underTest.state(NAMESPACE, addr);
+
+    assertEquals(0, cache.getWeight());
+
+    value.write("Hi");
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(132, cache.getWeight());
+
+    resetUnderTest();
+    value = underTest.state(NAMESPACE, addr);
+    String decoded = value.read();
+    assertEquals("Hi", decoded);
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(132, cache.getWeight());
+
+    // A read value is only held in its encoded form by the cache, and decoded again when read.
+    resetUnderTest();
+    value = underTest.state(NAMESPACE, addr);
+    String decodedAgain = value.read();
+    assertEquals("Hi", decodedAgain);
+    assertNotSame(decoded, decodedAgain);
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(132, cache.getWeight());
+
+    resetUnderTest();
+    value = underTest.state(NAMESPACE, addr);
+    assertEquals("Hi", value.read());
+    value.clear();
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(130, cache.getWeight());
+
+    resetUnderTest();
+    value = underTest.state(NAMESPACE, addr);
+    assertEquals(null, value.read());
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    // A non-null value with an empty encoding is not mistaken for a null value.
+    StateTag<ValueState<String>> emptyAddr = StateTags.value("empty", StringUtf8Coder.of());
+    underTest.state(NAMESPACE, emptyAddr).write("");
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    resetUnderTest();
+    assertEquals("", underTest.state(NAMESPACE, emptyAddr).read());
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    Mockito.verifyNoMoreInteractions(mockReader);
+  }
+
+  @Test
+  public void testCachedEncodedBag() throws Exception {
+    cache = new WindmillStateCache(options.getWorkerCacheMb(), true);
+    resetUnderTest();
+
+    StateTag<BagState<String>> addr = StateTags.bag("bag", StringUtf8Coder.of());
+    BagState<String> bag = underTest.state(NAMESPACE, addr);
+
+    assertEquals(0, cache.getWeight());
+
+    SettableFuture<Iterable<byte[]>> future = SettableFuture.create();
+    when(mockReader.bagFuture(key(NAMESPACE, "bag"), STATE_FAMILY, ByteArrayCoder.of()))
+        .thenReturn(future);
+
+    bag.readLater();
+
+    assertEquals(0, cache.getWeight());
+
+    bag.add("hello");
+    WindmillStateReader.WeightedList<byte[]> encodedWorld =
+        new WindmillStateReader.WeightedList<>(new ArrayList<>());
+    encodedWorld.addWeighted("world".getBytes(StandardCharsets.UTF_8), 5);
+    waitAndSet(future, encodedWorld, 200);
+    Iterable<String> readResult1 = bag.read();
+    assertThat(readResult1, Matchers.containsInAnyOrder("hello", "world"));
+
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(140, cache.getWeight());
+
+    resetUnderTest();
+    bag = underTest.state(NAMESPACE, addr);
+    bag.add("goodbye");
+
+    // Make sure that cached iterables have not changed after persist+add.
+    assertThat(readResult1, Matchers.containsInAnyOrder("hello", "world"));
+
+    Iterable<String> readResult2 = bag.read();
+    assertThat(readResult2, Matchers.containsInAnyOrder("hello", "world", "goodbye"));
+    bag.clear();
+    bag.add("new");
+    // Make sure that cached iterables have not changed after clear+add.
+    assertThat(readResult2, Matchers.containsInAnyOrder("hello", "world", "goodbye"));
+
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    assertEquals(133, cache.getWeight());
+
+    resetUnderTest();
+    bag = underTest.state(NAMESPACE, addr);
+    assertThat(bag.read(), Matchers.containsInAnyOrder("new"));
+    underTest.persist(Windmill.WorkItemCommitRequest.newBuilder());
+
+    Mockito.verify(mockReader, times(2))
+        .bagFuture(key(NAMESPACE, "bag"), STATE_FAMILY, ByteArrayCoder.of());
+    Mockito.verifyNoMoreInteractions(mockReader);
+  }
+
   @Test
   public void testCachedWatermarkHold() throws Exception {
     StateTag<WatermarkHoldState> addr =
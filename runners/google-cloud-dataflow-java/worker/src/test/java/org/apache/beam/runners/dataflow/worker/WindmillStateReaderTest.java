@@ -30,9 +30,15 @@ import java.io.IOException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.KeyedGetDataRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.SortedListEntry;
@@ -47,6 +53,8 @@ import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Charsets;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Range;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.BaseEncoding;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.util.concurrent.MoreExecutors;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.hamcrest.Matchers;
 import org.joda.time.Instant;
 import org.junit.Before;
@@ -924,6 +932,251 @@ public class WindmillStateReaderTest {
     // assertNoReader(future).
   }
 
+  private WindmillStateReader readAheadReader(
+      Supplier<AutoCloseable> readWrapperSupplier, Executor readAheadExecutor) {
+    return new WindmillStateReader(
+        mockWindmill,
+        COMPUTATION,
+        DATA_KEY,
+        SHARDING_KEY,
+        WORK_TOKEN,
+        readWrapperSupplier,
+        null,
+        readAheadExecutor);
+  }
+
+  /** Returns a request for a page of the bag at {@code STATE_KEY_1}. */
+  private Windmill.KeyedGetDataRequest bagPageRequest(
+      @Nullable Long requestPosition, long fetchMaxBytes) {
+    Windmill.TagBag.Builder bag =
+        Windmill.TagBag.newBuilder()
+            .setTag(STATE_KEY_1)
+            .setStateFamily(STATE_FAMILY)
+            .setFetchMaxBytes(fetchMaxBytes);
+    if (requestPosition != null) {
+      bag.setRequestPosition(requestPosition);
+    }
+    return Windmill.KeyedGetDataRequest.newBuilder()
+        .setKey(DATA_KEY)
+        .setShardingKey(SHARDING_KEY)
+        .setWorkToken(WORK_TOKEN)
+        .setMaxBytes(
+            requestPosition == null
+                ? WindmillStateReader.MAX_KEY_BYTES
+                : WindmillStateReader.MAX_CONTINUATION_KEY_BYTES)
+        .addBagsToFetch(bag)
+        .build();
+  }
+
+  /** Returns a response with a page of the bag at {@code STATE_KEY_1}. */
+  private Windmill.KeyedGetDataResponse bagPageResponse(
+      @Nullable Long requestPosition, @Nullable Long continuationPosition, int... values)
+      throws IOException {
+    Windmill.TagBag.Builder bag =
+        Windmill.TagBag.newBuilder().setTag(STATE_KEY_1).setStateFamily(STATE_FAMILY);
+    if (requestPosition != null) {
+      bag.setRequestPosition(requestPosition);
+    }
+    if (continuationPosition != null) {
+      bag.setContinuationPosition(continuationPosition);
+    }
+    for (int value : values) {
+      bag.addValues(intData(value));
+    }
+    return Windmill.KeyedGetDataResponse.newBuilder().setKey(DATA_KEY).addBags(bag).build();
+  }
+
+  @Test
+  public void testReadBagWithContinuationsReadAhead() throws Exception {
+    underTest = readAheadReader(() -> null, MoreExecutors.directExecutor());
+    Future<Iterable<Integer>> future = underTest.bagFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+
+    Windmill.KeyedGetDataRequest request1 =
+        bagPageRequest(null, WindmillStateReader.INITIAL_MAX_BAG_BYTES);
+    // Pages read ahead start at the usual continuation page size.
+    Windmill.KeyedGetDataRequest request2 =
+        bagPageRequest(CONT_POSITION, WindmillStateReader.CONTINUATION_MAX_BAG_BYTES);
+    // The second page was fetched before it was needed, so the third one is smaller.
+    Windmill.KeyedGetDataRequest request3 =
+        bagPageRequest(CONT_POSITION + 1, WindmillStateReader.CONTINUATION_MAX_BAG_BYTES / 2);
+    Mockito.when(mockWindmill.getStateData(COMPUTATION, request1))
+        .thenReturn(bagPageResponse(null, CONT_POSITION, 5, 6));
+    Mockito.when(mockWindmill.getStateData(COMPUTATION, request2))
+        .thenReturn(bagPageResponse(CONT_POSITION, CONT_POSITION + 1, 7, 8));
+    Mockito.when(mockWindmill.getStateData(COMPUTATION, request3))
+        .thenReturn(bagPageResponse(CONT_POSITION + 1, null, 9, 10));
+
+    Iterator<Integer> iterator = future.get().iterator();
+    Mockito.verify(mockWindmill).getStateData(COMPUTATION, request1);
+    assertEquals(5, (int) iterator.next());
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+    // The second page is requested once half of the first page has been consumed.
+    assertEquals(6, (int) iterator.next());
+    Mockito.verify(mockWindmill).getStateData(COMPUTATION, request2);
+    List<Integer> values = new ArrayList<>();
+    iterator.forEachRemaining(values::add);
+    Mockito.verify(mockWindmill).getStateData(COMPUTATION, request3);
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+
+    assertThat(values, Matchers.contains(7, 8, 9, 10));
+  }
+
+  @Test
+  public void testReadBagReadAheadFailure() throws Exception {
+    underTest = readAheadReader(() -> null, MoreExecutors.directExecutor());
+    Future<Iterable<Integer>> future = underTest.bagFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+
+    Mockito.when(
+            mockWindmill.getStateData(
+                COMPUTATION, bagPageRequest(null, WindmillStateReader.INITIAL_MAX_BAG_BYTES)))
+        .thenReturn(bagPageResponse(null, CONT_POSITION, 5, 6));
+    Mockito.when(
+            mockWindmill.getStateData(
+                COMPUTATION,
+                bagPageRequest(CONT_POSITION, WindmillStateReader.CONTINUATION_MAX_BAG_BYTES)))
+        .thenThrow(new OutOfMemoryError("read ahead failed"));
+
+    Iterator<Integer> iterator = future.get().iterator();
+    assertEquals(5, (int) iterator.next());
+    // The failure of the read ahead is surfaced once the page it was reading is needed.
+    assertEquals(6, (int) iterator.next());
+    try {
+      iterator.next();
+      fail("Expected the failure of the read ahead");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause().getCause(), Matchers.instanceOf(OutOfMemoryError.class));
+    }
+  }
+
+  @Test
+  public void testReadBagReadAheadUnscheduledOnClose() throws Exception {
+    List<Runnable> queued = new ArrayList<>();
+    underTest = readAheadReader(() -> null, queued::add);
+    Future<Iterable<Integer>> future = underTest.bagFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+
+    Windmill.KeyedGetDataRequest request1 =
+        bagPageRequest(null, WindmillStateReader.INITIAL_MAX_BAG_BYTES);
+    // Pages which are not read ahead are requested with the usual page size.
+    Windmill.KeyedGetDataRequest request2 =
+        bagPageRequest(CONT_POSITION, WindmillStateReader.CONTINUATION_MAX_BAG_BYTES);
+    Mockito.when(mockWindmill.getStateData(COMPUTATION, request1))
+        .thenReturn(bagPageResponse(null, CONT_POSITION, 5, 6));
+    Mockito.when(mockWindmill.getStateData(COMPUTATION, request2))
+        .thenReturn(bagPageResponse(CONT_POSITION, null, 7, 8));
+
+    Iterator<Integer> iterator = future.get().iterator();
+    assertEquals(5, (int) iterator.next());
+    assertEquals(6, (int) iterator.next());
+    assertEquals(1, queued.size());
+
+    // Once the work item is done with the reader, queued reads ahead do nothing.
+    underTest.close();
+    queued.get(0).run();
+    Mockito.verify(mockWindmill).getStateData(COMPUTATION, request1);
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+
+    // The page is still read if it is needed.
+    assertEquals(7, (int) iterator.next());
+    Mockito.verify(mockWindmill).getStateData(COMPUTATION, request2);
+  }
+
+  @Test
+  public void testReadBagWaitForReadAheadIsTrackedAsRead() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    AtomicInteger readsClosed = new AtomicInteger();
+    CountDownLatch readAheadStarted = new CountDownLatch(1);
+    CountDownLatch secondRead = new CountDownLatch(1);
+    underTest =
+        readAheadReader(
+            () -> {
+              if (reads.incrementAndGet() == 2) {
+                secondRead.countDown();
+              }
+              return readsClosed::incrementAndGet;
+            },
+            runnable -> new Thread(runnable).start());
+    Future<Iterable<Integer>> future = underTest.bagFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+
+    Mockito.when(
+            mockWindmill.getStateData(
+                COMPUTATION, bagPageRequest(null, WindmillStateReader.INITIAL_MAX_BAG_BYTES)))
+        .thenReturn(bagPageResponse(null, CONT_POSITION, 5, 6));
+    Mockito.when(
+            mockWindmill.getStateData(
+                COMPUTATION,
+                bagPageRequest(CONT_POSITION, WindmillStateReader.CONTINUATION_MAX_BAG_BYTES)))
+        .thenAnswer(
+            invocation -> {
+              // Only respond once the processing thread is waiting for the page.
+              readAheadStarted.countDown();
+              secondRead.await(1, TimeUnit.MINUTES);
+              return bagPageResponse(CONT_POSITION, null, 7, 8);
+            });
+
+    Iterator<Integer> iterator = future.get().iterator();
+    assertEquals(5, (int) iterator.next());
+    assertEquals(6, (int) iterator.next());
+    assertTrue(readAheadStarted.await(1, TimeUnit.MINUTES));
+    assertEquals(1, reads.get());
+    assertEquals(7, (int) iterator.next());
+    assertEquals(2, reads.get());
+    assertEquals(2, readsClosed.get());
+    assertEquals(8, (int) iterator.next());
+  }
+
+  @Test
+  public void testReadBagAdaptiveFetchSizes() throws Exception {
+    BagFetchSizeEstimator estimator = new BagFetchSizeEstimator();
+    for (long expectedFetchMaxBytes :
+        new long[] {
+          WindmillStateReader.INITIAL_MAX_BAG_BYTES, BagFetchSizeEstimator.MIN_INITIAL_FETCH_BYTES
+        }) {
+      underTest =
+          new WindmillStateReader(
+              mockWindmill,
+              COMPUTATION,
+              DATA_KEY,
+              SHARDING_KEY,
+              WORK_TOKEN,
+              () -> null,
+              estimator,
+              null);
+      Future<Iterable<Integer>> future =
+          underTest.bagFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+
+      Windmill.KeyedGetDataRequest.Builder expectedRequest =
+          Windmill.KeyedGetDataRequest.newBuilder()
+              .setKey(DATA_KEY)
+              .setShardingKey(SHARDING_KEY)
+              .setWorkToken(WORK_TOKEN)
+              .setMaxBytes(WindmillStateReader.MAX_KEY_BYTES)
+              .addBagsToFetch(
+                  Windmill.TagBag.newBuilder()
+                      .setTag(STATE_KEY_1)
+                      .setStateFamily(STATE_FAMILY)
+                      .setFetchMaxBytes(expectedFetchMaxBytes));
+
+      Windmill.KeyedGetDataResponse.Builder response =
+          Windmill.KeyedGetDataResponse.newBuilder()
+              .setKey(DATA_KEY)
+              .addBags(
+                  Windmill.TagBag.newBuilder()
+                      .setTag(STATE_KEY_1)
+                      .setStateFamily(STATE_FAMILY)
+                      .addValues(intData(5))
+                      .addValues(intData(6)));
+
+      Mockito.when(mockWindmill.getStateData(COMPUTATION, expectedRequest.build()))
+          .thenReturn(response.build());
+
+      // The first read observes a small bag, so the second read requests a smaller page.
+      assertThat(future.get(), Matchers.contains(5, 6));
+      Mockito.verify(mockWindmill).getStateData(COMPUTATION, expectedRequest.build());
+    }
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+  }
+
   @Test
   public void testReadSortedList() throws Exception {
     long beginning = SortedListRange.getDefaultInstance().getStart();
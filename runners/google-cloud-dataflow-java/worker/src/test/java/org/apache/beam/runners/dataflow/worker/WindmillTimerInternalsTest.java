@@ -18,12 +18,15 @@
 package org.apache.beam.runners.dataflow.worker;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
 
 import java.util.List;
 import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateNamespaces;
 import org.apache.beam.runners.core.TimerInternals.TimerData;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
@@ -155,4 +158,78 @@ public class WindmillTimerInternalsTest {
       }
     }
   }
+
+  @Test
+  public void testPersistCoalescesTimerModifications() {
+    StateNamespace namespace =
+        StateNamespaces.window(
+            IntervalWindow.getCoder(), new IntervalWindow(new Instant(13), new Instant(47)));
+    WindmillTimerInternals timerInternals =
+        new WindmillTimerInternals(
+            "F24",
+            WindmillNamespacePrefix.USER_NAMESPACE_PREFIX,
+            new Instant(0),
+            new Instant(0),
+            null,
+            null,
+            timer -> {});
+    for (int i = 0; i < 100; i++) {
+      timerInternals.setTimer(
+          namespace, "expiry", "", new Instant(i), new Instant(i), TimeDomain.EVENT_TIME);
+    }
+    timerInternals.setTimer(
+        namespace, "deleted", "family", new Instant(5), new Instant(5), TimeDomain.EVENT_TIME);
+    timerInternals.deleteTimer(namespace, "deleted", "family", TimeDomain.EVENT_TIME);
+
+    Windmill.WorkItemCommitRequest.Builder outputBuilder =
+        Windmill.WorkItemCommitRequest.newBuilder();
+    timerInternals.persistTo(outputBuilder);
+
+    TimerData expiry =
+        TimerData.of(
+            "expiry", "", namespace, new Instant(99), new Instant(99), TimeDomain.EVENT_TIME);
+    TimerData deleted =
+        TimerData.of(
+            "deleted",
+            "family",
+            namespace,
+            BoundedWindow.TIMESTAMP_MIN_VALUE,
+            BoundedWindow.TIMESTAMP_MAX_VALUE,
+            TimeDomain.EVENT_TIME);
+    assertThat(
+        outputBuilder.getOutputTimersList(),
+        containsInAnyOrder(
+            WindmillTimerInternals.timerDataToWindmillTimer(
+                "F24", WindmillNamespacePrefix.USER_NAMESPACE_PREFIX, expiry),
+            WindmillTimerInternals.timerDataToWindmillTimer(
+                    "F24", WindmillNamespacePrefix.USER_NAMESPACE_PREFIX, deleted)
+                .toBuilder()
+                .clearTimestamp()
+                .clearMetadataTimestamp()
+                .build()));
+    assertThat(
+        outputBuilder.getWatermarkHoldsList(),
+        containsInAnyOrder(
+            Windmill.WatermarkHold.newBuilder()
+                .setTag(
+                    WindmillTimerInternals.timerHoldTag(
+                        WindmillNamespacePrefix.USER_NAMESPACE_PREFIX, expiry))
+                .setStateFamily("F24")
+                .setReset(true)
+                .addTimestamps(WindmillTimeUtils.harnessToWindmillTimestamp(new Instant(99)))
+                .build(),
+            Windmill.WatermarkHold.newBuilder()
+                .setTag(
+                    WindmillTimerInternals.timerHoldTag(
+                        WindmillNamespacePrefix.USER_NAMESPACE_PREFIX, deleted))
+                .setStateFamily("F24")
+                .setReset(true)
+                .build()));
+
+    // Persisted modifications are not committed again.
+    Windmill.WorkItemCommitRequest.Builder nextOutputBuilder =
+        Windmill.WorkItemCommitRequest.newBuilder();
+    timerInternals.persistTo(nextOutputBuilder);
+    assertEquals(0, nextOutputBuilder.getOutputTimersCount());
+  }
 }
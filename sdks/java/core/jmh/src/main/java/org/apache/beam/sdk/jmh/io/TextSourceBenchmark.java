@@ -30,6 +30,7 @@ import org.apache.beam.sdk.io.TextIOReadTest;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.LineReader;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
@@ -74,8 +75,17 @@ public class TextSourceBenchmark {
 
   @Benchmark
   public void benchmarkTextSource(Data data) throws Exception {
+    readTextSource(data, null);
+  }
+
+  @Benchmark
+  public void benchmarkTextSourceCustomDelimiter(Data data) throws Exception {
+    readTextSource(data, new byte[] {'\n'});
+  }
+
+  private static void readTextSource(Data data, byte @Nullable [] delimiter) throws Exception {
     Source.Reader<String> reader =
-        ((FileBasedSource<String>) TextIOReadTest.getTextSource(data.pathString, null))
+        ((FileBasedSource<String>) TextIOReadTest.getTextSource(data.pathString, delimiter))
             .createReader(PipelineOptionsFactory.create());
     int length = 0;
     int linesRead = 0;
@@ -43,6 +43,7 @@ import org.apache.beam.sdk.runners.TransformHierarchy.Node;
 import org.apache.beam.sdk.schemas.SchemaRegistry;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.reflect.DoFnInvokerArchive;
 import org.apache.beam.sdk.transforms.resourcehints.ResourceHints;
 import org.apache.beam.sdk.util.UserCodeException;
 import org.apache.beam.sdk.values.PBegin;
@@ -318,6 +319,7 @@ public class Pipeline {
     LOG.debug("Running {} via {}", this, runner);
     try {
       validate(options);
+      DoFnInvokerArchive.stageInvokers(this, options);
       return runner.run(this);
     } catch (UserCodeException e) {
       // This serves to replace the stack with one that ends here and
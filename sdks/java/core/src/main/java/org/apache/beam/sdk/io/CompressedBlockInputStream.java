@@ -0,0 +1,1006 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static org.apache.beam.sdk.util.Preconditions.checkStateNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An {@link InputStream} over the decompressed contents of the blocks of a compressed file which
+ * start at or after a given offset. Used by {@link CompressedSource} to split compressed files.
+ *
+ * <p>A block is a unit of the file which can be decompressed independently of the data before it:
+ * a member of a multi-member gzip file, such as a BGZF file or several concatenated gzip files, a
+ * block of a bzip2 file, or a frame of a zstd file. When reading starts part way into a file, the
+ * first block is found by searching for the signature of the format and is only accepted once its
+ * start, or for bzip2 the whole block, decompresses successfully. The frame offsets of seekable
+ * zstd files are read from the seek table instead. Subsequent blocks follow one another directly.
+ *
+ * <p>The offset of each block within the compressed file is tracked so that a reader of a range of
+ * the file can tell where in the decompressed data the first block at or after the end of its range
+ * starts.
+ */
+abstract class CompressedBlockInputStream extends InputStream {
+  /** The number of decompressed bytes of a candidate first block read before it is accepted. */
+  @VisibleForTesting static final int VERIFY_BYTES = 64 * 1024;
+
+  protected final Input input;
+  private final boolean searchForFirstBlock;
+  private final long endOffset;
+
+  private @Nullable InputStream block;
+  private long blockOffset = -1;
+  private long position;
+  private long endPosition = Long.MAX_VALUE;
+  private boolean started;
+  private boolean done;
+  private final byte[] singleByte = new byte[1];
+
+  private CompressedBlockInputStream(
+      ReadableByteChannel channel, long offset, boolean searchForFirstBlock, long endOffset) {
+    this.input = new Input(channel, offset);
+    this.searchForFirstBlock = searchForFirstBlock;
+    this.endOffset = endOffset;
+  }
+
+  /** Returns whether files of the given compression consist of independently compressed blocks. */
+  static boolean supports(Compression compression) {
+    switch (compression) {
+      case GZIP:
+      case BZIP2:
+      case ZSTD:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns a stream of the blocks of a file starting at or after {@code startOffset}, where {@code
+   * channel} is positioned at {@code startOffset}.
+   */
+  static CompressedBlockInputStream create(
+      Compression compression, ReadableByteChannel channel, long startOffset, long endOffset)
+      throws IOException {
+    switch (compression) {
+      case GZIP:
+        return new Gzip(channel, startOffset, endOffset);
+      case BZIP2:
+        return new Bzip2(channel, startOffset, endOffset);
+      case ZSTD:
+        return Zstd.create(channel, startOffset, endOffset);
+      default:
+        throw new IllegalArgumentException(
+            "Compression " + compression + " does not support reading from block boundaries");
+    }
+  }
+
+  /**
+   * Moves to the next block, returning its offset in the file, or -1 if there are no more blocks.
+   * If {@code search} is set the block may start anywhere after the current position, otherwise it
+   * must start at the current position.
+   */
+  protected abstract long nextBlock(boolean search) throws IOException;
+
+  /** Returns the decompressed contents of the block found by the last {@link #nextBlock}. */
+  protected abstract InputStream blockContents() throws IOException;
+
+  /** Returns the offset of the first block, reading until it is found, or -1 if there is none. */
+  long getFirstBlockOffset() throws IOException {
+    start();
+    return blockOffset;
+  }
+
+  /** Returns the offset of the block currently being read, or -1 before the first block. */
+  long getBlockOffset() {
+    return blockOffset;
+  }
+
+  /**
+   * Returns the position within this stream at which the first block starting at or after the end
+   * offset begins, or {@link Long#MAX_VALUE} if no such block has been reached.
+   */
+  long getEndPosition() {
+    return endPosition;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return readSingleByte(this, singleByte);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    start();
+    while (!done) {
+      int n = checkStateNotNull(block).read(b, off, len);
+      if (n > 0 || len == 0) {
+        position += n;
+        return n;
+      }
+      if (n < 0) {
+        advance(false);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (block != null) {
+      block.close();
+    }
+    input.close();
+  }
+
+  private void start() throws IOException {
+    if (!started) {
+      started = true;
+      advance(searchForFirstBlock);
+    }
+  }
+
+  private void advance(boolean search) throws IOException {
+    if (block != null) {
+      block.close();
+      block = null;
+    }
+    long offset = nextBlock(search);
+    if (offset < 0) {
+      done = true;
+      return;
+    }
+    blockOffset = offset;
+    if (endPosition == Long.MAX_VALUE && offset >= endOffset) {
+      endPosition = position;
+    }
+    block = blockContents();
+  }
+
+  /**
+   * Decompresses the start of a candidate first block, returning a stream of its whole contents,
+   * or null if it could not be decompressed.
+   */
+  protected static @Nullable InputStream verify(InputStream contents) throws IOException {
+    byte[] start = new byte[VERIFY_BYTES];
+    int length = 0;
+    try {
+      int n;
+      while (length < start.length
+          && (n = contents.read(start, length, start.length - length)) >= 0) {
+        length += n;
+      }
+    } catch (IOException e) {
+      contents.close();
+      return null;
+    }
+    return new SequenceInputStream(new ByteArrayInputStream(start, 0, length), contents);
+  }
+
+  /** Reads a single byte from {@code stream} through {@code buffer}, an array of length 1. */
+  private static int readSingleByte(InputStream stream, byte[] buffer) throws IOException {
+    int n;
+    do {
+      n = stream.read(buffer, 0, 1);
+    } while (n == 0);
+    return n < 0 ? -1 : (buffer[0] & 0xFF);
+  }
+
+  /** An {@link InputStream} implemented by its bulk {@link #read(byte[], int, int)}. */
+  private abstract static class BulkInputStream extends InputStream {
+    private final byte[] singleByte = new byte[1];
+
+    @Override
+    public int read() throws IOException {
+      return readSingleByte(this, singleByte);
+    }
+
+    @Override
+    public abstract int read(byte[] b, int off, int len) throws IOException;
+  }
+
+  /** Buffered reads from the compressed channel, tracking the offset of each byte in the file. */
+  static final class Input {
+    private final ReadableByteChannel channel;
+    private byte[] buffer = new byte[64 * 1024];
+    private int pos;
+    private int limit;
+    private int mark = -1;
+    // The offset in the file of buffer[0].
+    private long bufferOffset;
+    private boolean eof;
+
+    Input(ReadableByteChannel channel, long offset) {
+      this.channel = channel;
+      this.bufferOffset = offset;
+    }
+
+    /** Returns the offset in the file of the next byte. */
+    long position() {
+      return bufferOffset + pos;
+    }
+
+    /** Returns the number of buffered bytes. */
+    int available() {
+      return limit - pos;
+    }
+
+    /**
+     * Ensures that at least {@code n} bytes are buffered, returning false if the end of the file is
+     * reached first.
+     */
+    boolean ensure(int n) throws IOException {
+      while (limit - pos < n) {
+        if (eof) {
+          return false;
+        }
+        int keep = mark >= 0 ? mark : pos;
+        if (buffer.length - limit < n - (limit - pos) || keep > buffer.length / 2) {
+          byte[] target = buffer;
+          if (buffer.length - (limit - keep) < n) {
+            target = new byte[Math.max(2 * buffer.length, limit - keep + n)];
+          }
+          System.arraycopy(buffer, keep, target, 0, limit - keep);
+          buffer = target;
+          bufferOffset += keep;
+          pos -= keep;
+          limit -= keep;
+          if (mark >= 0) {
+            mark -= keep;
+          }
+        }
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) {
+          eof = true;
+        } else {
+          limit += read;
+        }
+      }
+      return true;
+    }
+
+    /** Returns the buffered byte {@code i} bytes after the current position. */
+    byte get(int i) {
+      return buffer[pos + i];
+    }
+
+    /** Returns the buffered little endian int {@code i} bytes after the current position. */
+    int getIntLE(int i) {
+      return ByteBuffer.wrap(buffer, pos + i, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    /** Consumes {@code n} buffered bytes. */
+    void skip(int n) {
+      pos += n;
+    }
+
+    /** Consumes {@code n} bytes, returning false if the end of the file is reached first. */
+    boolean skipFully(long n) throws IOException {
+      while (n > 0) {
+        if (!ensure(1)) {
+          return false;
+        }
+        int skipped = (int) Math.min(n, limit - pos);
+        pos += skipped;
+        n -= skipped;
+      }
+      return true;
+    }
+
+    /**
+     * Consumes bytes up to the next occurrence of {@code b}, returning false if the end of the file
+     * is reached first.
+     */
+    boolean skipTo(byte b) throws IOException {
+      while (ensure(1)) {
+        for (int i = pos; i < limit; i++) {
+          if (buffer[i] == b) {
+            pos = i;
+            return true;
+          }
+        }
+        pos = limit;
+      }
+      return false;
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!ensure(1)) {
+        return -1;
+      }
+      int n = Math.min(len, limit - pos);
+      System.arraycopy(buffer, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    /** Retains the bytes after the current position until {@link #reset} or {@link #unmark}. */
+    void mark() {
+      mark = pos;
+    }
+
+    /** Moves to {@code delta} bytes after the marked position. */
+    void reset(int delta) {
+      pos = mark + delta;
+      mark = -1;
+    }
+
+    void unmark() {
+      mark = -1;
+    }
+
+    /** The buffer, valid until the next call to {@link #ensure}. */
+    byte[] array() {
+      return buffer;
+    }
+
+    /** The index of the current position within {@link #array}. */
+    int arrayPosition() {
+      return pos;
+    }
+
+    void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /** The members of a gzip file. */
+  private static final class Gzip extends CompressedBlockInputStream {
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private @Nullable InputStream contents;
+
+    Gzip(ReadableByteChannel channel, long startOffset, long endOffset) {
+      super(channel, startOffset, startOffset > 0, endOffset);
+    }
+
+    @Override
+    protected long nextBlock(boolean search) throws IOException {
+      if (!search) {
+        long offset = input.position();
+        int headerLength = headerLength();
+        if (headerLength < 0) {
+          if (offset == 0 && input.ensure(1)) {
+            // As in Compression.GZIP, the content may already have been decompressed by the file
+            // system, for example by GCS based on the content-encoding.
+            contents = new Uncompressed();
+            return 0;
+          }
+          return -1;
+        }
+        input.skip(headerLength);
+        contents = new Member();
+        return offset;
+      }
+      while (input.skipTo((byte) 0x1F)) {
+        long offset = input.position();
+        int headerLength = headerLength();
+        if (headerLength >= 0) {
+          input.mark();
+          input.skip(headerLength);
+          InputStream verified = verify(new Member());
+          if (verified != null) {
+            input.unmark();
+            contents = verified;
+            return offset;
+          }
+          input.reset(1);
+        } else {
+          input.skip(1);
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    protected InputStream blockContents() {
+      return checkStateNotNull(contents);
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      super.close();
+    }
+
+    /** Returns the length of the member header at the current position, or -1 if there is none. */
+    private int headerLength() throws IOException {
+      if (!input.ensure(10)
+          || input.get(0) != (byte) 0x1F
+          || input.get(1) != (byte) 0x8B
+          || input.get(2) != 8
+          || (input.get(3) & 0xE0) != 0) {
+        return -1;
+      }
+      int flags = input.get(3);
+      int length = 10;
+      if ((flags & FEXTRA) != 0) {
+        if (!input.ensure(length + 2)) {
+          return -1;
+        }
+        length += 2 + ((input.get(length) & 0xFF) | (input.get(length + 1) & 0xFF) << 8);
+      }
+      if ((flags & FNAME) != 0) {
+        length = skipZeroTerminated(length);
+      }
+      if ((flags & FCOMMENT) != 0 && length >= 0) {
+        length = skipZeroTerminated(length);
+      }
+      if ((flags & FHCRC) != 0 && length >= 0) {
+        length += 2;
+      }
+      return length >= 0 && length <= MAX_HEADER_LENGTH && input.ensure(length) ? length : -1;
+    }
+
+    private int skipZeroTerminated(int from) throws IOException {
+      for (int i = from; i < MAX_HEADER_LENGTH; i++) {
+        if (!input.ensure(i + 1)) {
+          return -1;
+        }
+        if (input.get(i) == 0) {
+          return i + 1;
+        }
+      }
+      return -1;
+    }
+
+    /** The deflated contents of a member, followed by its trailer. */
+    private final class Member extends BulkInputStream {
+      // The number of buffered bytes passed to the inflater.
+      private int fed;
+      private boolean finished;
+
+      Member() {
+        inflater.reset();
+        crc.reset();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+          return -1;
+        }
+        if (len == 0) {
+          return 0;
+        }
+        while (true) {
+          int n;
+          try {
+            n = inflater.inflate(b, off, len);
+          } catch (DataFormatException e) {
+            throw new IOException("Invalid gzip member", e);
+          }
+          if (n > 0) {
+            crc.update(b, off, n);
+            return n;
+          }
+          if (inflater.finished()) {
+            input.skip(fed - inflater.getRemaining());
+            fed = 0;
+            readTrailer();
+            finished = true;
+            return -1;
+          }
+          if (inflater.needsDictionary()) {
+            throw new IOException("Invalid gzip member: preset dictionaries are not supported");
+          }
+          if (inflater.needsInput()) {
+            input.skip(fed);
+            if (!input.ensure(1)) {
+              throw new EOFException("Unexpected end of gzip member");
+            }
+            fed = input.available();
+            inflater.setInput(input.array(), input.arrayPosition(), fed);
+          }
+        }
+      }
+
+      private void readTrailer() throws IOException {
+        if (!input.ensure(8)) {
+          throw new EOFException("Unexpected end of gzip member trailer");
+        }
+        if ((input.getIntLE(0) & 0xFFFFFFFFL) != crc.getValue()
+            || (input.getIntLE(4) & 0xFFFFFFFFL) != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+          throw new IOException("Corrupt gzip member: checksum or length mismatch");
+        }
+        input.skip(8);
+      }
+    }
+
+    /** The remaining bytes of a file which is not gzip compressed. */
+    private final class Uncompressed extends BulkInputStream {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return input.read(b, off, len);
+      }
+    }
+  }
+
+  /**
+   * The blocks of a bzip2 file. Blocks are not byte aligned, so each is copied into a single block
+   * bzip2 stream to decompress it.
+   *
+   * <p>The block and end of stream magics may also occur within the compressed data of a block. A
+   * block therefore only ends at a magic if the bits up to it decode as a block, and otherwise
+   * extends to the next magic. The first block found by searching is only accepted once its
+   * contents match its CRC, otherwise the search continues after its magic.
+   */
+  private static final class Bzip2 extends CompressedBlockInputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = (1L << 48) - 1;
+    private static final int MAGIC_BITS = 48;
+    // "BZh9", the header of a stream with the largest block size.
+    private static final int STREAM_HEADER = 0x425A6839;
+    private static final int STREAM_HEADER_BITS = 32;
+    // Twice the largest block size, beyond which a block which fails to decode is not extended.
+    private static final long MAX_BLOCK_BITS = 8L * 2 * 900_000;
+
+    private long window;
+    private int currentByte;
+    private int bitsLeft;
+    // The offset in the file, in bits, of the next bit.
+    private long bitPosition;
+    // Whether the last bits read were a block magic which has not been returned by nextBlock.
+    private boolean atBlock;
+    // The single block stream of the current block.
+    private BitBuffer stream = new BitBuffer(1 << 20);
+    // Bits read past a rejected first block, which are read again before the rest of the input.
+    private BitBuffer replay = new BitBuffer(16);
+    private long replayPosition;
+    private @Nullable InputStream contents;
+
+    Bzip2(ReadableByteChannel channel, long startOffset, long endOffset) {
+      super(channel, startOffset, startOffset > 0, endOffset);
+      this.bitPosition = 8 * startOffset;
+    }
+
+    @Override
+    protected long nextBlock(boolean search) throws IOException {
+      while (true) {
+        // Blocks always follow a block magic. Anything else, such as the end of stream marker and
+        // the header of the next stream of a multi-stream file, is skipped.
+        while (!atBlock) {
+          int bit = readBit();
+          if (bit < 0) {
+            return -1;
+          }
+          window = ((window << 1) | bit) & MAGIC_MASK;
+          atBlock = window == BLOCK_MAGIC;
+        }
+        atBlock = false;
+        long blockPosition = bitPosition - MAGIC_BITS;
+
+        stream.clear();
+        stream.write(STREAM_HEADER, STREAM_HEADER_BITS);
+        stream.write(BLOCK_MAGIC, MAGIC_BITS);
+        contents = readBlock(search);
+        if (contents != null) {
+          return blockPosition / 8;
+        }
+        if (!search) {
+          throw new IOException("Corrupt bzip2 block at offset " + blockPosition / 8);
+        }
+        // The magic was not the start of a block, search again from the bit after it.
+        rewind(STREAM_HEADER_BITS + 1, blockPosition + 1);
+      }
+    }
+
+    /**
+     * Reads the rest of the block whose magic was just read into {@link #stream}, and returns its
+     * decompressed contents, or null if the bits up to the largest block size do not decode as a
+     * block. When searching, the contents must also match the CRC of the block, and the end of the
+     * file is not an error.
+     */
+    private @Nullable InputStream readBlock(boolean search) throws IOException {
+      window = 0;
+      int bitsSinceMagic = 0;
+      while (stream.length() < MAX_BLOCK_BITS) {
+        int bit = readBit();
+        if (bit < 0) {
+          if (search) {
+            return null;
+          }
+          throw new EOFException("Unexpected end of bzip2 block");
+        }
+        stream.write(bit, 1);
+        window = ((window << 1) | bit) & MAGIC_MASK;
+        if (++bitsSinceMagic < MAGIC_BITS
+            || (window != BLOCK_MAGIC && window != END_OF_STREAM_MAGIC)) {
+          continue;
+        }
+        // Replace the magic which ended the block with an end of stream marker, followed by the
+        // combined CRC of the stream, which for a single block is the CRC of the block.
+        long endMagic = window;
+        long blockLength = stream.length() - MAGIC_BITS;
+        stream.truncate(blockLength);
+        long blockCrc = stream.read(STREAM_HEADER_BITS + MAGIC_BITS, 32);
+        stream.write(END_OF_STREAM_MAGIC, MAGIC_BITS);
+        stream.write(blockCrc, 32);
+        InputStream blockContents = decode(search);
+        if (blockContents != null) {
+          atBlock = endMagic == BLOCK_MAGIC;
+          return blockContents;
+        }
+        // The magic is part of the block, which extends to the next one.
+        stream.truncate(blockLength);
+        stream.write(endMagic, MAGIC_BITS);
+        bitsSinceMagic = 0;
+      }
+      return null;
+    }
+
+    /** Returns the decompressed contents of {@link #stream}, or null if it is not valid. */
+    private @Nullable InputStream decode(boolean verifyCrc) {
+      try {
+        if (verifyCrc) {
+          // The CRC is checked once the whole block has been read.
+          try (InputStream blockContents = newBlockContents()) {
+            byte[] buffer = new byte[8192];
+            while (blockContents.read(buffer) >= 0) {}
+          }
+        }
+        // Decodes the block, but does not check its CRC until its contents are read.
+        return newBlockContents();
+      } catch (IOException | RuntimeException e) {
+        // Decoding invalid data may also fail with runtime exceptions, such as out of bounds
+        // accesses.
+        return null;
+      }
+    }
+
+    private InputStream newBlockContents() throws IOException {
+      return new BZip2CompressorInputStream(
+          new ByteArrayInputStream(stream.array(), 0, stream.byteLength()), false);
+    }
+
+    /**
+     * Reads the bits of {@link #stream} from bit {@code from} on again, followed by any bits still
+     * to be read again, where the first of them is at {@code position} in the file.
+     */
+    private void rewind(long from, long position) {
+      for (long i = replayPosition; i < replay.length(); i++) {
+        stream.write(replay.read(i, 1), 1);
+      }
+      BitBuffer bits = stream;
+      stream = replay;
+      replay = bits;
+      replayPosition = from;
+      bitPosition = position;
+      // Both magics start with a zero bit, so a window of ones cannot match until it is refilled.
+      window = MAGIC_MASK;
+    }
+
+    @Override
+    protected InputStream blockContents() {
+      return checkStateNotNull(contents);
+    }
+
+    private int readBit() throws IOException {
+      int bit;
+      if (replayPosition < replay.length()) {
+        bit = (int) replay.read(replayPosition++, 1);
+      } else {
+        if (bitsLeft == 0) {
+          if (!input.ensure(1)) {
+            return -1;
+          }
+          currentByte = input.get(0) & 0xFF;
+          input.skip(1);
+          bitsLeft = 8;
+        }
+        bit = (currentByte >>> --bitsLeft) & 1;
+      }
+      bitPosition++;
+      return bit;
+    }
+
+    /** A growable sequence of bits. */
+    private static final class BitBuffer {
+      private byte[] bytes;
+      private long length;
+
+      BitBuffer(int capacity) {
+        this.bytes = new byte[capacity];
+      }
+
+      void clear() {
+        length = 0;
+      }
+
+      long length() {
+        return length;
+      }
+
+      void truncate(long newLength) {
+        length = newLength;
+      }
+
+      /** Appends the low {@code count} bits of {@code value}, most significant first. */
+      void write(long value, int count) {
+        if ((length + count + 7) / 8 > bytes.length) {
+          bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, (int) (length + count + 7) / 8));
+        }
+        for (int i = count - 1; i >= 0; i--) {
+          int index = (int) (length >>> 3);
+          int mask = 0x80 >>> (int) (length & 7);
+          if (((value >>> i) & 1) != 0) {
+            bytes[index] |= (byte) mask;
+          } else {
+            bytes[index] &= (byte) ~mask;
+          }
+          length++;
+        }
+      }
+
+      /** Returns the {@code count} bits starting at bit {@code from}. */
+      long read(long from, int count) {
+        long value = 0;
+        for (long i = from; i < from + count; i++) {
+          value = (value << 1) | ((bytes[(int) (i >>> 3)] >>> (7 - (int) (i & 7))) & 1);
+        }
+        return value;
+      }
+
+      /** The bytes holding the bits, valid until the next {@link #write}. */
+      byte[] array() {
+        return bytes;
+      }
+
+      /** The number of bytes of {@link #array} holding the bits. */
+      int byteLength() {
+        return (int) ((length + 7) / 8);
+      }
+    }
+  }
+
+  /** The frames of a zstd file. */
+  private static final class Zstd extends CompressedBlockInputStream {
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A50;
+    private static final int SKIPPABLE_FRAME_MAGIC_MASK = 0xFFFFFFF0;
+    private static final int SEEK_TABLE_MAGIC = 0x184D2A5E;
+    private static final int SEEKABLE_MAGIC = 0x8F92EAB1;
+    private static final int SEEK_TABLE_FOOTER_LENGTH = 9;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+    private static final int[] DICTIONARY_ID_LENGTHS = {0, 1, 2, 4};
+
+    private @Nullable InputStream contents;
+
+    private Zstd(
+        ReadableByteChannel channel, long offset, boolean searchForFirstBlock, long endOffset) {
+      super(channel, offset, searchForFirstBlock, endOffset);
+    }
+
+    static Zstd create(ReadableByteChannel channel, long startOffset, long endOffset)
+        throws IOException {
+      if (startOffset > 0 && channel instanceof SeekableByteChannel) {
+        SeekableByteChannel seekableChannel = (SeekableByteChannel) channel;
+        long frameOffset = seekTableFrameOffset(seekableChannel, startOffset);
+        seekableChannel.position(frameOffset >= 0 ? frameOffset : startOffset);
+        if (frameOffset >= 0) {
+          return new Zstd(channel, frameOffset, false, endOffset);
+        }
+      }
+      return new Zstd(channel, startOffset, startOffset > 0, endOffset);
+    }
+
+    /**
+     * Returns the offset of the first frame at or after {@code startOffset} according to the seek
+     * table of a file in the zstd seekable format, or -1 if the file has no seek table.
+     */
+    private static long seekTableFrameOffset(SeekableByteChannel channel, long startOffset)
+        throws IOException {
+      long size = channel.size();
+      if (size < SEEK_TABLE_FOOTER_LENGTH + 8) {
+        return -1;
+      }
+      ByteBuffer footer = readFully(channel, size - SEEK_TABLE_FOOTER_LENGTH, 9);
+      if (footer.getInt(5) != SEEKABLE_MAGIC) {
+        return -1;
+      }
+      long numFrames = footer.getInt(0) & 0xFFFFFFFFL;
+      int entryLength = (footer.get(4) & 0x80) != 0 ? 12 : 8;
+      long tableLength = numFrames * entryLength + SEEK_TABLE_FOOTER_LENGTH;
+      long tableOffset = size - tableLength - 8;
+      if (tableOffset < 0 || tableLength > Integer.MAX_VALUE) {
+        return -1;
+      }
+      ByteBuffer table = readFully(channel, tableOffset, (int) tableLength + 8);
+      if (table.getInt(0) != SEEK_TABLE_MAGIC || (table.getInt(4) & 0xFFFFFFFFL) != tableLength) {
+        return -1;
+      }
+      long frameOffset = 0;
+      for (int i = 0; i < numFrames && frameOffset < startOffset; i++) {
+        frameOffset += table.getInt(8 + i * entryLength) & 0xFFFFFFFFL;
+      }
+      return frameOffset;
+    }
+
+    private static ByteBuffer readFully(SeekableByteChannel channel, long offset, int length)
+        throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(offset);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException("Unexpected end of zstd seek table");
+        }
+      }
+      return buffer;
+    }
+
+    @Override
+    protected long nextBlock(boolean search) throws IOException {
+      if (!search) {
+        while (input.ensure(8)
+            && (input.getIntLE(0) & SKIPPABLE_FRAME_MAGIC_MASK) == SKIPPABLE_FRAME_MAGIC) {
+          if (!input.skipFully(8 + (input.getIntLE(4) & 0xFFFFFFFFL))) {
+            return -1;
+          }
+        }
+        long offset = input.position();
+        int headerLength = frameHeaderLength();
+        if (headerLength < 0) {
+          return -1;
+        }
+        contents = new ZstdCompressorInputStream(new Frame(headerLength));
+        return offset;
+      }
+      while (input.skipTo((byte) 0x28)) {
+        long offset = input.position();
+        int headerLength = frameHeaderLength();
+        if (headerLength >= 0 && plausibleBlockHeader(headerLength)) {
+          input.mark();
+          InputStream verified = verify(new ZstdCompressorInputStream(new Frame(headerLength)));
+          if (verified != null) {
+            input.unmark();
+            contents = verified;
+            return offset;
+          }
+          input.reset(1);
+        } else {
+          input.skip(1);
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    protected InputStream blockContents() {
+      return checkStateNotNull(contents);
+    }
+
+    /** Returns the length of the frame header at the current position, or -1 if there is none. */
+    private int frameHeaderLength() throws IOException {
+      if (!input.ensure(6) || input.getIntLE(0) != FRAME_MAGIC) {
+        return -1;
+      }
+      int descriptor = input.get(4) & 0xFF;
+      if ((descriptor & 0x08) != 0) {
+        // Reserved bit.
+        return -1;
+      }
+      boolean singleSegment = (descriptor & 0x20) != 0;
+      if (!singleSegment && (input.get(5) & 0xFF) >>> 3 > 31 - 10) {
+        // Window sizes are at most 2^31.
+        return -1;
+      }
+      int contentSizeFlag = descriptor >>> 6;
+      int contentSizeLength = contentSizeFlag == 0 ? (singleSegment ? 1 : 0) : 1 << contentSizeFlag;
+      return 5
+          + (singleSegment ? 0 : 1)
+          + DICTIONARY_ID_LENGTHS[descriptor & 0x03]
+          + contentSizeLength;
+    }
+
+    private boolean plausibleBlockHeader(int headerLength) throws IOException {
+      if (!input.ensure(headerLength + 3)) {
+        return false;
+      }
+      int blockHeader =
+          (input.get(headerLength) & 0xFF)
+              | (input.get(headerLength + 1) & 0xFF) << 8
+              | (input.get(headerLength + 2) & 0xFF) << 16;
+      return ((blockHeader >>> 1) & 0x03) != 3 && blockHeader >>> 3 <= MAX_BLOCK_SIZE;
+    }
+
+    /**
+     * The compressed bytes of the frame at the current position. Frame and block headers are
+     * parsed to find the end of the frame, so that the decompressor cannot read past it.
+     */
+    private final class Frame extends BulkInputStream {
+      private final boolean checksum;
+      // The number of bytes until the next block header, or the end of the frame.
+      private long remaining;
+      private boolean lastBlock;
+      private boolean finished;
+
+      Frame(int headerLength) {
+        this.checksum = (input.get(4) & 0x04) != 0;
+        this.remaining = headerLength;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (remaining == 0 && !nextSegment()) {
+          return -1;
+        }
+        int n = input.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+          throw new EOFException("Unexpected end of zstd frame");
+        }
+        remaining -= n;
+        return n;
+      }
+
+      private boolean nextSegment() throws IOException {
+        if (finished) {
+          return false;
+        }
+        if (lastBlock) {
+          finished = true;
+          remaining = checksum ? 4 : 0;
+          return checksum;
+        }
+        if (!input.ensure(3)) {
+          throw new EOFException("Unexpected end of zstd frame");
+        }
+        int blockHeader =
+            (input.get(0) & 0xFF) | (input.get(1) & 0xFF) << 8 | (input.get(2) & 0xFF) << 16;
+        int blockType = (blockHeader >>> 1) & 0x03;
+        int blockSize = blockHeader >>> 3;
+        if (blockType == 3 || blockSize > MAX_BLOCK_SIZE) {
+          throw new IOException("Invalid zstd block header");
+        }
+        lastBlock = (blockHeader & 1) != 0;
+        // RLE blocks contain a single byte which is repeated blockSize times.
+        remaining = 3 + (blockType == 1 ? 1 : blockSize);
+        return true;
+      }
+    }
+  }
+}
@@ -23,13 +23,16 @@ import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Pr
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.util.NoSuchElementException;
 import javax.annotation.concurrent.GuardedBy;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.io.fs.MatchResult.Metadata;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.ByteStreams;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.joda.time.Instant;
 
@@ -60,6 +63,10 @@ import org.joda.time.Instant;
  * indicates {@link Compression#DEFLATE}. If the file name does not match any of the supported
  * algorithms, it is assumed to be uncompressed data.
  *
+ * <p>Compressed files are read by a single reader unless {@link #withSplittableCompression} is
+ * used, in which case {@link Compression#GZIP}, {@link Compression#BZIP2} and {@link
+ * Compression#ZSTD} files are split at the boundaries of their independently compressed blocks.
+ *
  * @param <T> The type to read from the compressed file.
  */
 @SuppressWarnings({
@@ -172,6 +179,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
 
   private final FileBasedSource<T> sourceDelegate;
   private final DecompressingChannelFactory channelFactory;
+  private final boolean splittableCompression;
 
   /**
    * Creates a {@code CompressedSource} from an underlying {@code FileBasedSource}. The type of
@@ -179,7 +187,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    * {@link CompressedSource#withDecompression}.
    */
   public static <T> CompressedSource<T> from(FileBasedSource<T> sourceDelegate) {
-    return new CompressedSource<>(sourceDelegate, CompressionMode.AUTO);
+    return new CompressedSource<>(sourceDelegate, CompressionMode.AUTO, false);
   }
 
   /**
@@ -187,7 +195,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    * with the given {@link DecompressingChannelFactory}.
    */
   public CompressedSource<T> withDecompression(DecompressingChannelFactory channelFactory) {
-    return new CompressedSource<>(this.sourceDelegate, channelFactory);
+    return new CompressedSource<>(this.sourceDelegate, channelFactory, splittableCompression);
   }
 
   /** Like {@link #withDecompression} but takes a canonical {@link Compression}. */
@@ -195,18 +203,41 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     return withDecompression(CompressionMode.fromCanonical(compression));
   }
 
+  /**
+   * Return a {@code CompressedSource} that is like this one but splits {@link Compression#GZIP},
+   * {@link Compression#BZIP2} and {@link Compression#ZSTD} files into ranges which are read in
+   * parallel.
+   *
+   * <p>Each range is read from the first independently compressed block starting within it: a
+   * member of a gzip file, a block of a bzip2 file, or a frame of a zstd file. Records which span
+   * ranges are read by the reader of the range in which they start, as for uncompressed files, so
+   * the delegate source must be able to start reading at the first record after an arbitrary
+   * offset, as {@link TextSource} does.
+   *
+   * <p>This is intended for large files written as many blocks, such as BGZF or concatenated gzip
+   * files, bzip2 files, and zstd files written with many frames or in the seekable format. Readers
+   * of ranges after the start of a file search for their first block, so files consisting of a
+   * single gzip member or zstd frame should not be read this way.
+   */
+  public CompressedSource<T> withSplittableCompression() {
+    return new CompressedSource<>(this.sourceDelegate, channelFactory, true);
+  }
+
   /**
    * Creates a {@code CompressedSource} from a delegate file based source and a decompressing
    * channel factory.
    */
   private CompressedSource(
-      FileBasedSource<T> sourceDelegate, DecompressingChannelFactory channelFactory) {
+      FileBasedSource<T> sourceDelegate,
+      DecompressingChannelFactory channelFactory,
+      boolean splittableCompression) {
     super(
         sourceDelegate.getFileOrPatternSpecProvider(),
         sourceDelegate.getEmptyMatchTreatment(),
         Long.MAX_VALUE);
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
+    this.splittableCompression = splittableCompression;
   }
 
   /**
@@ -216,6 +247,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
   private CompressedSource(
       FileBasedSource<T> sourceDelegate,
       DecompressingChannelFactory channelFactory,
+      boolean splittableCompression,
       Metadata metadata,
       long minBundleSize,
       long startOffset,
@@ -223,6 +255,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     super(metadata, minBundleSize, startOffset, endOffset);
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
+    this.splittableCompression = splittableCompression;
     boolean splittable;
     try {
       splittable = isSplittable();
@@ -255,6 +288,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     return new CompressedSource<>(
         sourceDelegate.createForSubrangeOfFile(metadata, start, end),
         channelFactory,
+        splittableCompression,
         metadata,
         sourceDelegate.getMinBundleSize(),
         start,
@@ -264,7 +298,8 @@ public class CompressedSource<T> extends FileBasedSource<T> {
   /**
    * Determines whether a single file represented by this source is splittable. Returns true if we
    * are using the default decompression factory and it determines from the requested file name that
-   * the file is not compressed.
+   * the file is not compressed, or if the file is compressed in blocks and {@link
+   * #withSplittableCompression} was requested.
    */
   @Override
   protected final boolean isSplittable() {
@@ -275,6 +310,10 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    return isUncompressed() || getBlockCompression() != null;
+  }
+
+  private boolean isUncompressed() {
     if (channelFactory == CompressionMode.UNCOMPRESSED) {
       return true;
     }
@@ -284,6 +323,21 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     return false;
   }
 
+  /**
+   * Returns the compression of the file if it is to be split at block boundaries, or null if it is
+   * to be read by a single reader.
+   */
+  private @Nullable Compression getBlockCompression() {
+    if (!splittableCompression || !(channelFactory instanceof CompressionMode)) {
+      return null;
+    }
+    Compression compression = ((CompressionMode) channelFactory).canonical;
+    if (compression == Compression.AUTO) {
+      compression = Compression.detect(getFileOrPatternSpec());
+    }
+    return CompressedBlockInputStream.supports(compression) ? compression : null;
+  }
+
   /**
    * Creates a {@code FileBasedReader} to read a single file.
    *
@@ -294,7 +348,15 @@ public class CompressedSource<T> extends FileBasedSource<T> {
   @Override
   protected final FileBasedReader<T> createSingleFileReader(PipelineOptions options) {
     if (isSplittable()) {
-      return sourceDelegate.createSingleFileReader(options);
+      if (getBlockCompression() == null) {
+        return sourceDelegate.createSingleFileReader(options);
+      }
+      // The delegate reads the decompressed blocks from the start of the first block in the
+      // range. Past the start of the file, it skips the record which began in an earlier range.
+      FileBasedSource<T> blockDelegate =
+          sourceDelegate.createForSubrangeOfFile(
+              getSingleFileMetadata(), getStartOffset() > 0 ? 1 : 0, Long.MAX_VALUE);
+      return new CompressedReader<>(this, blockDelegate.createSingleFileReader(options));
     }
     return new CompressedReader<>(this, sourceDelegate.createSingleFileReader(options));
   }
@@ -306,6 +368,11 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         .include("source", sourceDelegate)
         .add(DisplayData.item("source", sourceDelegate.getClass()).withLabel("Read Source"));
 
+    builder.addIfNotDefault(
+        DisplayData.item("splittableCompression", splittableCompression)
+            .withLabel("Split Compressed Files"),
+        false);
+
     if (channelFactory instanceof Enum) {
       // GZIP, BZIP, ZIP and DEFLATE are implemented as enums; Enum classes are anonymous, so use
       // the .name() value instead
@@ -347,6 +414,13 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     @GuardedBy("progressLock")
     private @Nullable CountingChannel channel;
 
+    // Initialized in startReading when reading a range of a file compressed in blocks
+    @GuardedBy("progressLock")
+    private @Nullable CompressedBlockInputStream blocks;
+
+    // Whether no blocks start within the range being read
+    private boolean emptyRange;
+
     private DecompressingChannelFactory channelFactory;
 
     /** Create a {@code CompressedReader} from a {@code CompressedSource} and delegate reader. */
@@ -427,12 +501,97 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       }
     }
 
+    /**
+     * A channel over the decompressed blocks of a file. Only supports seeking forward, which is
+     * enough for delegate readers to position themselves at the start of the stream.
+     */
+    private static class BlockChannel implements SeekableByteChannel {
+      private final CompressedBlockInputStream blocks;
+      private long position;
+      private boolean open = true;
+
+      BlockChannel(CompressedBlockInputStream blocks) {
+        this.blocks = blocks;
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        int bytes;
+        if (dst.hasArray()) {
+          bytes = blocks.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+          if (bytes > 0) {
+            dst.position(dst.position() + bytes);
+          }
+        } else {
+          byte[] buffer = new byte[dst.remaining()];
+          bytes = blocks.read(buffer, 0, buffer.length);
+          if (bytes > 0) {
+            dst.put(buffer, 0, bytes);
+          }
+        }
+        if (bytes > 0) {
+          position += bytes;
+        }
+        return bytes;
+      }
+
+      @Override
+      public long position() {
+        return position;
+      }
+
+      @Override
+      public SeekableByteChannel position(long newPosition) throws IOException {
+        checkArgument(
+            newPosition >= position,
+            "Cannot seek backwards in a compressed file, from %s to %s",
+            position,
+            newPosition);
+        ByteStreams.skipFully(blocks, newPosition - position);
+        position = newPosition;
+        return this;
+      }
+
+      @Override
+      public long size() {
+        throw new UnsupportedOperationException("The size of a compressed file is not known");
+      }
+
+      @Override
+      public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() throws IOException {
+        open = false;
+        blocks.close();
+      }
+    }
+
     /**
      * Creates a decompressing channel from the input channel and passes it to its delegate reader's
      * {@link FileBasedReader#startReading(ReadableByteChannel)}.
      */
     @Override
     protected final void startReading(ReadableByteChannel channel) throws IOException {
+      CompressedSource<T> source = (CompressedSource<T>) getCurrentSource();
+      Compression blockCompression = source.getBlockCompression();
+      if (blockCompression != null && source.isSplittable()) {
+        startReadingBlocks(blockCompression, channel);
+        return;
+      }
+
       synchronized (progressLock) {
         this.channel = new CountingChannel(channel, getCurrentSource().getStartOffset());
         channel = this.channel;
@@ -447,10 +606,37 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       }
     }
 
+    private void startReadingBlocks(Compression compression, ReadableByteChannel channel)
+        throws IOException {
+      long startOffset = getCurrentSource().getStartOffset();
+      long endOffset = getCurrentSource().getEndOffset();
+      CompressedBlockInputStream blocks =
+          CompressedBlockInputStream.create(compression, channel, startOffset, endOffset);
+      synchronized (progressLock) {
+        this.blocks = blocks;
+      }
+      long firstBlockOffset = blocks.getFirstBlockOffset();
+      if (startOffset > 0 && (firstBlockOffset < 0 || firstBlockOffset >= endOffset)) {
+        // The blocks after the start of this range, if any, are read by later ranges.
+        emptyRange = true;
+        return;
+      }
+      readerDelegate.startReading(new BlockChannel(blocks));
+    }
+
     /** Reads the next record via the delegate reader. */
     @Override
     protected final boolean readNextRecord() throws IOException {
-      if (!readerDelegate.readNextRecord()) {
+      if (emptyRange || !readerDelegate.readNextRecord()) {
+        return false;
+      }
+      CompressedBlockInputStream blocks;
+      synchronized (progressLock) {
+        blocks = this.blocks;
+      }
+      // Records starting after the start of the first block at or after the end of the range
+      // are read by the next range, which skips the record in progress at the start of that block.
+      if (blocks != null && readerDelegate.getCurrentOffset() > blocks.getEndPosition()) {
         return false;
       }
       synchronized (progressLock) {
@@ -468,10 +654,13 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       synchronized (progressLock) {
         if (numRecordsRead <= 1) {
           // Since the first record is at a split point, it should start at the beginning of the
-          // file. This avoids the bad case where the decompressor read the entire file, which
+          // range. This avoids the bad case where the decompressor read the entire file, which
           // would cause the file to be treated as empty when returning channel.getCount() as it
           // is outside the valid range.
-          return 0;
+          return getCurrentSource().getStartOffset();
+        }
+        if (blocks != null) {
+          return Math.max(getCurrentSource().getStartOffset(), blocks.getBlockOffset());
         }
         return channel.getCount();
       }
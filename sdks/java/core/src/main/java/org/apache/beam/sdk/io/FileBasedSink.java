@@ -40,6 +40,12 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.beam.sdk.coders.CannotProvideCoderException;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
@@ -67,20 +73,28 @@ import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo.PaneInfoCoder;
+import org.apache.beam.sdk.util.BackOff;
+import org.apache.beam.sdk.util.BackOffUtils;
+import org.apache.beam.sdk.util.FluentBackoff;
 import org.apache.beam.sdk.util.MimeTypes;
+import org.apache.beam.sdk.util.MoreFutures;
+import org.apache.beam.sdk.util.Sleeper;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.TypeDescriptor;
 import org.apache.beam.sdk.values.TypeDescriptors.TypeVariableExtractor;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.MoreObjects;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Throwables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableSet;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Lists;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Maps;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Sets;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -512,6 +526,24 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     /** Whether windowed writes are being used. */
     protected boolean windowedWrites;
 
+    /** The maximum number of batches of files renamed concurrently when finalizing. */
+    private static final int FINALIZE_PARALLELISM = 16;
+
+    /** The maximum number of files renamed by a single request when finalizing. */
+    private static final int MAX_FINALIZE_BATCH_SIZE = 1000;
+
+    private static final FluentBackoff FINALIZE_BACKOFF =
+        FluentBackoff.DEFAULT.withMaxRetries(3).withInitialBackoff(Duration.standardSeconds(1));
+
+    /** How long idle threads of {@link #finalizeExecutor} are kept. */
+    private static final long FINALIZE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Runs the renames of finalization, created on first use by each deserialized instance, i.e.
+     * once for each instance of the {@link DoFn} finalizing the writes.
+     */
+    private transient @Nullable ExecutorService finalizeExecutor;
+
     /** Constructs a temporary file resource given the temporary directory and a filename. */
     protected static ResourceId buildTemporaryFilename(ResourceId tempDirectory, String filename)
         throws IOException {
@@ -765,34 +797,157 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
      * the policy) is "dir/file", the extension is ".txt", and the fileNamingTemplate is
      * "-SSS-of-NNN", the contents of A will be copied to dir/file-000-of-003.txt, the contents of B
      * will be copied to dir/file-001-of-003.txt, etc.
+     *
+     * <p>Files are renamed in batches, with up to {@link #FINALIZE_PARALLELISM} batches in flight
+     * at a time, and failed batches are retried. Files which were written directly to their final
+     * location are left in place. Without windowed writes, temporary files left behind by failed
+     * bundles are removed while the renames are in progress.
      */
     @VisibleForTesting
     final void moveToOutputFiles(
         List<KV<FileResult<DestinationT>, ResourceId>> resultsToFinalFilenames) throws IOException {
-      int numFiles = resultsToFinalFilenames.size();
-
-      LOG.debug("Copying {} files.", numFiles);
       List<ResourceId> srcFiles = new ArrayList<>();
       List<ResourceId> dstFiles = new ArrayList<>();
       for (KV<FileResult<DestinationT>, ResourceId> entry : resultsToFinalFilenames) {
+        if (entry.getKey().getTempFilename().equals(entry.getValue())) {
+          LOG.info("File {} was written to its final location", entry.getValue());
+          continue;
+        }
         srcFiles.add(entry.getKey().getTempFilename());
         dstFiles.add(entry.getValue());
         LOG.info(
             "Will copy temporary file {} to final location {}", entry.getKey(), entry.getValue());
       }
-      // During a failure case, files may have been deleted in an earlier step. Thus
-      // we ignore missing files here.
-      FileSystems.rename(
-          srcFiles,
-          dstFiles,
-          StandardMoveOptions.IGNORE_MISSING_FILES,
-          StandardMoveOptions.SKIP_IF_DESTINATION_EXISTS);
+      LOG.debug("Copying {} files.", srcFiles.size());
+
+      ExecutorService executor = finalizeExecutor();
+      try {
+        List<CompletionStage<Void>> futures = new ArrayList<>();
+        int batchSize =
+            Math.max(
+                1,
+                Math.min(
+                    MAX_FINALIZE_BATCH_SIZE,
+                    (srcFiles.size() + FINALIZE_PARALLELISM - 1) / FINALIZE_PARALLELISM));
+        for (int i = 0; i < srcFiles.size(); i += batchSize) {
+          List<ResourceId> srcBatch = srcFiles.subList(i, Math.min(srcFiles.size(), i + batchSize));
+          List<ResourceId> dstBatch = dstFiles.subList(i, Math.min(dstFiles.size(), i + batchSize));
+          // During a failure case, files may have been deleted in an earlier step. Thus
+          // we ignore missing files here. Together with skipping destinations which already exist,
+          // this also makes it safe to retry a batch which partially succeeded.
+          futures.add(
+              MoreFutures.runAsync(
+                  () ->
+                      withRetries(
+                          "rename temporary files",
+                          () ->
+                              FileSystems.rename(
+                                  srcBatch,
+                                  dstBatch,
+                                  StandardMoveOptions.IGNORE_MISSING_FILES,
+                                  StandardMoveOptions.SKIP_IF_DESTINATION_EXISTS)),
+                  executor));
+        }
+        if (!windowedWrites) {
+          // Files of failed bundles are not renamed, so they can be removed at the same time.
+          Set<ResourceId> renamedFiles = new HashSet<>(srcFiles);
+          futures.add(
+              MoreFutures.runAsync(
+                  () -> {
+                    List<ResourceId> orphanedFiles = new ArrayList<>();
+                    for (ResourceId file : matchTemporaryFiles(getTempDirectory())) {
+                      if (!renamedFiles.contains(file)) {
+                        LOG.warn(
+                            "Will also remove unknown temporary file {}. This might indicate that "
+                                + "other process/job is using the same temporary folder and "
+                                + "result in data consistency issues.",
+                            file);
+                        orphanedFiles.add(file);
+                      }
+                    }
+                    withRetries(
+                        "remove temporary files",
+                        () ->
+                            FileSystems.delete(
+                                orphanedFiles, StandardMoveOptions.IGNORE_MISSING_FILES));
+                  },
+                  executor));
+        }
+        MoreFutures.get(MoreFutures.allAsList(futures));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while renaming temporary files", e);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException("Failed to rename temporary files", e.getCause());
+      }
 
       // The rename ensures that the source files are deleted.  However we may still need to clean
       // up the directory or orphaned files.
       removeTemporaryFiles(Collections.emptyList());
     }
 
+    private synchronized ExecutorService finalizeExecutor() {
+      if (finalizeExecutor == null) {
+        // The threads are daemon threads and time out when idle, so the executor doesn't need to
+        // be shut down.
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(
+                FINALIZE_PARALLELISM,
+                FINALIZE_PARALLELISM,
+                FINALIZE_THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("file-based-sink-finalize-%d")
+                    .build());
+        executor.allowCoreThreadTimeOut(true);
+        finalizeExecutor = executor;
+      }
+      return finalizeExecutor;
+    }
+
+    /** Runs an idempotent file system operation, retrying it if it fails. */
+    private static void withRetries(String description, FileSystemOperation operation)
+        throws IOException, InterruptedException {
+      BackOff backOff = FINALIZE_BACKOFF.backoff();
+      while (true) {
+        try {
+          operation.run();
+          return;
+        } catch (IOException e) {
+          if (!BackOffUtils.next(Sleeper.DEFAULT, backOff)) {
+            throw e;
+          }
+          LOG.warn("Failed to {}, retrying.", description, e);
+        }
+      }
+    }
+
+    private interface FileSystemOperation {
+      void run() throws IOException;
+    }
+
+    /** Returns the files in {@code tempDir}, or no files if they cannot be matched. */
+    private static List<ResourceId> matchTemporaryFiles(ResourceId tempDir) {
+      // TODO: Windows OS cannot resolves and matches '*' in the path,
+      // ignore the exception for now to avoid failing the pipeline.
+      List<ResourceId> files = new ArrayList<>();
+      try {
+        MatchResult singleMatch =
+            Iterables.getOnlyElement(
+                FileSystems.match(Collections.singletonList(tempDir.toString() + "*")));
+        for (Metadata matchResult : singleMatch.metadata()) {
+          files.add(matchResult.resourceId());
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to match temporary files under: [{}].", tempDir);
+      }
+      return files;
+    }
+
     /**
      * Removes temporary output files. Uses the temporary directory to find files to remove.
      *
@@ -815,25 +970,16 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
       for (ResourceId match : allMatches) {
         LOG.info("Will remove known temporary file {}", match);
       }
-      // TODO: Windows OS cannot resolves and matches '*' in the path,
-      // ignore the exception for now to avoid failing the pipeline.
       ResourceId tempDir = getTempDirectory();
       if (shouldRemoveTemporaryDirectory) {
         LOG.debug("Removing temporary bundle output files in {}.", tempDir);
-        try {
-          MatchResult singleMatch =
-              Iterables.getOnlyElement(
-                  FileSystems.match(Collections.singletonList(tempDir.toString() + "*")));
-          for (Metadata matchResult : singleMatch.metadata()) {
-            if (allMatches.add(matchResult.resourceId())) {
-              LOG.warn(
-                  "Will also remove unknown temporary file {}. This might indicate that other process/job is using "
-                      + "the same temporary folder and result in data consistency issues.",
-                  matchResult.resourceId());
-            }
+        for (ResourceId match : matchTemporaryFiles(tempDir)) {
+          if (allMatches.add(match)) {
+            LOG.warn(
+                "Will also remove unknown temporary file {}. This might indicate that other process/job is using "
+                    + "the same temporary folder and result in data consistency issues.",
+                match);
           }
-        } catch (Exception e) {
-          LOG.warn("Failed to match temporary files under: [{}].", tempDir);
         }
       }
       FileSystems.delete(allMatches, StandardMoveOptions.IGNORE_MISSING_FILES);
@@ -897,6 +1043,9 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     /** The output file for this bundle. May be null if opening failed. */
     private @Nullable ResourceId outputFile;
 
+    /** Whether {@link #outputFile} is the final output file rather than a temporary file. */
+    private boolean directWrite;
+
     /** The channel to write to. */
     private @Nullable WritableByteChannel channel;
 
@@ -958,10 +1107,26 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     public final void open(String uId) throws Exception {
       this.id = spreadUid(uId);
       ResourceId tempDirectory = getWriteOperation().getTempDirectory();
-      outputFile = tempDirectory.resolve(id, StandardResolveOptions.RESOLVE_FILE);
+      ResourceId tempFile = tempDirectory.resolve(id, StandardResolveOptions.RESOLVE_FILE);
       verifyNotNull(
-          outputFile, "FileSystems are not allowed to return null from resolve: %s", tempDirectory);
+          tempFile, "FileSystems are not allowed to return null from resolve: %s", tempDirectory);
+      open(tempFile, true);
+    }
 
+    /**
+     * Opens {@code outputFile}, the final output file of the bundle, instead of a temporary file.
+     *
+     * <p>A retried bundle overwrites the output of earlier attempts, so this must only be used with
+     * file systems which make a file visible atomically when it is closed.
+     */
+    final void openDirect(String uId, ResourceId outputFile) throws Exception {
+      this.id = spreadUid(uId);
+      this.directWrite = true;
+      open(outputFile, false);
+    }
+
+    private void open(ResourceId outputFile, boolean expectFileToNotExist) throws Exception {
+      this.outputFile = outputFile;
       final WritableByteChannelFactory factory =
           getWriteOperation().getSink().writableByteChannelFactory;
       // The factory may force a MIME type or it may return null, indicating to use the sink's MIME.
@@ -969,11 +1134,12 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
       CreateOptions createOptions =
           StandardCreateOptions.builder()
               .setMimeType(channelMimeType)
-              // The file is based upon a uuid and thus we expect it to be unique and to not already
-              // exist. A new uuid is generated on each bundle processing and thus this also holds
-              // across bundle retries. Collisions of filenames would result in data loss as we
-              // would otherwise overwrite already finalized data.
-              .setExpectFileToNotExist(true)
+              // A temporary file is based upon a uuid and thus we expect it to be unique and to not
+              // already exist. A new uuid is generated on each bundle processing and thus this also
+              // holds across bundle retries. Collisions of filenames would result in data loss as
+              // we would otherwise overwrite already finalized data. A file written directly is
+              // overwritten by retries of the bundle.
+              .setExpectFileToNotExist(expectFileToNotExist)
               .build();
       WritableByteChannel tempChannel = FileSystems.create(outputFile, createOptions);
       try {
@@ -1022,6 +1188,11 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     }
 
     public final void cleanup() throws Exception {
+      if (directWrite) {
+        // The file may have been written by another attempt of this bundle.
+        LOG.info("Not deleting output file {} which was written directly", outputFile);
+        return;
+      }
       if (outputFile != null) {
         LOG.info("Deleting temporary file {}", outputFile);
         // outputFile may be null if open() was not called or failed.
@@ -22,6 +22,7 @@ import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Pr
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
@@ -92,15 +93,24 @@ public class TextSource extends FileBasedSource<String> {
   @VisibleForTesting
   static class TextBasedReader extends FileBasedReader<String> {
     private static final int READ_BUFFER_SIZE = 8192;
+    // Readers of large ranges use a larger buffer so that fewer reads are issued against the
+    // channel and fewer records span two buffers.
+    @VisibleForTesting static final int MAX_READ_BUFFER_SIZE = 1 << 20;
     private static final ByteString UTF8_BOM =
         ByteString.copyFrom(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
     private static final byte CR = '\r';
     private static final byte LF = '\n';
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long CR_WORD = ONES * CR;
+    private static final long LF_WORD = ONES * LF;
 
     private final byte @Nullable [] delimiter;
     private final ByteArrayOutputStream str;
     private final byte[] buffer;
     private final ByteBuffer byteBuffer;
+    // Little endian view of buffer used to scan for delimiters a word at a time.
+    private final ByteBuffer words;
 
     private ReadableByteChannel inChannel;
     private long startOfRecord;
@@ -113,12 +123,77 @@ public class TextSource extends FileBasedSource<String> {
 
     private TextBasedReader(TextSource source, byte[] delimiter) {
       super(source);
-      this.buffer = new byte[READ_BUFFER_SIZE];
+      this.buffer = new byte[readBufferSize(source)];
       this.str = new ByteArrayOutputStream();
       this.byteBuffer = ByteBuffer.wrap(buffer);
+      this.words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
       this.delimiter = delimiter;
     }
 
+    /**
+     * Returns the size of the range being read, bounded by {@link #READ_BUFFER_SIZE} and {@link
+     * #MAX_READ_BUFFER_SIZE}. Ranges ending at {@code Long.MAX_VALUE}, such as those read through a
+     * {@link CompressedSource}, are of unknown size and use {@link #READ_BUFFER_SIZE}.
+     */
+    @VisibleForTesting
+    static int readBufferSize(TextSource source) {
+      if (source.getEndOffset() == Long.MAX_VALUE) {
+        return READ_BUFFER_SIZE;
+      }
+      long rangeBytes = source.getEndOffset() - source.getStartOffset();
+      return (int) Math.max(READ_BUFFER_SIZE, Math.min(MAX_READ_BUFFER_SIZE, rangeBytes));
+    }
+
+    /**
+     * Returns a word with the high bit set in each byte of {@code word} which is zero. Bytes above
+     * the lowest zero byte may be reported spuriously, but the lowest set bit is always exact.
+     */
+    private static long zeroBytes(long word) {
+      return (word - ONES) & ~word & HIGH_BITS;
+    }
+
+    /**
+     * Returns the position of the first CR or LF in {@code buffer} between {@code from} inclusive
+     * and {@code to} exclusive, or {@code to} if there is none.
+     */
+    private int indexOfNewline(int from, int to) {
+      int i = from;
+      for (; i + Long.BYTES <= to; i += Long.BYTES) {
+        long word = words.getLong(i);
+        long matches = zeroBytes(word ^ LF_WORD) | zeroBytes(word ^ CR_WORD);
+        if (matches != 0) {
+          return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+        }
+      }
+      for (; i < to; ++i) {
+        if (buffer[i] == LF || buffer[i] == CR) {
+          return i;
+        }
+      }
+      return to;
+    }
+
+    /**
+     * Returns the position of the first {@code b} in {@code buffer} between {@code from} inclusive
+     * and {@code to} exclusive, or {@code to} if there is none.
+     */
+    private int indexOf(byte b, int from, int to) {
+      long pattern = ONES * (b & 0xFF);
+      int i = from;
+      for (; i + Long.BYTES <= to; i += Long.BYTES) {
+        long matches = zeroBytes(words.getLong(i) ^ pattern);
+        if (matches != 0) {
+          return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+        }
+      }
+      for (; i < to; ++i) {
+        if (buffer[i] == b) {
+          return i;
+        }
+      }
+      return to;
+    }
+
     @Override
     protected long getCurrentOffset() throws NoSuchElementException {
       if (currentValue == null) {
@@ -231,26 +306,23 @@ public class TextSource extends FileBasedSource<String> {
      * LineReader.java</a>
      *
      * <p>We're reading data from inChannel, but the head of the stream may be already buffered in
-     * buffer, so we have several cases:
+     * buffer. The buffer is scanned a word at a time for the first CR or LF by {@link
+     * #indexOfNewline}, so we have several cases:
      *
      * <ol>
      *   <li>No newline characters are in the buffer, so we need to copy everything and read another
      *       buffer from the stream.
-     *   <li>An unambiguously terminated line is in buffer, so we just create currentValue
-     *   <li>Ambiguously terminated line is in buffer, i.e. buffer ends in CR. In this case we copy
-     *       everything up to CR to str, but we also need to see what follows CR: if it's LF, then
-     *       we need consume LF as well, so next call to readLine will read from after that.
+     *   <li>An LF, or a CR followed by a byte in the buffer, is found. The line is terminated there,
+     *       and if that byte is an LF it is consumed with the CR as a single CRLF delimiter.
+     *   <li>The buffer ends in CR. The line is terminated at the CR without waiting for the next
+     *       buffer, and the flag skipLineFeedAtStart is set so that an LF at the start of the next
+     *       buffer is consumed as the end of that CRLF delimiter instead of as an empty line.
      * </ol>
-     *
-     * <p>We use a flag prevCharCR to signal if previous character was CR and, if it happens to be
-     * at the end of the buffer, delay consuming it until we have a chance to look at the char that
-     * follows.
      */
     private boolean readDefaultLine() throws IOException {
       assert !eof;
 
       int newlineLength = 0; // length of terminating newline
-      boolean prevCharCR = false; // true if prev char was CR
       long bytesConsumed = 0;
       EOF:
       for (; ; ) {
@@ -286,25 +358,20 @@ public class TextSource extends FileBasedSource<String> {
         }
 
         // Search for the newline
-        for (; bufferPosn < bufferLength; ++bufferPosn) {
-          if (buffer[bufferPosn] == LF) {
-            newlineLength = (prevCharCR) ? 2 : 1;
-            ++bufferPosn; // at next invocation proceed from following byte
-            break;
-          }
-          if (prevCharCR) { // CR + notLF, we are at notLF
-            newlineLength = 1;
-            break;
-          }
-          prevCharCR = (buffer[bufferPosn] == CR);
-        }
-
-        // CR at the end of the buffer
-        if (newlineLength == 0 && prevCharCR) {
-          skipLineFeedAtStart = true;
+        skipLineFeedAtStart = false;
+        bufferPosn = indexOfNewline(bufferPosn, bufferLength);
+        if (bufferPosn < bufferLength) {
           newlineLength = 1;
-        } else {
-          skipLineFeedAtStart = false;
+          if (buffer[bufferPosn++] == CR) {
+            if (bufferPosn == bufferLength) {
+              // CR at the end of the buffer
+              skipLineFeedAtStart = true;
+            } else if (buffer[bufferPosn] == LF) {
+              newlineLength = 2;
+              ++bufferPosn; // at next invocation proceed from following byte
+            }
+            // Otherwise CR + notLF, we are at notLF
+          }
         }
 
         int readLength = bufferPosn - startPosn;
@@ -399,6 +466,13 @@ public class TextSource extends FileBasedSource<String> {
 
           // fast-path: Look for the delimiter within the buffer
           for (; bufferPosn < bufferLength; ++bufferPosn) {
+            if (delPosn == 0) {
+              // Skip ahead to the next byte which could start the delimiter.
+              bufferPosn = indexOf(delimiter[0], bufferPosn, bufferLength);
+              if (bufferPosn == bufferLength) {
+                break;
+              }
+            }
             if (buffer[bufferPosn] == delimiter[delPosn]) {
               delPosn++;
               if (delPosn == delimiter.length) {
@@ -166,6 +166,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
         .setMaxNumWritersPerBundle(DEFAULT_MAX_NUM_WRITERS_PER_BUNDLE)
         .setSideInputs(sink.getDynamicDestinations().getSideInputs())
         .setSkipIfEmpty(false)
+        .setDirectWrites(false)
         .build();
   }
 
@@ -185,6 +186,8 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
 
   abstract boolean getSkipIfEmpty();
 
+  abstract boolean getDirectWrites();
+
   abstract List<PCollectionView<?>> getSideInputs();
 
   public abstract @Nullable ShardingFunction<UserT, DestinationT> getShardingFunction();
@@ -209,6 +212,8 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
 
     abstract Builder<UserT, DestinationT, OutputT> setSkipIfEmpty(boolean skipIfEmpty);
 
+    abstract Builder<UserT, DestinationT, OutputT> setDirectWrites(boolean directWrites);
+
     abstract Builder<UserT, DestinationT, OutputT> setSideInputs(
         List<PCollectionView<?>> sideInputs);
 
@@ -330,9 +335,35 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
     return toBuilder().setSkipIfEmpty(true).build();
   }
 
+  /**
+   * Returns a new {@link WriteFiles} that writes each shard directly to its final output file,
+   * rather than writing to a temporary file which is renamed when finalizing.
+   *
+   * <p>A retried bundle overwrites the output of earlier attempts of the bundle, and output files
+   * are visible before the write completes. This option must only be used with file systems which
+   * make a file visible atomically when it is closed, such as most object stores, and when
+   * downstream consumers tolerate output files appearing before the whole write has finished.
+   *
+   * <p>This option can only be used if the number of shards is fixed, using {@link
+   * #withNumShards} or {@link #withSharding}, since the final filename of a shard depends on the
+   * number of shards.
+   */
+  public WriteFiles<UserT, DestinationT, OutputT> withDirectWrites() {
+    return toBuilder().setDirectWrites(true).build();
+  }
+
   @Override
   public void validate(PipelineOptions options) {
     getSink().validate(options);
+    checkDirectWritesSharding();
+  }
+
+  private void checkDirectWritesSharding() {
+    // Runner-determined and auto-sharded writes don't know the number of shards of a file, which
+    // is part of its final name, when writing it.
+    checkArgument(
+        !getDirectWrites() || getComputeNumShards() != null || getNumShardsProvider() != null,
+        "Direct writes require a fixed number of shards, set using withNumShards or withSharding");
   }
 
   @Override
@@ -353,6 +384,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
             WriteFiles.class.getSimpleName());
       }
     }
+    checkDirectWritesSharding();
     this.writeOperation = getSink().createWriteOperation();
     if (getWindowedWrites()) {
       this.writeOperation.setWindowedWrites();
@@ -427,6 +459,10 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
           DisplayData.item("numShards", getNumShardsProvider())
               .withLabel("Fixed Number of Shards"));
     }
+    builder.addIfNotDefault(
+        DisplayData.item("directWrites", getDirectWrites())
+            .withLabel("Write Directly To Output Files"),
+        false);
   }
 
   private DynamicDestinations<UserT, DestinationT, OutputT> getDynamicDestinations() {
@@ -529,7 +565,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
               .apply("GroupUnwritten", GroupByKey.create())
               .apply(
                   "WriteUnwritten",
-                  ParDo.of(new WriteShardsIntoTempFilesFn()).withSideInputs(getSideInputs()))
+                  ParDo.of(new WriteShardsIntoTempFilesFn(null)).withSideInputs(getSideInputs()))
               .setCoder(fileResultCoder)
               .apply(
                   "DropShardNum",
@@ -737,7 +773,8 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
           .apply("GroupIntoShards", GroupByKey.create())
           .apply(
               "WriteShardsIntoTempFiles",
-              ParDo.of(new WriteShardsIntoTempFilesFn()).withSideInputs(getSideInputs()))
+              ParDo.of(new WriteShardsIntoTempFilesFn(numShardsView))
+                  .withSideInputs(getDirectWrites() ? shardingSideInputs : getSideInputs()))
           .setCoder(fileResultCoder);
     }
   }
@@ -816,7 +853,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
                       ShardedKeyCoder.of(VarIntCoder.of()), IterableCoder.of(input.getCoder())))
               .apply(
                   "WriteShardsIntoTempFiles",
-                  ParDo.of(new WriteShardsIntoTempFilesFn()).withSideInputs(getSideInputs()))
+                  ParDo.of(new WriteShardsIntoTempFilesFn(null)).withSideInputs(getSideInputs()))
               .setCoder(fileResultCoder)
               .apply(
                   "DropShardNum",
@@ -939,6 +976,11 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
     private transient List<CompletionStage<Void>> closeFutures = new ArrayList<>();
     private transient List<KV<Instant, FileResult<DestinationT>>> deferredOutput =
         new ArrayList<>();
+    private final @Nullable PCollectionView<Integer> numShardsView;
+
+    private WriteShardsIntoTempFilesFn(@Nullable PCollectionView<Integer> numShardsView) {
+      this.numShardsView = numShardsView;
+    }
 
     // Ensure that transient fields are initialized.
     private void readObject(java.io.ObjectInputStream in)
@@ -955,6 +997,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
       // in this iterable. The number of destinations is generally very small (1000s or less), so
       // there will rarely be hash collisions.
       Map<DestinationT, Writer<DestinationT, OutputT>> writers = Maps.newHashMap();
+      int shard = c.element().getKey().getShardNumber();
       for (UserT input : c.element().getValue()) {
         DestinationT destination = getDynamicDestinations().getDestination(input);
         Writer<DestinationT, OutputT> writer = writers.get(destination);
@@ -968,7 +1011,20 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
               destination);
           writer = writeOperation.createWriter();
           writer.setDestination(destination);
-          writer.open(uuid);
+          if (getDirectWrites()) {
+            int numShards =
+                numShardsView != null ? c.sideInput(numShardsView) : getNumShardsProvider().get();
+            writer.openDirect(
+                uuid,
+                new FileResult<>(null, shard, window, c.pane(), destination)
+                    .getDestinationFile(
+                        getWindowedWrites(),
+                        getDynamicDestinations(),
+                        numShards,
+                        getSink().getWritableByteChannelFactory()));
+          } else {
+            writer.open(uuid);
+          }
           writers.put(destination, writer);
         }
         writeOrClose(writer, getDynamicDestinations().formatRecord(input));
@@ -983,7 +1039,6 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
 
       // Close all writers in the background
       for (Map.Entry<DestinationT, Writer<DestinationT, OutputT>> entry : writers.entrySet()) {
-        int shard = c.element().getKey().getShardNumber();
         checkArgument(
             shard != UNKNOWN_SHARDNUM,
             "Shard should have been set, but is unset for element %s",
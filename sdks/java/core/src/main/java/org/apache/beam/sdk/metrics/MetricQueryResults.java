@@ -18,13 +18,14 @@
 package org.apache.beam.sdk.metrics;
 
 import com.google.auto.value.AutoValue;
+import java.util.Collections;
 import java.util.List;
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
 
 /**
  * The results of a query for metrics. Allows accessing all of the metrics that matched the filter.
  */
-@AutoValue
 public abstract class MetricQueryResults {
   /** Return the metric results for the counters that matched the filter. */
   public abstract Iterable<MetricResult<Long>> getCounters();
@@ -35,6 +36,14 @@ public abstract class MetricQueryResults {
   /** Return the metric results for the gauges that matched the filter. */
   public abstract Iterable<MetricResult<GaugeResult>> getGauges();
 
+  /**
+   * Return the metric results for the histograms that matched the filter. Results that don't
+   * support histograms return none.
+   */
+  public Iterable<MetricResult<HistogramData>> getHistograms() {
+    return Collections.emptyList();
+  }
+
   static <T> void printMetrics(String type, Iterable<MetricResult<T>> metrics, StringBuilder sb) {
     List<MetricResult<T>> metricsList = ImmutableList.copyOf(metrics);
     if (!metricsList.isEmpty()) {
@@ -63,6 +72,7 @@ public abstract class MetricQueryResults {
     printMetrics("Counters", getCounters(), sb);
     printMetrics("Distributions", getDistributions(), sb);
     printMetrics("Gauges", getGauges(), sb);
+    printMetrics("Histograms", getHistograms(), sb);
     sb.append(")");
     return sb.toString();
   }
@@ -71,6 +81,21 @@ public abstract class MetricQueryResults {
       Iterable<MetricResult<Long>> counters,
       Iterable<MetricResult<DistributionResult>> distributions,
       Iterable<MetricResult<GaugeResult>> gauges) {
-    return new AutoValue_MetricQueryResults(counters, distributions, gauges);
+    return create(counters, distributions, gauges, Collections.emptyList());
+  }
+
+  public static MetricQueryResults create(
+      Iterable<MetricResult<Long>> counters,
+      Iterable<MetricResult<DistributionResult>> distributions,
+      Iterable<MetricResult<GaugeResult>> gauges,
+      Iterable<MetricResult<HistogramData>> histograms) {
+    return new AutoValue_MetricQueryResults_Results(counters, distributions, gauges, histograms);
+  }
+
+  /** The {@link MetricQueryResults} returned by {@link #create}. */
+  @AutoValue
+  abstract static class Results extends MetricQueryResults {
+    @Override
+    public abstract Iterable<MetricResult<HistogramData>> getHistograms();
   }
 }
@@ -18,6 +18,7 @@
 package org.apache.beam.sdk.metrics;
 
 import java.io.Serializable;
+import org.apache.beam.sdk.util.HistogramData;
 
 /**
  * The <code>Metrics</code> is a utility class for producing various kinds of metrics for reporting
@@ -93,6 +94,30 @@ public class Metrics {
     return new DelegatingGauge(MetricName.named(namespace, name));
   }
 
+  /**
+   * Create a metric that records the histogram of reported values in the given buckets, and is
+   * aggregated by merging the bucket counts. Percentiles of the reported values can be estimated
+   * from the result, for example with {@link HistogramData.ExponentialBuckets} for latencies.
+   *
+   * <p>Runners whose metrics containers don't support histograms drop the reported values.
+   */
+  public static Histogram histogram(
+      String namespace, String name, HistogramData.BucketType bucketType) {
+    return new DelegatingHistogram(MetricName.named(namespace, name), bucketType, false);
+  }
+
+  /**
+   * Create a metric that records the histogram of reported values in the given buckets, and is
+   * aggregated by merging the bucket counts. Percentiles of the reported values can be estimated
+   * from the result, for example with {@link HistogramData.ExponentialBuckets} for latencies.
+   *
+   * <p>Runners whose metrics containers don't support histograms drop the reported values.
+   */
+  public static Histogram histogram(
+      Class<?> namespace, String name, HistogramData.BucketType bucketType) {
+    return new DelegatingHistogram(MetricName.named(namespace, name), bucketType, false);
+  }
+
   /**
    * Implementation of {@link Distribution} that delegates to the instance for the current context.
    */
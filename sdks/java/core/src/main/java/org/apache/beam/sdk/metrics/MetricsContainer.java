@@ -48,9 +48,11 @@ public interface MetricsContainer extends Serializable {
   /**
    * Return the {@link Histogram} that should be used for implementing the given {@code metricName}
    * in this container.
+   *
+   * <p>Containers that don't support histograms return a {@link Histogram} that drops the updates.
    */
   default Histogram getHistogram(MetricName metricName, HistogramData.BucketType bucketType) {
-    throw new RuntimeException("Histogram metric is not supported yet.");
+    return new NoOpHistogram(metricName);
   }
 
   /** Return the cumulative values for any metrics in this container as MonitoringInfos. */
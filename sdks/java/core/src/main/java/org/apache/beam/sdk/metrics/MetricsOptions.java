@@ -17,11 +17,13 @@
  */
 package org.apache.beam.sdk.metrics;
 
+import java.util.List;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.DefaultValueFactory;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.util.common.ReflectHelpers;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /** Extension of {@link PipelineOptions} that defines {@link MetricsSink} specific options. */
 public interface MetricsOptions extends PipelineOptions {
@@ -63,6 +65,36 @@ public interface MetricsOptions extends PipelineOptions {
 
   void setMetricsPushPeriod(Long period);
 
+  @Description(
+      "Whether to push only the metrics whose values changed since they were last pushed, instead"
+          + " of all metrics at each push")
+  @Default.Boolean(false)
+  Boolean getMetricsPushOnlyChanged();
+
+  void setMetricsPushOnlyChanged(Boolean onlyChanged);
+
+  @Description("The namespaces of the metrics to push, all metrics are pushed if unset")
+  @Nullable
+  List<String> getMetricsPushNamespaces();
+
+  void setMetricsPushNamespaces(@Nullable List<String> namespaces);
+
+  @Description(
+      "The maximum number of metrics written to the sink at once, the metrics of a push are split"
+          + " into several writes if needed. All metrics are written at once if not positive")
+  @Default.Integer(0)
+  Integer getMetricsPushBatchSize();
+
+  void setMetricsPushBatchSize(Integer batchSize);
+
+  @Description(
+      "The maximum number of metrics writes waiting for the sink, further writes are dropped"
+          + " until the sink catches up")
+  @Default.Integer(10)
+  Integer getMetricsPushQueueCapacity();
+
+  void setMetricsPushQueueCapacity(Integer capacity);
+
   @Description("MetricsHttpSink url")
   String getMetricsHttpSinkUrl();
 
@@ -78,4 +110,10 @@ public interface MetricsOptions extends PipelineOptions {
   Integer getMetricsGraphitePort();
 
   void setMetricsGraphitePort(Integer port);
+
+  @Description("The port on which MetricsPrometheusSink serves the metrics")
+  @Default.Integer(9464)
+  Integer getMetricsPrometheusPort();
+
+  void setMetricsPrometheusPort(Integer port);
 }
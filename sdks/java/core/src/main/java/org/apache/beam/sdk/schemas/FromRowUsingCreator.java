@@ -41,32 +41,31 @@ import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Maps;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-/** Function to convert a {@link Row} to a user type using a creator factory. */
+/**
+ * Function to convert a {@link Row} to a user type using a creator factory.
+ *
+ * <p>The field converters and {@link SchemaUserTypeCreator creators} of the user type and of its
+ * nested types are resolved once per provider, type and schema, and shared by all instances of this
+ * function in the JVM. Instances deserialized for each {@code DoFn} therefore neither resolve them
+ * again nor look up a creator for every converted row.
+ */
 @SuppressWarnings({
   "nullness", // TODO(https://github.com/apache/beam/issues/20497)
   "rawtypes"
 })
 class FromRowUsingCreator<T> implements SerializableFunction<Row, T>, Function<Row, T> {
+  private static final Map<ConverterKey, RowConverter> CACHED_CONVERTERS =
+      Maps.newConcurrentMap();
+
   private final Class<T> clazz;
   private final GetterBasedSchemaProvider schemaProvider;
-  private final Factory<SchemaUserTypeCreator> schemaTypeCreatorFactory;
 
   @SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
-  private transient @MonotonicNonNull Function[] fieldConverters;
+  private transient @MonotonicNonNull RowConverter converter;
 
   public FromRowUsingCreator(Class<T> clazz, GetterBasedSchemaProvider schemaProvider) {
-    this(clazz, schemaProvider, new CachingFactory<>(schemaProvider::schemaTypeCreator), null);
-  }
-
-  private FromRowUsingCreator(
-      Class<T> clazz,
-      GetterBasedSchemaProvider schemaProvider,
-      Factory<SchemaUserTypeCreator> schemaTypeCreatorFactory,
-      @Nullable Function[] fieldConverters) {
     this.clazz = clazz;
     this.schemaProvider = schemaProvider;
-    this.schemaTypeCreatorFactory = schemaTypeCreatorFactory;
-    this.fieldConverters = fieldConverters;
   }
 
   @Override
@@ -75,45 +74,33 @@ class FromRowUsingCreator<T> implements SerializableFunction<Row, T>, Function<R
     if (row == null) {
       return null;
     }
-    if (row instanceof RowWithGetters) {
-      Object target = ((RowWithGetters) row).getGetterTarget();
-      if (target.getClass().equals(clazz)) {
-        // Efficient path: simply extract the underlying object instead of creating a new one.
-        return (T) target;
-      }
-    }
-    if (fieldConverters == null) {
-      initFieldConverters(row.getSchema());
-    }
-    checkState(fieldConverters.length == row.getFieldCount(), "Unexpected field count");
-
-    Object[] params = new Object[row.getFieldCount()];
-    for (int i = 0; i < row.getFieldCount(); ++i) {
-      params[i] = fieldConverters[i].apply(row.getValue(i));
+    if (converter == null) {
+      converter = rowConverter(clazz, row.getSchema());
     }
-    SchemaUserTypeCreator creator = schemaTypeCreatorFactory.create(clazz, row.getSchema());
-    return (T) creator.create(params);
+    return (T) converter.convert(row);
   }
 
-  private synchronized void initFieldConverters(Schema schema) {
-    if (fieldConverters == null) {
-      CachingFactory<List<FieldValueTypeInformation>> typeFactory =
-          new CachingFactory<>(schemaProvider::fieldValueTypeInformations);
-      fieldConverters = fieldConverters(clazz, schema, typeFactory);
+  /** Returns the shared converter of rows with the given schema to the given type. */
+  private RowConverter rowConverter(Class<?> clazz, Schema schema) {
+    ConverterKey key = new ConverterKey(schemaProvider.getClass(), clazz, schema);
+    RowConverter cached = CACHED_CONVERTERS.get(key);
+    if (cached != null) {
+      return cached;
     }
-  }
-
-  private Function[] fieldConverters(
-      Class<?> clazz, Schema schema, Factory<List<FieldValueTypeInformation>> typeFactory) {
-    List<FieldValueTypeInformation> typeInfos = typeFactory.create(clazz, schema);
+    // Nested converters are resolved recursively, so computeIfAbsent can't be used here.
+    List<FieldValueTypeInformation> typeInfos =
+        schemaProvider.fieldValueTypeInformations(clazz, schema);
     checkState(
         typeInfos.size() == schema.getFieldCount(),
         "Did not have a matching number of type informations and fields.");
-    Function[] converters = new Function[schema.getFieldCount()];
-    for (int i = 0; i < converters.length; i++) {
-      converters[i] = fieldConverter(schema.getField(i).getType(), typeInfos.get(i), typeFactory);
+    Function[] fieldConverters = new Function[schema.getFieldCount()];
+    for (int i = 0; i < fieldConverters.length; i++) {
+      fieldConverters[i] = fieldConverter(schema.getField(i).getType(), typeInfos.get(i));
     }
-    return converters;
+    RowConverter converter =
+        new RowConverter(clazz, schemaProvider.schemaTypeCreator(clazz, schema), fieldConverters);
+    cached = CACHED_CONVERTERS.putIfAbsent(key, converter);
+    return cached != null ? cached : converter;
   }
 
   private static boolean needsConversion(FieldType type) {
@@ -126,27 +113,21 @@ class FromRowUsingCreator<T> implements SerializableFunction<Row, T>, Function<R
             && (needsConversion(type.getMapKeyType()) || needsConversion(type.getMapValueType())));
   }
 
-  private Function fieldConverter(
-      FieldType type,
-      FieldValueTypeInformation typeInfo,
-      Factory<List<FieldValueTypeInformation>> typeFactory) {
+  private Function fieldConverter(FieldType type, FieldValueTypeInformation typeInfo) {
     if (!needsConversion(type)) {
       return FieldConverter.IDENTITY;
     } else if (TypeName.ROW.equals(type.getTypeName())) {
-      Function[] converters =
-          fieldConverters(typeInfo.getRawType(), type.getRowSchema(), typeFactory);
-      return new FromRowUsingCreator(
-          typeInfo.getRawType(), schemaProvider, schemaTypeCreatorFactory, converters);
+      return rowConverter(typeInfo.getRawType(), type.getRowSchema());
     } else if (TypeName.ARRAY.equals(type.getTypeName())) {
       return new ConvertCollection(
-          fieldConverter(type.getCollectionElementType(), typeInfo.getElementType(), typeFactory));
+          fieldConverter(type.getCollectionElementType(), typeInfo.getElementType()));
     } else if (TypeName.ITERABLE.equals(type.getTypeName())) {
       return new ConvertIterable(
-          fieldConverter(type.getCollectionElementType(), typeInfo.getElementType(), typeFactory));
+          fieldConverter(type.getCollectionElementType(), typeInfo.getElementType()));
     } else if (TypeName.MAP.equals(type.getTypeName())) {
       return new ConvertMap(
-          fieldConverter(type.getMapKeyType(), typeInfo.getMapKeyType(), typeFactory),
-          fieldConverter(type.getMapValueType(), typeInfo.getMapValueType(), typeFactory));
+          fieldConverter(type.getMapKeyType(), typeInfo.getMapKeyType()),
+          fieldConverter(type.getMapValueType(), typeInfo.getMapValueType()));
     } else if (type.isLogicalType(OneOfType.IDENTIFIER)) {
       OneOfType oneOfType = type.getLogicalType(OneOfType.class);
       Schema schema = oneOfType.getOneOfSchema();
@@ -159,7 +140,7 @@ class FromRowUsingCreator<T> implements SerializableFunction<Row, T>, Function<R
                 FieldType caseType = schema.getField(name).getType();
                 FieldValueTypeInformation caseTypeInfo =
                     checkNotNull(typeInfo.getOneOfTypes().get(name));
-                readers.put(id, fieldConverter(caseType, caseTypeInfo, typeFactory));
+                readers.put(id, fieldConverter(caseType, caseTypeInfo));
               });
       return new ConvertOneOf(oneOfType, readers);
     } else if (type.getTypeName().isLogicalType()) {
@@ -168,6 +149,70 @@ class FromRowUsingCreator<T> implements SerializableFunction<Row, T>, Function<R
     return FieldConverter.IDENTITY;
   }
 
+  /** Converts rows of a schema to a user type with a resolved creator and field converters. */
+  private static class RowConverter implements FieldConverter<Row, Object> {
+    private final Class<?> clazz;
+    private final SchemaUserTypeCreator creator;
+    private final Function[] fieldConverters;
+
+    RowConverter(Class<?> clazz, SchemaUserTypeCreator creator, Function[] fieldConverters) {
+      this.clazz = clazz;
+      this.creator = creator;
+      this.fieldConverters = fieldConverters;
+    }
+
+    @Override
+    public Object convert(Row row) {
+      if (row instanceof RowWithGetters) {
+        Object target = ((RowWithGetters) row).getGetterTarget();
+        if (target.getClass().equals(clazz)) {
+          // Efficient path: simply extract the underlying object instead of creating a new one.
+          return target;
+        }
+      }
+      checkState(fieldConverters.length == row.getFieldCount(), "Unexpected field count");
+
+      Object[] params = new Object[row.getFieldCount()];
+      for (int i = 0; i < params.length; ++i) {
+        params[i] = fieldConverters[i].apply(row.getValue(i));
+      }
+      return creator.create(params);
+    }
+  }
+
+  /** The key of a shared {@link RowConverter}. */
+  private static class ConverterKey {
+    private final Class<? extends GetterBasedSchemaProvider> providerClass;
+    private final Class<?> clazz;
+    private final Schema schema;
+
+    ConverterKey(
+        Class<? extends GetterBasedSchemaProvider> providerClass, Class<?> clazz, Schema schema) {
+      this.providerClass = providerClass;
+      this.clazz = clazz;
+      this.schema = schema;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ConverterKey)) {
+        return false;
+      }
+      ConverterKey that = (ConverterKey) o;
+      return providerClass.equals(that.providerClass)
+          && clazz.equals(that.clazz)
+          && schema.equals(that.schema);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(providerClass, clazz, schema);
+    }
+  }
+
   private interface FieldConverter<FieldT, ValueT>
       extends SerializableFunction<FieldT, ValueT>, Function<FieldT, ValueT> {
     Function<Object, Object> IDENTITY = v -> v;
@@ -17,6 +17,9 @@
  */
 package org.apache.beam.sdk.schemas.transforms;
 
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
 import java.io.Serializable;
 import org.apache.beam.sdk.schemas.FieldAccessDescriptor;
 import org.apache.beam.sdk.schemas.Schema;
@@ -49,6 +52,15 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * }</pre>
  *
  * <p>Full outer joins, left outer joins, and right outer joins are also supported.
+ *
+ * <p>Inner and left outer joins of a large left-hand PCollection, whose join keys may be skewed,
+ * with a right-hand PCollection which may be small enough to broadcast can use {@link
+ * Impl#withSkewHandling()}:
+ *
+ * <pre>{@code PCollection<Row> joined = facts.apply(Join.innerJoin(dimensions)
+ *       .using("dimensionId")
+ *       .withSkewHandling());
+ * }</pre>
  */
 @SuppressWarnings({
   "nullness", // TODO(https://github.com/apache/beam/issues/20497)
@@ -158,6 +170,83 @@ public class Join {
     return new Impl<>(JoinType.LEFT_OUTER_BROADCAST, rhs);
   }
 
+  /**
+   * Options of joins with {@link Impl#withSkewHandling(SkewHandling) skew handling}.
+   *
+   * <p>The right-hand side is broadcast when it has at most {@link #withMaxBroadcastRows} rows.
+   * Otherwise, the keys carrying at least {@link #withHotKeyShare a share} of the rows of the
+   * left-hand side are spread among up to {@link #withMaxHotKeyShards} shards, each joined with a
+   * copy of the matching right-hand rows.
+   */
+  @AutoValue
+  public abstract static class SkewHandling implements Serializable {
+    static final long DEFAULT_MAX_BROADCAST_ROWS = 100_000;
+    static final double DEFAULT_HOT_KEY_SHARE = 0.01;
+    static final int DEFAULT_MAX_HOT_KEY_SHARDS = 32;
+
+    abstract long getMaxBroadcastRows();
+
+    abstract double getHotKeyShare();
+
+    abstract int getMaxHotKeyShards();
+
+    abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    abstract static class Builder {
+      abstract Builder setMaxBroadcastRows(long maxBroadcastRows);
+
+      abstract Builder setHotKeyShare(double hotKeyShare);
+
+      abstract Builder setMaxHotKeyShards(int maxHotKeyShards);
+
+      abstract SkewHandling build();
+    }
+
+    /** Returns the default options. */
+    public static SkewHandling create() {
+      return new AutoValue_Join_SkewHandling.Builder()
+          .setMaxBroadcastRows(DEFAULT_MAX_BROADCAST_ROWS)
+          .setHotKeyShare(DEFAULT_HOT_KEY_SHARE)
+          .setMaxHotKeyShards(DEFAULT_MAX_HOT_KEY_SHARDS)
+          .build();
+    }
+
+    /**
+     * Broadcast the right-hand side to the workers joining the left-hand side when it has at most
+     * the given number of rows in a window, instead of shuffling both sides. Zero disables
+     * broadcasting.
+     */
+    public SkewHandling withMaxBroadcastRows(long maxBroadcastRows) {
+      checkArgument(
+          maxBroadcastRows >= 0,
+          "maxBroadcastRows must be non-negative, but was %s",
+          maxBroadcastRows);
+      return toBuilder().setMaxBroadcastRows(maxBroadcastRows).build();
+    }
+
+    /**
+     * Consider the keys carrying at least the given share of the rows of the left-hand side hot.
+     */
+    public SkewHandling withHotKeyShare(double hotKeyShare) {
+      checkArgument(
+          hotKeyShare > 0 && hotKeyShare < 1,
+          "hotKeyShare must be between 0 and 1 exclusive, but was %s",
+          hotKeyShare);
+      return toBuilder().setHotKeyShare(hotKeyShare).build();
+    }
+
+    /**
+     * Spread the rows of a hot key among at most the given number of shards. A key carrying {@code
+     * n} times the {@link #withHotKeyShare hot key share} is spread among {@code n} shards.
+     */
+    public SkewHandling withMaxHotKeyShards(int maxHotKeyShards) {
+      checkArgument(
+          maxHotKeyShards > 0, "maxHotKeyShards must be positive, but was %s", maxHotKeyShards);
+      return toBuilder().setMaxHotKeyShards(maxHotKeyShards).build();
+    }
+  }
+
   private enum JoinType {
     INNER,
     OUTER,
@@ -172,15 +261,21 @@ public class Join {
     private final JoinType joinType;
     private final transient PCollection<RhsT> rhs;
     private final FieldsEqual.@Nullable Impl predicate;
+    private final @Nullable SkewHandling skewHandling;
 
     private Impl(JoinType joinType, PCollection<RhsT> rhs) {
-      this(joinType, rhs, null);
+      this(joinType, rhs, null, null);
     }
 
-    private Impl(JoinType joinType, PCollection<RhsT> rhs, FieldsEqual.Impl predicate) {
+    private Impl(
+        JoinType joinType,
+        PCollection<RhsT> rhs,
+        FieldsEqual.Impl predicate,
+        @Nullable SkewHandling skewHandling) {
       this.joinType = joinType;
       this.rhs = rhs;
       this.predicate = predicate;
+      this.skewHandling = skewHandling;
     }
 
     /**
@@ -188,7 +283,8 @@ public class Join {
      * PCollections
      */
     public Join.Impl<LhsT, RhsT> using(String... fieldNames) {
-      return new Join.Impl<>(joinType, rhs, FieldsEqual.left(fieldNames).right(fieldNames));
+      return new Join.Impl<>(
+          joinType, rhs, FieldsEqual.left(fieldNames).right(fieldNames), skewHandling);
     }
 
     /**
@@ -196,7 +292,8 @@ public class Join {
      * PCollections
      */
     public Join.Impl<LhsT, RhsT> using(Integer... fieldIds) {
-      return new Join.Impl<>(joinType, rhs, FieldsEqual.left(fieldIds).right(fieldIds));
+      return new Join.Impl<>(
+          joinType, rhs, FieldsEqual.left(fieldIds).right(fieldIds), skewHandling);
     }
 
     /**
@@ -205,18 +302,66 @@ public class Join {
      */
     public Join.Impl<LhsT, RhsT> using(FieldAccessDescriptor fieldAccessDescriptor) {
       return new Join.Impl<>(
-          joinType, rhs, FieldsEqual.left(fieldAccessDescriptor).right(fieldAccessDescriptor));
+          joinType,
+          rhs,
+          FieldsEqual.left(fieldAccessDescriptor).right(fieldAccessDescriptor),
+          skewHandling);
     }
 
     /** Join the PCollections using the provided predicate. */
     public Join.Impl<LhsT, RhsT> on(FieldsEqual.Impl predicate) {
-      return new Join.Impl<>(joinType, rhs, predicate);
+      return new Join.Impl<>(joinType, rhs, predicate, skewHandling);
+    }
+
+    /**
+     * Like {@link #withSkewHandling(SkewHandling)}, with the default {@link SkewHandling#create()
+     * options}.
+     */
+    public Join.Impl<LhsT, RhsT> withSkewHandling() {
+      return withSkewHandling(SkewHandling.create());
+    }
+
+    /**
+     * Join a large left-hand side, whose join keys may be skewed, with a right-hand side which may
+     * be small enough to broadcast.
+     *
+     * <p>The rows of the right-hand side are counted, and the frequent keys of the left-hand side
+     * are estimated with a heavy hitters sketch, in a first pass over both inputs. In each window:
+     *
+     * <ul>
+     *   <li>If the right-hand side is small, it is broadcast as a side input to the workers joining
+     *       the left-hand side, and nothing is shuffled.
+     *   <li>Otherwise, the rows of each hot key of the left-hand side are spread randomly among
+     *       several shards, and the right-hand rows of the key are copied to each of them, so that
+     *       the key is joined by several workers. The other keys are joined as with a regular
+     *       {@link CoGroup}.
+     * </ul>
+     *
+     * <p>Only inner and left outer joins are supported, and the inputs must not use merging
+     * windows. Each row of the right-hand side should match few rows of the left-hand side, as in
+     * joins of facts with dimensions.
+     */
+    public Join.Impl<LhsT, RhsT> withSkewHandling(SkewHandling skewHandling) {
+      checkArgument(
+          joinType == JoinType.INNER || joinType == JoinType.LEFT_OUTER,
+          "Skew handling only supports inner and left outer joins, but was %s",
+          joinType);
+      return new Join.Impl<>(joinType, rhs, predicate, skewHandling);
     }
 
     @Override
     public PCollection<Row> expand(PCollection lhs) {
       FieldsEqual.Impl resolvedPredicate = predicate.resolve(lhs.getSchema(), rhs.getSchema());
       PCollectionTuple tuple = PCollectionTuple.of(LHS_TAG, lhs).and(RHS_TAG, rhs);
+      if (skewHandling != null) {
+        return tuple.apply(
+            "SkewedJoin",
+            new SkewedJoin(
+                resolvedPredicate.lhs,
+                resolvedPredicate.rhs,
+                joinType == JoinType.LEFT_OUTER,
+                skewHandling));
+      }
       switch (joinType) {
         case INNER:
           return tuple.apply(
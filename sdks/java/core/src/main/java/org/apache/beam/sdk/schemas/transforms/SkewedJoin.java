@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.schemas.transforms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.MapCoder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.schemas.FieldAccessDescriptor;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.Schema.FieldType;
+import org.apache.beam.sdk.schemas.SchemaCoder;
+import org.apache.beam.sdk.schemas.SchemaUtils;
+import org.apache.beam.sdk.schemas.transforms.Join.SkewHandling;
+import org.apache.beam.sdk.schemas.utils.RowSelector;
+import org.apache.beam.sdk.schemas.utils.SelectHelpers;
+import org.apache.beam.sdk.schemas.utils.SelectHelpers.RowSelectorContainer;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Count;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.Keys;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.View;
+import org.apache.beam.sdk.transforms.join.CoGbkResult;
+import org.apache.beam.sdk.transforms.join.CoGroupByKey;
+import org.apache.beam.sdk.transforms.join.KeyedPCollectionTuple;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The expansion of a {@link Join} with {@link Join.Impl#withSkewHandling skew handling}.
+ *
+ * <p>Both inputs are keyed by their join fields, converted to a common key schema. A first pass
+ * counts the rows of the right-hand side and finds the hot keys of the left-hand side, which are
+ * then used as side inputs to route each row:
+ *
+ * <ul>
+ *   <li>when the right-hand side is small, the left-hand rows are joined with its broadcast
+ *       multimap, and no right-hand row is shuffled;
+ *   <li>otherwise, each left-hand row is keyed by its join key and a shard, chosen at random among
+ *       the shards of hot keys and zero for other keys, and each right-hand row is copied to every
+ *       shard of its key, before both sides are grouped with a {@link CoGroupByKey}.
+ * </ul>
+ */
+@SuppressWarnings({
+  "nullness" // TODO(https://github.com/apache/beam/issues/20497)
+})
+class SkewedJoin extends PTransform<PCollectionTuple, PCollection<Row>> {
+  private final FieldAccessDescriptor lhsFields;
+  private final FieldAccessDescriptor rhsFields;
+  private final boolean leftOuter;
+  private final SkewHandling skewHandling;
+
+  SkewedJoin(
+      FieldAccessDescriptor lhsFields,
+      FieldAccessDescriptor rhsFields,
+      boolean leftOuter,
+      SkewHandling skewHandling) {
+    this.lhsFields = lhsFields;
+    this.rhsFields = rhsFields;
+    this.leftOuter = leftOuter;
+    this.skewHandling = skewHandling;
+  }
+
+  @Override
+  public PCollection<Row> expand(PCollectionTuple input) {
+    PCollection<?> lhs = input.get(Join.LHS_TAG);
+    PCollection<?> rhs = input.get(Join.RHS_TAG);
+    if (!lhs.getWindowingStrategy().getWindowFn().isNonMerging()
+        || !rhs.getWindowingStrategy().getWindowFn().isNonMerging()) {
+      throw new IllegalArgumentException("Skew handling does not support merging windows");
+    }
+    Schema lhsSchema = lhs.getSchema();
+    Schema rhsSchema = rhs.getSchema();
+    // Like CoGroup, the key schema has the field names of the left-hand side, and is widened to
+    // the nullability of both sides.
+    Schema keySchema =
+        SchemaUtils.mergeWideningNullable(
+            SelectHelpers.getOutputSchema(lhsSchema, lhsFields),
+            SelectHelpers.getOutputSchema(rhsSchema, rhsFields));
+    Schema outputSchema =
+        Schema.builder()
+            .addField(Join.LHS_TAG, FieldType.row(lhsSchema))
+            .addField(Join.RHS_TAG, FieldType.row(rhsSchema).withNullable(leftOuter))
+            .build();
+    SchemaCoder<Row> keyCoder = SchemaCoder.of(keySchema);
+
+    PCollection<KV<Row, Row>> keyedLhs =
+        extractKeys(lhs, lhsFields, keySchema, "ExtractLhsKeys");
+    PCollection<KV<Row, Row>> keyedRhs =
+        extractKeys(rhs, rhsFields, keySchema, "ExtractRhsKeys");
+
+    // First pass over the inputs.
+    PCollectionView<Long> rhsCount =
+        keyedRhs.apply(
+            "CountRhs", Combine.globally(Count.<KV<Row, Row>>combineFn()).asSingletonView());
+    PCollectionView<Map<Row, Integer>> hotKeys =
+        keyedLhs
+            .apply("LhsKeys", Keys.create())
+            .apply(
+                "FindHotKeys",
+                Combine.globally(
+                        new HotKeysFn(
+                            skewHandling.getHotKeyShare(), skewHandling.getMaxHotKeyShards()))
+                    .asSingletonView());
+
+    // Broadcast join. The right-hand rows only make it to the side input if there are few of them.
+    long maxBroadcastRows = skewHandling.getMaxBroadcastRows();
+    PCollectionView<Map<Row, Iterable<Row>>> broadcastRhs =
+        keyedRhs
+            .apply(
+                "FilterBroadcastRhs",
+                ParDo.of(
+                        new DoFn<KV<Row, Row>, KV<Row, Row>>() {
+                          @ProcessElement
+                          public void process(ProcessContext c) {
+                            if (c.sideInput(rhsCount) <= maxBroadcastRows) {
+                              c.output(c.element());
+                            }
+                          }
+                        })
+                    .withSideInputs(rhsCount))
+            .apply("BroadcastRhs", View.asMultimap());
+    TupleTag<Row> broadcastJoined = new TupleTag<>();
+    TupleTag<KV<KV<Row, Integer>, Row>> shuffledLhsTag = new TupleTag<>();
+    PCollectionTuple routedLhs =
+        keyedLhs.apply(
+            "JoinBroadcastOrShardLhs",
+            ParDo.of(
+                    new RouteLhsFn(
+                        rhsCount,
+                        maxBroadcastRows,
+                        broadcastRhs,
+                        hotKeys,
+                        leftOuter,
+                        outputSchema,
+                        shuffledLhsTag))
+                .withSideInputs(rhsCount, broadcastRhs, hotKeys)
+                .withOutputTags(broadcastJoined, TupleTagList.of(shuffledLhsTag)));
+
+    // Shuffle join, with the hot keys spread among shards.
+    KvCoder<KV<Row, Integer>, Row> shuffledLhsCoder =
+        KvCoder.of(KvCoder.of(keyCoder, VarIntCoder.of()), SchemaCoder.of(lhsSchema));
+    PCollection<KV<KV<Row, Integer>, Row>> shuffledLhs =
+        routedLhs.get(shuffledLhsTag).setCoder(shuffledLhsCoder);
+    PCollection<KV<KV<Row, Integer>, Row>> shuffledRhs =
+        keyedRhs
+            .apply(
+                "ShardRhs",
+                ParDo.of(
+                        new DoFn<KV<Row, Row>, KV<KV<Row, Integer>, Row>>() {
+                          @ProcessElement
+                          public void process(ProcessContext c) {
+                            if (c.sideInput(rhsCount) <= maxBroadcastRows) {
+                              return;
+                            }
+                            Row key = c.element().getKey();
+                            int shards = c.sideInput(hotKeys).getOrDefault(key, 1);
+                            for (int shard = 0; shard < shards; shard++) {
+                              c.output(KV.of(KV.of(key, shard), c.element().getValue()));
+                            }
+                          }
+                        })
+                    .withSideInputs(rhsCount, hotKeys))
+            .setCoder(
+                KvCoder.of(KvCoder.of(keyCoder, VarIntCoder.of()), SchemaCoder.of(rhsSchema)));
+    TupleTag<Row> lhsTag = new TupleTag<>();
+    TupleTag<Row> rhsTag = new TupleTag<>();
+    PCollection<Row> shuffleJoined =
+        KeyedPCollectionTuple.of(lhsTag, shuffledLhs)
+            .and(rhsTag, shuffledRhs)
+            .apply("CoGroupByKey", CoGroupByKey.create())
+            .apply(
+                "JoinShards",
+                ParDo.of(
+                    new DoFn<KV<KV<Row, Integer>, CoGbkResult>, Row>() {
+                      @ProcessElement
+                      public void process(
+                          @Element KV<KV<Row, Integer>, CoGbkResult> element,
+                          OutputReceiver<Row> o) {
+                        Iterable<Row> rhsRows = element.getValue().getAll(rhsTag);
+                        for (Row lhsRow : element.getValue().getAll(lhsTag)) {
+                          join(lhsRow, rhsRows, leftOuter, outputSchema, o::output);
+                        }
+                      }
+                    }))
+            .setRowSchema(outputSchema);
+
+    return PCollectionList.of(routedLhs.get(broadcastJoined).setRowSchema(outputSchema))
+        .and(shuffleJoined)
+        .apply("Flatten", Flatten.pCollections())
+        .setRowSchema(outputSchema);
+  }
+
+  /** Keys each row by its join fields, converted to the common key schema. */
+  private static <T> PCollection<KV<Row, Row>> extractKeys(
+      PCollection<T> pCollection, FieldAccessDescriptor keyFields, Schema keySchema, String name) {
+    Schema schema = pCollection.getSchema();
+    return pCollection
+        .apply(
+            name,
+            ParDo.of(
+                new DoFn<T, KV<Row, Row>>() {
+                  private final RowSelector rowSelector =
+                      new RowSelectorContainer(schema, keyFields, true);
+
+                  @ProcessElement
+                  public void process(@Element Row row, OutputReceiver<KV<Row, Row>> o) {
+                    // Keys of both sides must be equal rows, so they are given the same schema.
+                    Row key =
+                        Row.withSchema(keySchema).attachValues(rowSelector.select(row).getValues());
+                    o.output(KV.of(key, row));
+                  }
+                }))
+        .setCoder(KvCoder.of(SchemaCoder.of(keySchema), SchemaCoder.of(schema)));
+  }
+
+  /** Outputs the join of a left-hand row with the right-hand rows of its key. */
+  private static void join(
+      Row lhsRow,
+      Iterable<Row> rhsRows,
+      boolean leftOuter,
+      Schema outputSchema,
+      Consumer<Row> output) {
+    boolean matched = false;
+    for (Row rhsRow : rhsRows) {
+      output.accept(Row.withSchema(outputSchema).attachValues(lhsRow, rhsRow));
+      matched = true;
+    }
+    if (!matched && leftOuter) {
+      output.accept(Row.withSchema(outputSchema).attachValues(lhsRow, null));
+    }
+  }
+
+  /**
+   * Joins the left-hand rows with the broadcast right-hand side if it is small, and otherwise keys
+   * them by their join key and shard for the shuffle join.
+   */
+  private static class RouteLhsFn extends DoFn<KV<Row, Row>, Row> {
+    private final PCollectionView<Long> rhsCount;
+    private final long maxBroadcastRows;
+    private final PCollectionView<Map<Row, Iterable<Row>>> broadcastRhs;
+    private final PCollectionView<Map<Row, Integer>> hotKeys;
+    private final boolean leftOuter;
+    private final Schema outputSchema;
+    private final TupleTag<KV<KV<Row, Integer>, Row>> shuffledTag;
+
+    RouteLhsFn(
+        PCollectionView<Long> rhsCount,
+        long maxBroadcastRows,
+        PCollectionView<Map<Row, Iterable<Row>>> broadcastRhs,
+        PCollectionView<Map<Row, Integer>> hotKeys,
+        boolean leftOuter,
+        Schema outputSchema,
+        TupleTag<KV<KV<Row, Integer>, Row>> shuffledTag) {
+      this.rhsCount = rhsCount;
+      this.maxBroadcastRows = maxBroadcastRows;
+      this.broadcastRhs = broadcastRhs;
+      this.hotKeys = hotKeys;
+      this.leftOuter = leftOuter;
+      this.outputSchema = outputSchema;
+      this.shuffledTag = shuffledTag;
+    }
+
+    @ProcessElement
+    public void process(ProcessContext c) {
+      Row key = c.element().getKey();
+      Row row = c.element().getValue();
+      if (c.sideInput(rhsCount) <= maxBroadcastRows) {
+        Iterable<Row> rhsRows = c.sideInput(broadcastRhs).get(key);
+        join(
+            row,
+            rhsRows == null ? Collections.emptyList() : rhsRows,
+            leftOuter,
+            outputSchema,
+            c::output);
+        return;
+      }
+      int shards = c.sideInput(hotKeys).getOrDefault(key, 1);
+      int shard = shards > 1 ? ThreadLocalRandom.current().nextInt(shards) : 0;
+      c.output(shuffledTag, KV.of(KV.of(key, shard), row));
+    }
+  }
+
+  /**
+   * Finds the keys carrying at least a given share of the rows, and the number of shards to spread
+   * each of them among, using a mergeable Misra-Gries heavy hitters sketch.
+   */
+  @VisibleForTesting
+  static class HotKeysFn extends CombineFn<Row, HotKeysFn.Sketch, Map<Row, Integer>> {
+    private final double hotKeyShare;
+    private final int maxShards;
+    private final int capacity;
+
+    HotKeysFn(double hotKeyShare, int maxShards) {
+      this.hotKeyShare = hotKeyShare;
+      this.maxShards = maxShards;
+      // Sized so that the estimated share of a key is at most hotKeyShare / 4 below its true share.
+      this.capacity = (int) Math.ceil(4 / hotKeyShare);
+    }
+
+    /** Approximate counts of the most frequent keys, and the total number of rows. */
+    static class Sketch {
+      private final Map<Row, Long> counts;
+      private long total;
+
+      Sketch(Map<Row, Long> counts, long total) {
+        this.counts = counts;
+        this.total = total;
+      }
+    }
+
+    @Override
+    public Sketch createAccumulator() {
+      return new Sketch(new HashMap<>(), 0);
+    }
+
+    @Override
+    public Sketch addInput(Sketch sketch, Row key) {
+      sketch.total++;
+      sketch.counts.merge(key, 1L, Long::sum);
+      return reduce(sketch);
+    }
+
+    @Override
+    public Sketch mergeAccumulators(Iterable<Sketch> sketches) {
+      Iterator<Sketch> iterator = sketches.iterator();
+      if (!iterator.hasNext()) {
+        return createAccumulator();
+      }
+      Sketch merged = iterator.next();
+      while (iterator.hasNext()) {
+        Sketch sketch = iterator.next();
+        merged.total += sketch.total;
+        for (Map.Entry<Row, Long> entry : sketch.counts.entrySet()) {
+          merged.counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+      }
+      return reduce(merged);
+    }
+
+    /**
+     * Once there are more than twice {@link #capacity} counters, keeps at most {@link #capacity} of
+     * them by subtracting the largest count beyond them from all counts, which underestimates each
+     * count by at most {@code total / (capacity + 1)}. Letting the counters grow to twice the
+     * capacity between reductions makes them take amortized constant time per row.
+     */
+    private Sketch reduce(Sketch sketch) {
+      if (sketch.counts.size() <= 2 * capacity) {
+        return sketch;
+      }
+      long[] counts = new long[sketch.counts.size()];
+      int i = 0;
+      for (long count : sketch.counts.values()) {
+        counts[i++] = count;
+      }
+      long decrement = select(counts, capacity);
+      sketch.counts.replaceAll((key, count) -> count - decrement);
+      sketch.counts.values().removeIf(count -> count <= 0);
+      return sketch;
+    }
+
+    /**
+     * Returns the value that would be at index {@code rank} if {@code values} were sorted in
+     * descending order, reordering {@code values} in the process.
+     */
+    static long select(long[] values, int rank) {
+      // A quickselect with three way partitioning, so that runs of equal counts are cheap.
+      int lo = 0;
+      int hi = values.length - 1;
+      while (lo < hi) {
+        long pivot = values[lo + ThreadLocalRandom.current().nextInt(hi - lo + 1)];
+        // Partitions values[lo..hi] into values larger than, equal to and smaller than the pivot.
+        int lt = lo;
+        int gt = hi;
+        int i = lo;
+        while (i <= gt) {
+          if (values[i] > pivot) {
+            swap(values, lt++, i++);
+          } else if (values[i] < pivot) {
+            swap(values, i, gt--);
+          } else {
+            i++;
+          }
+        }
+        if (rank < lt) {
+          hi = lt - 1;
+        } else if (rank > gt) {
+          lo = gt + 1;
+        } else {
+          return pivot;
+        }
+      }
+      return values[rank];
+    }
+
+    private static void swap(long[] values, int i, int j) {
+      long swap = values[i];
+      values[i] = values[j];
+      values[j] = swap;
+    }
+
+    @Override
+    public Map<Row, Integer> extractOutput(Sketch sketch) {
+      Map<Row, Integer> shards = new HashMap<>();
+      for (Map.Entry<Row, Long> entry : sketch.counts.entrySet()) {
+        double share = (double) entry.getValue() / sketch.total;
+        if (share >= hotKeyShare && maxShards > 1) {
+          shards.put(
+              entry.getKey(),
+              (int) Math.min(maxShards, Math.max(2, Math.ceil(share / hotKeyShare))));
+        }
+      }
+      return shards;
+    }
+
+    @Override
+    public Coder<Sketch> getAccumulatorCoder(CoderRegistry registry, Coder<Row> inputCoder) {
+      return new SketchCoder(inputCoder);
+    }
+
+    @Override
+    public Coder<Map<Row, Integer>> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<Row> inputCoder) {
+      return MapCoder.of(inputCoder, VarIntCoder.of());
+    }
+  }
+
+  /** A {@link Coder} for {@link HotKeysFn.Sketch}. */
+  private static class SketchCoder extends CustomCoder<HotKeysFn.Sketch> {
+    private final MapCoder<Row, Long> countsCoder;
+
+    SketchCoder(Coder<Row> keyCoder) {
+      this.countsCoder = MapCoder.of(keyCoder, VarLongCoder.of());
+    }
+
+    @Override
+    public void encode(HotKeysFn.Sketch sketch, OutputStream outStream) throws IOException {
+      VarLongCoder.of().encode(sketch.total, outStream);
+      countsCoder.encode(sketch.counts, outStream);
+    }
+
+    @Override
+    public HotKeysFn.Sketch decode(InputStream inStream) throws IOException {
+      long total = VarLongCoder.of().decode(inStream);
+      return new HotKeysFn.Sketch(new HashMap<>(countsCoder.decode(inStream)), total);
+    }
+  }
+}
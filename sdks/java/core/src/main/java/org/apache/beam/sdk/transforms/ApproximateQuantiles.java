@@ -54,6 +54,9 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 /**
  * {@code PTransform}s for getting an idea of a {@code PCollection}'s data distribution using
  * approximate {@code N}-tiles (e.g. quartiles, percentiles, etc.), either globally or per-key.
+ *
+ * <p>For {@code double} and {@code long} values, {@link KllQuantiles} computes the same results
+ * with accumulators of bounded size that are cheaper to merge and encode.
  */
 @SuppressWarnings({
   "nullness" // TODO(https://github.com/apache/beam/issues/20497)
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.display.HasDisplayData;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A hot key fanout function for {@link Combine.PerKeyWithHotKeyFanout} which detects hot keys at
+ * runtime instead of requiring the fanout of every key to be known when the pipeline is
+ * constructed.
+ *
+ * <p>Each instance tracks the keys it is applied to with a Misra-Gries heavy-hitters sketch holding
+ * a bounded number of counters. The counts decay exponentially, so the sketch estimates the share
+ * of recently observed elements belonging to each key. A key whose estimated share is below {@code
+ * hotKeyShare} is not fanned out. A hot key is spread over enough intermediate nodes that each of
+ * them receives roughly {@code hotKeyShare} of the elements, up to {@code maxFanout}.
+ *
+ * <p>The sketch is not serialized, so every deserialized copy of the enclosing {@link DoFn} starts
+ * with an empty sketch and observes only the elements it processes. Upstream of a per-key combine
+ * the elements are not partitioned by key, so the share observed by each copy approximates the
+ * global share of the key. Since combining is associative, changing the fanout of a key over time
+ * does not affect the result.
+ *
+ * <p>Keys are compared by their {@link Coder#structuralValue structural value}, which requires the
+ * key {@link Coder} to be supplied with {@link #withKeyCoder} before the function is used.
+ */
+class AutomaticHotKeyFanout<K> implements SerializableFunction<K, Integer>, HasDisplayData {
+  /** The default upper bound on the fanout of a single key. */
+  static final int DEFAULT_MAX_FANOUT = 16;
+
+  /** The default share of recent elements above which a key is considered hot. */
+  static final double DEFAULT_HOT_KEY_SHARE = 0.01;
+
+  /** The number of elements a sketch must observe before any key is considered hot. */
+  @VisibleForTesting static final long MIN_OBSERVED_ELEMENTS = 1_000;
+
+  /** The number of elements after which all counts in the sketch are halved. */
+  @VisibleForTesting static final long DECAY_INTERVAL_ELEMENTS = 100_000;
+
+  private final int maxFanout;
+  private final double hotKeyShare;
+  private final @Nullable Coder<K> keyCoder;
+
+  private transient @Nullable HeavyHitters sketch;
+
+  static <K> AutomaticHotKeyFanout<K> of(int maxFanout, double hotKeyShare) {
+    checkArgument(maxFanout > 1, "maxFanout must be greater than 1, but was %s", maxFanout);
+    checkArgument(
+        hotKeyShare > 0 && hotKeyShare < 1,
+        "hotKeyShare must be between 0 and 1 exclusive, but was %s",
+        hotKeyShare);
+    return new AutomaticHotKeyFanout<>(maxFanout, hotKeyShare, null);
+  }
+
+  private AutomaticHotKeyFanout(int maxFanout, double hotKeyShare, @Nullable Coder<K> keyCoder) {
+    this.maxFanout = maxFanout;
+    this.hotKeyShare = hotKeyShare;
+    this.keyCoder = keyCoder;
+  }
+
+  /** Returns a copy of this function which identifies keys using the given {@link Coder}. */
+  AutomaticHotKeyFanout<K> withKeyCoder(Coder<K> keyCoder) {
+    return new AutomaticHotKeyFanout<>(maxFanout, hotKeyShare, keyCoder);
+  }
+
+  @Override
+  public Integer apply(K key) {
+    if (keyCoder == null) {
+      throw new IllegalStateException(
+          AutomaticHotKeyFanout.class.getSimpleName() + " was applied without a key coder");
+    }
+    HeavyHitters sketch = this.sketch;
+    if (sketch == null) {
+      // Sized so that the estimated share of a key is at most hotKeyShare / 4 below its true share.
+      sketch = new HeavyHitters((int) Math.ceil(4 / hotKeyShare));
+      this.sketch = sketch;
+    }
+    long estimate = sketch.add(keyCoder.structuralValue(key));
+    if (sketch.observed() < MIN_OBSERVED_ELEMENTS) {
+      return 1;
+    }
+    double share = (double) estimate / sketch.observed();
+    if (share < hotKeyShare) {
+      return 1;
+    }
+    return (int) Math.min(maxFanout, Math.max(2, Math.ceil(share / hotKeyShare)));
+  }
+
+  @Override
+  public void populateDisplayData(DisplayData.Builder builder) {
+    builder
+        .add(DisplayData.item("maxFanout", maxFanout).withLabel("Maximum Key Fanout Size"))
+        .add(DisplayData.item("hotKeyShare", hotKeyShare).withLabel("Hot Key Share Threshold"));
+  }
+
+  /**
+   * A Misra-Gries sketch over a bounded number of counters whose counts are halved every {@link
+   * #DECAY_INTERVAL_ELEMENTS} elements.
+   *
+   * <p>The count of each key is underestimated by at most {@code observed() / (capacity + 1)}.
+   */
+  @VisibleForTesting
+  static class HeavyHitters {
+    private final int capacity;
+    private final Map<Object, long[]> counts;
+    private long observed;
+    private long sinceDecay;
+
+    HeavyHitters(int capacity) {
+      this.capacity = capacity;
+      this.counts = new HashMap<>(capacity * 2);
+    }
+
+    /** Records an occurrence of {@code key} and returns its estimated count. */
+    long add(Object key) {
+      observed++;
+      if (++sinceDecay >= DECAY_INTERVAL_ELEMENTS) {
+        decay();
+      }
+      long[] count = counts.get(key);
+      if (count != null) {
+        return ++count[0];
+      }
+      if (counts.size() < capacity) {
+        counts.put(key, new long[] {1});
+        return 1;
+      }
+      // Every counter, including the implicit one of the new key, is decremented. Each such step
+      // removes capacity + 1 occurrences from the sketch, which bounds the error of the estimates
+      // and amortizes the cost of the scan over the elements added since.
+      Iterator<long[]> it = counts.values().iterator();
+      while (it.hasNext()) {
+        long[] other = it.next();
+        if (--other[0] == 0) {
+          it.remove();
+        }
+      }
+      return 0;
+    }
+
+    /** Returns the exponentially decayed number of elements observed. */
+    long observed() {
+      return observed;
+    }
+
+    private void decay() {
+      sinceDecay = 0;
+      observed /= 2;
+      Iterator<long[]> it = counts.values().iterator();
+      while (it.hasNext()) {
+        long[] count = it.next();
+        count[0] /= 2;
+        if (count[0] == 0) {
+          it.remove();
+        }
+      }
+    }
+  }
+}
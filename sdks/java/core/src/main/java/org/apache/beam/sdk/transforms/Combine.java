@@ -48,10 +48,17 @@ import org.apache.beam.sdk.transforms.CombineWithContext.RequiresContextInternal
 import org.apache.beam.sdk.transforms.View.CreatePCollectionView;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.display.HasDisplayData;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.DefaultTrigger;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.SlidingWindows;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.util.AppliedCombineFn;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.NameUtils;
 import org.apache.beam.sdk.util.NameUtils.NameOverride;
 import org.apache.beam.sdk.util.SerializableUtils;
@@ -69,7 +76,10 @@ import org.apache.beam.sdk.values.TypeDescriptor;
 import org.apache.beam.sdk.values.WindowingStrategy;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.math.LongMath;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 
 /**
  * {@code PTransform}s for combining {@code PCollection} elements globally and per-key.
@@ -1581,6 +1591,51 @@ public class Combine {
           fewKeys);
     }
 
+    /**
+     * Like {@link #withHotKeyFanout(SerializableFunction)}, but detecting hot keys at runtime
+     * instead of requiring their fanout to be specified.
+     *
+     * <p>The rate of each key is estimated with a heavy-hitters sketch over the recently processed
+     * elements. Keys receiving at least 1% of the elements are spread among enough intermediate
+     * nodes that each receives roughly 1% of the elements, up to 16 nodes per key. All other keys
+     * are combined directly.
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAutomaticHotKeyFanout() {
+      return withAutomaticHotKeyFanout(AutomaticHotKeyFanout.DEFAULT_MAX_FANOUT);
+    }
+
+    /**
+     * Like {@link #withAutomaticHotKeyFanout()}, but spreading a single hot key among at most
+     * {@code maxFanout} intermediate nodes.
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAutomaticHotKeyFanout(int maxFanout) {
+      return new PerKeyWithHotKeyFanout<>(
+          fn,
+          fnDisplayData,
+          AutomaticHotKeyFanout.of(maxFanout, AutomaticHotKeyFanout.DEFAULT_HOT_KEY_SHARE),
+          fewKeys);
+    }
+
+    /**
+     * If the input is windowed into overlapping {@link SlidingWindows}, each element is combined
+     * into as many accumulators as windows it belongs to, for instance 60 for one hour windows
+     * starting every minute. This returns a new per-key combining transform that combines each
+     * element once into an accumulator for the period it belongs to, and merges the accumulators of
+     * the periods of each window when the window fires.
+     *
+     * <p>See {@link PerKeyWithSlidingWindowPaneSharing} for the windowing strategies this applies
+     * to. Requires a {@link CombineFn} and no side inputs.
+     */
+    public PerKeyWithSlidingWindowPaneSharing<K, InputT, OutputT> withSlidingWindowPaneSharing() {
+      checkState(
+          fn instanceof CombineFn,
+          "Sliding window pane sharing requires a CombineFn, but was %s",
+          fn.getClass().getName());
+      checkState(sideInputs.isEmpty(), "Sliding window pane sharing does not support side inputs");
+      return new PerKeyWithSlidingWindowPaneSharing<>(
+          (CombineFn<? super InputT, ?, OutputT>) fn, fnDisplayData, fewKeys);
+    }
+
     /** Returns the {@link GlobalCombineFn} used by this Combine operation. */
     public GlobalCombineFn<? super InputT, ?, OutputT> getFn() {
       return fn;
@@ -1881,6 +1936,14 @@ public class Combine {
 
       // Use the provided hotKeyFanout fn to split into "hot" and "cold" keys,
       // augmenting the hot keys with a nonce.
+      final SerializableFunction<? super K, Integer> keyFanout;
+      if (hotKeyFanout instanceof AutomaticHotKeyFanout) {
+        @SuppressWarnings("unchecked")
+        AutomaticHotKeyFanout<K> automaticFanout = (AutomaticHotKeyFanout<K>) hotKeyFanout;
+        keyFanout = automaticFanout.withKeyCoder(inputCoder.getKeyCoder());
+      } else {
+        keyFanout = hotKeyFanout;
+      }
       final TupleTag<KV<KV<K, Integer>, InputT>> hot = new TupleTag<>();
       final TupleTag<KV<K, InputT>> cold = new TupleTag<>();
       PCollectionTuple split =
@@ -1903,7 +1966,7 @@ public class Combine {
                         @ProcessElement
                         public void processElement(
                             @Element KV<K, InputT> kv, MultiOutputReceiver receiver) {
-                          int spread = hotKeyFanout.apply(kv.getKey());
+                          int spread = keyFanout.apply(kv.getKey());
                           if (spread <= 1) {
                             receiver.get(cold).output(kv);
                           } else {
@@ -2074,6 +2137,266 @@ public class Combine {
     }
   }
 
+  /**
+   * Like {@link PerKey}, but combining each input element once for the {@link SlidingWindows} it
+   * is assigned to, rather than once per window.
+   *
+   * <p>The elements are first combined per key into accumulators for the slices of time delimited
+   * by the boundaries of the sliding windows, and each window result is then assembled by merging
+   * the accumulators of the slices it covers. The combining work and the state held per key are
+   * thus proportional to the number of slices rather than to the number of windows each element
+   * belongs to. Slices accept late elements for as long as a window covering them does, so late
+   * data produces the same late panes as with {@link PerKey}.
+   *
+   * <p>This is only equivalent to {@link PerKey} for inputs windowed into {@link SlidingWindows}
+   * with the default trigger, discarding fired panes and the {@link
+   * TimestampCombiner#END_OF_WINDOW} timestamp combiner. Any other input is combined as with {@link
+   * PerKey}.
+   */
+  public static class PerKeyWithSlidingWindowPaneSharing<K, InputT, OutputT>
+      extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> {
+
+    private final CombineFn<? super InputT, ?, OutputT> fn;
+    private final DisplayData.ItemSpec<? extends Class<?>> fnDisplayData;
+    private final boolean fewKeys;
+
+    private PerKeyWithSlidingWindowPaneSharing(
+        CombineFn<? super InputT, ?, OutputT> fn,
+        DisplayData.ItemSpec<? extends Class<?>> fnDisplayData,
+        boolean fewKeys) {
+      this.fn = fn;
+      this.fnDisplayData = fnDisplayData;
+      this.fewKeys = fewKeys;
+    }
+
+    @Override
+    protected String getKindString() {
+      return String.format(
+          "Combine.perKeyWithSlidingWindowPaneSharing(%s)", NameUtils.approximateSimpleName(fn));
+    }
+
+    @Override
+    public PCollection<KV<K, OutputT>> expand(PCollection<KV<K, InputT>> input) {
+      return applyHelper(input);
+    }
+
+    private <AccumT> PCollection<KV<K, OutputT>> applyHelper(PCollection<KV<K, InputT>> input) {
+      WindowingStrategy<?, ?> windowingStrategy = input.getWindowingStrategy();
+      if (!canSharePanes(windowingStrategy)) {
+        return input.apply(new PerKey<>(fn, fnDisplayData, fewKeys));
+      }
+      SlidingWindows windowFn = (SlidingWindows) windowingStrategy.getWindowFn();
+
+      // Name the accumulator type.
+      @SuppressWarnings("unchecked")
+      final CombineFn<InputT, AccumT, OutputT> typedFn = (CombineFn<InputT, AccumT, OutputT>) fn;
+
+      if (!(input.getCoder() instanceof KvCoder)) {
+        throw new IllegalStateException(
+            "Expected input coder to be KvCoder, but was " + input.getCoder());
+      }
+
+      @SuppressWarnings("unchecked")
+      final KvCoder<K, InputT> inputCoder = (KvCoder<K, InputT>) input.getCoder();
+      final Coder<AccumT> accumCoder;
+      try {
+        accumCoder =
+            typedFn.getAccumulatorCoder(
+                input.getPipeline().getCoderRegistry(), inputCoder.getValueCoder());
+      } catch (CannotProvideCoderException e) {
+        throw new IllegalStateException("Unable to determine accumulator coder.", e);
+      }
+
+      MergeSlicesFn<InputT, AccumT, OutputT> mergeSlicesFn =
+          new MergeSlicesFn<>(typedFn, inputCoder.getValueCoder(), accumCoder);
+
+      // The boundaries of all sliding windows are multiples of the slice size.
+      long sliceMillis =
+          LongMath.gcd(windowFn.getSize().getMillis(), windowFn.getPeriod().getMillis());
+      Duration sliceSize = Duration.millis(sliceMillis);
+      Duration sliceOffset =
+          Duration.millis(
+              ((windowFn.getOffset().getMillis() % sliceMillis) + sliceMillis) % sliceMillis);
+
+      // A slice closes before the last windows covering it do, so it must keep accepting the
+      // elements that are still on time or within the allowed lateness for those windows. Each
+      // late element then fires a slice pane of its own, which the windows drop or combine as
+      // they would have the element.
+      Duration sliceLateness =
+          windowingStrategy.getAllowedLateness().plus(windowFn.getSize()).minus(sliceSize);
+
+      // Each slice result has the end of its slice as timestamp, so it is assigned to exactly the
+      // sliding windows covering the slice.
+      return input
+          .apply("DropWindowCopies", ParDo.of(new LatestWindowFn<>(windowFn.getPeriod())))
+          .apply(
+              "AssignSlices",
+              Window.<KV<K, InputT>>into(FixedWindows.of(sliceSize).withOffset(sliceOffset))
+                  .withAllowedLateness(sliceLateness)
+                  .discardingFiredPanes())
+          .apply(
+              "CombineSlices",
+              fewKeys
+                  ? Combine.fewKeys(new SliceFn<>(typedFn, accumCoder), fnDisplayData)
+                  : Combine.perKey(new SliceFn<>(typedFn, accumCoder), fnDisplayData))
+          .setCoder(KvCoder.of(inputCoder.getKeyCoder(), accumCoder))
+          .apply("AssignWindows", Window.into(windowFn))
+          .setWindowingStrategyInternal(windowingStrategy)
+          .apply(
+              "MergeSlices",
+              fewKeys
+                  ? Combine.fewKeys(mergeSlicesFn, fnDisplayData)
+                  : Combine.perKey(mergeSlicesFn, fnDisplayData));
+    }
+
+    /**
+     * Returns whether combining per slice and merging the slices of each window produces the same
+     * panes as combining per window.
+     */
+    private static boolean canSharePanes(WindowingStrategy<?, ?> windowingStrategy) {
+      return windowingStrategy.getWindowFn() instanceof SlidingWindows
+          && windowingStrategy.getTrigger() instanceof DefaultTrigger
+          && windowingStrategy.getMode()
+              == WindowingStrategy.AccumulationMode.DISCARDING_FIRED_PANES
+          && windowingStrategy.getTimestampCombiner() == TimestampCombiner.END_OF_WINDOW;
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      Combine.populateDisplayData(builder, fn, fnDisplayData);
+    }
+
+    /**
+     * Outputs each element once, in the latest of the sliding windows it is assigned to, so that
+     * it is combined into its slice only once.
+     */
+    private static class LatestWindowFn<T> extends DoFn<T, T> {
+      private final Duration period;
+
+      private LatestWindowFn(Duration period) {
+        this.period = period;
+      }
+
+      @ProcessElement
+      public void processElement(
+          @Element T element,
+          @Timestamp Instant timestamp,
+          BoundedWindow window,
+          OutputReceiver<T> receiver) {
+        if (((IntervalWindow) window).start().plus(period).isAfter(timestamp)) {
+          receiver.output(element);
+        }
+      }
+    }
+
+    /** Combines the elements of a slice into an accumulator of the slice. */
+    private static class SliceFn<InputT, AccumT> extends CombineFn<InputT, AccumT, AccumT> {
+      private final CombineFn<InputT, AccumT, ?> fn;
+      private final Coder<AccumT> accumCoder;
+
+      private SliceFn(CombineFn<InputT, AccumT, ?> fn, Coder<AccumT> accumCoder) {
+        this.fn = fn;
+        this.accumCoder = accumCoder;
+      }
+
+      @Override
+      public AccumT createAccumulator() {
+        return fn.createAccumulator();
+      }
+
+      @Override
+      public AccumT addInput(AccumT accumulator, InputT input) {
+        return fn.addInput(accumulator, input);
+      }
+
+      @Override
+      public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+        return fn.mergeAccumulators(accumulators);
+      }
+
+      @Override
+      public AccumT compact(AccumT accumulator) {
+        return fn.compact(accumulator);
+      }
+
+      @Override
+      public AccumT extractOutput(AccumT accumulator) {
+        return fn.compact(accumulator);
+      }
+
+      @Override
+      public Coder<AccumT> getAccumulatorCoder(CoderRegistry registry, Coder<InputT> inputCoder) {
+        return accumCoder;
+      }
+
+      @Override
+      public Coder<AccumT> getDefaultOutputCoder(CoderRegistry registry, Coder<InputT> inputCoder) {
+        return accumCoder;
+      }
+    }
+
+    /** Merges the accumulators of the slices of a window and extracts the window result. */
+    private static class MergeSlicesFn<InputT, AccumT, OutputT>
+        extends CombineFn<AccumT, AccumT, OutputT> {
+      private final CombineFn<InputT, AccumT, OutputT> fn;
+      private final Coder<InputT> inputCoder;
+      private final Coder<AccumT> accumCoder;
+
+      private MergeSlicesFn(
+          CombineFn<InputT, AccumT, OutputT> fn,
+          Coder<InputT> inputCoder,
+          Coder<AccumT> accumCoder) {
+        this.fn = fn;
+        this.inputCoder = inputCoder;
+        this.accumCoder = accumCoder;
+      }
+
+      @Override
+      public AccumT createAccumulator() {
+        return fn.createAccumulator();
+      }
+
+      @Override
+      public AccumT addInput(AccumT accumulator, AccumT input) {
+        // Merging may modify any of the accumulators, and the slice accumulator is an input element
+        // shared by all the windows covering the slice, so merge a copy of it.
+        try {
+          return fn.mergeAccumulators(
+              Arrays.asList(accumulator, CoderUtils.clone(accumCoder, input)));
+        } catch (CoderException e) {
+          throw new IllegalStateException("Unable to copy a slice accumulator.", e);
+        }
+      }
+
+      @Override
+      public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+        return fn.mergeAccumulators(accumulators);
+      }
+
+      @Override
+      public AccumT compact(AccumT accumulator) {
+        return fn.compact(accumulator);
+      }
+
+      @Override
+      public OutputT extractOutput(AccumT accumulator) {
+        return fn.extractOutput(accumulator);
+      }
+
+      @Override
+      public Coder<AccumT> getAccumulatorCoder(CoderRegistry registry, Coder<AccumT> sliceCoder) {
+        return accumCoder;
+      }
+
+      @Override
+      public Coder<OutputT> getDefaultOutputCoder(
+          CoderRegistry registry, Coder<AccumT> sliceCoder) throws CannotProvideCoderException {
+        return fn.getDefaultOutputCoder(registry, this.inputCoder);
+      }
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   /**
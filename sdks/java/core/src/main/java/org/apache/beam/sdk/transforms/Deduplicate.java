@@ -17,9 +17,24 @@
  */
 package org.apache.beam.sdk.transforms;
 
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.BooleanCoder;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.ListCoder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.state.MapState;
 import org.apache.beam.sdk.state.StateSpec;
 import org.apache.beam.sdk.state.StateSpecs;
 import org.apache.beam.sdk.state.TimeDomain;
@@ -27,9 +42,14 @@ import org.apache.beam.sdk.state.Timer;
 import org.apache.beam.sdk.state.TimerSpec;
 import org.apache.beam.sdk.state.TimerSpecs;
 import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TypeDescriptor;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.annotations.VisibleForTesting;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.hash.BloomFilter;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.hash.Funnels;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.hash.Hashing;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.joda.time.Duration;
 
@@ -80,10 +100,13 @@ public final class Deduplicate {
   public static final class Values<T> extends PTransform<PCollection<T>, PCollection<T>> {
     private final TimeDomain timeDomain;
     private final Duration duration;
+    private final @Nullable BloomFilterSpec bloomFilter;
 
-    private Values(TimeDomain timeDomain, Duration duration) {
+    private Values(
+        TimeDomain timeDomain, Duration duration, @Nullable BloomFilterSpec bloomFilter) {
       this.timeDomain = timeDomain;
       this.duration = duration;
+      this.bloomFilter = bloomFilter;
     }
 
     @Override
@@ -98,7 +121,7 @@ public final class Deduplicate {
                       return KV.of(element, (Void) null);
                     }
                   }))
-          .apply(new KeyedValues<>(timeDomain, duration))
+          .apply(new KeyedValues<>(timeDomain, duration, bloomFilter))
           .apply(Keys.create());
     }
 
@@ -106,14 +129,23 @@ public final class Deduplicate {
      * Returns a {@code Values} {@link PTransform} like this one but with the specified time domain.
      */
     public Values<T> withTimeDomain(TimeDomain timeDomain) {
-      return new Values<T>(timeDomain, duration);
+      return new Values<T>(timeDomain, duration, bloomFilter);
     }
 
     /**
      * Returns a {@code Values} {@link PTransform} like this one but with the specified duration.
      */
     public Values<T> withDuration(Duration duration) {
-      return new Values<T>(timeDomain, duration);
+      return new Values<T>(timeDomain, duration, bloomFilter);
+    }
+
+    /**
+     * Returns a {@code Values} {@link PTransform} like this one but which remembers values using
+     * Bloom filters. See {@link KeyedValues#withBloomFilter}.
+     */
+    public Values<T> withBloomFilter(long expectedValues, double falsePositiveProbability) {
+      return new Values<T>(
+          timeDomain, duration, BloomFilterSpec.of(expectedValues, falsePositiveProbability));
     }
   }
 
@@ -133,15 +165,18 @@ public final class Deduplicate {
     private final @Nullable Coder<IdT> coder;
     private final TimeDomain timeDomain;
     private final Duration duration;
+    private final @Nullable BloomFilterSpec bloomFilter;
 
     private WithRepresentativeValues(
         TimeDomain timeDomain,
         Duration duration,
+        @Nullable BloomFilterSpec bloomFilter,
         SerializableFunction<T, IdT> fn,
         @Nullable TypeDescriptor<IdT> type,
         @Nullable Coder<IdT> coder) {
       this.timeDomain = timeDomain;
       this.duration = duration;
+      this.bloomFilter = bloomFilter;
       this.fn = fn;
       this.type = type;
       this.coder = coder;
@@ -161,7 +196,7 @@ public final class Deduplicate {
      *     value coder will be cleared.
      */
     public WithRepresentativeValues<T, IdT> withRepresentativeType(TypeDescriptor<IdT> type) {
-      return new WithRepresentativeValues<>(timeDomain, duration, fn, type, null);
+      return new WithRepresentativeValues<>(timeDomain, duration, bloomFilter, fn, type, null);
     }
 
     /**
@@ -178,7 +213,7 @@ public final class Deduplicate {
      *     descriptor will be cleared.
      */
     public WithRepresentativeValues<T, IdT> withRepresentativeCoder(Coder<IdT> coder) {
-      return new WithRepresentativeValues<>(timeDomain, duration, fn, null, coder);
+      return new WithRepresentativeValues<>(timeDomain, duration, bloomFilter, fn, null, coder);
     }
 
     /**
@@ -186,7 +221,7 @@ public final class Deduplicate {
      * specified time domain.
      */
     public WithRepresentativeValues<T, IdT> withTimeDomain(TimeDomain timeDomain) {
-      return new WithRepresentativeValues<>(timeDomain, duration, fn, type, coder);
+      return new WithRepresentativeValues<>(timeDomain, duration, bloomFilter, fn, type, coder);
     }
 
     /**
@@ -194,7 +229,23 @@ public final class Deduplicate {
      * the specified deduplication duration.
      */
     public WithRepresentativeValues<T, IdT> withDuration(Duration duration) {
-      return new WithRepresentativeValues<>(timeDomain, duration, fn, type, coder);
+      return new WithRepresentativeValues<>(timeDomain, duration, bloomFilter, fn, type, coder);
+    }
+
+    /**
+     * Return a {@code WithRepresentativeValues} {@link PTransform} that is like this one, but which
+     * remembers representative values using Bloom filters. See {@link
+     * KeyedValues#withBloomFilter}.
+     */
+    public WithRepresentativeValues<T, IdT> withBloomFilter(
+        long expectedValues, double falsePositiveProbability) {
+      return new WithRepresentativeValues<>(
+          timeDomain,
+          duration,
+          BloomFilterSpec.of(expectedValues, falsePositiveProbability),
+          fn,
+          type,
+          coder);
     }
 
     @Override
@@ -208,7 +259,7 @@ public final class Deduplicate {
         inputWithKey.setCoder(KvCoder.of(coder, input.getCoder()));
       }
       return inputWithKey
-          .apply(new KeyedValues<>(timeDomain, duration))
+          .apply(new KeyedValues<>(timeDomain, duration, bloomFilter))
           .apply(org.apache.beam.sdk.transforms.Values.create());
     }
   }
@@ -221,15 +272,44 @@ public final class Deduplicate {
       extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, V>>> {
     private final TimeDomain timeDomain;
     private final Duration duration;
+    private final @Nullable BloomFilterSpec bloomFilter;
 
-    private KeyedValues(TimeDomain timeDomain, Duration duration) {
+    private KeyedValues(
+        TimeDomain timeDomain, Duration duration, @Nullable BloomFilterSpec bloomFilter) {
       this.timeDomain = timeDomain;
       this.duration = duration;
+      this.bloomFilter = bloomFilter;
     }
 
     @Override
     public PCollection<KV<K, V>> expand(PCollection<KV<K, V>> input) {
-      return input.apply(ParDo.of(new DeduplicateFn<>(timeDomain, duration)));
+      if (bloomFilter == null) {
+        return input.apply(ParDo.of(new DeduplicateFn<>(timeDomain, duration)));
+      }
+      checkArgument(
+          input.getCoder() instanceof KvCoder,
+          "coder specified in the input PCollection is not a KvCoder");
+      KvCoder<K, V> inputCoder = (KvCoder<K, V>) input.getCoder();
+      Coder<K> keyCoder = inputCoder.getKeyCoder();
+      int numShards = bloomFilter.numShards();
+      return input
+          .apply(
+              "AssignFilterShard",
+              MapElements.via(
+                  new SimpleFunction<KV<K, V>, KV<Integer, KV<K, V>>>() {
+                    @Override
+                    public KV<Integer, KV<K, V>> apply(KV<K, V> element) {
+                      int hash =
+                          Hashing.murmur3_32_fixed()
+                              .hashBytes(encodeKey(keyCoder, element.getKey()))
+                              .asInt();
+                      return KV.of(Math.floorMod(hash, numShards), element);
+                    }
+                  }))
+          .setCoder(KvCoder.of(VarIntCoder.of(), inputCoder))
+          .apply(
+              ParDo.of(
+                  new BloomFilterDeduplicateFn<>(timeDomain, duration, bloomFilter, keyCoder)));
     }
 
     /**
@@ -237,7 +317,7 @@ public final class Deduplicate {
      * domain.
      */
     public KeyedValues<K, V> withTimeDomain(TimeDomain timeDomain) {
-      return new KeyedValues<>(timeDomain, duration);
+      return new KeyedValues<>(timeDomain, duration, bloomFilter);
     }
 
     /**
@@ -245,7 +325,32 @@ public final class Deduplicate {
      * duration.
      */
     public KeyedValues<K, V> withDuration(Duration duration) {
-      return new KeyedValues<>(timeDomain, duration);
+      return new KeyedValues<>(timeDomain, duration, bloomFilter);
+    }
+
+    /**
+     * Returns a {@code KeyedValues} {@link PTransform} like this one but which remembers keys using
+     * Bloom filters rather than keeping state and a timer for every key.
+     *
+     * <p>Keys are spread over a number of shards which grows with {@code expectedKeys}, and each
+     * shard keeps a Bloom filter for each of several consecutive time buckets covering the
+     * deduplication duration. Only the filter of the current time bucket is written, and only when
+     * a new key is added to it. The filters of a time bucket are dropped once the whole bucket is
+     * older than the duration, so keys are remembered for at least the duration and at most a
+     * fraction of it longer.
+     *
+     * <p>A key which was not seen before is considered a duplicate, and its element dropped, with
+     * roughly the given false positive probability. If more than {@code expectedKeys} distinct
+     * keys are seen within the duration, the filters grow to keep the false positive probability
+     * bounded. This is therefore only suitable when occasionally dropping an element is
+     * acceptable.
+     *
+     * @param expectedKeys the expected number of distinct keys seen within the duration
+     * @param falsePositiveProbability the probability of considering a new key a duplicate
+     */
+    public KeyedValues<K, V> withBloomFilter(long expectedKeys, double falsePositiveProbability) {
+      return new KeyedValues<>(
+          timeDomain, duration, BloomFilterSpec.of(expectedKeys, falsePositiveProbability));
     }
   }
 
@@ -254,7 +359,7 @@ public final class Deduplicate {
    * TimeDomain#PROCESSING_TIME processing time domain}.
    */
   public static <T> Deduplicate.Values<T> values() {
-    return new Deduplicate.Values<>(DEFAULT_TIME_DOMAIN, DEFAULT_DURATION);
+    return new Deduplicate.Values<>(DEFAULT_TIME_DOMAIN, DEFAULT_DURATION, null);
   }
 
   /**
@@ -262,7 +367,7 @@ public final class Deduplicate {
    * mins within the {@link TimeDomain#PROCESSING_TIME processing time domain}.
    */
   public static <K, V> Deduplicate.KeyedValues<K, V> keyedValues() {
-    return new Deduplicate.KeyedValues<>(DEFAULT_TIME_DOMAIN, DEFAULT_DURATION);
+    return new Deduplicate.KeyedValues<>(DEFAULT_TIME_DOMAIN, DEFAULT_DURATION, null);
   }
 
   /**
@@ -272,7 +377,7 @@ public final class Deduplicate {
   public static <T, IdT> Deduplicate.WithRepresentativeValues<T, IdT> withRepresentativeValueFn(
       SerializableFunction<T, IdT> representativeValueFn) {
     return new Deduplicate.WithRepresentativeValues<T, IdT>(
-        DEFAULT_TIME_DOMAIN, DEFAULT_DURATION, representativeValueFn, null, null);
+        DEFAULT_TIME_DOMAIN, DEFAULT_DURATION, null, representativeValueFn, null, null);
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -326,4 +431,228 @@ public final class Deduplicate {
       seenState.clear();
     }
   }
+
+  /** The minimum number of shards keys are spread over when deduplicating using Bloom filters. */
+  private static final int MIN_FILTER_SHARDS = 256;
+
+  /**
+   * The expected number of keys added to the filters of one time bucket of a shard, which bounds
+   * the size of the state written for each new key.
+   */
+  private static final long EXPECTED_KEYS_PER_FILTER = 1024;
+
+  /** The number of time buckets the deduplication duration is divided into. */
+  private static final int NUM_TIME_BUCKETS = 4;
+
+  /** The parameters of the Bloom filters used by {@link KeyedValues#withBloomFilter}. */
+  @VisibleForTesting
+  static final class BloomFilterSpec implements Serializable {
+    private final long expectedKeys;
+    private final double falsePositiveProbability;
+
+    private BloomFilterSpec(long expectedKeys, double falsePositiveProbability) {
+      this.expectedKeys = expectedKeys;
+      this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    static BloomFilterSpec of(long expectedKeys, double falsePositiveProbability) {
+      checkArgument(expectedKeys > 0, "expectedKeys must be positive: %s", expectedKeys);
+      checkArgument(
+          falsePositiveProbability > 0 && falsePositiveProbability < 1,
+          "falsePositiveProbability must be in (0, 1): %s",
+          falsePositiveProbability);
+      return new BloomFilterSpec(expectedKeys, falsePositiveProbability);
+    }
+
+    /** Returns the number of shards keys are spread over. */
+    int numShards() {
+      long keysPerShard = NUM_TIME_BUCKETS * EXPECTED_KEYS_PER_FILTER;
+      long numShards = (expectedKeys + keysPerShard - 1) / keysPerShard;
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_FILTER_SHARDS, numShards));
+    }
+
+    /** Returns the expected number of keys added to the filters of one time bucket of a shard. */
+    long expectedKeysPerBucket() {
+      return Math.max(1, expectedKeys / ((long) numShards() * NUM_TIME_BUCKETS));
+    }
+  }
+
+  private static <K> byte[] encodeKey(Coder<K> keyCoder, K key) {
+    try {
+      return CoderUtils.encodeToByteArray(keyCoder, key);
+    } catch (CoderException e) {
+      throw new IllegalArgumentException("Unable to encode key " + key, e);
+    }
+  }
+
+  /**
+   * A stateful {@link DoFn} that uses a {@link TimeBucketedBloomFilter} to capture whether the keys
+   * of a shard have been seen. A single timer per shard clears the filters once all of them have
+   * expired, and is only reset when a new time bucket is started.
+   */
+  private static class BloomFilterDeduplicateFn<K, V>
+      extends DoFn<KV<Integer, KV<K, V>>, KV<K, V>> {
+    private static final String EXPIRY_TIMER = "expiryTimer";
+    private static final String FILTER_STATE = "filter";
+
+    @TimerId(EXPIRY_TIMER)
+    private final TimerSpec expiryTimerSpec;
+
+    @StateId(FILTER_STATE)
+    private final StateSpec<MapState<Long, List<BloomFilter<byte[]>>>> filterStateSpec =
+        TimeBucketedBloomFilter.stateSpec();
+
+    private final BloomFilterSpec spec;
+    private final Coder<K> keyCoder;
+    private final long bucketMillis;
+    private final Duration expiryOffset;
+
+    private BloomFilterDeduplicateFn(
+        TimeDomain timeDomain, Duration duration, BloomFilterSpec spec, Coder<K> keyCoder) {
+      this.expiryTimerSpec = TimerSpecs.timer(timeDomain);
+      this.spec = spec;
+      this.keyCoder = keyCoder;
+      this.bucketMillis = Math.max(1, duration.getMillis() / NUM_TIME_BUCKETS);
+      // The timer fires once the newest bucket, and so every bucket, is older than the duration.
+      this.expiryOffset = duration.plus(Duration.millis(bucketMillis));
+    }
+
+    @ProcessElement
+    public void processElement(
+        @Element KV<Integer, KV<K, V>> element,
+        OutputReceiver<KV<K, V>> receiver,
+        @StateId(FILTER_STATE) MapState<Long, List<BloomFilter<byte[]>>> filterState,
+        @TimerId(EXPIRY_TIMER) Timer expiryTimer) {
+      TimeBucketedBloomFilter filter = new TimeBucketedBloomFilter(spec, filterState);
+      long bucket = Math.floorDiv(expiryTimer.getCurrentRelativeTime().getMillis(), bucketMillis);
+      if (bucket > filter.newestBucket()) {
+        // We don't want the expiry timer to hold up watermarks.
+        expiryTimer.offset(expiryOffset).withNoOutputTimestamp().setRelative();
+      }
+      if (filter.put(bucket, encodeKey(keyCoder, element.getValue().getKey()))) {
+        receiver.output(element.getValue());
+      }
+    }
+
+    @OnTimer(EXPIRY_TIMER)
+    public void onExpiry(
+        OnTimerContext context,
+        @StateId(FILTER_STATE) MapState<Long, List<BloomFilter<byte[]>>> filterState) {
+      filterState.clear();
+    }
+  }
+
+  /**
+   * Bloom filters of the keys of a shard seen in the most recent {@link #NUM_TIME_BUCKETS} + 1 time
+   * buckets, kept in a {@link MapState} from the index of each bucket to its filters. Adding a key
+   * only writes the filters of its bucket, and looking up a key which was already seen writes
+   * nothing. The filters are read once until they are written, so looking up the newest bucket
+   * and then adding a key reads the state only once.
+   *
+   * <p>The filters of a bucket form a scalable Bloom filter: once a filter holds its expected
+   * number of keys, a filter with twice the capacity and half the false positive probability is
+   * added, so the false positive probability of the bucket stays within that of the {@link
+   * BloomFilterSpec}.
+   */
+  @VisibleForTesting
+  static class TimeBucketedBloomFilter {
+    private final BloomFilterSpec spec;
+    private final MapState<Long, List<BloomFilter<byte[]>>> buckets;
+    private @Nullable Iterable<Map.Entry<Long, List<BloomFilter<byte[]>>>> entries;
+
+    TimeBucketedBloomFilter(
+        BloomFilterSpec spec, MapState<Long, List<BloomFilter<byte[]>>> buckets) {
+      this.spec = spec;
+      this.buckets = buckets;
+    }
+
+    /** Returns the spec of the {@link MapState} holding the filters. */
+    static StateSpec<MapState<Long, List<BloomFilter<byte[]>>>> stateSpec() {
+      return StateSpecs.map(VarLongCoder.of(), ListCoder.of(new BloomFilterCoder()));
+    }
+
+    /** Returns the index of the newest bucket, or {@link Long#MIN_VALUE} if there is none. */
+    long newestBucket() {
+      long newestBucket = Long.MIN_VALUE;
+      for (Map.Entry<Long, List<BloomFilter<byte[]>>> entry : entries()) {
+        newestBucket = Math.max(newestBucket, entry.getKey());
+      }
+      return newestBucket;
+    }
+
+    private Iterable<Map.Entry<Long, List<BloomFilter<byte[]>>>> entries() {
+      if (entries == null) {
+        entries = buckets.entries().read();
+      }
+      return entries;
+    }
+
+    /**
+     * Adds {@code key} to the filters of {@code bucket}, expiring buckets which are too old.
+     * Returns false if the key might have been added before.
+     */
+    boolean put(long bucket, byte[] key) {
+      long newestBucket = Math.max(bucket, newestBucket());
+      List<Long> expiredBuckets = new ArrayList<>();
+      List<BloomFilter<byte[]>> filters = new ArrayList<>();
+      boolean seen = false;
+      for (Map.Entry<Long, List<BloomFilter<byte[]>>> entry : entries()) {
+        if (entry.getKey() < newestBucket - NUM_TIME_BUCKETS) {
+          expiredBuckets.add(entry.getKey());
+          continue;
+        }
+        for (BloomFilter<byte[]> filter : entry.getValue()) {
+          seen |= filter.mightContain(key);
+        }
+        if (entry.getKey() == bucket) {
+          filters = entry.getValue();
+        }
+      }
+      for (Long expiredBucket : expiredBuckets) {
+        buckets.remove(expiredBucket);
+        entries = null;
+      }
+      if (seen) {
+        return false;
+      }
+      BloomFilter<byte[]> current = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+      if (current == null
+          || current.approximateElementCount() >= capacity(filters.size() - 1)) {
+        filters = new ArrayList<>(filters);
+        current = createFilter(filters.size());
+        filters.add(current);
+      }
+      current.put(key);
+      buckets.put(bucket, filters);
+      entries = null;
+      return true;
+    }
+
+    private long capacity(int index) {
+      return spec.expectedKeysPerBucket() << Math.min(index, 20);
+    }
+
+    private BloomFilter<byte[]> createFilter(int index) {
+      // Halving the false positive probability of each additional filter bounds the sum of them
+      // by the configured probability.
+      return BloomFilter.create(
+          Funnels.byteArrayFunnel(),
+          capacity(index),
+          spec.falsePositiveProbability / (2L << Math.min(index, 60)));
+    }
+  }
+
+  /** A {@link Coder} for the {@link BloomFilter Bloom filters} of a time bucket. */
+  @VisibleForTesting
+  static class BloomFilterCoder extends AtomicCoder<BloomFilter<byte[]>> {
+    @Override
+    public void encode(BloomFilter<byte[]> value, OutputStream outStream) throws IOException {
+      value.writeTo(outStream);
+    }
+
+    @Override
+    public BloomFilter<byte[]> decode(InputStream inStream) throws IOException {
+      return BloomFilter.readFrom(inStream, Funnels.byteArrayFunnel());
+    }
+  }
 }
@@ -25,7 +25,9 @@ import java.nio.ByteBuffer;
 import java.util.UUID;
 import javax.annotation.Nullable;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.IterableCoder;
 import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.state.BagState;
 import org.apache.beam.sdk.state.CombiningState;
 import org.apache.beam.sdk.state.StateSpec;
@@ -69,6 +71,10 @@ import org.slf4j.LoggerFactory;
  * <p>Windows are preserved (batches contain elements from the same window). Batches may contain
  * elements from more than one bundle.
  *
+ * <p>When there are many keys with few elements each, batches of a single key are rarely full, and
+ * buffering state for every key is expensive. {@link #withCrossKeyBatching} instead batches
+ * elements of any key together, buffering one batch per worker thread.
+ *
  * <p>Example 1 (batch call a webservice and get return codes):
  *
  * <pre>{@code
@@ -312,6 +318,69 @@ public class GroupIntoBatches<K, InputT>
     }
   }
 
+  /**
+   * Outputs batches which may contain elements of many different keys. Elements are batched
+   * together with other elements processed by the same worker thread, regardless of their key, so
+   * batches fill up even when each key has few elements. Batches are output once they reach the
+   * configured element count or byte size, or once the {@link #withMaxBufferingDuration maximum
+   * buffering duration} has elapsed.
+   *
+   * <p>State is kept per worker thread rather than per key, so at most one partial batch, bounded
+   * by the configured byte size, is buffered for each thread executing the transform.
+   *
+   * <p>If a byte size function was specified, the byte size of an element is that of its value.
+   * Otherwise the encoded size of the key and value is used.
+   */
+  public WithCrossKeyBatching withCrossKeyBatching() {
+    return new WithCrossKeyBatching();
+  }
+
+  public class WithCrossKeyBatching
+      extends PTransform<PCollection<KV<K, InputT>>, PCollection<Iterable<KV<K, InputT>>>> {
+    private WithCrossKeyBatching() {}
+
+    /** Returns user supplied parameters for batching. */
+    public BatchingParams<InputT> getBatchingParams() {
+      return params;
+    }
+
+    @Override
+    public PCollection<Iterable<KV<K, InputT>>> expand(PCollection<KV<K, InputT>> input) {
+      checkArgument(
+          input.getCoder() instanceof KvCoder,
+          "coder specified in the input PCollection is not a KvCoder");
+      KvCoder<K, InputT> inputCoder = (KvCoder<K, InputT>) input.getCoder();
+
+      @Nullable SerializableFunction<InputT, Long> valueByteSize = params.getElementByteSize();
+      SerializableFunction<KV<K, InputT>, Long> elementByteSize =
+          valueByteSize == null ? null : element -> valueByteSize.apply(element.getValue());
+      BatchingParams<KV<K, InputT>> elementParams =
+          BatchingParams.create(
+              params.getBatchSize(),
+              params.getBatchSizeBytes(),
+              elementByteSize,
+              params.getMaxBufferingDuration());
+
+      // All elements share a single key, which withShardedKey() then shards by worker thread.
+      return input
+          .apply(
+              "KeyByConstant",
+              MapElements.via(
+                  new SimpleFunction<KV<K, InputT>, KV<Integer, KV<K, InputT>>>() {
+                    @Override
+                    public KV<Integer, KV<K, InputT>> apply(KV<K, InputT> input) {
+                      return KV.of(0, input);
+                    }
+                  }))
+          .setCoder(KvCoder.of(VarIntCoder.of(), inputCoder))
+          .apply(new GroupIntoBatches<Integer, KV<K, InputT>>(elementParams).withShardedKey())
+          .setCoder(
+              KvCoder.of(ShardedKey.Coder.of(VarIntCoder.of()), IterableCoder.of(inputCoder)))
+          .apply(Values.create())
+          .setCoder(IterableCoder.of(inputCoder));
+    }
+  }
+
   private static class ByteSizeObserver extends ElementByteSizeObserver {
     private long elementByteSize = 0;
 
@@ -0,0 +1,549 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.VarInt;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@code PTransform}s for computing approximate {@code N}-tiles of {@code double} and {@code long}
+ * values, either globally or per-key, using a KLL sketch.
+ *
+ * <p>The results have the same shape as those of {@link ApproximateQuantiles}: a {@code List} of
+ * size {@code numQuantiles} holding the exact minimum, {@code numQuantiles-2} intermediate values
+ * and the exact maximum, in sorted order. To compute traditional {@code N}-tiles, one should use
+ * {@code KllQuantiles.doublesGlobally(N+1)}.
+ *
+ * <p>Unlike {@link ApproximateQuantiles}, the accumulator holds primitive values in a number of
+ * levels, each of which is roughly {@code 2/3} the size of the level above it, so its size is
+ * bounded by about {@code 3k} values however many elements it summarizes. Merging accumulators
+ * appends their levels and compacts the ones that are over capacity, and the accumulator coder
+ * encodes the sorted values of each level as variable length deltas. With the {@link #DEFAULT_K
+ * default k} the rank of each intermediate value is within about 1.3% of the number of elements of
+ * its target rank with 99% confidence, and the error decreases roughly in proportion to {@code
+ * 1/k}. The error does not depend on the number of elements, nor on how the elements are split
+ * into bundles.
+ *
+ * <p>Example of use:
+ *
+ * <pre>{@code
+ * PCollection<KV<String, Double>> latencies = ...;
+ * PCollection<KV<String, List<Double>>> percentiles =
+ *     latencies.apply(KllQuantiles.doublesPerKey(101));
+ * }</pre>
+ *
+ * <p>See Karnin, Lang and Liberty, "Optimal Quantile Approximation in Streams" for details of the
+ * sketch.
+ */
+public class KllQuantiles {
+  /** The default accuracy parameter of the sketch, trading its size for accuracy. */
+  public static final int DEFAULT_K = 200;
+
+  private KllQuantiles() {
+    // do not instantiate
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<Double>} and returns a {@code
+   * PCollection<List<Double>>} whose single value is a {@code List} of the approximate {@code
+   * N}-tiles of the elements of the input {@code PCollection}.
+   *
+   * @param numQuantiles the number of elements in the resulting quantile values {@code List}
+   */
+  public static PTransform<PCollection<Double>, PCollection<List<Double>>> doublesGlobally(
+      int numQuantiles) {
+    return Combine.globally(DoublesCombineFn.create(numQuantiles));
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<KV<K, Double>>} and returns a
+   * {@code PCollection<KV<K, List<Double>>>} that contains an output element mapping each distinct
+   * key in the input {@code PCollection} to the approximate {@code N}-tiles of the values
+   * associated with that key in the input {@code PCollection}.
+   *
+   * @param <K> the type of the keys in the input and output {@code PCollection}s
+   * @param numQuantiles the number of elements in the resulting quantile values {@code List}
+   */
+  public static <K>
+      PTransform<PCollection<KV<K, Double>>, PCollection<KV<K, List<Double>>>> doublesPerKey(
+          int numQuantiles) {
+    return Combine.perKey(DoublesCombineFn.create(numQuantiles));
+  }
+
+  /** Like {@link #doublesGlobally(int)}, but for a {@code PCollection<Long>}. */
+  public static PTransform<PCollection<Long>, PCollection<List<Long>>> longsGlobally(
+      int numQuantiles) {
+    return Combine.globally(LongsCombineFn.create(numQuantiles));
+  }
+
+  /** Like {@link #doublesPerKey(int)}, but for a {@code PCollection<KV<K, Long>>}. */
+  public static <K>
+      PTransform<PCollection<KV<K, Long>>, PCollection<KV<K, List<Long>>>> longsPerKey(
+          int numQuantiles) {
+    return Combine.perKey(LongsCombineFn.create(numQuantiles));
+  }
+
+  /**
+   * The {@code CombineFn} used by {@link #doublesGlobally} and {@link #doublesPerKey}. Values are
+   * ordered like {@link Double#compare}, so {@code NaN} is greater than any other value.
+   */
+  public static class DoublesCombineFn extends KllCombineFn<Double> {
+    private DoublesCombineFn(int numQuantiles, int k) {
+      super(numQuantiles, k);
+    }
+
+    /** Returns a combiner producing {@code numQuantiles} values with the {@link #DEFAULT_K}. */
+    public static DoublesCombineFn create(int numQuantiles) {
+      return new DoublesCombineFn(numQuantiles, DEFAULT_K);
+    }
+
+    /**
+     * Returns a combiner like this one with the given accuracy parameter {@code k}, which must be
+     * at least 8.
+     */
+    public DoublesCombineFn withK(int k) {
+      return new DoublesCombineFn(numQuantiles, k);
+    }
+
+    @Override
+    public KllSketch addInput(KllSketch sketch, Double input) {
+      sketch.update(toSortableLong(input));
+      return sketch;
+    }
+
+    @Override
+    public List<Double> extractOutput(KllSketch sketch) {
+      long[] quantiles = sketch.getQuantiles(numQuantiles);
+      List<Double> result = new ArrayList<>(quantiles.length);
+      for (long quantile : quantiles) {
+        result.add(fromSortableLong(quantile));
+      }
+      return result;
+    }
+
+    /**
+     * Maps a double to a long with the same order, by flipping all the bits but the sign bit of
+     * negative values. The mapping is its own inverse.
+     */
+    private static long toSortableLong(double value) {
+      long bits = Double.doubleToLongBits(value);
+      return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static double fromSortableLong(long sortable) {
+      return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+    }
+  }
+
+  /** The {@code CombineFn} used by {@link #longsGlobally} and {@link #longsPerKey}. */
+  public static class LongsCombineFn extends KllCombineFn<Long> {
+    private LongsCombineFn(int numQuantiles, int k) {
+      super(numQuantiles, k);
+    }
+
+    /** Returns a combiner producing {@code numQuantiles} values with the {@link #DEFAULT_K}. */
+    public static LongsCombineFn create(int numQuantiles) {
+      return new LongsCombineFn(numQuantiles, DEFAULT_K);
+    }
+
+    /**
+     * Returns a combiner like this one with the given accuracy parameter {@code k}, which must be
+     * at least 8.
+     */
+    public LongsCombineFn withK(int k) {
+      return new LongsCombineFn(numQuantiles, k);
+    }
+
+    @Override
+    public KllSketch addInput(KllSketch sketch, Long input) {
+      sketch.update(input);
+      return sketch;
+    }
+
+    @Override
+    public List<Long> extractOutput(KllSketch sketch) {
+      long[] quantiles = sketch.getQuantiles(numQuantiles);
+      List<Long> result = new ArrayList<>(quantiles.length);
+      for (long quantile : quantiles) {
+        result.add(quantile);
+      }
+      return result;
+    }
+  }
+
+  /** Base class of the {@code CombineFn}s accumulating values into a {@link KllSketch}. */
+  public abstract static class KllCombineFn<T> extends CombineFn<T, KllSketch, List<T>> {
+    final int numQuantiles;
+    final int k;
+
+    KllCombineFn(int numQuantiles, int k) {
+      checkArgument(
+          numQuantiles >= 2, "numQuantiles must be at least 2, but was: %s", numQuantiles);
+      checkArgument(
+          k >= KllSketch.MIN_LEVEL_CAPACITY,
+          "k must be at least %s, but was: %s",
+          KllSketch.MIN_LEVEL_CAPACITY,
+          k);
+      this.numQuantiles = numQuantiles;
+      this.k = k;
+    }
+
+    @Override
+    public KllSketch createAccumulator() {
+      return new KllSketch(k);
+    }
+
+    @Override
+    public KllSketch mergeAccumulators(Iterable<KllSketch> accumulators) {
+      @Nullable KllSketch merged = null;
+      for (KllSketch sketch : accumulators) {
+        if (merged == null) {
+          merged = sketch;
+        } else {
+          merged.merge(sketch);
+        }
+      }
+      return merged == null ? createAccumulator() : merged;
+    }
+
+    @Override
+    public Coder<KllSketch> getAccumulatorCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return KllSketchCoder.of();
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("numQuantiles", numQuantiles).withLabel("Quantile Count"))
+          .add(DisplayData.item("k", k).withLabel("Sketch Accuracy Parameter"));
+    }
+  }
+
+  /**
+   * A KLL sketch of {@code long} values.
+   *
+   * <p>The sketch keeps values in levels, where each value at level {@code h} stands for {@code
+   * 2^h} input values. New values are added to level 0. When the sketch holds more values than its
+   * capacity, the lowest level that is at capacity is compacted: its values are sorted, and every
+   * other one, starting at a random offset, is moved to the level above while the rest are
+   * discarded. The capacity of a level is {@code k * (2/3)^d}, but at least {@link
+   * #MIN_LEVEL_CAPACITY}, where {@code d} is its distance from the top level. Levels above 0 are
+   * kept sorted.
+   *
+   * <p>Sketches are only created and updated by the {@link KllCombineFn}s, which expose them as
+   * their accumulators.
+   */
+  public static class KllSketch {
+    static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private long count;
+    private long min;
+    private long max;
+    private long[][] levels;
+    private int[] levelSizes;
+    private int numLevels;
+    private int numRetained;
+    private int capacity;
+
+    KllSketch(int k) {
+      this(
+          k,
+          0,
+          Long.MAX_VALUE,
+          Long.MIN_VALUE,
+          new long[][] {new long[MIN_LEVEL_CAPACITY]},
+          new int[1]);
+    }
+
+    private KllSketch(int k, long count, long min, long max, long[][] levels, int[] levelSizes) {
+      this.k = k;
+      this.count = count;
+      this.min = min;
+      this.max = max;
+      this.levels = levels;
+      this.levelSizes = levelSizes;
+      this.numLevels = levels.length;
+      for (int size : levelSizes) {
+        numRetained += size;
+      }
+      this.capacity = computeCapacity(k, numLevels);
+    }
+
+    /** Returns the number of values summarized by the sketch. */
+    public long getCount() {
+      return count;
+    }
+
+    /** Returns the number of values retained by the sketch. */
+    public int getNumRetained() {
+      return numRetained;
+    }
+
+    void update(long value) {
+      if (levelSizes[0] == levels[0].length) {
+        // Decoded and merged sketches keep level 0 at its exact size, which may be empty.
+        levels[0] = Arrays.copyOf(levels[0], Math.max(MIN_LEVEL_CAPACITY, 2 * levels[0].length));
+      }
+      levels[0][levelSizes[0]++] = value;
+      numRetained++;
+      count++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      if (numRetained > capacity) {
+        compress();
+      }
+    }
+
+    void merge(KllSketch other) {
+      checkArgument(
+          k == other.k, "Cannot merge sketches with different values of k: %s and %s", k, other.k);
+      if (other.count == 0) {
+        return;
+      }
+      while (numLevels < other.numLevels) {
+        addLevel();
+      }
+      long[] level0 = Arrays.copyOf(levels[0], levelSizes[0] + other.levelSizes[0]);
+      System.arraycopy(other.levels[0], 0, level0, levelSizes[0], other.levelSizes[0]);
+      levels[0] = level0;
+      levelSizes[0] = level0.length;
+      for (int h = 1; h < other.numLevels; h++) {
+        mergeIntoLevel(h, other.levels[h], other.levelSizes[h]);
+      }
+      numRetained += other.numRetained;
+      count += other.count;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      compress();
+    }
+
+    /**
+     * Returns {@code numQuantiles} values, the first and last of which are the exact minimum and
+     * maximum, or no values if the sketch is empty.
+     */
+    long[] getQuantiles(int numQuantiles) {
+      if (count == 0) {
+        return new long[0];
+      }
+      // Merge all levels into a single sorted array of values with their weights.
+      long[] values = Arrays.copyOf(levels[0], levelSizes[0]);
+      Arrays.sort(values);
+      long[] weights = new long[values.length];
+      Arrays.fill(weights, 1);
+      for (int h = 1; h < numLevels; h++) {
+        int size = levelSizes[h];
+        long[] mergedValues = new long[values.length + size];
+        long[] mergedWeights = new long[mergedValues.length];
+        long[] level = levels[h];
+        int i = 0;
+        int j = 0;
+        for (int out = 0; out < mergedValues.length; out++) {
+          if (j == size || (i < values.length && values[i] <= level[j])) {
+            mergedValues[out] = values[i];
+            mergedWeights[out] = weights[i++];
+          } else {
+            mergedValues[out] = level[j++];
+            mergedWeights[out] = 1L << h;
+          }
+        }
+        values = mergedValues;
+        weights = mergedWeights;
+      }
+
+      long[] quantiles = new long[numQuantiles];
+      quantiles[0] = min;
+      quantiles[numQuantiles - 1] = max;
+      int index = 0;
+      long cumulativeWeight = weights[0];
+      for (int q = 1; q < numQuantiles - 1; q++) {
+        double targetRank = (double) q * count / (numQuantiles - 1);
+        while (cumulativeWeight < targetRank && index < values.length - 1) {
+          cumulativeWeight += weights[++index];
+        }
+        quantiles[q] = values[index];
+      }
+      return quantiles;
+    }
+
+    /** Compacts levels until the number of retained values is within the capacity. */
+    private void compress() {
+      while (numRetained > capacity) {
+        int h = 0;
+        while (levelSizes[h] < levelCapacity(k, numLevels, h)) {
+          h++;
+        }
+        compactLevel(h);
+      }
+    }
+
+    private void compactLevel(int h) {
+      if (h + 1 == numLevels) {
+        addLevel();
+      }
+      long[] level = levels[h];
+      int size = levelSizes[h];
+      if (h == 0) {
+        Arrays.sort(level, 0, size);
+      }
+      // An odd value out stays at this level, every other one of the rest moves up.
+      int start = (size & 1) + (ThreadLocalRandom.current().nextBoolean() ? 1 : 0);
+      int numPromoted = size / 2;
+      long[] promoted = new long[numPromoted];
+      for (int i = 0; i < numPromoted; i++) {
+        promoted[i] = level[start + 2 * i];
+      }
+      levelSizes[h] = size & 1;
+      numRetained -= size - levelSizes[h];
+      mergeIntoLevel(h + 1, promoted, numPromoted);
+      numRetained += numPromoted;
+    }
+
+    /** Merges the first {@code size} sorted values of {@code values} into the sorted level. */
+    private void mergeIntoLevel(int h, long[] values, int size) {
+      long[] level = levels[h];
+      int levelSize = levelSizes[h];
+      long[] merged = new long[levelSize + size];
+      int i = 0;
+      int j = 0;
+      for (int out = 0; out < merged.length; out++) {
+        if (j == size || (i < levelSize && level[i] <= values[j])) {
+          merged[out] = level[i++];
+        } else {
+          merged[out] = values[j++];
+        }
+      }
+      levels[h] = merged;
+      levelSizes[h] = merged.length;
+    }
+
+    private void addLevel() {
+      if (numLevels == levels.length) {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+      }
+      levels[numLevels] = new long[0];
+      levelSizes[numLevels] = 0;
+      numLevels++;
+      capacity = computeCapacity(k, numLevels);
+    }
+
+    private static int levelCapacity(int k, int numLevels, int h) {
+      int depth = numLevels - 1 - h;
+      return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private static int computeCapacity(int k, int numLevels) {
+      int total = 0;
+      for (int h = 0; h < numLevels; h++) {
+        total += levelCapacity(k, numLevels, h);
+      }
+      return total;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link KllSketch}. The values of each level are sorted and encoded as the
+   * first value followed by variable length deltas.
+   */
+  static class KllSketchCoder extends AtomicCoder<KllSketch> {
+    private static final KllSketchCoder INSTANCE = new KllSketchCoder();
+
+    static KllSketchCoder of() {
+      return INSTANCE;
+    }
+
+    @Override
+    public void encode(KllSketch sketch, OutputStream outStream)
+        throws CoderException, IOException {
+      VarInt.encode(sketch.k, outStream);
+      VarInt.encode(sketch.count, outStream);
+      if (sketch.count == 0) {
+        return;
+      }
+      DataOutputStream dataOutStream = new DataOutputStream(outStream);
+      dataOutStream.writeLong(sketch.min);
+      dataOutStream.writeLong(sketch.max);
+      VarInt.encode(sketch.numLevels, outStream);
+      for (int h = 0; h < sketch.numLevels; h++) {
+        int size = sketch.levelSizes[h];
+        long[] level = sketch.levels[h];
+        if (h == 0) {
+          level = Arrays.copyOf(level, size);
+          Arrays.sort(level);
+        }
+        VarInt.encode(size, outStream);
+        if (size > 0) {
+          dataOutStream.writeLong(level[0]);
+          for (int i = 1; i < size; i++) {
+            VarInt.encode(level[i] - level[i - 1], outStream);
+          }
+        }
+      }
+      dataOutStream.flush();
+    }
+
+    @Override
+    public KllSketch decode(InputStream inStream) throws CoderException, IOException {
+      int k = VarInt.decodeInt(inStream);
+      long count = VarInt.decodeLong(inStream);
+      if (count == 0) {
+        return new KllSketch(k);
+      }
+      DataInputStream dataInStream = new DataInputStream(inStream);
+      long min = dataInStream.readLong();
+      long max = dataInStream.readLong();
+      int numLevels = VarInt.decodeInt(inStream);
+      long[][] levels = new long[numLevels][];
+      int[] levelSizes = new int[numLevels];
+      for (int h = 0; h < numLevels; h++) {
+        long[] level = new long[VarInt.decodeInt(inStream)];
+        if (level.length > 0) {
+          level[0] = dataInStream.readLong();
+          for (int i = 1; i < level.length; i++) {
+            level[i] = level[i - 1] + VarInt.decodeLong(inStream);
+          }
+        }
+        levels[h] = level;
+        levelSizes[h] = level.length;
+      }
+      return new KllSketch(k, count, min, max, levels, levelSizes);
+    }
+  }
+}
@@ -19,15 +19,19 @@ package org.apache.beam.sdk.transforms;
 
 import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.CoderRegistry;
@@ -35,12 +39,14 @@ import org.apache.beam.sdk.coders.CustomCoder;
 import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn.Accumulator;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.Combine.PerKey;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
 import org.apache.beam.sdk.util.NameUtils;
 import org.apache.beam.sdk.util.NameUtils.NameOverride;
+import org.apache.beam.sdk.util.VarInt;
 import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
@@ -178,15 +184,24 @@ public class Top {
   public static <T extends Comparable<T>> TopCombineFn<T, Natural<T>> largestFn(int count) {
     return new TopCombineFn<T, Natural<T>>(count, new Natural<T>()) {};
   }
-  /** Returns a {@link TopCombineFn} that aggregates the largest count long values. */
+  /**
+   * Returns a {@link TopCombineFn} that aggregates the largest count long values. See {@link
+   * LongsFn} for a combiner with the same output that does not box the values it keeps.
+   */
   public static TopCombineFn<Long, Natural<Long>> largestLongsFn(int count) {
     return new TopCombineFn<Long, Natural<Long>>(count, new Natural<Long>()) {};
   }
-  /** Returns a {@link TopCombineFn} that aggregates the largest count int values. */
+  /**
+   * Returns a {@link TopCombineFn} that aggregates the largest count int values. See {@link IntsFn}
+   * for a combiner with the same output that does not box the values it keeps.
+   */
   public static TopCombineFn<Integer, Natural<Integer>> largestIntsFn(int count) {
     return new TopCombineFn<Integer, Natural<Integer>>(count, new Natural<>()) {};
   }
-  /** Returns a {@link TopCombineFn} that aggregates the largest count double values. */
+  /**
+   * Returns a {@link TopCombineFn} that aggregates the largest count double values. See {@link
+   * DoublesFn} for a combiner with the same output that does not box the values it keeps.
+   */
   public static TopCombineFn<Double, Natural<Double>> largestDoublesFn(int count) {
     return new TopCombineFn<Double, Natural<Double>>(count, new Natural<>()) {};
   }
@@ -425,6 +440,359 @@ public class Top {
     }
   }
 
+  /**
+   * {@code CombineFn} for the largest or smallest {@code count} {@code long} values, which are kept
+   * in a primitive array rather than a heap of boxed elements. The output is the same as that of
+   * {@link #largestLongsFn} or {@link #smallestLongsFn}.
+   */
+  public static class LongsFn extends PrimitiveTopCombineFn<Long> {
+    private LongsFn(int count, boolean largest) {
+      super(count, largest, "Longs");
+    }
+
+    /** Returns a {@code LongsFn} that aggregates the largest {@code count} values. */
+    public static LongsFn largest(int count) {
+      return new LongsFn(count, true);
+    }
+
+    /** Returns a {@code LongsFn} that aggregates the smallest {@code count} values. */
+    public static LongsFn smallest(int count) {
+      return new LongsFn(count, false);
+    }
+
+    @Override
+    long toKey(Long value) {
+      return value;
+    }
+
+    @Override
+    Long fromKey(long key) {
+      return key;
+    }
+  }
+
+  /**
+   * {@code CombineFn} for the largest or smallest {@code count} {@code int} values, which are kept
+   * in a primitive array rather than a heap of boxed elements. The output is the same as that of
+   * {@link #largestIntsFn} or {@link #smallestIntsFn}.
+   */
+  public static class IntsFn extends PrimitiveTopCombineFn<Integer> {
+    private IntsFn(int count, boolean largest) {
+      super(count, largest, "Ints");
+    }
+
+    /** Returns an {@code IntsFn} that aggregates the largest {@code count} values. */
+    public static IntsFn largest(int count) {
+      return new IntsFn(count, true);
+    }
+
+    /** Returns an {@code IntsFn} that aggregates the smallest {@code count} values. */
+    public static IntsFn smallest(int count) {
+      return new IntsFn(count, false);
+    }
+
+    @Override
+    long toKey(Integer value) {
+      return value;
+    }
+
+    @Override
+    Integer fromKey(long key) {
+      return (int) key;
+    }
+  }
+
+  /**
+   * {@code CombineFn} for the largest or smallest {@code count} {@code double} values, which are
+   * kept in a primitive array rather than a heap of boxed elements. Values are ordered like {@link
+   * Double#compare}, so the output is the same as that of {@link #largestDoublesFn} or {@link
+   * #smallestDoublesFn}.
+   */
+  public static class DoublesFn extends PrimitiveTopCombineFn<Double> {
+    private DoublesFn(int count, boolean largest) {
+      super(count, largest, "Doubles");
+    }
+
+    /** Returns a {@code DoublesFn} that aggregates the largest {@code count} values. */
+    public static DoublesFn largest(int count) {
+      return new DoublesFn(count, true);
+    }
+
+    /** Returns a {@code DoublesFn} that aggregates the smallest {@code count} values. */
+    public static DoublesFn smallest(int count) {
+      return new DoublesFn(count, false);
+    }
+
+    @Override
+    long toKey(Double value) {
+      // Flips all the bits but the sign bit of negative values, so that keys compare like values.
+      long bits = Double.doubleToLongBits(value);
+      return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    @Override
+    Double fromKey(long key) {
+      return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+    }
+  }
+
+  /**
+   * Base class of the {@code CombineFn}s for primitive values, which map each value to a {@code
+   * long} key with the same order and keep the largest keys in a {@link BoundedLongBuffer}. The
+   * smallest values are kept by inverting the keys. Since up to twice {@code count} keys are
+   * buffered in an array, {@code count} is at most {@code Integer.MAX_VALUE / 2}.
+   */
+  public abstract static class PrimitiveTopCombineFn<T>
+      extends CombineFn<T, BoundedLongBuffer, List<T>> implements NameOverride {
+    private final int count;
+    private final boolean largest;
+    private final String typeName;
+
+    PrimitiveTopCombineFn(int count, boolean largest, String typeName) {
+      checkArgument(count >= 0, "count must be >= 0 (not %s)", count);
+      checkArgument(
+          count <= Integer.MAX_VALUE / 2,
+          "count must be <= %s (not %s)",
+          Integer.MAX_VALUE / 2,
+          count);
+      this.count = count;
+      this.largest = largest;
+      this.typeName = typeName;
+    }
+
+    /** Maps a value to a key with the same order. */
+    abstract long toKey(T value);
+
+    /** The inverse of {@link #toKey}. */
+    abstract T fromKey(long key);
+
+    @Override
+    public String getNameOverride() {
+      return String.format("Top(%s%s)", largest ? "Largest" : "Smallest", typeName);
+    }
+
+    @Override
+    public BoundedLongBuffer createAccumulator() {
+      return new BoundedLongBuffer(count);
+    }
+
+    @Override
+    public BoundedLongBuffer addInput(BoundedLongBuffer accumulator, T input) {
+      long key = toKey(input);
+      accumulator.add(largest ? key : ~key);
+      return accumulator;
+    }
+
+    @Override
+    public BoundedLongBuffer mergeAccumulators(Iterable<BoundedLongBuffer> accumulators) {
+      BoundedLongBuffer merged = null;
+      for (BoundedLongBuffer accumulator : accumulators) {
+        if (merged == null) {
+          merged = accumulator;
+        } else {
+          merged.addAll(accumulator);
+        }
+      }
+      return merged == null ? createAccumulator() : merged;
+    }
+
+    @Override
+    public List<T> extractOutput(BoundedLongBuffer accumulator) {
+      long[] keys = accumulator.sortedKeys();
+      List<T> result = new ArrayList<>(keys.length);
+      for (long key : keys) {
+        result.add(fromKey(largest ? key : ~key));
+      }
+      return result;
+    }
+
+    @Override
+    public Coder<BoundedLongBuffer> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return new BoundedLongBufferCoder(count);
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("count", count).withLabel("Top Count"))
+          .add(DisplayData.item("largest", largest).withLabel("Keep Largest Values"));
+    }
+
+    @Override
+    public String getIncompatibleGlobalWindowErrorMessage() {
+      return "Default values are not supported in Top if the input PCollection is not windowed by "
+          + "GlobalWindows. Instead, use Combine.globally(fn).withoutDefaults() to output an empty "
+          + "PCollection if the input PCollection is empty, or "
+          + "Combine.globally(fn).asSingletonView() to get a PCollection containing the empty list "
+          + "if the input PCollection is empty.";
+    }
+  }
+
+  /**
+   * Keeps the largest {@code count} of the {@code long} keys added to it.
+   *
+   * <p>Keys are appended to an array of up to {@code 2 * count} keys. When the array is full it is
+   * compacted by a quickselect that moves the largest {@code count} keys to its front, and the
+   * smallest of those becomes a threshold below which keys are rejected without being stored.
+   * This takes amortized constant time per key and never allocates once the array has grown.
+   *
+   * <p>Buffers are only created and updated by the {@link PrimitiveTopCombineFn}s, which expose
+   * them as their accumulators.
+   *
+   * <p>This class is <i>not</i> safe for multithreaded use.
+   */
+  public static class BoundedLongBuffer {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int count;
+    private long[] keys;
+    private int size;
+    /** Whether {@link #threshold} is set, which it is once the buffer has been compacted. */
+    private boolean hasThreshold;
+    /** A key that the smallest kept key is at least as large as. */
+    private long threshold;
+
+    BoundedLongBuffer(int count) {
+      this(count, new long[Math.min(INITIAL_CAPACITY, 2 * count)], 0);
+    }
+
+    private BoundedLongBuffer(int count, long[] keys, int size) {
+      this.count = count;
+      this.keys = keys;
+      this.size = size;
+    }
+
+    void add(long key) {
+      if (count == 0 || (hasThreshold && key <= threshold)) {
+        return;
+      }
+      if (size == keys.length) {
+        if (size < 2 * count) {
+          keys = Arrays.copyOf(keys, (int) Math.min(2L * count, 2L * size));
+        } else {
+          compact();
+        }
+      }
+      keys[size++] = key;
+    }
+
+    void addAll(BoundedLongBuffer other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.keys[i]);
+      }
+    }
+
+    /** Returns the kept keys, largest first. */
+    long[] sortedKeys() {
+      if (size > count) {
+        compact();
+      }
+      long[] sorted = Arrays.copyOf(keys, size);
+      Arrays.sort(sorted);
+      for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+        long swap = sorted[i];
+        sorted[i] = sorted[j];
+        sorted[j] = swap;
+      }
+      return sorted;
+    }
+
+    /** Moves the largest {@code count} keys to the front of the array and drops the rest. */
+    private void compact() {
+      // A quickselect with three way partitioning, so that runs of equal keys are cheap.
+      int lo = 0;
+      int hi = size - 1;
+      int target = count - 1;
+      while (lo < hi) {
+        long pivot = keys[lo + ThreadLocalRandom.current().nextInt(hi - lo + 1)];
+        // Partitions keys[lo..hi] into keys larger than, equal to and smaller than the pivot.
+        int lt = lo;
+        int gt = hi;
+        int i = lo;
+        while (i <= gt) {
+          if (keys[i] > pivot) {
+            swap(lt++, i++);
+          } else if (keys[i] < pivot) {
+            swap(i, gt--);
+          } else {
+            i++;
+          }
+        }
+        if (target < lt) {
+          hi = lt - 1;
+        } else if (target > gt) {
+          lo = gt + 1;
+        } else {
+          break;
+        }
+      }
+      size = count;
+      threshold = keys[target];
+      hasThreshold = true;
+    }
+
+    private void swap(int i, int j) {
+      long swap = keys[i];
+      keys[i] = keys[j];
+      keys[j] = swap;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link BoundedLongBuffer}. The kept keys are encoded largest first, as the
+   * first key followed by variable length deltas.
+   */
+  private static class BoundedLongBufferCoder extends CustomCoder<BoundedLongBuffer> {
+    private final int count;
+
+    BoundedLongBufferCoder(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public void encode(BoundedLongBuffer value, OutputStream outStream)
+        throws CoderException, IOException {
+      long[] keys = value.sortedKeys();
+      VarInt.encode(keys.length, outStream);
+      if (keys.length > 0) {
+        new DataOutputStream(outStream).writeLong(keys[0]);
+        for (int i = 1; i < keys.length; i++) {
+          VarInt.encode(keys[i - 1] - keys[i], outStream);
+        }
+      }
+    }
+
+    @Override
+    public BoundedLongBuffer decode(InputStream inStream) throws CoderException, IOException {
+      int size = VarInt.decodeInt(inStream);
+      long[] keys =
+          new long[Math.max(size, Math.min(BoundedLongBuffer.INITIAL_CAPACITY, 2 * count))];
+      if (size > 0) {
+        keys[0] = new DataInputStream(inStream).readLong();
+        for (int i = 1; i < size; i++) {
+          keys[i] = keys[i - 1] - VarInt.decodeLong(inStream);
+        }
+      }
+      return new BoundedLongBuffer(count, keys, size);
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+      return other instanceof BoundedLongBufferCoder
+          && this.count == ((BoundedLongBufferCoder) other).count;
+    }
+
+    @Override
+    public int hashCode() {
+      return Integer.hashCode(count);
+    }
+  }
+
   /**
    * A heap that stores only a finite number of top elements according to its provided {@code
    * Comparator}. Implemented as an {@link Accumulator} to facilitate implementation of {@link Top}.
@@ -445,9 +445,39 @@ class ByteBuddyDoFnInvokerFactory implements DoFnInvokerFactory {
     }
   }
 
-  /** Generates a {@link DoFnInvoker} class for the given {@link DoFnSignature}. */
+  /**
+   * Returns a {@link DoFnInvoker} class for the given {@link DoFnSignature}, loaded from a {@link
+   * DoFnInvokerArchive} on the classpath if there is a matching one, and generated otherwise.
+   */
   private static Class<? extends DoFnInvoker<?, ?>> generateInvokerClass(DoFnSignature signature) {
     Class<? extends DoFn<?, ?>> fnClass = signature.fnClass();
+    String invokerName = invokerNamingStrategy(fnClass).getInvokerName(DoFnInvokerBase.class);
+    Class<?> archived =
+        DoFnInvokerArchive.loadInvokerClass(fnClass, invokerName, fnClass.getClassLoader());
+    if (archived != null) {
+      @SuppressWarnings("unchecked")
+      Class<? extends DoFnInvoker<?, ?>> res = (Class<? extends DoFnInvoker<?, ?>>) archived;
+      return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    Class<? extends DoFnInvoker<?, ?>> res =
+        (Class<? extends DoFnInvoker<?, ?>>)
+            makeInvokerClass(signature)
+                .load(findClassLoader(fnClass.getClassLoader()), getClassLoadingStrategy(fnClass))
+                .getLoaded();
+    return res;
+  }
+
+  private static StableInvokerNamingStrategy invokerNamingStrategy(
+      Class<? extends DoFn<?, ?>> fnClass) {
+    return StableInvokerNamingStrategy.forDoFnClass(fnClass)
+        .withSuffix(DoFnInvoker.class.getSimpleName());
+  }
+
+  /** Generates the unloaded {@link DoFnInvoker} class for the given {@link DoFnSignature}. */
+  static DynamicType.Unloaded<?> makeInvokerClass(DoFnSignature signature) {
+    Class<? extends DoFn<?, ?>> fnClass = signature.fnClass();
 
     final TypeDescription clazzDescription = new TypeDescription.ForLoadedType(fnClass);
 
@@ -455,9 +485,7 @@ class ByteBuddyDoFnInvokerFactory implements DoFnInvokerFactory {
         new ByteBuddy()
             // Create subclasses inside the target class, to have access to
             // private and package-private bits
-            .with(
-                StableInvokerNamingStrategy.forDoFnClass(fnClass)
-                    .withSuffix(DoFnInvoker.class.getSimpleName()))
+            .with(invokerNamingStrategy(fnClass))
 
             // class <invoker class> extends DoFnInvokerBase {
             .subclass(DoFnInvokerBase.class, ConstructorStrategy.Default.NO_CONSTRUCTORS)
@@ -515,14 +543,7 @@ class ByteBuddyDoFnInvokerFactory implements DoFnInvokerFactory {
                 newWatermarkEstimatorDelegation(
                     clazzDescription, signature.newWatermarkEstimator()));
 
-    DynamicType.Unloaded<?> unloaded = builder.make();
-    @SuppressWarnings("unchecked")
-    Class<? extends DoFnInvoker<?, ?>> res =
-        (Class<? extends DoFnInvoker<?, ?>>)
-            unloaded
-                .load(findClassLoader(fnClass.getClassLoader()), getClassLoadingStrategy(fnClass))
-                .getLoaded();
-    return res;
+    return builder.make();
   }
 
   private static ClassLoadingStrategy<ClassLoader> getClassLoadingStrategy(Class<?> targetClass) {
@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms.reflect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.annotations.Internal;
+import org.apache.beam.sdk.options.ExperimentalOptions;
+import org.apache.beam.sdk.options.FileStagingOptions;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.runners.TransformHierarchy;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.util.ReleaseInfo;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.BaseEncoding;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.ByteStreams;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archives the {@link DoFnInvoker} classes of a pipeline at construction time, so that workers load
+ * them from their classpath instead of generating them.
+ *
+ * <p>With the {@value #EXPERIMENT} experiment, {@link Pipeline#run} generates the invoker class of
+ * each {@link DoFn} of the pipeline, writes them to a jar and adds the jar to the {@link
+ * FileStagingOptions#getFilesToStage() files to stage}. Next to each invoker class the jar holds a
+ * fingerprint of the Beam SDK version, of the invoker generator, of the class files of the {@link
+ * DoFn} and its supertypes, and of its {@link DoFnSignature}. A worker only loads an archived
+ * invoker class when the fingerprint matches the {@link DoFn} class it runs, and otherwise
+ * generates the invoker class as usual.
+ */
+@Internal
+public final class DoFnInvokerArchive {
+  private static final Logger LOG = LoggerFactory.getLogger(DoFnInvokerArchive.class);
+
+  /** The experiment enabling the staging of generated {@link DoFnInvoker} classes. */
+  public static final String EXPERIMENT = "stage_generated_dofn_invokers";
+
+  private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
+  private DoFnInvokerArchive() {}
+
+  /**
+   * Writes the {@link DoFnInvoker} classes of the {@link DoFn DoFns} of the pipeline to a jar and
+   * adds it to the files to stage, if the {@value #EXPERIMENT} experiment is enabled.
+   */
+  public static void stageInvokers(Pipeline pipeline, PipelineOptions options) {
+    if (!ExperimentalOptions.hasExperiment(options, EXPERIMENT)) {
+      return;
+    }
+    FileStagingOptions stagingOptions = options.as(FileStagingOptions.class);
+    List<String> filesToStage = stagingOptions.getFilesToStage();
+    if (filesToStage == null) {
+      LOG.warn("Not staging generated DoFnInvoker classes, the runner does not stage files.");
+      return;
+    }
+    try {
+      Path jar = Files.createTempFile("beam-dofn-invokers-", ".jar");
+      jar.toFile().deleteOnExit();
+      int numInvokers;
+      try (OutputStream output = Files.newOutputStream(jar)) {
+        numInvokers = writeInvokers(collectFnClasses(pipeline), output);
+      }
+      List<String> staged = new ArrayList<>(filesToStage);
+      staged.add(jar.toString());
+      stagingOptions.setFilesToStage(staged);
+      LOG.info("Staging {} generated DoFnInvoker classes in {}", numInvokers, jar);
+    } catch (IOException e) {
+      LOG.warn("Failed to archive generated DoFnInvoker classes, workers will generate them.", e);
+    }
+  }
+
+  /** Returns the classes of the {@link DoFn DoFns} applied by {@link ParDo} in the pipeline. */
+  static Set<Class<? extends DoFn<?, ?>>> collectFnClasses(Pipeline pipeline) {
+    Set<Class<? extends DoFn<?, ?>>> fnClasses = new LinkedHashSet<>();
+    pipeline.traverseTopologically(
+        new Pipeline.PipelineVisitor.Defaults() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public void visitPrimitiveTransform(TransformHierarchy.Node node) {
+            if (node.getTransform() instanceof ParDo.MultiOutput) {
+              fnClasses.add(
+                  (Class<? extends DoFn<?, ?>>)
+                      ((ParDo.MultiOutput<?, ?>) node.getTransform()).getFn().getClass());
+            }
+          }
+        });
+    return fnClasses;
+  }
+
+  /**
+   * Writes a jar holding the {@link DoFnInvoker} classes of the given {@link DoFn} classes with
+   * their fingerprints, and returns the number of archived invoker classes. {@link DoFn} classes
+   * whose class file can't be read, such as lambdas, are skipped.
+   */
+  static int writeInvokers(Iterable<Class<? extends DoFn<?, ?>>> fnClasses, OutputStream output)
+      throws IOException {
+    int numInvokers = 0;
+    try (JarOutputStream jar = new JarOutputStream(output)) {
+      for (Class<? extends DoFn<?, ?>> fnClass : fnClasses) {
+        String fingerprint = fingerprint(fnClass);
+        if (fingerprint == null) {
+          continue;
+        }
+        DynamicType.Unloaded<?> invoker;
+        try {
+          invoker =
+              ByteBuddyDoFnInvokerFactory.makeInvokerClass(DoFnSignatures.getSignature(fnClass));
+        } catch (RuntimeException e) {
+          LOG.warn("Not archiving the DoFnInvoker class of {}", fnClass, e);
+          continue;
+        }
+        for (Map.Entry<TypeDescription, byte[]> type : invoker.getAllTypes().entrySet()) {
+          jar.putNextEntry(new JarEntry(type.getKey().getInternalName() + ".class"));
+          jar.write(type.getValue());
+          jar.closeEntry();
+        }
+        jar.putNextEntry(
+            new JarEntry(invoker.getTypeDescription().getInternalName() + FINGERPRINT_SUFFIX));
+        jar.write(fingerprint.getBytes(StandardCharsets.UTF_8));
+        jar.closeEntry();
+        numInvokers++;
+      }
+    }
+    return numInvokers;
+  }
+
+  /**
+   * Loads the archived invoker class with the given name from the class loader, if it is on its
+   * classpath and was generated for the current version of the given {@link DoFn} class.
+   */
+  static @Nullable Class<?> loadInvokerClass(
+      Class<? extends DoFn<?, ?>> fnClass, String invokerName, @Nullable ClassLoader classLoader) {
+    if (classLoader == null) {
+      return null;
+    }
+    // Check the fingerprint before loading, a mismatching class must not be defined in the class
+    // loader since the invoker class is then generated with the same name.
+    String archivedFingerprint;
+    try (InputStream input =
+        classLoader.getResourceAsStream(invokerName.replace('.', '/') + FINGERPRINT_SUFFIX)) {
+      if (input == null) {
+        return null;
+      }
+      archivedFingerprint = new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the fingerprint of archived {}", invokerName, e);
+      return null;
+    }
+    if (!archivedFingerprint.equals(fingerprint(fnClass))) {
+      LOG.info("Generating {}, the archived invoker class does not match {}", invokerName, fnClass);
+      return null;
+    }
+    try {
+      return Class.forName(invokerName, false, classLoader);
+    } catch (ClassNotFoundException | LinkageError | SecurityException e) {
+      LOG.warn("Failed to load archived {}", invokerName, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns a fingerprint of the Beam SDK version, of the classes generating the invoker classes,
+   * of the class files of the {@link DoFn} class and all its supertypes, and of its {@link
+   * DoFnSignature}, or {@code null} if any of the class files can't be read or the {@link DoFn}
+   * class is invalid.
+   */
+  static @Nullable String fingerprint(Class<?> fnClass) {
+    byte[] generatorFingerprint = GeneratorFingerprint.FINGERPRINT;
+    if (generatorFingerprint == null) {
+      return null;
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(
+          ReleaseInfo.getReleaseInfo().getSdkVersion().getBytes(StandardCharsets.UTF_8));
+      digest.update(generatorFingerprint);
+      if (!updateWithClassFiles(digest, supertypes(fnClass))) {
+        return null;
+      }
+      @SuppressWarnings("unchecked")
+      DoFnSignature signature =
+          DoFnSignatures.getSignature((Class<? extends DoFn<?, ?>>) fnClass);
+      digest.update(signature.toString().getBytes(StandardCharsets.UTF_8));
+      return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    } catch (IOException | NoSuchAlgorithmException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the class and all its superclasses and interfaces, except those of the bootstrap class
+   * loader, in a deterministic order.
+   */
+  private static Set<Class<?>> supertypes(Class<?> clazz) {
+    Set<Class<?>> supertypes = new LinkedHashSet<>();
+    Deque<Class<?>> pending = new ArrayDeque<>();
+    pending.add(clazz);
+    while (!pending.isEmpty()) {
+      Class<?> type = pending.removeFirst();
+      if (type.getClassLoader() == null || !supertypes.add(type)) {
+        continue;
+      }
+      if (type.getSuperclass() != null) {
+        pending.add(type.getSuperclass());
+      }
+      pending.addAll(Arrays.asList(type.getInterfaces()));
+    }
+    return supertypes;
+  }
+
+  /**
+   * Updates the digest with the names and class files of the classes, returning whether all the
+   * class files could be read.
+   */
+  private static boolean updateWithClassFiles(MessageDigest digest, Iterable<Class<?>> classes)
+      throws IOException {
+    for (Class<?> clazz : classes) {
+      ClassLoader classLoader = clazz.getClassLoader();
+      if (classLoader == null) {
+        return false;
+      }
+      try (InputStream input =
+          classLoader.getResourceAsStream(clazz.getName().replace('.', '/') + ".class")) {
+        if (input == null) {
+          return false;
+        }
+        digest.update(clazz.getName().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteStreams.toByteArray(input));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The digest of the class files of the classes generating the invoker classes, so that archived
+   * invoker classes are regenerated when those change without a change of the SDK version, such as
+   * between snapshot builds.
+   */
+  private static class GeneratorFingerprint {
+    private static final byte @Nullable [] FINGERPRINT = compute();
+
+    private static byte @Nullable [] compute() {
+      Set<Class<?>> classes = new LinkedHashSet<>();
+      Deque<Class<?>> pending =
+          new ArrayDeque<>(
+              Arrays.asList(
+                  ByteBuddyDoFnInvokerFactory.class,
+                  DoFnSignatures.class,
+                  DoFnSignature.class,
+                  ByteBuddy.class));
+      // Include the member classes of the generators, which are compiled to separate class files.
+      while (!pending.isEmpty()) {
+        Class<?> clazz = pending.removeFirst();
+        if (classes.add(clazz)) {
+          pending.addAll(Arrays.asList(clazz.getDeclaredClasses()));
+        }
+      }
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return updateWithClassFiles(digest, classes) ? digest.digest() : null;
+      } catch (IOException | NoSuchAlgorithmException e) {
+        LOG.warn("Failed to fingerprint the DoFnInvoker generator, ignoring archived invokers.", e);
+        return null;
+      }
+    }
+  }
+}
@@ -44,6 +44,11 @@ abstract class StableInvokerNamingStrategy extends NamingStrategy.AbstractBase {
     return new AutoValue_StableInvokerNamingStrategy(getFnClass(), newSuffix);
   }
 
+  /** Returns the name of the invoker class extending the given class. */
+  public String getInvokerName(Class<?> superClass) {
+    return name(TypeDescription.ForLoadedType.of(superClass));
+  }
+
   @Override
   protected String name(TypeDescription superClass) {
     return String.format(
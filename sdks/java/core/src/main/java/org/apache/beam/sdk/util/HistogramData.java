@@ -22,6 +22,8 @@ import java.io.Serializable;
 import java.math.RoundingMode;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.math.DoubleMath;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
@@ -30,6 +32,10 @@ import org.slf4j.LoggerFactory;
 /**
  * A histogram that supports estimated percentile with linear interpolation.
  *
+ * <p>Recording values is lock-free, the bucket counts are updated atomically and only combined
+ * when the histogram is read. Histograms with the same {@link BucketType} can be merged with {@link
+ * #update(HistogramData)} or {@link #combine(HistogramData)}.
+ *
  * <p>We may consider using Apache Commons or HdrHistogram library in the future for advanced
  * features such as sparsely populated histograms.
  */
@@ -37,14 +43,15 @@ public class HistogramData implements Serializable {
   private static final Logger LOG = LoggerFactory.getLogger(HistogramData.class);
 
   private final BucketType bucketType;
+  private final double rangeFrom;
+  private final double rangeTo;
 
   // TODO(https://github.com/apache/beam/issues/20853): Update this function to remove the
   // numTopRecords and numBottomRecords
   // and include those counters in the buckets array.
-  private long[] buckets;
-  private long numBoundedBucketRecords;
-  private long numTopRecords;
-  private long numBottomRecords;
+  private final AtomicLongArray buckets;
+  private final AtomicLong numTopRecords;
+  private final AtomicLong numBottomRecords;
 
   /**
    * Create a histogram.
@@ -53,10 +60,11 @@ public class HistogramData implements Serializable {
    */
   public HistogramData(BucketType bucketType) {
     this.bucketType = bucketType;
-    this.buckets = new long[bucketType.getNumBuckets()];
-    this.numBoundedBucketRecords = 0;
-    this.numTopRecords = 0;
-    this.numBottomRecords = 0;
+    this.rangeFrom = bucketType.getRangeFrom();
+    this.rangeTo = bucketType.getRangeTo();
+    this.buckets = new AtomicLongArray(bucketType.getNumBuckets());
+    this.numTopRecords = new AtomicLong();
+    this.numBottomRecords = new AtomicLong();
   }
 
   public BucketType getBucketType() {
@@ -77,70 +85,107 @@ public class HistogramData implements Serializable {
     return new HistogramData(LinearBuckets.of(start, width, numBuckets));
   }
 
+  /**
+   * Create a histogram with exponential buckets. The relative error of percentile estimations is
+   * bounded by {@code growthFactor - 1}, independent of the magnitude of the recorded values.
+   *
+   * @param start Lower bound of a starting bucket, must be positive.
+   * @param growthFactor Ratio between the bounds of a bucket, must be greater than 1.
+   * @param numBuckets The number of buckets. Upper bound of an ending bucket is defined by start *
+   *     growthFactor ^ numBuckets.
+   * @return a new Histogram instance.
+   */
+  public static HistogramData exponential(double start, double growthFactor, int numBuckets) {
+    return new HistogramData(ExponentialBuckets.of(start, growthFactor, numBuckets));
+  }
+
   public void record(double... values) {
     for (double value : values) {
       record(value);
     }
   }
 
-  public synchronized void update(HistogramData other) {
-    synchronized (other) {
-      if (!this.bucketType.equals(other.bucketType)
-          || this.buckets.length != other.buckets.length) {
-        LOG.warn("Failed to update HistogramData from another with a different buckets");
-        return;
-      }
+  public void update(HistogramData other) {
+    if (!this.bucketType.equals(other.bucketType)
+        || this.buckets.length() != other.buckets.length()) {
+      LOG.warn("Failed to update HistogramData from another with a different buckets");
+      return;
+    }
 
-      incTopBucketCount(other.numTopRecords);
-      incBottomBucketCount(other.numBottomRecords);
-      for (int i = 0; i < other.buckets.length; i++) {
-        incBucketCount(i, other.buckets[i]);
+    incTopBucketCount(other.getTopBucketCount());
+    incBottomBucketCount(other.getBottomBucketCount());
+    for (int i = 0; i < other.buckets.length(); i++) {
+      long count = other.buckets.get(i);
+      if (count != 0) {
+        incBucketCount(i, count);
       }
     }
   }
 
+  /** Returns a new histogram holding the records of this and of another histogram. */
+  public HistogramData combine(HistogramData other) {
+    HistogramData combined = copy();
+    combined.update(other);
+    return combined;
+  }
+
+  /** Returns a new histogram holding the current records of this histogram. */
+  public HistogramData copy() {
+    HistogramData copy = new HistogramData(bucketType);
+    copy.update(this);
+    return copy;
+  }
+
   // TODO(https://github.com/apache/beam/issues/20853): Update this function to allow incrementing
   // the infinite buckets as well.
   // and remove the incTopBucketCount and incBotBucketCount methods.
   // Using 0 and length -1 as the bucketIndex.
-  public synchronized void incBucketCount(int bucketIndex, long count) {
-    this.buckets[bucketIndex] += count;
-    this.numBoundedBucketRecords += count;
+  public void incBucketCount(int bucketIndex, long count) {
+    this.buckets.addAndGet(bucketIndex, count);
   }
 
-  public synchronized void incTopBucketCount(long count) {
-    this.numTopRecords += count;
+  public void incTopBucketCount(long count) {
+    this.numTopRecords.addAndGet(count);
   }
 
-  public synchronized void incBottomBucketCount(long count) {
-    this.numBottomRecords += count;
+  public void incBottomBucketCount(long count) {
+    this.numBottomRecords.addAndGet(count);
   }
 
-  public synchronized void clear() {
-    this.buckets = new long[bucketType.getNumBuckets()];
-    this.numBoundedBucketRecords = 0;
-    this.numTopRecords = 0;
-    this.numBottomRecords = 0;
+  public void clear() {
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    this.numTopRecords.set(0);
+    this.numBottomRecords.set(0);
   }
 
-  public synchronized void record(double value) {
-    double rangeTo = bucketType.getRangeTo();
-    double rangeFrom = bucketType.getRangeFrom();
+  /**
+   * Records a value. Infinite values are counted in the top or bottom bucket, NaN values are ignored
+   * since they don't belong to any bucket.
+   */
+  public void record(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
     if (value >= rangeTo) {
-      numTopRecords++;
+      numTopRecords.incrementAndGet();
     } else if (value < rangeFrom) {
-      numBottomRecords++;
+      numBottomRecords.incrementAndGet();
     } else {
-      buckets[bucketType.getBucketIndex(value)]++;
-      numBoundedBucketRecords++;
+      buckets.incrementAndGet(bucketType.getBucketIndex(value));
     }
   }
 
-  public synchronized long getTotalCount() {
-    return numBoundedBucketRecords + numTopRecords + numBottomRecords;
+  public long getTotalCount() {
+    long totalCount = numTopRecords.get() + numBottomRecords.get();
+    for (int i = 0; i < buckets.length(); i++) {
+      totalCount += buckets.get(i);
+    }
+    return totalCount;
   }
 
-  public synchronized String getPercentileString(String elemType, String unit) {
+  public String getPercentileString(String elemType, String unit) {
     return String.format(
         "Total number of %s: %s, P99: %.0f %s, P90: %.0f %s, P50: %.0f %s",
         elemType, getTotalCount(), p99(), unit, p90(), unit, p50(), unit);
@@ -157,16 +202,16 @@ public class HistogramData implements Serializable {
    * @param bucketIndex index of the bucket
    * @return The number of elements in the specified bucket
    */
-  public synchronized long getCount(int bucketIndex) {
-    return buckets[bucketIndex];
+  public long getCount(int bucketIndex) {
+    return buckets.get(bucketIndex);
   }
 
-  public synchronized long getTopBucketCount() {
-    return numTopRecords;
+  public long getTopBucketCount() {
+    return numTopRecords.get();
   }
 
-  public synchronized long getBottomBucketCount() {
-    return numBottomRecords;
+  public long getBottomBucketCount() {
+    return numBottomRecords.get();
   }
 
   public double p99() {
@@ -185,30 +230,39 @@ public class HistogramData implements Serializable {
    * Calculate percentile estimation based on linear interpolation. It first finds the bucket which
    * includes the target percentile and projects the estimated point in the bucket by assuming all
    * the elements in the bucket are uniformly distributed.
+   *
+   * @param percentile the percentile to estimate, between 0 and 1.
    */
-  private synchronized double getLinearInterpolation(double percentile) {
-    long totalNumOfRecords = getTotalCount();
+  public double getPercentile(double percentile) {
+    return getLinearInterpolation(percentile);
+  }
+
+  private double getLinearInterpolation(double percentile) {
+    // Interpolate on a snapshot of the counts, so that concurrent records don't skew the result.
+    long[] counts = getBucketCounts();
+    long numBottom = numBottomRecords.get();
+    long totalNumOfRecords = numBottom + numTopRecords.get() + Arrays.stream(counts).sum();
     if (totalNumOfRecords == 0) {
       return Double.NaN;
     }
     int index;
-    double recordSum = numBottomRecords;
+    double recordSum = numBottom;
     if (recordSum / totalNumOfRecords >= percentile) {
       return Double.NEGATIVE_INFINITY;
     }
-    for (index = 0; index < bucketType.getNumBuckets(); index++) {
-      recordSum += buckets[index];
+    for (index = 0; index < counts.length; index++) {
+      recordSum += counts[index];
       if (recordSum / totalNumOfRecords >= percentile) {
         break;
       }
     }
-    if (index == bucketType.getNumBuckets()) {
+    if (index == counts.length) {
       return Double.POSITIVE_INFINITY;
     }
-    double fracPercentile = percentile - (recordSum - buckets[index]) / totalNumOfRecords;
-    double bucketPercentile = (double) buckets[index] / totalNumOfRecords;
+    double fracPercentile = percentile - (recordSum - counts[index]) / totalNumOfRecords;
+    double bucketPercentile = (double) counts[index] / totalNumOfRecords;
     double fracBucketSize = fracPercentile * bucketType.getBucketSize(index) / bucketPercentile;
-    return bucketType.getRangeFrom() + bucketType.getAccumulatedBucketSize(index) + fracBucketSize;
+    return rangeFrom + bucketType.getAccumulatedBucketSize(index) + fracBucketSize;
   }
 
   public interface BucketType extends Serializable {
@@ -276,28 +330,97 @@ public class HistogramData implements Serializable {
     // Note: equals() and hashCode() are implemented by the AutoValue.
   }
 
+  /**
+   * Buckets whose bounds grow exponentially, the bucket at index {@code i} holding the values in
+   * {@code [start * growthFactor^i, start * growthFactor^(i+1))}.
+   */
+  @AutoValue
+  public abstract static class ExponentialBuckets implements BucketType {
+    public abstract double getStart();
+
+    public abstract double getGrowthFactor();
+
+    @Override
+    public abstract int getNumBuckets();
+
+    public static ExponentialBuckets of(double start, double growthFactor, int numBuckets) {
+      if (start <= 0) {
+        throw new IllegalArgumentException(
+            String.format("start should be greater than zero: %f", start));
+      }
+      if (growthFactor <= 1) {
+        throw new IllegalArgumentException(
+            String.format("growthFactor should be greater than one: %f", growthFactor));
+      }
+      if (numBuckets <= 0) {
+        throw new IllegalArgumentException(
+            String.format("numBuckets should be greater than zero: %d", numBuckets));
+      }
+      return new AutoValue_HistogramData_ExponentialBuckets(start, growthFactor, numBuckets);
+    }
+
+    @Override
+    public int getBucketIndex(double value) {
+      // NaN and the values below the range fall in the first bucket.
+      if (!(value > getStart())) {
+        return 0;
+      }
+      double index = Math.floor(Math.log(value / getStart()) / Math.log(getGrowthFactor()));
+      // Rounding errors of the logarithms may place values at the range bounds off by one, and
+      // infinite values fall in the last bucket.
+      return (int) Math.min(index, getNumBuckets() - 1);
+    }
+
+    @Override
+    public double getBucketSize(int index) {
+      return getStart() * Math.pow(getGrowthFactor(), index) * (getGrowthFactor() - 1);
+    }
+
+    @Override
+    public double getAccumulatedBucketSize(int endIndex) {
+      return getStart() * (Math.pow(getGrowthFactor(), endIndex) - 1);
+    }
+
+    @Override
+    public double getRangeFrom() {
+      return getStart();
+    }
+
+    @Override
+    public double getRangeTo() {
+      return getStart() * Math.pow(getGrowthFactor(), getNumBuckets());
+    }
+
+    // Note: equals() and hashCode() are implemented by the AutoValue.
+  }
+
   @Override
-  public synchronized boolean equals(@Nullable Object object) {
+  public boolean equals(@Nullable Object object) {
     if (object instanceof HistogramData) {
       HistogramData other = (HistogramData) object;
-      synchronized (other) {
-        return Objects.equals(bucketType, other.bucketType)
-            && numBoundedBucketRecords == other.numBoundedBucketRecords
-            && numTopRecords == other.numTopRecords
-            && numBottomRecords == other.numBottomRecords
-            && Arrays.equals(buckets, other.buckets);
-      }
+      return Objects.equals(bucketType, other.bucketType)
+          && getTopBucketCount() == other.getTopBucketCount()
+          && getBottomBucketCount() == other.getBottomBucketCount()
+          && Arrays.equals(getBucketCounts(), other.getBucketCounts());
     }
     return false;
   }
 
   @Override
-  public synchronized int hashCode() {
+  public int hashCode() {
     return Objects.hash(
         bucketType,
-        numBoundedBucketRecords,
-        numBottomRecords,
-        numTopRecords,
-        Arrays.hashCode(buckets));
+        getTotalCount(),
+        getBottomBucketCount(),
+        getTopBucketCount(),
+        Arrays.hashCode(getBucketCounts()));
+  }
+
+  private long[] getBucketCounts() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
   }
 }
@@ -40,25 +40,24 @@ import static org.apache.beam.sdk.util.RowJsonValueExtractors.longValueExtractor
 import static org.apache.beam.sdk.util.RowJsonValueExtractors.shortValueExtractor;
 import static org.apache.beam.sdk.util.RowJsonValueExtractors.stringValueExtractor;
 import static org.apache.beam.sdk.util.RowJsonValueExtractors.timeValueExtractor;
-import static org.apache.beam.sdk.values.Row.toRow;
 import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
-import com.google.auto.value.AutoValue;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.List;
 import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.schemas.Schema.Field;
 import org.apache.beam.sdk.schemas.Schema.FieldType;
@@ -175,11 +174,17 @@ public class RowJson {
     return ImmutableList.of();
   }
 
-  /** Jackson deserializer for parsing JSON into {@link Row Rows}. */
+  /**
+   * Jackson deserializer for parsing JSON into {@link Row Rows}.
+   *
+   * <p>The JSON is parsed in a single pass over its tokens by parsers built once for the {@link
+   * Schema}, without reading it into a tree first. JSON fields that are not part of the {@link
+   * Schema} are skipped without being converted, so a deserializer for a schema with a subset of
+   * the fields of the JSON objects only pays for the fields it projects. If a JSON object holds
+   * the same field more than once, the last value is used.
+   */
   public static class RowJsonDeserializer extends StdDeserializer<Row> {
 
-    private static final boolean SEQUENTIAL = false;
-
     /**
      * An enumeration type for specifying how {@link RowJsonDeserializer} should expect null values
      * to be represented.
@@ -229,6 +234,7 @@ public class RowJson {
 
     private final Schema schema;
     private NullBehavior nullBehavior = NullBehavior.ACCEPT_MISSING_OR_NULL;
+    private transient @Nullable RowParser rootParser;
 
     /** Creates a deserializer for a {@link Row} {@link Schema}. */
     public static RowJsonDeserializer forSchema(Schema schema) {
@@ -254,194 +260,274 @@ public class RowJson {
     @Override
     public Row deserialize(JsonParser jsonParser, DeserializationContext deserializationContext)
         throws IOException {
-
-      // Parse and convert the root object to Row as if it's a nested field with name 'root'
-      return (Row)
-          extractJsonNodeValue(
-              FieldValue.of("root", FieldType.row(schema), jsonParser.readValueAsTree()));
+      if (rootParser == null) {
+        // Parse and convert the root object to Row as if it's a nested field with name 'root'
+        rootParser = rowParser("root", schema);
+      }
+      if (jsonParser.currentToken() == JsonToken.FIELD_NAME) {
+        // The object has already been entered, which happens when Jackson buffers the input.
+        return rootParser.parseFields(jsonParser, deserializationContext);
+      }
+      return rootParser.parse(jsonParser, deserializationContext);
     }
 
-    private Object extractJsonNodeValue(FieldValue fieldValue) {
-      if (fieldValue.type().getNullable()) {
-        if (!fieldValue.isJsonValuePresent()) {
-          switch (this.nullBehavior) {
-            case ACCEPT_MISSING_OR_NULL:
-            case REQUIRE_MISSING:
-              return null;
-            case REQUIRE_NULL:
-              throw new UnsupportedRowJsonException(
-                  "Field '" + fieldValue.name() + "' is not present in the JSON object.");
-          }
-        }
-
-        if (fieldValue.isJsonNull()) {
-          switch (this.nullBehavior) {
-            case ACCEPT_MISSING_OR_NULL:
-            case REQUIRE_NULL:
-              return null;
-            case REQUIRE_MISSING:
-              throw new UnsupportedRowJsonException(
-                  "Field '" + fieldValue.name() + "' has a null value in the JSON object.");
-          }
-        }
-      } else {
-        // field is not nullable
-        if (!fieldValue.isJsonValuePresent()) {
-          throw new UnsupportedRowJsonException(
-              "Non-nullable field '" + fieldValue.name() + "' is not present in the JSON object.");
-        } else if (fieldValue.isJsonNull()) {
-          throw new UnsupportedRowJsonException(
-              "Non-nullable field '" + fieldValue.name() + "' has value null in the JSON object.");
-        }
-      }
+    /**
+     * Converts the JSON value at the current token of a {@link JsonParser} to the value of a field,
+     * leaving the parser at the last token of the JSON value.
+     */
+    private interface ValueParser {
+      @Nullable
+      Object parse(JsonParser parser, DeserializationContext context) throws IOException;
+    }
 
-      if (fieldValue.isRowType()) {
-        return jsonObjectToRow(fieldValue);
+    /** Returns a {@link ValueParser} for non-null JSON values of the given field type. */
+    private ValueParser valueParser(String name, FieldType type) {
+      TypeName typeName = type.getTypeName();
+      if (TypeName.ROW.equals(typeName)) {
+        return rowParser(name, type.getRowSchema());
       }
 
-      if (fieldValue.isArrayType()) {
-        return jsonArrayToList(fieldValue);
+      if (TypeName.ARRAY.equals(typeName) || TypeName.ITERABLE.equals(typeName)) {
+        String elementName = name + "[]";
+        FieldType elementType = type.getCollectionElementType();
+        return new ArrayParser(
+            name, nullChecking(elementName, elementType, valueParser(elementName, elementType)));
       }
 
-      if (fieldValue.typeName().isLogicalType()) {
-        String identifier = fieldValue.type().getLogicalType().getIdentifier();
+      if (typeName.isLogicalType()) {
+        String identifier = type.getLogicalType().getIdentifier();
         if (SqlTypes.DATE.getIdentifier().equals(identifier)) {
-          return dateValueExtractor().extractValue(fieldValue.jsonValue());
+          return (parser, context) ->
+              dateValueExtractor().extractValue(scalarNode(parser, context));
         } else if (SqlTypes.TIME.getIdentifier().equals(identifier)) {
-          return timeValueExtractor().extractValue(fieldValue.jsonValue());
+          return (parser, context) ->
+              timeValueExtractor().extractValue(scalarNode(parser, context));
         } else if (SqlTypes.DATETIME.getIdentifier().equals(identifier)) {
-          return localDatetimeValueExtractor().extractValue(fieldValue.jsonValue());
+          return (parser, context) ->
+              localDatetimeValueExtractor().extractValue(scalarNode(parser, context));
         } else {
-          return extractJsonNodeValue(
-              FieldValue.of(
-                  fieldValue.name(),
-                  fieldValue.type().getLogicalType().getBaseType(),
-                  fieldValue.jsonValue()));
+          return valueParser(name, type.getLogicalType().getBaseType());
         }
       }
 
-      return extractJsonPrimitiveValue(fieldValue);
-    }
-
-    private Row jsonObjectToRow(FieldValue rowFieldValue) {
-      if (!rowFieldValue.isJsonObject()) {
-        throw new UnsupportedRowJsonException(
-            "Expected JSON object for field '"
-                + rowFieldValue.name()
-                + "'. Unable to convert '"
-                + rowFieldValue.jsonValue().asText()
-                + "' to Beam Row, it is not a JSON object. Currently only JSON objects can be parsed to Beam Rows");
-      }
-
-      return rowFieldValue.rowSchema().getFields().stream()
-          .map(
-              schemaField ->
-                  extractJsonNodeValue(
-                      FieldValue.of(
-                          schemaField.getName(),
-                          schemaField.getType(),
-                          rowFieldValue.jsonFieldValue(schemaField.getName()))))
-          .collect(toRow(rowFieldValue.rowSchema()));
+      return new PrimitiveParser(name, typeName, JSON_VALUE_GETTERS.get(typeName));
     }
 
-    private Object jsonArrayToList(FieldValue arrayFieldValue) {
-      if (!arrayFieldValue.isJsonArray()) {
-        throw new UnsupportedRowJsonException(
-            "Expected JSON array for field '"
-                + arrayFieldValue.name()
-                + "'. Instead got "
-                + arrayFieldValue.jsonNodeType().name());
+    private RowParser rowParser(String name, Schema rowSchema) {
+      NullCheckingParser[] fieldParsers = new NullCheckingParser[rowSchema.getFieldCount()];
+      for (int i = 0; i < fieldParsers.length; i++) {
+        Field field = rowSchema.getField(i);
+        fieldParsers[i] =
+            nullChecking(
+                field.getName(), field.getType(), valueParser(field.getName(), field.getType()));
       }
-
-      return arrayFieldValue
-          .jsonArrayElements()
-          .map(
-              jsonArrayElement ->
-                  extractJsonNodeValue(
-                      FieldValue.of(
-                          arrayFieldValue.name() + "[]",
-                          arrayFieldValue.arrayElementType(),
-                          jsonArrayElement)))
-          .collect(toImmutableList());
+      return new RowParser(name, rowSchema, fieldParsers);
     }
 
-    private static Object extractJsonPrimitiveValue(FieldValue fieldValue) {
-      try {
-        return JSON_VALUE_GETTERS.get(fieldValue.typeName()).extractValue(fieldValue.jsonValue());
-      } catch (RuntimeException e) {
-        throw new UnsupportedRowJsonException(
-            "Unable to get value from field '"
-                + fieldValue.name()
-                + "'. Schema type '"
-                + fieldValue.typeName()
-                + "'. JSON node type "
-                + fieldValue.jsonNodeType().name(),
-            e);
-      }
+    private NullCheckingParser nullChecking(String name, FieldType type, ValueParser delegate) {
+      return new NullCheckingParser(name, type.getNullable(), delegate);
     }
 
-    /**
-     * Helper class to keep track of schema field type, name, and actual json value for the field.
-     */
-    @AutoValue
-    abstract static class FieldValue {
-      abstract String name();
-
-      abstract FieldType type();
-
-      abstract @Nullable JsonNode jsonValue();
+    /** Applies the {@link NullBehavior} to a field before parsing its non-null JSON values. */
+    private class NullCheckingParser implements ValueParser {
+      private final String name;
+      private final boolean nullable;
+      private final ValueParser delegate;
 
-      TypeName typeName() {
-        return type().getTypeName();
+      NullCheckingParser(String name, boolean nullable, ValueParser delegate) {
+        this.name = name;
+        this.nullable = nullable;
+        this.delegate = delegate;
       }
 
-      boolean isJsonValuePresent() {
-        return jsonValue() != null;
+      @Override
+      public @Nullable Object parse(JsonParser parser, DeserializationContext context)
+          throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_NULL) {
+          return delegate.parse(parser, context);
+        }
+        if (!nullable) {
+          throw new UnsupportedRowJsonException(
+              "Non-nullable field '" + name + "' has value null in the JSON object.");
+        }
+        if (nullBehavior == NullBehavior.REQUIRE_MISSING) {
+          throw new UnsupportedRowJsonException(
+              "Field '" + name + "' has a null value in the JSON object.");
+        }
+        return null;
       }
 
-      boolean isJsonNull() {
-        return jsonValue().isNull();
+      /** Returns the value of the field when it is not present in the JSON object. */
+      @Nullable
+      Object missing() {
+        if (!nullable) {
+          throw new UnsupportedRowJsonException(
+              "Non-nullable field '" + name + "' is not present in the JSON object.");
+        }
+        if (nullBehavior == NullBehavior.REQUIRE_NULL) {
+          throw new UnsupportedRowJsonException(
+              "Field '" + name + "' is not present in the JSON object.");
+        }
+        return null;
       }
+    }
 
-      JsonNodeType jsonNodeType() {
-        return jsonValue().getNodeType();
+    /**
+     * Parses a JSON object into a {@link Row}, skipping the JSON fields that are not part of the
+     * {@link Schema} without materializing them.
+     */
+    private static class RowParser implements ValueParser {
+      private final String name;
+      private final Schema rowSchema;
+      private final NullCheckingParser[] fieldParsers;
+      private final String[] fieldNames;
+
+      RowParser(String name, Schema rowSchema, NullCheckingParser[] fieldParsers) {
+        this.name = name;
+        this.rowSchema = rowSchema;
+        this.fieldParsers = fieldParsers;
+        this.fieldNames = rowSchema.getFieldNames().toArray(new String[0]);
       }
 
-      boolean isJsonArray() {
-        return jsonValue().isArray();
+      @Override
+      public Row parse(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+          throw new UnsupportedRowJsonException(
+              "Expected JSON object for field '"
+                  + name
+                  + "'. Unable to convert '"
+                  + context.readTree(parser).asText()
+                  + "' to Beam Row, it is not a JSON object. Currently only JSON objects can be parsed to Beam Rows");
+        }
+        parser.nextToken();
+        return parseFields(parser, context);
       }
 
-      Stream<JsonNode> jsonArrayElements() {
-        return StreamSupport.stream(jsonValue().spliterator(), SEQUENTIAL);
+      /** Parses the fields of a JSON object, starting at its first field name. */
+      Row parseFields(JsonParser parser, DeserializationContext context) throws IOException {
+        Object[] values = new Object[fieldParsers.length];
+        boolean[] present = new boolean[fieldParsers.length];
+        int expectedIndex = 0;
+        for (JsonToken token = parser.currentToken();
+            token == JsonToken.FIELD_NAME;
+            token = parser.nextToken()) {
+          String fieldName = parser.getCurrentName();
+          parser.nextToken();
+          // JSON objects usually list their fields in schema order, so check the next field first.
+          int index =
+              expectedIndex < fieldNames.length && fieldNames[expectedIndex].equals(fieldName)
+                  ? expectedIndex
+                  : rowSchema.hasField(fieldName) ? rowSchema.indexOf(fieldName) : -1;
+          if (index < 0) {
+            parser.skipChildren();
+            continue;
+          }
+          // Duplicate keys are allowed, the last value wins.
+          values[index] = fieldParsers[index].parse(parser, context);
+          present[index] = true;
+          expectedIndex = index + 1;
+        }
+        for (int i = 0; i < values.length; i++) {
+          if (!present[i]) {
+            values[i] = fieldParsers[i].missing();
+          }
+        }
+        return Row.withSchema(rowSchema).addValues(values).build();
       }
+    }
 
-      boolean isArrayType() {
-        return TypeName.ARRAY.equals(type().getTypeName())
-            || TypeName.ITERABLE.equals(type().getTypeName());
-      }
+    /** Parses a JSON array into a {@link List} of its elements. */
+    private static class ArrayParser implements ValueParser {
+      private final String name;
+      private final ValueParser elementParser;
 
-      FieldType arrayElementType() {
-        return type().getCollectionElementType();
+      ArrayParser(String name, ValueParser elementParser) {
+        this.name = name;
+        this.elementParser = elementParser;
       }
 
-      boolean isJsonObject() {
-        return jsonValue().isObject();
+      @Override
+      public List<Object> parse(JsonParser parser, DeserializationContext context)
+          throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+          throw new UnsupportedRowJsonException(
+              "Expected JSON array for field '"
+                  + name
+                  + "'. Instead got "
+                  + context.readTree(parser).getNodeType().name());
+        }
+        ImmutableList.Builder<Object> elements = ImmutableList.builder();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          elements.add(elementParser.parse(parser, context));
+        }
+        return elements.build();
       }
+    }
 
-      JsonNode jsonFieldValue(String fieldName) {
-        return jsonValue().get(fieldName);
-      }
+    /** Parses a primitive JSON value with a {@link ValueExtractor}. */
+    private static class PrimitiveParser implements ValueParser {
+      private final String name;
+      private final TypeName typeName;
+      private final ValueExtractor<?> extractor;
 
-      boolean isRowType() {
-        return TypeName.ROW.equals(type().getTypeName());
+      PrimitiveParser(String name, TypeName typeName, ValueExtractor<?> extractor) {
+        this.name = name;
+        this.typeName = typeName;
+        this.extractor = extractor;
       }
 
-      Schema rowSchema() {
-        return type().getRowSchema();
+      @Override
+      public Object parse(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonNode jsonValue = scalarNode(parser, context);
+        try {
+          return extractor.extractValue(jsonValue);
+        } catch (RuntimeException e) {
+          throw new UnsupportedRowJsonException(
+              "Unable to get value from field '"
+                  + name
+                  + "'. Schema type '"
+                  + typeName
+                  + "'. JSON node type "
+                  + jsonValue.getNodeType().name(),
+              e);
+        }
       }
+    }
 
-      static FieldValue of(String name, FieldType type, JsonNode jsonValue) {
-        return new AutoValue_RowJson_RowJsonDeserializer_FieldValue(name, type, jsonValue);
+    /**
+     * Returns the {@link JsonNode} of the JSON value at the current token. Scalar nodes are created
+     * directly from the token, the same way Jackson's tree model does, so that only JSON objects
+     * and arrays in place of a primitive value are read as a tree.
+     */
+    private static JsonNode scalarNode(JsonParser parser, DeserializationContext context)
+        throws IOException {
+      JsonNodeFactory nodes = context.getNodeFactory();
+      switch (parser.currentToken()) {
+        case VALUE_STRING:
+          return nodes.textNode(parser.getText());
+        case VALUE_TRUE:
+          return nodes.booleanNode(true);
+        case VALUE_FALSE:
+          return nodes.booleanNode(false);
+        case VALUE_NUMBER_INT:
+          switch (parser.getNumberType()) {
+            case INT:
+              return nodes.numberNode(parser.getIntValue());
+            case LONG:
+              return nodes.numberNode(parser.getLongValue());
+            default:
+              return nodes.numberNode(parser.getBigIntegerValue());
+          }
+        case VALUE_NUMBER_FLOAT:
+          if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL
+              || context.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)) {
+            return nodes.numberNode(parser.getDecimalValue());
+          }
+          return parser.getNumberType() == JsonParser.NumberType.FLOAT
+              ? nodes.numberNode(parser.getFloatValue())
+              : nodes.numberNode(parser.getDoubleValue());
+        default:
+          return context.readTree(parser);
       }
     }
   }
@@ -22,6 +22,7 @@ import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.include
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -29,18 +30,24 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -60,6 +67,7 @@ import org.apache.beam.sdk.values.KV;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.HashMultiset;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Lists;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Sets;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.ByteStreams;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.io.Files;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.primitives.Bytes;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
@@ -742,6 +750,246 @@ public class CompressedSourceTest {
     assertFalse(source.isSplittable());
   }
 
+  @Test
+  public void testSplittableCompressionIsSplittable() throws Exception {
+    File gzipFile = tmpFolder.newFile("test-input.gz");
+    writeFile(gzipFile, generateInput(10), Compression.GZIP);
+    File deflateFile = tmpFolder.newFile("test-input.deflate");
+    writeFile(deflateFile, generateInput(10), Compression.DEFLATE);
+
+    assertTrue(
+        CompressedSource.from(new ByteSource(gzipFile.getPath(), 1))
+            .withSplittableCompression()
+            .isSplittable());
+    assertTrue(
+        CompressedSource.from(new ByteSource(gzipFile.getPath(), 1))
+            .withCompression(Compression.GZIP)
+            .withSplittableCompression()
+            .isSplittable());
+    assertFalse(
+        CompressedSource.from(new ByteSource(deflateFile.getPath(), 1))
+            .withSplittableCompression()
+            .isSplittable());
+  }
+
+  @Test
+  public void testSplittableConcatenatedGzip() throws Exception {
+    byte[] input = generateLines(5000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    // Members end part way through lines.
+    for (int i = 0; i < input.length; i += 10_000) {
+      compressed.write(
+          compressGzip(Arrays.copyOfRange(input, i, Math.min(input.length, i + 10_000))));
+    }
+    runSplittableReadTest(input, compressed.toByteArray(), ".gz");
+  }
+
+  @Test
+  public void testSplittableBgzf() throws Exception {
+    byte[] input = generateLines(5000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    for (int i = 0; i < input.length; i += 0xFF00) {
+      compressed.write(
+          compressBgzfBlock(Arrays.copyOfRange(input, i, Math.min(input.length, i + 0xFF00))));
+    }
+    // BGZF files end with an empty block.
+    compressed.write(compressBgzfBlock(new byte[0]));
+    runSplittableReadTest(input, compressed.toByteArray(), ".gz");
+  }
+
+  @Test
+  public void testSplittableSingleMemberGzip() throws Exception {
+    byte[] input = generateLines(2000);
+    runSplittableReadTest(input, compressGzip(input), ".gz");
+  }
+
+  @Test
+  public void testSplittableBzip2() throws Exception {
+    byte[] input = generateLines(5000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    // The smallest block size, with two streams as written by parallel compressors.
+    for (int i = 0; i < input.length; i += input.length / 2 + 1) {
+      try (OutputStream os = new BZip2CompressorOutputStream(compressed, 1)) {
+        os.write(Arrays.copyOfRange(input, i, Math.min(input.length, i + input.length / 2 + 1)));
+      }
+    }
+    runSplittableReadTest(input, compressed.toByteArray(), ".bz2");
+  }
+
+  @Test
+  public void testSplittableBzip2WithMagicInBlocks() throws Exception {
+    // Each block uses exactly these characters, so the bitmaps of the characters used in the
+    // header of every block spell out the block magic 0x314159265359.
+    char[] alphabet = "\"#')/1347:=>ACFGIKLO".toCharArray();
+    Random random = new Random(1729);
+    StringBuilder lines = new StringBuilder();
+    while (lines.length() < 400_000) {
+      for (int length = random.nextInt(200) + alphabet.length; length > 0; length--) {
+        // No character repeats the one before it, so the run length encoding of the first stage
+        // of bzip2 leaves the block unchanged.
+        char next = alphabet[random.nextInt(alphabet.length)];
+        while (lines.length() > 0 && next == lines.charAt(lines.length() - 1)) {
+          next = alphabet[random.nextInt(alphabet.length)];
+        }
+        lines.append(next);
+      }
+      lines.append('\n');
+    }
+    byte[] input = lines.toString().getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream os = new BZip2CompressorOutputStream(compressed, 1)) {
+      os.write(input);
+    }
+    byte[] bytes = compressed.toByteArray();
+
+    // Starting within the magic of the first block, the first magic found is the one in its
+    // header, which must be skipped for the magic of the second block.
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (CompressedBlockInputStream blocks =
+        CompressedBlockInputStream.create(
+            Compression.BZIP2,
+            Channels.newChannel(new ByteArrayInputStream(bytes, 5, bytes.length - 5)),
+            5,
+            Long.MAX_VALUE)) {
+      assertTrue(blocks.getFirstBlockOffset() > 100);
+      ByteStreams.copy(blocks, output);
+    }
+    byte[] suffix = output.toByteArray();
+    assertTrue(suffix.length > 0 && suffix.length < input.length);
+    assertArrayEquals(
+        Arrays.copyOfRange(input, input.length - suffix.length, input.length), suffix);
+
+    runSplittableReadTest(input, bytes, ".bz2");
+  }
+
+  @Test
+  public void testSplittableZstdFrames() throws Exception {
+    byte[] input = generateLines(5000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    for (int i = 0; i < input.length; i += 10_000) {
+      compressed.write(
+          compressZstd(Arrays.copyOfRange(input, i, Math.min(input.length, i + 10_000))));
+    }
+    runSplittableReadTest(input, compressed.toByteArray(), ".zst");
+  }
+
+  @Test
+  public void testSplittableSeekableZstd() throws Exception {
+    byte[] input = generateLines(5000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    ByteBuffer seekTable = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    int numFrames = 0;
+    for (int i = 0; i < input.length; i += 10_000) {
+      byte[] frame = Arrays.copyOfRange(input, i, Math.min(input.length, i + 10_000));
+      byte[] compressedFrame = compressZstd(frame);
+      compressed.write(compressedFrame);
+      seekTable.putInt(compressedFrame.length).putInt(frame.length);
+      numFrames++;
+    }
+    seekTable.putInt(numFrames).put((byte) 0).putInt(0x8F92EAB1);
+    ByteBuffer seekTableFrame = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    seekTableFrame.putInt(0x184D2A5E).putInt(seekTable.position());
+    compressed.write(seekTableFrame.array());
+    compressed.write(seekTable.array(), 0, seekTable.position());
+    runSplittableReadTest(input, compressed.toByteArray(), ".zst");
+  }
+
+  @Test
+  public void testSplittableCompressionSingleByteReads() throws Exception {
+    byte[] input = generateLines(100);
+    assertArrayEquals(input, readBlocksByteByByte(Compression.GZIP, compressGzip(input)));
+    assertArrayEquals(input, readBlocksByteByByte(Compression.ZSTD, compressZstd(input)));
+    // Already decompressed gzip content, as served by some file systems.
+    assertArrayEquals(input, readBlocksByteByByte(Compression.GZIP, input));
+  }
+
+  private static byte[] readBlocksByteByByte(Compression compression, byte[] compressed)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (CompressedBlockInputStream blocks =
+        CompressedBlockInputStream.create(
+            compression,
+            Channels.newChannel(new ByteArrayInputStream(compressed)),
+            0,
+            Long.MAX_VALUE)) {
+      for (int b = blocks.read(); b >= 0; b = blocks.read()) {
+        output.write(b);
+      }
+    }
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testSplittableCompressionDisplayData() {
+    CompressedSource<?> source =
+        CompressedSource.from(new ByteSource("foobar.gz", 1)).withSplittableCompression();
+    assertThat(DisplayData.from(source), hasDisplayItem("splittableCompression", true));
+  }
+
+  /**
+   * Reads lines from {@code compressed} with and without splitting, checking that splitting
+   * produces several sources which read the same lines.
+   */
+  private void runSplittableReadTest(byte[] input, byte[] compressed, String extension)
+      throws Exception {
+    File file = tmpFolder.newFile("test-input" + extension);
+    Files.write(compressed, file);
+    PipelineOptions options = PipelineOptionsFactory.create();
+    CompressedSource<String> source =
+        CompressedSource.from(TextIOReadTest.getTextSource(file.getPath(), null));
+    List<String> expected =
+        Arrays.asList(new String(input, StandardCharsets.UTF_8).split("\n", -1));
+    expected = expected.subList(0, expected.size() - 1);
+    assertEquals(expected, SourceTestUtils.readFromSource(source, options));
+
+    CompressedSource<String> splittableSource = source.withSplittableCompression();
+    List<? extends BoundedSource<String>> splits = splittableSource.split(5_000, options);
+    assertTrue(splits.size() > 1);
+    SourceTestUtils.assertSourcesEqualReferenceSource(source, splits, options);
+  }
+
+  /** Generates lines of random lengths, each terminated by a newline. */
+  private static byte[] generateLines(int count) {
+    Random random = new Random(6342);
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      lines.append(i).append(':');
+      for (int length = random.nextInt(200); length > 0; length--) {
+        lines.append((char) ('a' + random.nextInt(26)));
+      }
+      lines.append('\n');
+    }
+    return lines.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] compressZstd(byte[] input) throws IOException {
+    ByteArrayOutputStream res = new ByteArrayOutputStream();
+    try (OutputStream zstdStream = new ZstdCompressorOutputStream(res)) {
+      zstdStream.write(input);
+    }
+    return res.toByteArray();
+  }
+
+  /** Compresses a BGZF block, which is a gzip member with the block size in an extra field. */
+  private static byte[] compressBgzfBlock(byte[] input) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(input);
+    deflater.finish();
+    byte[] deflated = new byte[input.length + 1024];
+    int deflatedLength = deflater.deflate(deflated);
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(input);
+
+    ByteBuffer block = ByteBuffer.allocate(18 + deflatedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+    block.put(new byte[] {0x1F, (byte) 0x8B, 8, 0x04, 0, 0, 0, 0, 0, (byte) 0xFF});
+    block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+    block.putShort((short) (block.capacity() - 1));
+    block.put(deflated, 0, deflatedLength);
+    block.putInt((int) crc.getValue()).putInt(input.length);
+    return block.array();
+  }
+
   @Test
   public void testLzoFileIsNotSplittable() throws Exception {
     String baseName = "test-input";
@@ -205,6 +205,48 @@ public class FileBasedSinkTest {
     runFinalize(writeOp, files);
   }
 
+  /** Finalize renames many files in parallel and removes temporary files of failed bundles. */
+  @Test
+  public void testFinalizeManyFiles() throws Exception {
+    // TODO: Java core test failing on windows, https://github.com/apache/beam/issues/20471
+    assumeFalse(SystemUtils.IS_OS_WINDOWS);
+    List<File> files = generateTemporaryFilesForFinalize(200);
+    SimpleSink.SimpleWriteOperation<Void> writeOp = buildWriteOperation();
+    File orphanedFile = new File(writeOp.getTempDirectory().toString(), "orphaned");
+    orphanedFile.getParentFile().mkdirs();
+    assertTrue(orphanedFile.createNewFile());
+    runFinalize(writeOp, files);
+    assertFalse(orphanedFile.exists());
+  }
+
+  /** Files written directly to their final location are not moved. */
+  @Test
+  public void testMoveToOutputFilesSkipsDirectWrites() throws Exception {
+    SimpleSink.SimpleWriteOperation<Void> writeOp = buildWriteOperation();
+    ResourceId outputFile =
+        writeOp
+            .getSink()
+            .getDynamicDestinations()
+            .getFilenamePolicy(null)
+            .unwindowedFilename(0, 1, CompressionType.UNCOMPRESSED);
+    SimpleSink.SimpleWriter<Void> writer = writeOp.createWriter();
+    writer.openDirect("uuid", outputFile);
+    writer.write("a");
+    writer.close();
+    // Cleaning up must not remove a file which may have been written by another attempt.
+    writer.cleanup();
+
+    writeOp.moveToOutputFiles(
+        Collections.singletonList(
+            KV.of(
+                new FileResult<>(
+                    outputFile, 0, GlobalWindow.INSTANCE, PaneInfo.ON_TIME_AND_ONLY_FIRING, null),
+                outputFile)));
+    assertFileContains(
+        Arrays.asList(SimpleSink.SimpleWriter.HEADER, "a", SimpleSink.SimpleWriter.FOOTER),
+        outputFile);
+  }
+
   /** Generate n temporary files using the temporary file pattern of Writer. */
   private List<File> generateTemporaryFilesForFinalize(int numFiles) throws Exception {
     List<File> temporaryFiles = new ArrayList<>();
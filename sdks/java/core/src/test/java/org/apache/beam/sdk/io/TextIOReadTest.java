@@ -57,6 +57,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -93,6 +94,7 @@ import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Charsets;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Joiner;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Strings;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
@@ -867,6 +869,103 @@ public class TextIOReadTest {
       }
     }
 
+    @Test
+    public void testReadBufferSize() throws IOException {
+      TextSource source =
+          prepareSource(new byte[3 * TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE]);
+      Metadata metadata = FileSystems.matchSingleFileSpec(source.getFileOrPatternSpec());
+      assertEquals(
+          8192,
+          TextSource.TextBasedReader.readBufferSize(
+              (TextSource) source.createForSubrangeOfFile(metadata, 0, 100)));
+      assertEquals(
+          100_000,
+          TextSource.TextBasedReader.readBufferSize(
+              (TextSource) source.createForSubrangeOfFile(metadata, 50, 100_050)));
+      assertEquals(
+          TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE,
+          TextSource.TextBasedReader.readBufferSize(
+              (TextSource) source.createForSubrangeOfFile(metadata, 0, metadata.sizeBytes())));
+      assertEquals(
+          8192,
+          TextSource.TextBasedReader.readBufferSize(
+              (TextSource) source.createForSubrangeOfFile(metadata, 0, Long.MAX_VALUE)));
+      assertEquals(
+          8192,
+          TextSource.TextBasedReader.readBufferSize(
+              (TextSource) source.createForSubrangeOfFile(metadata, 100, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testReadLinesWithMixedNewlinesAcrossBuffers() throws Exception {
+      Random random = new Random(3215L);
+      StringBuilder data = new StringBuilder();
+      List<String> expected = new ArrayList<>();
+      String previousNewline = "\n";
+      // Place a CR, and the LF following it, either side of the end of the largest buffer.
+      String firstLine =
+          Strings.repeat("x", TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE - 1);
+      data.append(firstLine).append("\r\n");
+      expected.add(firstLine);
+      while (data.length() < 5 * TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE / 2) {
+        // An empty line following a CR would be read as part of a CRLF.
+        int minLength = previousNewline.equals("\r") ? 1 : 0;
+        String line =
+            randomLine(random, minLength + random.nextInt(random.nextInt(100) == 0 ? 20000 : 40));
+        String newline = NEWLINES[random.nextInt(NEWLINES.length)];
+        data.append(line).append(newline);
+        expected.add(line);
+        previousNewline = newline;
+      }
+
+      TextSource source = prepareSource(data.toString().getBytes(UTF_8));
+      PipelineOptions options = PipelineOptionsFactory.create();
+      assertEquals(expected, SourceTestUtils.readFromSource(source, options));
+      SourceTestUtils.assertSourcesEqualReferenceSource(
+          source, source.split(30_000, options), options);
+    }
+
+    @Test
+    public void testReadLinesWithCustomDelimiterAcrossBuffers() throws Exception {
+      Random random = new Random(4726L);
+      byte[] delimiter = new byte[] {'|', '*'};
+      StringBuilder data = new StringBuilder();
+      List<String> expected = new ArrayList<>();
+      // Split the delimiter across the end of the largest buffer.
+      String firstLine =
+          Strings.repeat("x", TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE - 1);
+      data.append(firstLine).append("|*");
+      expected.add(firstLine);
+      while (data.length() < 5 * TextSource.TextBasedReader.MAX_READ_BUFFER_SIZE / 2) {
+        // Lines may contain newlines and the second byte of the delimiter.
+        String line =
+            randomLine(random, 1 + random.nextInt(random.nextInt(100) == 0 ? 20000 : 40))
+                .replace('a', '\n')
+                .replace('b', '*');
+        data.append(line).append("|*");
+        expected.add(line);
+      }
+
+      TextSource source =
+          TextIOReadTest.prepareSource(tempFolder, data.toString().getBytes(UTF_8), delimiter);
+      PipelineOptions options = PipelineOptionsFactory.create();
+      assertEquals(expected, SourceTestUtils.readFromSource(source, options));
+      SourceTestUtils.assertSourcesEqualReferenceSource(
+          source, source.split(30_000, options), options);
+    }
+
+    private static final String[] NEWLINES = {"\n", "\r", "\r\n"};
+
+    /** Returns a line of the given length without newlines, including multi-byte characters. */
+    private static String randomLine(Random random, int length) {
+      String alphabet = "abcdefgh 0123456789\t\u00e9\u4e16\u000b\u000c\u000e";
+      StringBuilder line = new StringBuilder(length);
+      for (int i = 0; i < length; i++) {
+        line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      return line.toString();
+    }
+
     @Test
     public void testInitialSplitAutoModeTxt() throws Exception {
       PipelineOptions options = TestPipeline.testingPipelineOptions();
@@ -58,6 +58,7 @@ import org.apache.beam.sdk.io.fs.MatchResult.Metadata;
 import org.apache.beam.sdk.io.fs.ResolveOptions.StandardResolveOptions;
 import org.apache.beam.sdk.io.fs.ResourceId;
 import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.options.PipelineOptionsFactoryTest.TestPipelineOptions;
 import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
 import org.apache.beam.sdk.testing.NeedsRunner;
@@ -229,6 +230,41 @@ public class WriteFilesTest {
         WriteFiles.to(makeSimpleSink()));
   }
 
+  /** Test that WriteFiles writes directly to the final output files when configured to. */
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDirectShardedWrite() throws IOException {
+    runShardedWrite(
+        Arrays.asList("one", "two", "three", "four", "five", "six"),
+        IDENTITY_MAP,
+        getBaseOutputFilename(),
+        WriteFiles.to(makeSimpleSink()).withNumShards(9).withDirectWrites());
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDirectWritesNeedSharding() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Direct writes require a fixed number of shards");
+
+    p.apply(Create.of("foo")).apply(WriteFiles.to(makeSimpleSink()).withDirectWrites());
+    p.run();
+  }
+
+  @Test
+  public void testDirectWritesValidateSharding() {
+    // Runners may replace the sharding of a write, e.g. with runner-determined sharding.
+    WriteFiles<String, Void, String> write =
+        WriteFiles.to(makeSimpleSink())
+            .withNumShards(3)
+            .withDirectWrites()
+            .withRunnerDeterminedSharding();
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Direct writes require a fixed number of shards");
+    write.validate(PipelineOptionsFactory.create());
+  }
+
   private ResourceId getBaseOutputDirectory() {
     return LocalResources.fromFile(tmpFolder.getRoot(), true)
         .resolve("output", StandardResolveOptions.RESOLVE_DIRECTORY);
@@ -657,6 +693,9 @@ public class WriteFilesTest {
     assertThat(displayData, hasDisplayItem("sink", sink.getClass()));
     assertThat(displayData, includesDisplayDataFor("sink", sink));
     assertThat(displayData, hasDisplayItem("numShards", 1));
+    assertThat(displayData, not(hasDisplayItem("directWrites")));
+
+    assertThat(DisplayData.from(write.withDirectWrites()), hasDisplayItem("directWrites", true));
   }
 
   @Test
@@ -41,6 +41,7 @@ import org.apache.beam.sdk.testing.ValidatesRunner;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.util.HistogramData;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.beam.sdk.values.TupleTagList;
 import org.joda.time.Duration;
@@ -205,6 +206,23 @@ public class MetricsTest implements Serializable {
       verify(mockDistribution).update(1L);
     }
 
+    @Test
+    public void testHistogramToCell() {
+      HistogramData.BucketType bucketType = HistogramData.ExponentialBuckets.of(1, 2, 10);
+      MetricsContainer mockContainer = Mockito.mock(MetricsContainer.class);
+      Histogram mockHistogram = Mockito.mock(Histogram.class);
+      when(mockContainer.getHistogram(METRIC_NAME, bucketType)).thenReturn(mockHistogram);
+
+      Histogram histogram = Metrics.histogram(NS, NAME, bucketType);
+
+      MetricsEnvironment.setCurrentContainer(mockContainer);
+      histogram.update(5.0);
+      histogram.update(36.0);
+
+      verify(mockHistogram).update(5.0);
+      verify(mockHistogram).update(36.0);
+    }
+
     @Test
     public void testCounterToCell() {
       MetricsContainer mockContainer = Mockito.mock(MetricsContainer.class);
@@ -223,6 +241,24 @@ public class MetricsTest implements Serializable {
       counter.dec(5L);
       verify(mockCounter).inc(-5);
     }
+
+    @Test
+    public void testCounterResolvesCellOnEachIncrement() {
+      // A container may delegate to a different cell between increments, e.g. to the cell of the
+      // step currently executing, so the cell of an earlier increment must not be reused.
+      MetricsContainer mockContainer = Mockito.mock(MetricsContainer.class);
+      Counter firstCounter = Mockito.mock(Counter.class);
+      Counter secondCounter = Mockito.mock(Counter.class);
+      when(mockContainer.getCounter(METRIC_NAME)).thenReturn(firstCounter, secondCounter);
+
+      Counter counter = Metrics.counter(NS, NAME);
+
+      MetricsEnvironment.setCurrentContainer(mockContainer);
+      counter.inc();
+      counter.inc(2L);
+      verify(firstCounter).inc(1);
+      verify(secondCounter).inc(2);
+    }
   }
 
   /** Tests for committed metrics. */
@@ -298,6 +298,37 @@ public class JavaFieldSchemaTest {
     assertSame(pojo, extracted);
   }
 
+  @Test
+  public void testFromRowNestedWithGetters() throws NoSuchSchemaException {
+    SchemaRegistry registry = SchemaRegistry.createDefault();
+    SimplePOJO simple = createSimple("string");
+    Row row =
+        Row.withSchema(NESTED_POJO_SCHEMA)
+            .addValue(registry.getToRowFunction(SimplePOJO.class).apply(simple))
+            .build();
+    // Nested rows wrapping an object of the nested type are unwrapped as well.
+    NestedPOJO extracted = registry.getFromRowFunction(NestedPOJO.class).apply(row);
+    assertSame(simple, extracted.nested);
+  }
+
+  @Test
+  public void testFromRowDeserializedInstances() throws NoSuchSchemaException {
+    SchemaRegistry registry = SchemaRegistry.createDefault();
+    SerializableFunction<Row, NestedMapPOJO> fromRow =
+        registry.getFromRowFunction(NestedMapPOJO.class);
+    Row row =
+        Row.withSchema(NESTED_MAP_POJO_SCHEMA)
+            .addValue(ImmutableMap.of("simple1", createSimpleRow("string1")))
+            .build();
+
+    // Each deserialized instance, as used by each DoFn instance, converts nested rows.
+    for (int i = 0; i < 3; i++) {
+      NestedMapPOJO pojo = SerializableUtils.clone(fromRow).apply(row);
+      assertEquals(1, pojo.map.size());
+      assertEquals("string1", pojo.map.get("simple1").str);
+    }
+  }
+
   @Test
   public void testRecursiveGetters() throws NoSuchSchemaException {
     SchemaRegistry registry = SchemaRegistry.createDefault();
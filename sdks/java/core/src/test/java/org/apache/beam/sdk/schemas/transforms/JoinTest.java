@@ -19,8 +19,14 @@ package org.apache.beam.sdk.schemas.transforms;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.apache.beam.sdk.schemas.transforms.JoinTestUtils.innerJoin;
+import static org.junit.Assert.assertThrows;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.beam.sdk.coders.RowCoder;
 import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.schemas.transforms.Join.FieldsEqual;
 import org.apache.beam.sdk.testing.NeedsRunner;
@@ -31,6 +37,7 @@ import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.Row;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableMap;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -486,4 +493,160 @@ public class JoinTest {
     PAssert.that(joined).containsInAnyOrder(expectedJoinedRows);
     pipeline.run();
   }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testSkewHandlingBroadcastsSmallSide() {
+    List<Row> pc1Rows =
+        ImmutableList.of(
+            Row.withSchema(CG_SCHEMA_1).addValues("user1", 1, "us").build(),
+            Row.withSchema(CG_SCHEMA_1).addValues("user1", 2, "il").build(),
+            Row.withSchema(CG_SCHEMA_1).addValues("user2", 3, "fr").build(),
+            Row.withSchema(CG_SCHEMA_1).addValues("user3", 4, "ar").build());
+    List<Row> pc2Rows =
+        ImmutableList.of(
+            Row.withSchema(CG_SCHEMA_2).addValues("user1", 9, "us").build(),
+            Row.withSchema(CG_SCHEMA_2).addValues("user1", 10, "us").build(),
+            Row.withSchema(CG_SCHEMA_2).addValues("user2", 11, "fr").build(),
+            Row.withSchema(CG_SCHEMA_2).addValues("user4", 12, "ar").build());
+
+    PCollection<Row> pc1 = pipeline.apply("Create1", Create.of(pc1Rows)).setRowSchema(CG_SCHEMA_1);
+    PCollection<Row> pc2 = pipeline.apply("Create2", Create.of(pc2Rows)).setRowSchema(CG_SCHEMA_2);
+
+    Schema expectedSchema =
+        Schema.builder()
+            .addRowField(Join.LHS_TAG, CG_SCHEMA_1)
+            .addRowField(Join.RHS_TAG, CG_SCHEMA_2)
+            .build();
+
+    PCollection<Row> joined =
+        pc1.apply(
+            Join.<Row, Row>innerJoin(pc2)
+                .on(FieldsEqual.left("user", "country").right("user2", "country2"))
+                .withSkewHandling());
+
+    assertEquals(expectedSchema, joined.getSchema());
+    PAssert.that(joined)
+        .containsInAnyOrder(
+            innerJoin(
+                pc1Rows,
+                pc2Rows,
+                new String[] {"user", "country"},
+                new String[] {"user2", "country2"},
+                expectedSchema));
+    pipeline.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testSkewHandlingShardsHotKeys() {
+    List<Row> pc1Rows = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      pc1Rows.add(Row.withSchema(CG_SCHEMA_1).addValues("hot", i, "us").build());
+      pc1Rows.add(Row.withSchema(CG_SCHEMA_1).addValues("cold" + (i % 100), i, "us").build());
+    }
+    List<Row> pc2Rows = new ArrayList<>();
+    pc2Rows.add(Row.withSchema(CG_SCHEMA_1).addValues("hot", -1, "us").build());
+    pc2Rows.add(Row.withSchema(CG_SCHEMA_1).addValues("hot", -2, "us").build());
+    for (int i = 0; i < 50; i++) {
+      pc2Rows.add(Row.withSchema(CG_SCHEMA_1).addValues("cold" + i, -i, "us").build());
+    }
+
+    PCollection<Row> pc1 = pipeline.apply("Create1", Create.of(pc1Rows)).setRowSchema(CG_SCHEMA_1);
+    PCollection<Row> pc2 = pipeline.apply("Create2", Create.of(pc2Rows)).setRowSchema(CG_SCHEMA_1);
+
+    // Nothing is broadcast, so the hot key is spread among shards.
+    Join.SkewHandling skewHandling =
+        Join.SkewHandling.create().withMaxBroadcastRows(0).withMaxHotKeyShards(8);
+    PCollection<Row> inner =
+        pc1.apply(
+            "inner",
+            Join.<Row, Row>innerJoin(pc2).using("user", "country").withSkewHandling(skewHandling));
+    PCollection<Row> leftOuter =
+        pc1.apply(
+            "leftOuter",
+            Join.<Row, Row>leftOuterJoin(pc2)
+                .using("user", "country")
+                .withSkewHandling(skewHandling));
+
+    Schema innerSchema =
+        Schema.builder()
+            .addRowField(Join.LHS_TAG, CG_SCHEMA_1)
+            .addRowField(Join.RHS_TAG, CG_SCHEMA_1)
+            .build();
+    Schema leftOuterSchema =
+        Schema.builder()
+            .addField(Join.LHS_TAG, Schema.FieldType.row(CG_SCHEMA_1))
+            .addNullableField(Join.RHS_TAG, Schema.FieldType.row(CG_SCHEMA_1))
+            .build();
+    assertEquals(leftOuterSchema, leftOuter.getSchema());
+
+    String[] keys = new String[] {"user", "country"};
+    PAssert.that(inner).containsInAnyOrder(innerJoin(pc1Rows, pc2Rows, keys, keys, innerSchema));
+    List<Row> expectedLeftOuter = innerJoin(pc1Rows, pc2Rows, keys, keys, leftOuterSchema);
+    for (Row row : pc1Rows) {
+      if (row.getString("user").startsWith("cold")
+          && Integer.parseInt(row.getString("user").substring(4)) >= 50) {
+        expectedLeftOuter.add(Row.withSchema(leftOuterSchema).addValues(row, null).build());
+      }
+    }
+    PAssert.that(leftOuter).containsInAnyOrder(expectedLeftOuter);
+    pipeline.run();
+  }
+
+  @Test
+  public void testHotKeysFn() {
+    Schema keySchema = Schema.builder().addStringField("user").build();
+    SkewedJoin.HotKeysFn fn = new SkewedJoin.HotKeysFn(0.1, 4);
+    List<SkewedJoin.HotKeysFn.Sketch> sketches = new ArrayList<>();
+    for (int part = 0; part < 10; part++) {
+      SkewedJoin.HotKeysFn.Sketch sketch = fn.createAccumulator();
+      for (int i = 0; i < 1000; i++) {
+        // 30% of the keys are "hot", 15% "warm", and the rest are distinct.
+        String user = i % 100 < 30 ? "hot" : i % 100 < 45 ? "warm" : "user" + part + "_" + i;
+        sketch = fn.addInput(sketch, Row.withSchema(keySchema).addValue(user).build());
+      }
+      sketches.add(sketch);
+    }
+
+    Map<Row, Integer> shards = fn.extractOutput(fn.mergeAccumulators(sketches));
+    assertEquals(
+        ImmutableMap.of(
+            Row.withSchema(keySchema).addValue("hot").build(),
+            3,
+            Row.withSchema(keySchema).addValue("warm").build(),
+            2),
+        shards);
+  }
+
+  @Test
+  public void testHotKeysFnSelect() {
+    Random random = new Random(17);
+    for (int length = 1; length < 50; length++) {
+      long[] values = new long[length];
+      for (int i = 0; i < length; i++) {
+        // Few distinct values, so that there are runs of equal counts.
+        values[i] = random.nextInt(10);
+      }
+      long[] sorted = values.clone();
+      Arrays.sort(sorted);
+      for (int rank = 0; rank < length; rank++) {
+        assertEquals(
+            sorted[length - 1 - rank], SkewedJoin.HotKeysFn.select(values.clone(), rank));
+      }
+    }
+  }
+
+  @Test
+  public void testSkewHandlingRejectsOuterJoins() {
+    PCollection<Row> pc2 = pipeline.apply(Create.empty(RowCoder.of(CG_SCHEMA_1)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> Join.<Row, Row>fullOuterJoin(pc2).using("user").withSkewHandling());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> Join.<Row, Row>rightOuterJoin(pc2).using("user").withSkewHandling());
+    pipeline.enableAbandonedNodeEnforcement(false);
+  }
 }
+
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.SerializableUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AutomaticHotKeyFanout}. */
+@RunWith(JUnit4.class)
+public class AutomaticHotKeyFanoutTest {
+
+  @Test
+  public void testUniformKeysAreNotFannedOut() {
+    AutomaticHotKeyFanout<String> fanout =
+        AutomaticHotKeyFanout.<String>of(16, 0.01).withKeyCoder(StringUtf8Coder.of());
+    for (int i = 0; i < 50_000; i++) {
+      assertEquals(1, (int) fanout.apply("key" + (i % 1000)));
+    }
+  }
+
+  @Test
+  public void testNoFanoutBeforeMinimumObserved() {
+    AutomaticHotKeyFanout<String> fanout =
+        AutomaticHotKeyFanout.<String>of(16, 0.01).withKeyCoder(StringUtf8Coder.of());
+    for (int i = 1; i < AutomaticHotKeyFanout.MIN_OBSERVED_ELEMENTS; i++) {
+      assertEquals(1, (int) fanout.apply("hot"));
+    }
+    assertEquals(16, (int) fanout.apply("hot"));
+  }
+
+  @Test
+  public void testFanoutProportionalToShare() {
+    AutomaticHotKeyFanout<String> fanout =
+        AutomaticHotKeyFanout.<String>of(16, 0.01).withKeyCoder(StringUtf8Coder.of());
+    int lastWarm = 0;
+    for (int i = 0; i < 50_000; i++) {
+      // "warm" receives 5% of the elements, the remaining keys 0.1% each.
+      if (i % 20 == 0) {
+        lastWarm = fanout.apply("warm");
+      } else {
+        assertEquals(1, (int) fanout.apply("cold" + (i % 950)));
+      }
+    }
+    assertTrue("Unexpected fanout " + lastWarm, lastWarm >= 4 && lastWarm <= 6);
+  }
+
+  @Test
+  public void testKeysComparedByStructuralValue() {
+    AutomaticHotKeyFanout<byte[]> fanout =
+        AutomaticHotKeyFanout.<byte[]>of(8, 0.01).withKeyCoder(ByteArrayCoder.of());
+    int result = 0;
+    for (int i = 0; i < AutomaticHotKeyFanout.MIN_OBSERVED_ELEMENTS; i++) {
+      result = fanout.apply(new byte[] {1, 2, 3});
+    }
+    assertEquals(8, result);
+  }
+
+  @Test
+  public void testHotKeyCoolsDown() {
+    AutomaticHotKeyFanout<String> fanout =
+        AutomaticHotKeyFanout.<String>of(16, 0.01).withKeyCoder(StringUtf8Coder.of());
+    for (int i = 0; i < 10_000; i++) {
+      fanout.apply("hot");
+    }
+    assertEquals(16, (int) fanout.apply("hot"));
+    for (int i = 0; i < 10 * AutomaticHotKeyFanout.DECAY_INTERVAL_ELEMENTS; i++) {
+      fanout.apply("cold" + (i % 1000));
+    }
+    assertEquals(1, (int) fanout.apply("hot"));
+  }
+
+  @Test
+  public void testSketchNotSerialized() {
+    AutomaticHotKeyFanout<String> fanout =
+        AutomaticHotKeyFanout.<String>of(16, 0.01).withKeyCoder(StringUtf8Coder.of());
+    for (int i = 0; i < 10_000; i++) {
+      fanout.apply("hot");
+    }
+    AutomaticHotKeyFanout<String> copy = SerializableUtils.clone(fanout);
+    assertEquals(1, (int) copy.apply("hot"));
+  }
+
+  @Test
+  public void testHeavyHittersErrorBound() {
+    AutomaticHotKeyFanout.HeavyHitters sketch = new AutomaticHotKeyFanout.HeavyHitters(10);
+    long hot = 0;
+    for (int i = 0; i < 1100; i++) {
+      if (i % 10 == 0) {
+        hot = sketch.add("hot");
+      } else {
+        sketch.add(i);
+      }
+    }
+    // "hot" occurred 110 times; the estimate may be low by at most observed / (capacity + 1).
+    assertTrue("Unexpected estimate " + hot, hot <= 110 && hot >= 110 - 1100 / 11);
+  }
+
+  @Test
+  public void testDisplayData() {
+    DisplayData displayData = DisplayData.from(AutomaticHotKeyFanout.of(8, 0.05));
+    assertThat(displayData, hasDisplayItem("maxFanout", 8));
+    assertThat(displayData, hasDisplayItem("hotKeyShare", 0.05));
+  }
+}
@@ -29,6 +29,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,7 +57,9 @@ import org.apache.beam.sdk.coders.VoidCoder;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.testing.TestStream;
 import org.apache.beam.sdk.testing.UsesSideInputs;
+import org.apache.beam.sdk.testing.UsesTestStream;
 import org.apache.beam.sdk.testing.ValidatesRunner;
 import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.CombineTest.SharedTestBase.TestCombineFn.Accumulator;
@@ -65,8 +68,10 @@ import org.apache.beam.sdk.transforms.CombineWithContext.Context;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.display.DisplayDataEvaluator;
 import org.apache.beam.sdk.transforms.windowing.AfterPane;
+import org.apache.beam.sdk.transforms.windowing.AfterWatermark;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
 import org.apache.beam.sdk.transforms.windowing.Repeatedly;
 import org.apache.beam.sdk.transforms.windowing.Sessions;
 import org.apache.beam.sdk.transforms.windowing.SlidingWindows;
@@ -738,6 +743,31 @@ public class CombineTest implements Serializable {
       pipeline.run();
     }
 
+    @Test
+    @Category(ValidatesRunner.class)
+    public void testAutomaticHotKeyCombining() {
+      List<KV<String, Integer>> elements = new ArrayList<>();
+      for (int i = 0; i < 5000; i++) {
+        elements.add(KV.of("hot", 1));
+        elements.add(KV.of("cold" + (i % 500), 2));
+      }
+      PCollection<KV<String, Integer>> input = createInput(pipeline, elements);
+
+      PCollection<KV<String, Integer>> sums =
+          input.apply(
+              Combine.<String, Integer, Integer>perKey(Sum.ofIntegers())
+                  .withAutomaticHotKeyFanout());
+
+      List<KV<String, Integer>> expected = new ArrayList<>();
+      expected.add(KV.of("hot", 5000));
+      for (int i = 0; i < 500; i++) {
+        expected.add(KV.of("cold" + i, 20));
+      }
+      PAssert.that(sums).containsInAnyOrder(expected);
+
+      pipeline.run();
+    }
+
     @Test
     @Category(ValidatesRunner.class)
     public void testHotKeyCombiningWithAccumulationMode() {
@@ -1215,6 +1245,128 @@ public class CombineTest implements Serializable {
       pipeline.run();
     }
 
+    @Test
+    @Category(ValidatesRunner.class)
+    public void testSlidingWindowsPaneSharing() {
+      // Windows [-2, 1), [0, 3), [2, 5) and [4, 7), made of 1ms slices.
+      PCollection<KV<String, Integer>> input =
+          pipeline
+              .apply(
+                  Create.timestamped(
+                          TimestampedValue.of(KV.of("a", 1), new Instant(0L)),
+                          TimestampedValue.of(KV.of("a", 2), new Instant(1L)),
+                          TimestampedValue.of(KV.of("a", 3), new Instant(2L)),
+                          TimestampedValue.of(KV.of("b", 5), new Instant(3L)),
+                          TimestampedValue.of(KV.of("a", 4), new Instant(5L)))
+                      .withCoder(KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of())))
+              .apply(Window.into(SlidingWindows.of(Duration.millis(3)).every(Duration.millis(2))));
+
+      // TestCombineFn clears the accumulators it merges, so slices must not be shared as is.
+      PCollection<KV<String, String>> shared =
+          input.apply(
+              "Shared",
+              Combine.<String, Integer, String>perKey(new TestCombineFn())
+                  .withSlidingWindowPaneSharing());
+      PCollection<KV<String, String>> perWindow =
+          input.apply("PerWindow", Combine.perKey(new TestCombineFn()));
+
+      List<KV<String, String>> expected =
+          Arrays.asList(
+              KV.of("a", "1"),
+              KV.of("a", "123"),
+              KV.of("a", "3"),
+              KV.of("a", "4"),
+              KV.of("b", "5"));
+      PAssert.that(shared).containsInAnyOrder(expected);
+      PAssert.that(perWindow).containsInAnyOrder(expected);
+      PAssert.that(shared)
+          .inWindow(new IntervalWindow(new Instant(0L), new Instant(3L)))
+          .containsInAnyOrder(KV.of("a", "123"));
+      PAssert.that(shared)
+          .inWindow(new IntervalWindow(new Instant(2L), new Instant(5L)))
+          .containsInAnyOrder(KV.of("a", "3"), KV.of("b", "5"));
+      pipeline.run();
+    }
+
+    @Test
+    @Category({ValidatesRunner.class, UsesTestStream.class})
+    public void testSlidingWindowsPaneSharingLateData() {
+      // Windows [-5, 5) and [0, 10) share the slice [0, 5).
+      TestStream<KV<String, Integer>> stream =
+          TestStream.create(KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of()))
+              .addElements(TimestampedValue.of(KV.of("a", 1), new Instant(1L)))
+              .advanceWatermarkTo(new Instant(6L))
+              // Late for [-5, 5) but on time for [0, 10).
+              .addElements(TimestampedValue.of(KV.of("a", 2), new Instant(2L)))
+              .advanceWatermarkTo(new Instant(12L))
+              // Expired for [-5, 5) and late for [0, 10).
+              .addElements(TimestampedValue.of(KV.of("a", 3), new Instant(3L)))
+              .advanceWatermarkToInfinity();
+      PCollection<KV<String, Integer>> input =
+          pipeline
+              .apply(stream)
+              .apply(
+                  Window.<KV<String, Integer>>into(
+                          SlidingWindows.of(Duration.millis(10)).every(Duration.millis(5)))
+                      .withAllowedLateness(Duration.millis(5))
+                      .discardingFiredPanes());
+
+      PCollection<KV<String, String>> shared =
+          input.apply(
+              "Shared",
+              Combine.<String, Integer, String>perKey(new TestCombineFn())
+                  .withSlidingWindowPaneSharing());
+      PCollection<KV<String, String>> perWindow =
+          input.apply("PerWindow", Combine.perKey(new TestCombineFn()));
+
+      for (PCollection<KV<String, String>> output : Arrays.asList(shared, perWindow)) {
+        PAssert.that(output)
+            .inWindow(new IntervalWindow(new Instant(-5L), new Instant(5L)))
+            .containsInAnyOrder(KV.of("a", "1"), KV.of("a", "2"));
+        PAssert.that(output)
+            .inWindow(new IntervalWindow(new Instant(0L), new Instant(10L)))
+            .containsInAnyOrder(KV.of("a", "12"), KV.of("a", "3"));
+      }
+      pipeline.run();
+    }
+
+    @Test
+    @Category(ValidatesRunner.class)
+    public void testSlidingWindowsPaneSharingFallsBackForTriggers() {
+      PCollection<KV<String, Integer>> input =
+          pipeline
+              .apply(
+                  Create.timestamped(
+                          TimestampedValue.of(KV.of("a", 1), new Instant(0L)),
+                          TimestampedValue.of(KV.of("a", 2), new Instant(1L)),
+                          TimestampedValue.of(KV.of("a", 3), new Instant(2L)))
+                      .withCoder(KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of())))
+              .apply(
+                  Window.<KV<String, Integer>>into(
+                          SlidingWindows.of(Duration.millis(2)).every(Duration.millis(1)))
+                      .triggering(AfterWatermark.pastEndOfWindow())
+                      .accumulatingFiredPanes()
+                      .withAllowedLateness(Duration.ZERO));
+
+      PCollection<KV<String, Integer>> sums =
+          input.apply(
+              Combine.<String, Integer, Integer>perKey(Sum.ofIntegers())
+                  .withSlidingWindowPaneSharing());
+
+      PAssert.that(sums)
+          .containsInAnyOrder(KV.of("a", 1), KV.of("a", 3), KV.of("a", 5), KV.of("a", 3));
+      pipeline.run();
+    }
+
+    @Test
+    public void testSlidingWindowsPaneSharingRequiresCombineFn() {
+      assertThrows(
+          IllegalStateException.class,
+          () ->
+              Combine.<String, Integer, String>perKey(new TestCombineFnWithContext(null))
+                  .withSlidingWindowPaneSharing());
+    }
+
     @Test
     @Category({ValidatesRunner.class, UsesSideInputs.class})
     public void testGlobalCombineWithDefaultsAndTriggers() {
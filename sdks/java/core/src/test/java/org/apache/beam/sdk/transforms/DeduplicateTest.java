@@ -18,12 +18,24 @@
 package org.apache.beam.sdk.transforms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.state.MapState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.state.ReadableStates;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
@@ -34,12 +46,18 @@ import org.apache.beam.sdk.testing.UsesTestStreamWithProcessingTime;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TimestampedValue;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.HashMultimap;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableSet;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Iterables;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Maps;
 import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.Multimap;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.hash.BloomFilter;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.junit.Rule;
@@ -166,6 +184,243 @@ public class DeduplicateTest {
     p.run();
   }
 
+  @Test
+  @Category({NeedsRunner.class, UsesTestStream.class})
+  public void testBloomFilterEventTime() {
+    Instant base = new Instant(0);
+    TestStream<String> values =
+        TestStream.create(StringUtf8Coder.of())
+            .advanceWatermarkTo(base)
+            .addElements(
+                TimestampedValue.of("k1", base),
+                TimestampedValue.of("k2", base.plus(Duration.standardSeconds(10))),
+                TimestampedValue.of("k3", base.plus(Duration.standardSeconds(20))),
+                TimestampedValue.of("maybedup", base.plus(Duration.standardSeconds(59))))
+            .advanceWatermarkTo(base.plus(Duration.standardMinutes(1)))
+            .addElements(
+                TimestampedValue.of("k1", base.plus(Duration.standardSeconds(30))),
+                TimestampedValue.of("k2", base.plus(Duration.standardSeconds(40))),
+                TimestampedValue.of("k3", base.plus(Duration.standardSeconds(50))))
+            .advanceWatermarkTo(
+                base.plus(Duration.standardMinutes(3)).plus(Deduplicate.DEFAULT_DURATION))
+            .addElements(
+                TimestampedValue.of(
+                    "maybedup",
+                    base.plus(Duration.standardMinutes(3)).plus(Deduplicate.DEFAULT_DURATION)))
+            .advanceWatermarkToInfinity();
+
+    PCollection<String> distinctValues =
+        p.apply(values)
+            .apply(
+                Deduplicate.<String>values()
+                    .withTimeDomain(TimeDomain.EVENT_TIME)
+                    .withBloomFilter(1000, 0.0001));
+    PAssert.that(distinctValues)
+        .satisfies(
+            (Iterable<String> input) -> {
+              assertEquals(1, Iterables.frequency(input, "k1"));
+              assertEquals(1, Iterables.frequency(input, "k2"));
+              assertEquals(1, Iterables.frequency(input, "k3"));
+              assertEquals(2, Iterables.frequency(input, "maybedup"));
+              return null;
+            });
+    p.run();
+  }
+
+  @Test
+  @Category({NeedsRunner.class, UsesTestStreamWithProcessingTime.class})
+  public void testBloomFilterRepresentativeValues() {
+    Instant base = new Instant(0);
+    TestStream<KV<Long, String>> values =
+        TestStream.create(KvCoder.of(VarLongCoder.of(), StringUtf8Coder.of()))
+            .advanceWatermarkTo(base)
+            .addElements(
+                TimestampedValue.of(KV.of(1L, "k1"), base),
+                TimestampedValue.of(KV.of(2L, "k2"), base.plus(Duration.standardSeconds(10))),
+                TimestampedValue.of(KV.of(3L, "k3"), base.plus(Duration.standardSeconds(20))))
+            .advanceProcessingTime(Duration.standardMinutes(1))
+            .addElements(
+                TimestampedValue.of(KV.of(1L, "k1"), base.plus(Duration.standardSeconds(30))),
+                TimestampedValue.of(KV.of(2L, "k2"), base.plus(Duration.standardSeconds(40))),
+                TimestampedValue.of(KV.of(3L, "k3"), base.plus(Duration.standardSeconds(50))))
+            .advanceWatermarkToInfinity();
+
+    PCollection<KV<Long, String>> distinctValues =
+        p.apply(values)
+            .apply(
+                Deduplicate.withRepresentativeValueFn(new Keys<Long>())
+                    .withRepresentativeCoder(VarLongCoder.of())
+                    .withBloomFilter(1000, 0.0001));
+
+    PAssert.that(distinctValues)
+        .containsInAnyOrder(KV.of(1L, "k1"), KV.of(2L, "k2"), KV.of(3L, "k3"));
+    p.run();
+  }
+
+  @Test
+  public void testTimeBucketedBloomFilter() throws Exception {
+    Deduplicate.BloomFilterSpec spec = Deduplicate.BloomFilterSpec.of(256 * 4 * 100, 0.01);
+    FilterState state = new FilterState();
+    Deduplicate.TimeBucketedBloomFilter filter =
+        new Deduplicate.TimeBucketedBloomFilter(spec, state);
+    // Add ten times the expected number of keys, so that the filter has to grow.
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (!filter.put(0, key(i))) {
+        falsePositives++;
+      }
+    }
+    assertTrue("Too many false positives: " + falsePositives, falsePositives <= 20);
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(filter.put(1, key(i)));
+    }
+    assertEquals(0L, filter.newestBucket());
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(filter.put(4, key(i)));
+    }
+
+    // Keys expire once their bucket is more than four buckets older than the newest.
+    assertTrue(filter.put(5, key(-1)));
+    assertEquals(ImmutableSet.of(5L), ImmutableSet.copyOf(state.keys().read()));
+    int remembered = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (!filter.put(5, key(i))) {
+        remembered++;
+      }
+    }
+    assertTrue("Too many keys remembered: " + remembered, remembered <= 20);
+  }
+
+  @Test
+  public void testTimeBucketedBloomFilterStateWrites() throws Exception {
+    Deduplicate.BloomFilterSpec spec = Deduplicate.BloomFilterSpec.of(100_000_000, 0.01);
+    assertTrue(spec.numShards() > 256);
+    FilterState state = new FilterState();
+    Deduplicate.TimeBucketedBloomFilter filter =
+        new Deduplicate.TimeBucketedBloomFilter(spec, state);
+    for (int bucket = 0; bucket < 4; bucket++) {
+      for (int i = 0; i < 1000; i++) {
+        filter.put(bucket, key(bucket * 1000 + i));
+      }
+    }
+
+    // A new key only writes the filter of its own bucket, whose size does not depend on the
+    // number of buckets or the expected number of keys.
+    int writes = state.writes;
+    long bytesWritten = state.bytesWritten;
+    assertTrue(filter.put(3, key(-1)));
+    assertEquals(writes + 1, state.writes);
+    assertTrue(
+        "Wrote " + (state.bytesWritten - bytesWritten) + " bytes",
+        state.bytesWritten - bytesWritten < 4096);
+
+    // A key which was already seen writes nothing.
+    writes = state.writes;
+    for (int i = 0; i < 4000; i++) {
+      assertFalse(filter.put(3, key(i)));
+    }
+    assertEquals(writes, state.writes);
+
+    // Looking up the newest bucket and then adding a key reads the filters once.
+    filter = new Deduplicate.TimeBucketedBloomFilter(spec, state);
+    int reads = state.reads;
+    assertEquals(3L, filter.newestBucket());
+    assertTrue(filter.put(3, key(-2)));
+    assertEquals(reads + 1, state.reads);
+  }
+
+  /** The filters of a {@link Deduplicate.TimeBucketedBloomFilter}, held in encoded form. */
+  private static class FilterState implements MapState<Long, List<BloomFilter<byte[]>>> {
+    private static final Coder<List<BloomFilter<byte[]>>> CODER =
+        ListCoder.of(new Deduplicate.BloomFilterCoder());
+
+    private final Map<Long, byte[]> buckets = new TreeMap<>();
+    private int writes;
+    private long bytesWritten;
+    private int reads;
+
+    @Override
+    public void put(Long key, List<BloomFilter<byte[]>> value) {
+      byte[] encoded = encode(value);
+      buckets.put(key, encoded);
+      writes++;
+      bytesWritten += encoded.length;
+    }
+
+    @Override
+    public void remove(Long key) {
+      buckets.remove(key);
+    }
+
+    @Override
+    public ReadableState<Iterable<Long>> keys() {
+      return ReadableStates.immediate(ImmutableList.copyOf(buckets.keySet()));
+    }
+
+    @Override
+    public ReadableState<Iterable<Map.Entry<Long, List<BloomFilter<byte[]>>>>> entries() {
+      reads++;
+      ImmutableList.Builder<Map.Entry<Long, List<BloomFilter<byte[]>>>> entries =
+          ImmutableList.builder();
+      for (Map.Entry<Long, byte[]> bucket : buckets.entrySet()) {
+        entries.add(Maps.immutableEntry(bucket.getKey(), decode(bucket.getValue())));
+      }
+      return ReadableStates.immediate(entries.build());
+    }
+
+    @Override
+    public void clear() {
+      buckets.clear();
+    }
+
+    @Override
+    public ReadableState<List<BloomFilter<byte[]>>> computeIfAbsent(
+        Long key, Function<? super Long, ? extends List<BloomFilter<byte[]>>> mappingFunction) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReadableState<List<BloomFilter<byte[]>>> get(Long key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReadableState<List<BloomFilter<byte[]>>> getOrDefault(
+        Long key, @Nullable List<BloomFilter<byte[]>> defaultValue) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReadableState<Iterable<List<BloomFilter<byte[]>>>> values() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return ReadableStates.immediate(buckets.isEmpty());
+    }
+
+    private static byte[] encode(List<BloomFilter<byte[]>> value) {
+      try {
+        return CoderUtils.encodeToByteArray(CODER, value);
+      } catch (CoderException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private static List<BloomFilter<byte[]>> decode(byte[] encoded) {
+      try {
+        return CoderUtils.decodeFromByteArray(CODER, encoded);
+      } catch (CoderException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static byte[] key(int i) {
+    return ("key" + i).getBytes(StandardCharsets.UTF_8);
+  }
+
   private static class Keys<T> implements SerializableFunction<KV<T, String>, T> {
     @Override
     public T apply(KV<T, String> input) {
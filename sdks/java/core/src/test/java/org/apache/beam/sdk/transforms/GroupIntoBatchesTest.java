@@ -298,6 +298,54 @@ public class GroupIntoBatchesTest implements Serializable {
     }
   }
 
+  @Test
+  @Category({
+    ValidatesRunner.class,
+    NeedsRunner.class,
+    UsesTimersInParDo.class,
+    UsesStatefulParDo.class,
+    UsesOnWindowExpiration.class
+  })
+  public void testWithCrossKeyBatchingInGlobalWindow() {
+    // Every element has a distinct key, so batching per key would only produce singleton batches.
+    int numElements = 1000;
+    int batchSize = 10;
+    List<KV<String, String>> input = new ArrayList<>();
+    for (int i = 0; i < numElements; i++) {
+      input.add(KV.of("key" + i, "value" + i));
+    }
+    PCollection<Iterable<KV<String, String>>> collection =
+        pipeline
+            .apply("Input data", Create.of(input))
+            .apply(GroupIntoBatches.<String, String>ofSize(batchSize).withCrossKeyBatching());
+    PAssert.that("Incorrect batch size in one or more elements", collection)
+        .satisfies(
+            batches -> {
+              int numFullBatches = 0;
+              int totalNumBatches = 0;
+              for (Iterable<KV<String, String>> batch : batches) {
+                int size = Iterables.size(batch);
+                assertTrue("Batch too large: " + size, size <= batchSize);
+                if (size == batchSize) {
+                  numFullBatches++;
+                }
+                totalNumBatches++;
+              }
+              assertTrue(
+                  String.format(
+                      "number of full batches vs. total number of batches in total: %d vs. %d",
+                      numFullBatches, totalNumBatches),
+                  numFullBatches > totalNumBatches / 2);
+              return null;
+            });
+    PAssert.that(collection.apply(Flatten.iterables())).containsInAnyOrder(input);
+    if (pipeline.getOptions().getRunner().getSimpleName().equals("DirectRunner")) {
+      pipeline.runWithAdditionalOptionArgs(ImmutableList.of("--targetParallelism=1"));
+    } else {
+      pipeline.run();
+    }
+  }
+
   /** test behavior when the number of input elements is not evenly divisible by batch size. */
   @Test
   @Category({
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.sdk.testing.CombineFnTester.testCombineFn;
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.apache.beam.sdk.testing.NeedsRunner;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.KllQuantiles.DoublesCombineFn;
+import org.apache.beam.sdk.transforms.KllQuantiles.KllSketch;
+import org.apache.beam.sdk.transforms.KllQuantiles.KllSketchCoder;
+import org.apache.beam.sdk.transforms.KllQuantiles.LongsCombineFn;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link KllQuantiles}. */
+@RunWith(JUnit4.class)
+public class KllQuantilesTest {
+
+  @Rule public TestPipeline p = TestPipeline.create();
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testLongsGlobally() {
+    List<Long> input = new ArrayList<>();
+    for (long i = 0; i <= 100; i++) {
+      input.add(i);
+    }
+    PCollection<List<Long>> quantiles =
+        p.apply(Create.of(input)).apply(KllQuantiles.longsGlobally(5));
+
+    PAssert.that(quantiles).containsInAnyOrder(Arrays.asList(0L, 25L, 50L, 75L, 100L));
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDoublesPerKey() {
+    PCollection<KV<String, List<Double>>> quantiles =
+        p.apply(
+                Create.of(
+                    KV.of("a", 1.0),
+                    KV.of("a", -2.5),
+                    KV.of("a", 3.0),
+                    KV.of("b", 10.0),
+                    KV.of("b", 0.5)))
+            .apply(KllQuantiles.doublesPerKey(3));
+
+    PAssert.that(quantiles)
+        .containsInAnyOrder(
+            KV.of("a", Arrays.asList(-2.5, 1.0, 3.0)), KV.of("b", Arrays.asList(0.5, 0.5, 10.0)));
+    p.run();
+  }
+
+  @Test
+  public void testSingleton() {
+    testCombineFn(
+        LongsCombineFn.create(5), Arrays.asList(389L), Arrays.asList(389L, 389L, 389L, 389L, 389L));
+  }
+
+  @Test
+  public void testEmpty() {
+    testCombineFn(DoublesCombineFn.create(5), Collections.emptyList(), Collections.emptyList());
+  }
+
+  @Test
+  public void testSimpleQuantiles() {
+    List<Double> input = new ArrayList<>();
+    for (int i = 0; i <= 100; i++) {
+      input.add(i - 50.0);
+    }
+    testCombineFn(
+        DoublesCombineFn.create(5), input, Arrays.asList(-50.0, -25.0, 0.0, 25.0, 50.0));
+  }
+
+  @Test
+  public void testDoubleOrdering() {
+    testCombineFn(
+        DoublesCombineFn.create(7),
+        Arrays.asList(
+            Double.NaN, 0.0, -0.0, Double.NEGATIVE_INFINITY, -1e-300, 1e300, Double.MIN_VALUE),
+        Arrays.asList(
+            Double.NEGATIVE_INFINITY, -1e-300, -0.0, 0.0, Double.MIN_VALUE, 1e300, Double.NaN));
+  }
+
+  @Test
+  public void testRankErrorOfLargeInput() {
+    int n = 1_000_000;
+    List<Long> values = new ArrayList<>(n);
+    for (long i = 0; i < n; i++) {
+      values.add(i * 7);
+    }
+    Collections.shuffle(values, new Random(42));
+
+    // Accumulate in bundles of different sizes and merge them, as a runner would.
+    LongsCombineFn fn = LongsCombineFn.create(11);
+    List<KllSketch> sketches = new ArrayList<>();
+    int start = 0;
+    for (int bundle = 1; start < n; bundle++) {
+      int end = Math.min(n, start + 1000 * bundle);
+      KllSketch sketch = fn.createAccumulator();
+      for (Long value : values.subList(start, end)) {
+        sketch = fn.addInput(sketch, value);
+      }
+      sketches.add(sketch);
+      start = end;
+    }
+    KllSketch merged = fn.mergeAccumulators(sketches);
+    assertEquals(n, merged.getCount());
+    assertTrue(
+        "Too many retained values: " + merged.getNumRetained(),
+        merged.getNumRetained() <= 4 * KllQuantiles.DEFAULT_K);
+
+    List<Long> quantiles = fn.extractOutput(merged);
+    assertEquals(11, quantiles.size());
+    assertEquals(0L, (long) quantiles.get(0));
+    assertEquals(7L * (n - 1), (long) quantiles.get(10));
+    for (int q = 1; q < 10; q++) {
+      long rank = quantiles.get(q) / 7;
+      long expectedRank = (long) q * n / 10;
+      assertTrue(
+          "Quantile " + q + " has rank " + rank + ", expected " + expectedRank,
+          Math.abs(rank - expectedRank) <= 0.02 * n);
+    }
+  }
+
+  @Test
+  public void testSketchCoder() throws Exception {
+    LongsCombineFn fn = LongsCombineFn.create(5);
+    KllSketch sketch = fn.createAccumulator();
+    CoderProperties.structuralValueDecodeEncodeEqual(KllSketchCoder.of(), sketch);
+    Random random = new Random(7);
+    for (int i = 0; i < 100_000; i++) {
+      sketch = fn.addInput(sketch, random.nextLong());
+    }
+
+    byte[] encoded = CoderUtils.encodeToByteArray(KllSketchCoder.of(), sketch);
+    KllSketch decoded = CoderUtils.decodeFromByteArray(KllSketchCoder.of(), encoded);
+    assertEquals(fn.extractOutput(sketch), fn.extractOutput(decoded));
+    assertEquals(sketch.getCount(), decoded.getCount());
+    assertEquals(sketch.getNumRetained(), decoded.getNumRetained());
+    assertTrue(
+        "Encoding too large: " + encoded.length,
+        encoded.length <= 10 * 4 * KllQuantiles.DEFAULT_K);
+    CoderProperties.structuralValueDecodeEncodeEqual(KllSketchCoder.of(), sketch);
+
+    // Sketches keep summarizing values after a round trip.
+    for (int i = 0; i < 100_000; i++) {
+      decoded = fn.addInput(decoded, random.nextLong());
+    }
+    assertEquals(200_000, decoded.getCount());
+  }
+
+  @Test
+  public void testAddInputAfterRoundTrip() throws Exception {
+    // Decoding and merging trim level 0 to its exact size, which is empty right after a
+    // compaction of an even number of values.
+    LongsCombineFn fn = LongsCombineFn.create(5);
+    KllSketch sketch = fn.createAccumulator();
+    for (long i = 0; i < 2_000; i++) {
+      KllSketch decoded = CoderUtils.clone(KllSketchCoder.of(), sketch);
+      decoded = fn.addInput(decoded, i);
+      assertEquals(i + 1, decoded.getCount());
+
+      KllSketch merged = fn.mergeAccumulators(Arrays.asList(fn.createAccumulator(), decoded));
+      merged = fn.addInput(merged, i);
+      assertEquals(i + 2, merged.getCount());
+
+      sketch = fn.addInput(sketch, i);
+    }
+  }
+
+  @Test
+  public void testAccumulatorCoderInferred() throws Exception {
+    assertEquals(
+        KllSketchCoder.of(),
+        LongsCombineFn.create(5).getAccumulatorCoder(p.getCoderRegistry(), VarLongCoder.of()));
+  }
+
+  @Test
+  public void testMergeDifferentK() {
+    KllSketch first = LongsCombineFn.create(5).createAccumulator();
+    KllSketch second = LongsCombineFn.create(5).withK(100).createAccumulator();
+    second.update(1);
+    assertThrows(IllegalArgumentException.class, () -> first.merge(second));
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> DoublesCombineFn.create(1));
+    assertThrows(IllegalArgumentException.class, () -> DoublesCombineFn.create(5).withK(4));
+  }
+
+  @Test
+  public void testDisplayData() {
+    DisplayData displayData = DisplayData.from(LongsCombineFn.create(20).withK(400));
+
+    assertThat(displayData, hasDisplayItem("numQuantiles", 20));
+    assertThat(displayData, hasDisplayItem("k", 400));
+    assertThat(
+        DisplayData.from(KllQuantiles.<String>doublesPerKey(20)),
+        hasDisplayItem("numQuantiles", 20));
+  }
+}
@@ -17,24 +17,32 @@
  */
 package org.apache.beam.sdk.transforms;
 
+import static org.apache.beam.sdk.testing.CombineFnTester.testCombineFn;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.testing.CoderProperties;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.hamcrest.Matchers;
@@ -236,6 +244,93 @@ public class TopTest {
     assertThat(displayData, hasDisplayItem("comparer", comparer.getClass()));
   }
 
+  @Test
+  @Category(NeedsRunner.class)
+  public void testPrimitiveTopPerKey() {
+    PCollection<KV<String, Integer>> inputTable = createInputTable(p);
+    PCollection<KV<String, List<Integer>>> largestPerKey =
+        inputTable.apply("Largest", Combine.perKey(Top.IntsFn.largest(2)));
+    PCollection<KV<String, List<Integer>>> smallestPerKey =
+        inputTable.apply("Smallest", Combine.perKey(Top.IntsFn.smallest(3)));
+
+    PAssert.that(largestPerKey)
+        .containsInAnyOrder(KV.of("a", Arrays.asList(3, 2)), KV.of("b", Arrays.asList(100, 10)));
+    PAssert.that(smallestPerKey)
+        .containsInAnyOrder(
+            KV.of("a", Arrays.asList(1, 2, 3)), KV.of("b", Arrays.asList(1, 10, 10)));
+    p.run();
+  }
+
+  @Test
+  public void testPrimitiveTopMatchesTopCombineFn() {
+    Random random = new Random(17);
+    for (int count : new int[] {0, 1, 5, 100, 1000}) {
+      List<Long> longs = new ArrayList<>();
+      List<Double> doubles = new ArrayList<>();
+      for (int i = 0; i < 5000; i++) {
+        // Few distinct values, so that there are many ties.
+        longs.add(random.nextInt(i % 2 == 0 ? 50 : Integer.MAX_VALUE) - 25L);
+        doubles.add(random.nextGaussian());
+      }
+      doubles.addAll(Arrays.asList(Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY));
+
+      testCombineFn(Top.LongsFn.largest(count), longs, Top.largestLongsFn(count).apply(longs));
+      testCombineFn(Top.LongsFn.smallest(count), longs, Top.smallestLongsFn(count).apply(longs));
+      testCombineFn(
+          Top.DoublesFn.largest(count), doubles, Top.largestDoublesFn(count).apply(doubles));
+      testCombineFn(
+          Top.DoublesFn.smallest(count), doubles, Top.smallestDoublesFn(count).apply(doubles));
+    }
+  }
+
+  @Test
+  public void testPrimitiveTopExtremeValues() {
+    List<Integer> ints = Arrays.asList(Integer.MIN_VALUE, 0, Integer.MAX_VALUE, -1, 1);
+    testCombineFn(Top.IntsFn.largest(3), ints, Arrays.asList(Integer.MAX_VALUE, 1, 0));
+    testCombineFn(Top.IntsFn.smallest(3), ints, Arrays.asList(Integer.MIN_VALUE, -1, 0));
+  }
+
+  @Test
+  public void testPrimitiveTopCountConstraint() {
+    // Twice the count must fit in the buffer of the accumulator.
+    Top.LongsFn.largest(Integer.MAX_VALUE / 2);
+    assertThrows(
+        IllegalArgumentException.class, () -> Top.LongsFn.largest(Integer.MAX_VALUE / 2 + 1));
+  }
+
+  @Test
+  public void testPrimitiveTopAccumulatorCoder() throws Exception {
+    Top.LongsFn fn = Top.LongsFn.smallest(10);
+    Coder<Top.BoundedLongBuffer> coder =
+        fn.getAccumulatorCoder(p.getCoderRegistry(), VarLongCoder.of());
+    Top.BoundedLongBuffer accumulator = fn.createAccumulator();
+    for (long i = 0; i < 1000; i++) {
+      accumulator = fn.addInput(accumulator, i * 31 % 1000 - 500);
+    }
+
+    Top.BoundedLongBuffer decoded = CoderUtils.clone(coder, accumulator);
+    assertEquals(fn.extractOutput(accumulator), fn.extractOutput(decoded));
+    assertEquals(
+        Arrays.asList(-500L, -499L, -498L, -497L, -496L, -495L, -494L, -493L, -492L, -491L),
+        fn.extractOutput(fn.addInput(decoded, 1000L)));
+    // The ten values are encoded as a size, a fixed width first value and one byte deltas.
+    assertEquals(1 + 8 + 9, CoderUtils.encodeToByteArray(coder, accumulator).length);
+    CoderProperties.structuralValueDecodeEncodeEqual(coder, accumulator);
+  }
+
+  @Test
+  public void testPrimitiveTopNamesAndDisplayData() {
+    assertEquals(
+        "Combine.globally(Top(LargestLongs))", Combine.globally(Top.LongsFn.largest(1)).getName());
+    assertEquals(
+        "Combine.perKey(Top(SmallestDoubles))",
+        Combine.<String, Double, List<Double>>perKey(Top.DoublesFn.smallest(1)).getName());
+
+    DisplayData displayData = DisplayData.from(Top.IntsFn.smallest(1234));
+    assertThat(displayData, hasDisplayItem("count", 1234));
+    assertThat(displayData, hasDisplayItem("largest", false));
+  }
+
   private static class OrderByLength implements Comparator<String>, Serializable {
     @Override
     public int compare(String a, String b) {
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.StubMethod;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.options.ExperimentalOptions;
+import org.apache.beam.sdk.options.FileStagingOptions;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DoFnInvokerArchive}. */
+@RunWith(JUnit4.class)
+public class DoFnInvokerArchiveTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** A {@link DoFn} whose invoker class is archived. */
+  public static class SetupFn extends DoFn<String, String> {
+    public boolean setUp = false;
+
+    @Setup
+    public void setUp() {
+      setUp = true;
+    }
+
+    @ProcessElement
+    public void processElement(@Element String element, OutputReceiver<String> receiver) {
+      receiver.output(element);
+    }
+  }
+
+  private static String invokerName(Class<? extends DoFn<?, ?>> fnClass) {
+    return StableInvokerNamingStrategy.forDoFnClass(fnClass)
+        .withSuffix(DoFnInvoker.class.getSimpleName())
+        .getInvokerName(ByteBuddyDoFnInvokerFactory.DoFnInvokerBase.class);
+  }
+
+  private Pipeline pipelineWithFn(PipelineOptions options) {
+    Pipeline pipeline = Pipeline.create(options);
+    pipeline.apply(Create.of("a")).apply(ParDo.of(new SetupFn()));
+    return pipeline;
+  }
+
+  @Test
+  public void testStageInvokers() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    ExperimentalOptions.addExperiment(
+        options.as(ExperimentalOptions.class), DoFnInvokerArchive.EXPERIMENT);
+    options.as(FileStagingOptions.class).setFilesToStage(new ArrayList<>());
+
+    DoFnInvokerArchive.stageInvokers(pipelineWithFn(options), options);
+
+    List<String> filesToStage = options.as(FileStagingOptions.class).getFilesToStage();
+    assertEquals(1, filesToStage.size());
+    String entry = invokerName(SetupFn.class).replace('.', '/');
+    try (JarFile jar = new JarFile(filesToStage.get(0))) {
+      assertNotNull(jar.getEntry(entry + ".class"));
+      assertNotNull(jar.getEntry(entry + ".fingerprint"));
+    }
+  }
+
+  @Test
+  public void testStageInvokersRequiresExperiment() {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    options.as(FileStagingOptions.class).setFilesToStage(new ArrayList<>());
+
+    DoFnInvokerArchive.stageInvokers(pipelineWithFn(options), options);
+
+    assertTrue(options.as(FileStagingOptions.class).getFilesToStage().isEmpty());
+  }
+
+  @Test
+  public void testLoadArchivedInvoker() throws Exception {
+    File jar = tmp.newFile("invokers.jar");
+    try (OutputStream output = new FileOutputStream(jar)) {
+      assertEquals(
+          1,
+          DoFnInvokerArchive.writeInvokers(
+              Collections.singletonList(SetupFn.class), output));
+    }
+
+    try (URLClassLoader classLoader =
+        new URLClassLoader(new URL[] {jar.toURI().toURL()}, getClass().getClassLoader())) {
+      Class<?> invokerClass =
+          DoFnInvokerArchive.loadInvokerClass(
+              SetupFn.class, invokerName(SetupFn.class), classLoader);
+      assertNotNull(invokerClass);
+      assertSame(classLoader, invokerClass.getClassLoader());
+
+      SetupFn fn = new SetupFn();
+      @SuppressWarnings("unchecked")
+      DoFnInvoker<String, String> invoker =
+          (DoFnInvoker<String, String>)
+              invokerClass.getConstructor(SetupFn.class).newInstance(fn);
+      invoker.invokeSetup(null);
+      assertTrue(fn.setUp);
+      assertSame(fn, invoker.getFn());
+    }
+  }
+
+  @Test
+  public void testMismatchingFingerprint() throws Exception {
+    String entry = invokerName(SetupFn.class).replace('.', '/');
+    File jar = tmp.newFile("stale.jar");
+    try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+      output.putNextEntry(new JarEntry(entry + ".fingerprint"));
+      output.write("stale".getBytes(StandardCharsets.UTF_8));
+      output.closeEntry();
+    }
+
+    try (URLClassLoader classLoader =
+        new URLClassLoader(new URL[] {jar.toURI().toURL()}, getClass().getClassLoader())) {
+      assertNull(
+          DoFnInvokerArchive.loadInvokerClass(
+              SetupFn.class, invokerName(SetupFn.class), classLoader));
+    }
+  }
+
+  @Test
+  public void testChangedSuperclassMismatchesFingerprint() throws Exception {
+    // The same subclass of two versions of a superclass, which declares the DoFn methods.
+    String baseName = getClass().getName() + "$GeneratedBaseFn";
+    String subName = getClass().getName() + "$GeneratedSubFn";
+    byte[] base = generateBaseFn(baseName, "first");
+    byte[] changedBase = generateBaseFn(baseName, "second");
+    byte[] sub =
+        new ByteBuddy()
+            .subclass(new BytesClassLoader(ImmutableMap.of(baseName, base)).loadClass(baseName))
+            .name(subName)
+            .make()
+            .getBytes();
+    Class<?> fnClass =
+        new BytesClassLoader(ImmutableMap.of(baseName, base, subName, sub)).loadClass(subName);
+    @SuppressWarnings("unchecked")
+    Class<? extends DoFn<?, ?>> changedFnClass =
+        (Class<? extends DoFn<?, ?>>)
+            new BytesClassLoader(ImmutableMap.of(baseName, changedBase, subName, sub))
+                .loadClass(subName);
+
+    String fingerprint = DoFnInvokerArchive.fingerprint(fnClass);
+    assertNotNull(fingerprint);
+    assertEquals(fingerprint, DoFnInvokerArchive.fingerprint(fnClass));
+    assertNotEquals(fingerprint, DoFnInvokerArchive.fingerprint(changedFnClass));
+
+    String entry = invokerName(changedFnClass).replace('.', '/');
+    File jar = tmp.newFile("changed.jar");
+    try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+      output.putNextEntry(new JarEntry(entry + ".fingerprint"));
+      output.write(fingerprint.getBytes(StandardCharsets.UTF_8));
+      output.closeEntry();
+    }
+    try (URLClassLoader classLoader =
+        new URLClassLoader(new URL[] {jar.toURI().toURL()}, changedFnClass.getClassLoader())) {
+      assertNull(
+          DoFnInvokerArchive.loadInvokerClass(
+              changedFnClass, invokerName(changedFnClass), classLoader));
+    }
+  }
+
+  /** Generates a {@link DoFn} class with a {@link DoFn.ProcessElement} method and a field. */
+  private static byte[] generateBaseFn(String name, String fieldName) {
+    return new ByteBuddy()
+        .subclass(
+            TypeDescription.Generic.Builder.parameterizedType(
+                    DoFn.class, String.class, String.class)
+                .build())
+        .name(name)
+        .defineField(fieldName, int.class, Visibility.PUBLIC)
+        .defineMethod("processElement", void.class, Visibility.PUBLIC)
+        .intercept(StubMethod.INSTANCE)
+        .annotateMethod(AnnotationDescription.Builder.ofType(DoFn.ProcessElement.class).build())
+        .make()
+        .getBytes();
+  }
+
+  /** A class loader defining classes from their class files, which it also serves as resources. */
+  private static class BytesClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classFiles;
+
+    BytesClassLoader(Map<String, byte[]> classFiles) {
+      super(DoFnInvokerArchiveTest.class.getClassLoader());
+      this.classFiles = classFiles;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] classFile = classFiles.get(name);
+      if (classFile == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, classFile, 0, classFile.length);
+    }
+
+    @Override
+    public @Nullable InputStream getResourceAsStream(String name) {
+      byte[] classFile =
+          name.endsWith(".class")
+              ? classFiles.get(name.substring(0, name.length() - 6).replace('/', '.'))
+              : null;
+      return classFile == null
+          ? super.getResourceAsStream(name)
+          : new ByteArrayInputStream(classFile);
+    }
+  }
+
+  @Test
+  public void testGeneratesWithoutArchive() {
+    // Without an archive on the classpath the invoker class is generated as before.
+    SetupFn fn = new SetupFn();
+    DoFnInvokers.invokerFor(fn).invokeSetup(null);
+    assertTrue(fn.setUp);
+  }
+}
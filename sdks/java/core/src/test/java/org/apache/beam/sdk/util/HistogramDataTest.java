@@ -18,8 +18,11 @@
 package org.apache.beam.sdk.util;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.equalTo;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -200,4 +203,96 @@ public class HistogramDataTest {
     assertThat(data.getTopBucketCount(), equalTo(4L));
     assertThat(data.getTotalCount(), equalTo(10L));
   }
+
+  @Test
+  public void testExponentialBuckets() {
+    HistogramData data = HistogramData.exponential(1, 2, 4);
+    data.record(0.5, 1, 1.5, 2, 3.99, 4, 15.99, 16);
+
+    assertThat(data.getBottomBucketCount(), equalTo(1L));
+    assertThat(data.getCount(0), equalTo(2L));
+    assertThat(data.getCount(1), equalTo(2L));
+    assertThat(data.getCount(2), equalTo(1L));
+    assertThat(data.getCount(3), equalTo(1L));
+    assertThat(data.getTopBucketCount(), equalTo(1L));
+    assertThat(data.getTotalCount(), equalTo(8L));
+  }
+
+  @Test
+  public void testNonFiniteValues() {
+    HistogramData data = HistogramData.exponential(1, 2, 4);
+    data.record(Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    assertThat(data.getTopBucketCount(), equalTo(1L));
+    assertThat(data.getBottomBucketCount(), equalTo(1L));
+    assertThat(data.getTotalCount(), equalTo(2L));
+    HistogramData.BucketType bucketType = data.getBucketType();
+    assertThat(bucketType.getBucketIndex(Double.NaN), equalTo(0));
+    assertThat(bucketType.getBucketIndex(Double.POSITIVE_INFINITY), equalTo(3));
+  }
+
+  @Test
+  public void testExponentialBucketsPercentile() {
+    HistogramData data = HistogramData.exponential(1, 1.1, 200);
+    for (int i = 1; i <= 10000; i++) {
+      data.record(i);
+    }
+
+    // The relative error of the estimations is bounded by the growth factor.
+    assertThat(data.p50(), closeTo(5000, 500));
+    assertThat(data.p90(), closeTo(9000, 900));
+    assertThat(data.getPercentile(0.999), closeTo(9990, 999));
+  }
+
+  @Test
+  public void testCombine() {
+    HistogramData first = HistogramData.exponential(1, 2, 4);
+    first.record(0.5, 1, 2);
+    HistogramData second = HistogramData.exponential(1, 2, 4);
+    second.record(2, 100);
+
+    HistogramData combined = first.combine(second);
+
+    assertThat(combined.getBottomBucketCount(), equalTo(1L));
+    assertThat(combined.getCount(0), equalTo(1L));
+    assertThat(combined.getCount(1), equalTo(2L));
+    assertThat(combined.getTopBucketCount(), equalTo(1L));
+    // The combined histograms are unchanged.
+    assertThat(first.getTotalCount(), equalTo(3L));
+    assertThat(second.getTotalCount(), equalTo(2L));
+  }
+
+  @Test
+  public void testCopy() {
+    HistogramData data = HistogramData.linear(0, 2, 2);
+    data.record(-1, 1, 3, 5);
+
+    HistogramData copy = data.copy();
+    data.record(1);
+
+    assertThat(copy.getTotalCount(), equalTo(4L));
+    assertThat(copy.getCount(0), equalTo(1L));
+    assertThat(data.getCount(0), equalTo(2L));
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception {
+    HistogramData data = HistogramData.exponential(1, 2, 10);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (int j = 0; j < 10000; j++) {
+                  data.record(j % 1024);
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(data.getTotalCount(), equalTo(40000L));
+  }
 }
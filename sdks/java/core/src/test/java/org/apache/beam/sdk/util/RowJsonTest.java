@@ -24,6 +24,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.stringContainsInOrder;
 
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import java.io.IOException;
@@ -467,6 +468,55 @@ public class RowJsonTest {
                   .build()));
     }
 
+    @Test
+    public void testSkipsFieldsNotInSchema() throws Exception {
+      Schema nestedSchema = Schema.builder().addInt32Field("f_nestedInt32").build();
+      Schema schema =
+          Schema.builder().addStringField("f_string").addRowField("f_row", nestedSchema).build();
+
+      String rowString =
+          "{\"f_unknownRow\": {\"f_string\": 1, \"f_nested\": [[1], {\"a\": null}]},"
+              + " \"f_row\": {\"f_unknownArray\": [\"x\", 1.5], \"f_nestedInt32\": 42},"
+              + " \"f_unknownString\": \"}\","
+              + " \"f_string\": \"foo\"}";
+
+      assertThat(
+          newObjectMapperWith(RowJsonDeserializer.forSchema(schema))
+              .readValue(rowString, Row.class),
+          equalTo(
+              Row.withSchema(schema)
+                  .addValues("foo", Row.withSchema(nestedSchema).addValue(42).build())
+                  .build()));
+    }
+
+    @Test
+    public void testUsesLastValueOfDuplicateField() throws Exception {
+      Schema schema = Schema.builder().addInt32Field("f_int32").addStringField("f_string").build();
+
+      String rowString = "{\"f_string\": \"foo\", \"f_int32\": 1, \"f_string\": \"bar\"}";
+
+      assertThat(
+          newObjectMapperWith(RowJsonDeserializer.forSchema(schema))
+              .readValue(rowString, Row.class),
+          equalTo(Row.withSchema(schema).addValues(1, "bar").build()));
+    }
+
+    @Test
+    public void testParsesMultipleRowsFromStream() throws Exception {
+      Schema schema = Schema.builder().addInt32Field("f_int32").build();
+      ObjectMapper objectMapper = newObjectMapperWith(RowJsonDeserializer.forSchema(schema));
+
+      try (MappingIterator<Row> rows =
+          objectMapper.readerFor(Row.class).readValues("{\"f_int32\": 1} {\"f_int32\": 2}")) {
+        assertThat(
+            rows.readAll(),
+            equalTo(
+                Arrays.asList(
+                    Row.withSchema(schema).addValue(1).build(),
+                    Row.withSchema(schema).addValue(2).build())));
+      }
+    }
+
     @Test
     public void testDeserializerThrowsForUnsupportedArrayElementType() throws Exception {
       Schema schema = Schema.builder().addArrayField("f_bytesArray", FieldType.BYTES).build();
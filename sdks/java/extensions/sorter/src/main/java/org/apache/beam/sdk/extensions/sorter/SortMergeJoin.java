@@ -0,0 +1,417 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@code SortMergeJoin} joins two {@code PCollection}s of key/value pairs like the {@code
+ * CoGroupByKey} based joins of the join library, but without holding the values of a key in
+ * memory.
+ *
+ * <p>A {@code CoGroupByKey} join caches the values of each key in a {@code CoGbkResult} and then
+ * iterates the values of one side once for every value of the other side. When a key has millions
+ * of values on both sides, this either takes a lot of worker memory or rereads the grouped values
+ * many times. {@code SortMergeJoin} instead groups the tagged values of both sides by key and, for
+ * each key:
+ *
+ * <ol>
+ *   <li>sorts the encoded values with a {@link BufferedExternalSorter}, which spills to disk when
+ *       its memory buffer fills up, so that the values of the right side come first;
+ *   <li>buffers the values of the right side, in memory up to half the configured memory size of
+ *       the sorter and in a temporary file beyond it;
+ *   <li>streams the values of the left side from the sorter and outputs their product with the
+ *       buffered right side values as it goes. When the right side was spilled to disk, the left
+ *       side values are read in blocks of up to half the configured memory size of the sorter and
+ *       the temporary file is read once per block.
+ * </ol>
+ *
+ * <p>The right side is the buffered one, so it should be the smaller side of the join. The sorted
+ * values, the buffered right side values and a block of left side values are held at the same
+ * time, so a worker may use up to twice the configured memory size of the sorter per key being
+ * joined, as measured by the encoded size of the values.
+ *
+ * <p>Example of use:
+ *
+ * <pre>{@code
+ * PCollection<KV<String, Click>> clicks = ...;
+ * PCollection<KV<String, Impression>> impressions = ...;
+ * PCollection<KV<String, KV<Click, Impression>>> joined =
+ *     clicks.apply(SortMergeJoin.innerJoin(impressions, BufferedExternalSorter.options()));
+ * }</pre>
+ *
+ * @param <K> the type of the keys of both {@code PCollection}s
+ * @param <V1> the type of the values of the left {@code PCollection}
+ * @param <V2> the type of the values of the right {@code PCollection}
+ */
+public class SortMergeJoin<K, V1, V2>
+    extends PTransform<PCollection<KV<K, V1>>, PCollection<KV<K, KV<V1, V2>>>> {
+  /** Sort key of the buffered values, which sort before the streamed ones. */
+  private static final byte[] BUFFERED = new byte[] {0};
+
+  /** Sort key of the streamed values. */
+  private static final byte[] STREAMED = new byte[] {1};
+
+  private final transient PCollection<KV<K, V2>> rightCollection;
+  private final BufferedExternalSorter.Options sorterOptions;
+  private final @Nullable V2 nullValue;
+
+  private SortMergeJoin(
+      PCollection<KV<K, V2>> rightCollection,
+      BufferedExternalSorter.Options sorterOptions,
+      @Nullable V2 nullValue) {
+    this.rightCollection = rightCollection;
+    this.sorterOptions = sorterOptions;
+    this.nullValue = nullValue;
+  }
+
+  /**
+   * Returns a {@code SortMergeJoin} that inner joins its input with the given right side {@code
+   * PCollection}, sorting with the given options.
+   */
+  public static <K, V1, V2> SortMergeJoin<K, V1, V2> innerJoin(
+      PCollection<KV<K, V2>> rightCollection, BufferedExternalSorter.Options sorterOptions) {
+    return new SortMergeJoin<>(checkNotNull(rightCollection), sorterOptions, null);
+  }
+
+  /**
+   * Returns a {@code SortMergeJoin} that left outer joins its input with the given right side
+   * {@code PCollection}, sorting with the given options. Left side values without a matching right
+   * side value are output with {@code nullValue}.
+   */
+  public static <K, V1, V2> SortMergeJoin<K, V1, V2> leftOuterJoin(
+      PCollection<KV<K, V2>> rightCollection,
+      V2 nullValue,
+      BufferedExternalSorter.Options sorterOptions) {
+    checkArgument(nullValue != null, "nullValue must not be null");
+    return new SortMergeJoin<>(checkNotNull(rightCollection), sorterOptions, nullValue);
+  }
+
+  @Override
+  public PCollection<KV<K, KV<V1, V2>>> expand(PCollection<KV<K, V1>> leftCollection) {
+    KvCoder<K, V1> leftCoder = getKvCoder(leftCollection.getCoder());
+    KvCoder<K, V2> rightCoder = getKvCoder(rightCollection.getCoder());
+    Coder<K> keyCoder = leftCoder.getKeyCoder();
+
+    KvCoder<K, KV<byte[], byte[]>> taggedCoder =
+        KvCoder.of(keyCoder, KvCoder.of(ByteArrayCoder.of(), ByteArrayCoder.of()));
+    PCollection<KV<K, KV<byte[], byte[]>>> taggedLeft =
+        leftCollection
+            .apply("TagLeft", ParDo.of(new TagFn<>(STREAMED, leftCoder.getValueCoder())))
+            .setCoder(taggedCoder);
+    PCollection<KV<K, KV<byte[], byte[]>>> taggedRight =
+        rightCollection
+            .apply("TagRight", ParDo.of(new TagFn<>(BUFFERED, rightCoder.getValueCoder())))
+            .setCoder(taggedCoder);
+
+    return PCollectionList.of(taggedLeft)
+        .and(taggedRight)
+        .apply(Flatten.pCollections())
+        .apply(GroupByKey.create())
+        .apply(
+            "Join",
+            ParDo.of(
+                new JoinFn<>(
+                    sorterOptions,
+                    leftCoder.getValueCoder(),
+                    rightCoder.getValueCoder(),
+                    nullValue)))
+        .setCoder(
+            KvCoder.of(
+                keyCoder, KvCoder.of(leftCoder.getValueCoder(), rightCoder.getValueCoder())));
+  }
+
+  @Override
+  public void populateDisplayData(DisplayData.Builder builder) {
+    super.populateDisplayData(builder);
+    builder
+        .add(DisplayData.item("leftOuter", nullValue != null).withLabel("Left Outer Join"))
+        .add(
+            DisplayData.item("sorterMemoryMB", sorterOptions.getMemoryMB())
+                .withLabel("Sorter Memory (MB)"));
+  }
+
+  private static <K, V> KvCoder<K, V> getKvCoder(Coder<KV<K, V>> coder) {
+    if (!(coder instanceof KvCoder)) {
+      throw new IllegalStateException("SortMergeJoin requires its inputs to use KvCoder");
+    }
+    return (KvCoder<K, V>) coder;
+  }
+
+  /** Encodes the values of one side of the join, keyed by the sort key of that side. */
+  private static class TagFn<K, V> extends DoFn<KV<K, V>, KV<K, KV<byte[], byte[]>>> {
+    private final byte[] tag;
+    private final Coder<V> valueCoder;
+
+    TagFn(byte[] tag, Coder<V> valueCoder) {
+      this.tag = tag;
+      this.valueCoder = valueCoder;
+    }
+
+    @ProcessElement
+    public void processElement(
+        @Element KV<K, V> element, OutputReceiver<KV<K, KV<byte[], byte[]>>> o) throws IOException {
+      o.output(
+          KV.of(
+              element.getKey(),
+              KV.of(tag, CoderUtils.encodeToByteArray(valueCoder, element.getValue()))));
+    }
+  }
+
+  /** Joins the sorted values of each key, streaming the left side against the right side. */
+  private static class JoinFn<K, V1, V2>
+      extends DoFn<KV<K, Iterable<KV<byte[], byte[]>>>, KV<K, KV<V1, V2>>> {
+    private final BufferedExternalSorter.Options sorterOptions;
+    private final Coder<V1> leftValueCoder;
+    private final Coder<V2> rightValueCoder;
+    private final @Nullable V2 nullValue;
+
+    JoinFn(
+        BufferedExternalSorter.Options sorterOptions,
+        Coder<V1> leftValueCoder,
+        Coder<V2> rightValueCoder,
+        @Nullable V2 nullValue) {
+      this.sorterOptions = sorterOptions;
+      this.leftValueCoder = leftValueCoder;
+      this.rightValueCoder = rightValueCoder;
+      this.nullValue = nullValue;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) throws IOException {
+      K key = c.element().getKey();
+      Sorter sorter = BufferedExternalSorter.create(sorterOptions);
+      for (KV<byte[], byte[]> record : c.element().getValue()) {
+        sorter.add(record);
+      }
+      Iterator<KV<byte[], byte[]>> sorted = sorter.sort().iterator();
+
+      // The sorter keeps its memory while its sorted values are read, the right side buffer and
+      // the left side block share the same amount.
+      long maxMemoryBytes = sorterOptions.getMemoryMB() * 1024L * 1024L / 2;
+      try (SpillingBuffer<V2> right =
+          new SpillingBuffer<>(rightValueCoder, maxMemoryBytes, sorterOptions.getTempLocation())) {
+        KV<byte[], byte[]> record = null;
+        while (sorted.hasNext()) {
+          record = sorted.next();
+          if (record.getKey()[0] != BUFFERED[0]) {
+            break;
+          }
+          right.add(record.getValue());
+          record = null;
+        }
+        right.finish();
+        if (record == null) {
+          return;
+        }
+
+        if (!right.isSpilled()) {
+          // The right side fits in memory, so each left side value is joined as it is read.
+          List<V2> rightValues = right.getInMemoryValues();
+          while (record != null) {
+            V1 leftValue = CoderUtils.decodeFromByteArray(leftValueCoder, record.getValue());
+            if (rightValues.isEmpty() && nullValue != null) {
+              c.output(KV.of(key, KV.of(leftValue, nullValue)));
+            }
+            for (V2 rightValue : rightValues) {
+              c.output(KV.of(key, KV.of(leftValue, rightValue)));
+            }
+            record = sorted.hasNext() ? sorted.next() : null;
+          }
+          return;
+        }
+
+        // Block nested loop join against the spilled right side.
+        List<V1> block = new ArrayList<>();
+        long blockBytes = 0;
+        while (record != null) {
+          block.add(CoderUtils.decodeFromByteArray(leftValueCoder, record.getValue()));
+          blockBytes += record.getValue().length;
+          record = sorted.hasNext() ? sorted.next() : null;
+          if (blockBytes >= maxMemoryBytes || record == null) {
+            for (V2 rightValue : right) {
+              for (V1 leftValue : block) {
+                c.output(KV.of(key, KV.of(leftValue, rightValue)));
+              }
+            }
+            block.clear();
+            blockBytes = 0;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Buffers encoded values in memory up to a maximum number of bytes and writes the remaining ones
+   * to a temporary file, which is read again each time the buffer is iterated.
+   */
+  static class SpillingBuffer<T> implements Iterable<T>, Closeable {
+    private final Coder<T> coder;
+    private final long maxMemoryBytes;
+    private final String tempLocation;
+    private final List<T> inMemoryValues = new ArrayList<>();
+    private long memoryBytes = 0;
+    private @Nullable Path spillFile;
+    private @Nullable DataOutputStream spillOutput;
+
+    SpillingBuffer(Coder<T> coder, long maxMemoryBytes, String tempLocation) {
+      this.coder = coder;
+      this.maxMemoryBytes = maxMemoryBytes;
+      this.tempLocation = tempLocation;
+    }
+
+    /** Adds an encoded value to the buffer. */
+    void add(byte[] encoded) throws IOException {
+      if (spillFile == null && memoryBytes + encoded.length <= maxMemoryBytes) {
+        inMemoryValues.add(CoderUtils.decodeFromByteArray(coder, encoded));
+        memoryBytes += encoded.length;
+        return;
+      }
+      if (spillOutput == null) {
+        checkArgument(spillFile == null, "Values can only be added before finish()");
+        Path directory = Paths.get(tempLocation);
+        Files.createDirectories(directory);
+        spillFile = Files.createTempFile(directory, "sort-merge-join", ".tmp");
+        spillOutput =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+      }
+      spillOutput.writeInt(encoded.length);
+      spillOutput.write(encoded);
+    }
+
+    /** Flushes the values written to disk. No values can be added afterwards. */
+    void finish() throws IOException {
+      if (spillOutput != null) {
+        spillOutput.close();
+        spillOutput = null;
+      }
+    }
+
+    /** Returns whether some of the values were written to disk. */
+    boolean isSpilled() {
+      return spillFile != null;
+    }
+
+    /** Returns the values held in memory, which are all the values unless spilled. */
+    List<T> getInMemoryValues() {
+      return inMemoryValues;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      Path file = spillFile;
+      if (file == null) {
+        return inMemoryValues.iterator();
+      }
+      checkArgument(spillOutput == null, "The buffer can only be iterated after finish()");
+      DataInputStream input;
+      try {
+        input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      Iterator<T> inMemory = inMemoryValues.iterator();
+      return new Iterator<T>() {
+        private @Nullable byte[] nextSpilled = null;
+
+        @Override
+        public boolean hasNext() {
+          if (inMemory.hasNext() || nextSpilled != null) {
+            return true;
+          }
+          try {
+            int length = input.readInt();
+            byte[] encoded = new byte[length];
+            input.readFully(encoded);
+            nextSpilled = encoded;
+            return true;
+          } catch (EOFException e) {
+            closeInput();
+            return false;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+
+        @Override
+        public T next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          if (inMemory.hasNext()) {
+            return inMemory.next();
+          }
+          byte[] encoded = nextSpilled;
+          nextSpilled = null;
+          try {
+            return CoderUtils.decodeFromByteArray(coder, encoded);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+
+        private void closeInput() {
+          try {
+            input.close();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+      if (spillFile != null) {
+        Files.deleteIfExists(spillFile);
+      }
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.ApproximateQuantilesCombineFn;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Count;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.Keys;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.primitives.UnsignedBytes;
+
+/**
+ * {@code SortedCount} counts the occurrences of each distinct element of a bounded {@code
+ * PCollection} like {@link Count#perElement()}, but by sorting the encoded elements rather than by
+ * grouping on them.
+ *
+ * <p>{@link Count#perElement()} shuffles every element keyed by its full encoding and builds a
+ * hash table of the distinct elements of each bundle to combine them before the shuffle. For wide
+ * elements with few duplicates the hash tables take a lot of worker memory while removing little
+ * data. {@code SortedCount} instead:
+ *
+ * <ol>
+ *   <li>sorts the encoded elements of each bundle and window with a {@link BufferedExternalSorter},
+ *       which spills to disk when the memory buffer fills up, and collapses each run of equal
+ *       encodings into a single count;
+ *   <li>range partitions the locally counted encodings into {@link #withNumShards shards},
+ *       using approximate quantiles of the encodings as the shard boundaries, so that only a shard
+ *       number is used as the shuffle key;
+ *   <li>sorts the encodings of each shard again and sums the counts of each run of equal
+ *       encodings.
+ * </ol>
+ *
+ * <p>Elements are compared by their encoded form, so the element {@link Coder} must be
+ * deterministic. The input must be bounded, and since each bundle keeps a sorter per window, it is
+ * intended for inputs in the global window or in few large windows. Output elements carry the end
+ * of their window as timestamp, as with {@link Count#perElement()}.
+ *
+ * <p>Example of use:
+ *
+ * <pre>{@code
+ * PCollection<String> words = ...;
+ * PCollection<KV<String, Long>> wordCounts =
+ *     words.apply(SortedCount.perElement(BufferedExternalSorter.options()));
+ * }</pre>
+ *
+ * @see SortedDistinct
+ */
+public class SortedCount {
+  /** The default number of shards the encoded elements are range partitioned into. */
+  static final int DEFAULT_NUM_SHARDS = 256;
+
+  private SortedCount() {
+    // do not instantiate
+  }
+
+  /**
+   * Returns a {@link PerElement} {@code PTransform} that counts the number of occurrences of each
+   * element in its bounded input {@code PCollection}, sorting with the given options.
+   */
+  public static <T> PerElement<T> perElement(BufferedExternalSorter.Options sorterOptions) {
+    return new PerElement<>(sorterOptions, DEFAULT_NUM_SHARDS);
+  }
+
+  /**
+   * A {@code PTransform} counting the occurrences of each distinct element of a bounded {@code
+   * PCollection}. See {@link SortedCount} for details.
+   *
+   * @param <T> the type of the elements of the input {@code PCollection}
+   */
+  public static class PerElement<T> extends PTransform<PCollection<T>, PCollection<KV<T, Long>>> {
+    private final BufferedExternalSorter.Options sorterOptions;
+    private final int numShards;
+
+    private PerElement(BufferedExternalSorter.Options sorterOptions, int numShards) {
+      this.sorterOptions = sorterOptions;
+      this.numShards = numShards;
+    }
+
+    /**
+     * Returns a {@code PTransform} like this one that range partitions the encoded elements into
+     * the given number of shards. Each shard is sorted by a single worker, so there should be
+     * enough shards for each of them to fit within the disk of a worker.
+     */
+    public PerElement<T> withNumShards(int numShards) {
+      checkArgument(numShards > 0, "numShards must be positive, but was: %s", numShards);
+      return new PerElement<>(sorterOptions, numShards);
+    }
+
+    @Override
+    public PCollection<KV<T, Long>> expand(PCollection<T> input) {
+      checkArgument(
+          input.isBounded() == PCollection.IsBounded.BOUNDED,
+          "%s requires a bounded input",
+          SortedCount.class.getSimpleName());
+      Coder<T> coder = input.getCoder();
+      try {
+        coder.verifyDeterministic();
+      } catch (Coder.NonDeterministicException e) {
+        throw new IllegalStateException(
+            "the element coder of SortedCount must be deterministic", e);
+      }
+
+      PCollection<KV<byte[], Long>> localCounts =
+          input
+              .apply("LocalSortAndCount", ParDo.of(new LocalCountFn<>(sorterOptions, coder)))
+              .setCoder(KvCoder.of(ByteArrayCoder.of(), VarLongCoder.of()));
+
+      PCollectionView<List<byte[]>> boundaries =
+          localCounts
+              .apply("EncodedElements", Keys.create())
+              .apply(
+                  "ShardBoundaries",
+                  Combine.globally(
+                          ApproximateQuantilesCombineFn.create(
+                              numShards + 1, new LexicographicalComparator()))
+                      .asSingletonView());
+
+      return localCounts
+          .apply(
+              "AssignShards",
+              ParDo.of(new AssignShardFn(boundaries)).withSideInputs(boundaries))
+          .setCoder(
+              KvCoder.of(VarIntCoder.of(), KvCoder.of(ByteArrayCoder.of(), VarLongCoder.of())))
+          .apply(GroupByKey.create())
+          .apply("MergeSortedCounts", ParDo.of(new MergeCountsFn<>(sorterOptions, coder)))
+          .setCoder(KvCoder.of(coder, VarLongCoder.of()));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("numShards", numShards).withLabel("Number of Shards"))
+          .add(
+              DisplayData.item("sorterMemoryMB", sorterOptions.getMemoryMB())
+                  .withLabel("Sorter Memory (MB)"));
+    }
+  }
+
+  /** Compares byte arrays lexicographically as unsigned bytes. */
+  static class LexicographicalComparator implements Comparator<byte[]>, Serializable {
+    @Override
+    public int compare(byte[] left, byte[] right) {
+      return UnsignedBytes.lexicographicalComparator().compare(left, right);
+    }
+  }
+
+  /**
+   * Sorts the encoded elements of a bundle per window and outputs each distinct encoding with its
+   * number of occurrences when the bundle finishes.
+   */
+  private static class LocalCountFn<T> extends DoFn<T, KV<byte[], Long>> {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final BufferedExternalSorter.Options sorterOptions;
+    private final Coder<T> coder;
+    private transient Map<BoundedWindow, Sorter> sorters;
+
+    LocalCountFn(BufferedExternalSorter.Options sorterOptions, Coder<T> coder) {
+      this.sorterOptions = sorterOptions;
+      this.coder = coder;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      sorters = new HashMap<>();
+    }
+
+    @ProcessElement
+    public void processElement(@Element T element, BoundedWindow window) throws IOException {
+      Sorter sorter =
+          sorters.computeIfAbsent(window, w -> BufferedExternalSorter.create(sorterOptions));
+      sorter.add(KV.of(CoderUtils.encodeToByteArray(coder, element), EMPTY));
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext context) throws IOException {
+      for (Map.Entry<BoundedWindow, Sorter> entry : sorters.entrySet()) {
+        BoundedWindow window = entry.getKey();
+        byte[] current = null;
+        long count = 0;
+        for (KV<byte[], byte[]> record : entry.getValue().sort()) {
+          if (current != null && !Arrays.equals(current, record.getKey())) {
+            context.output(KV.of(current, count), window.maxTimestamp(), window);
+            count = 0;
+          }
+          current = record.getKey();
+          count++;
+        }
+        if (current != null) {
+          context.output(KV.of(current, count), window.maxTimestamp(), window);
+        }
+      }
+      sorters = null;
+    }
+  }
+
+  /** Keys each encoded element by the shard whose range of encodings contains it. */
+  private static class AssignShardFn extends DoFn<KV<byte[], Long>, KV<Integer, KV<byte[], Long>>> {
+    private final PCollectionView<List<byte[]>> boundaries;
+    private final Comparator<byte[]> comparator = new LexicographicalComparator();
+
+    AssignShardFn(PCollectionView<List<byte[]>> boundaries) {
+      this.boundaries = boundaries;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      // The quantiles include the minimum and the maximum, the inner ones delimit the shards.
+      List<byte[]> quantiles = c.sideInput(boundaries);
+      List<byte[]> inner =
+          quantiles.size() <= 2
+              ? Collections.emptyList()
+              : quantiles.subList(1, quantiles.size() - 1);
+      int index = Collections.binarySearch(inner, c.element().getKey(), comparator);
+      int shard = index >= 0 ? index + 1 : -(index + 1);
+      c.output(KV.of(shard, c.element()));
+    }
+  }
+
+  /**
+   * Sorts the locally counted encodings of a shard and outputs each distinct element with the sum
+   * of its counts.
+   */
+  private static class MergeCountsFn<T>
+      extends DoFn<KV<Integer, Iterable<KV<byte[], Long>>>, KV<T, Long>> {
+    private final BufferedExternalSorter.Options sorterOptions;
+    private final Coder<T> coder;
+
+    MergeCountsFn(BufferedExternalSorter.Options sorterOptions, Coder<T> coder) {
+      this.sorterOptions = sorterOptions;
+      this.coder = coder;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) throws IOException {
+      Sorter sorter = BufferedExternalSorter.create(sorterOptions);
+      for (KV<byte[], Long> count : c.element().getValue()) {
+        sorter.add(
+            KV.of(
+                count.getKey(),
+                CoderUtils.encodeToByteArray(VarLongCoder.of(), count.getValue())));
+      }
+      byte[] current = null;
+      long total = 0;
+      for (KV<byte[], byte[]> record : sorter.sort()) {
+        if (current != null && !Arrays.equals(current, record.getKey())) {
+          c.output(KV.of(CoderUtils.decodeFromByteArray(coder, current), total));
+          total = 0;
+        }
+        current = record.getKey();
+        total += CoderUtils.decodeFromByteArray(VarLongCoder.of(), record.getValue());
+      }
+      if (current != null) {
+        c.output(KV.of(CoderUtils.decodeFromByteArray(coder, current), total));
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import org.apache.beam.sdk.transforms.Distinct;
+import org.apache.beam.sdk.transforms.Keys;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * {@code SortedDistinct<T>} takes a bounded {@code PCollection<T>} and returns a {@code
+ * PCollection<T>} that has all distinct elements of the input, like {@link Distinct#create()}, but
+ * by sorting the encoded elements rather than by grouping on them.
+ *
+ * <p>Duplicates are removed by sorting each bundle before the shuffle, and the distinct encodings
+ * are range partitioned into shards that are each sorted by a single worker. See {@link
+ * SortedCount} for details and requirements.
+ *
+ * <p>Example of use:
+ *
+ * <pre>{@code
+ * PCollection<String> words = ...;
+ * PCollection<String> uniqueWords =
+ *     words.apply(SortedDistinct.create(BufferedExternalSorter.options()));
+ * }</pre>
+ *
+ * @param <T> the type of the elements of the input and output {@code PCollection}s
+ */
+public class SortedDistinct<T> extends PTransform<PCollection<T>, PCollection<T>> {
+  private final SortedCount.PerElement<T> count;
+
+  private SortedDistinct(SortedCount.PerElement<T> count) {
+    this.count = count;
+  }
+
+  /**
+   * Returns a {@code SortedDistinct<T>} {@code PTransform} that sorts with the given options.
+   *
+   * @param <T> the type of the elements of the input and output {@code PCollection}s
+   */
+  public static <T> SortedDistinct<T> create(BufferedExternalSorter.Options sorterOptions) {
+    return new SortedDistinct<>(SortedCount.perElement(sorterOptions));
+  }
+
+  /**
+   * Returns a {@code SortedDistinct} like this one that range partitions the encoded elements into
+   * the given number of shards.
+   *
+   * @see SortedCount.PerElement#withNumShards(int)
+   */
+  public SortedDistinct<T> withNumShards(int numShards) {
+    return new SortedDistinct<>(count.withNumShards(numShards));
+  }
+
+  @Override
+  public PCollection<T> expand(PCollection<T> input) {
+    return input.apply("SortedCount", count).apply(Keys.create());
+  }
+
+  @Override
+  public void populateDisplayData(DisplayData.Builder builder) {
+    super.populateDisplayData(builder);
+    builder.include("count", count);
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.base.Strings;
+import org.apache.beam.vendor.guava.v32_1_2_jre.com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SortMergeJoin}. */
+@RunWith(JUnit4.class)
+public class SortMergeJoinTest {
+
+  @Rule public final transient TestPipeline p = TestPipeline.create();
+
+  @Rule public final transient TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testInnerJoin() {
+    PCollection<KV<String, Long>> left =
+        p.apply(
+            "Left",
+            Create.of(KV.of("a", 1L), KV.of("a", 2L), KV.of("b", 3L), KV.of("c", 4L)));
+    PCollection<KV<String, String>> right =
+        p.apply(
+            "Right",
+            Create.of(KV.of("a", "x"), KV.of("a", "y"), KV.of("b", "z"), KV.of("d", "w")));
+
+    PCollection<KV<String, KV<Long, String>>> joined =
+        left.apply(SortMergeJoin.innerJoin(right, BufferedExternalSorter.options()));
+
+    PAssert.that(joined)
+        .containsInAnyOrder(
+            KV.of("a", KV.of(1L, "x")),
+            KV.of("a", KV.of(1L, "y")),
+            KV.of("a", KV.of(2L, "x")),
+            KV.of("a", KV.of(2L, "y")),
+            KV.of("b", KV.of(3L, "z")));
+    p.run();
+  }
+
+  @Test
+  public void testLeftOuterJoin() {
+    PCollection<KV<String, Long>> left =
+        p.apply("Left", Create.of(KV.of("a", 1L), KV.of("b", 2L), KV.of("b", 3L)));
+    PCollection<KV<String, String>> right =
+        p.apply("Right", Create.of(KV.of("a", "x"), KV.of("c", "y")));
+
+    PCollection<KV<String, KV<Long, String>>> joined =
+        left.apply(SortMergeJoin.leftOuterJoin(right, "", BufferedExternalSorter.options()));
+
+    PAssert.that(joined)
+        .containsInAnyOrder(
+            KV.of("a", KV.of(1L, "x")), KV.of("b", KV.of(2L, "")), KV.of("b", KV.of(3L, "")));
+    p.run();
+  }
+
+  @Test
+  public void testJoinSpillsLargeKeys() throws Exception {
+    // Both sides of key "hot" exceed the 1 MB memory of the sorter, so the right side is spilled
+    // and the left side is joined in blocks.
+    String padding = Strings.repeat("x", 20_000);
+    List<KV<String, String>> leftValues = new ArrayList<>();
+    List<KV<String, String>> rightValues = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 60; i++) {
+      leftValues.add(KV.of("hot", "left" + i + "," + padding));
+      rightValues.add(KV.of("hot", "right" + i + "," + padding));
+      for (int j = 0; j < 60; j++) {
+        expected.add("hot:left" + i + ",right" + j);
+      }
+    }
+    leftValues.add(KV.of("cold", "left,"));
+    rightValues.add(KV.of("cold", "right,"));
+    expected.add("cold:left,right");
+
+    PCollection<KV<String, String>> left = p.apply("Left", Create.of(leftValues));
+    PCollection<KV<String, String>> right = p.apply("Right", Create.of(rightValues));
+    BufferedExternalSorter.Options sorterOptions =
+        BufferedExternalSorter.options()
+            .withMemoryMB(1)
+            .withTempLocation(tmp.getRoot().getAbsolutePath());
+
+    PCollection<String> joined =
+        left.apply(SortMergeJoin.innerJoin(right, sorterOptions))
+            .apply(
+                MapElements.into(TypeDescriptors.strings())
+                    .via(
+                        kv ->
+                            kv.getKey()
+                                + ":"
+                                + kv.getValue().getKey().split(",")[0]
+                                + ","
+                                + kv.getValue().getValue().split(",")[0]));
+
+    PAssert.that(joined).containsInAnyOrder(expected);
+    p.run();
+  }
+
+  @Test
+  public void testSpillingBuffer() throws Exception {
+    List<byte[]> encoded = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      expected.add("value" + i);
+      encoded.add(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), "value" + i));
+    }
+
+    Path spillFile;
+    try (SortMergeJoin.SpillingBuffer<String> buffer =
+        new SortMergeJoin.SpillingBuffer<>(
+            StringUtf8Coder.of(), 100, tmp.getRoot().getAbsolutePath())) {
+      for (byte[] value : encoded) {
+        buffer.add(value);
+      }
+      buffer.finish();
+      assertTrue(buffer.isSpilled());
+      assertTrue(buffer.getInMemoryValues().size() < 100);
+
+      // The buffer can be iterated several times.
+      assertEquals(expected, ImmutableList.copyOf(buffer));
+      assertEquals(expected, ImmutableList.copyOf(buffer));
+      try (Stream<Path> files = Files.list(tmp.getRoot().toPath())) {
+        spillFile = files.findFirst().get();
+      }
+    }
+    assertFalse(Files.exists(spillFile));
+  }
+
+  @Test
+  public void testLeftOuterJoinRequiresNullValue() {
+    PCollection<KV<String, String>> right = p.apply(Create.of(KV.of("a", "x")));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> SortMergeJoin.leftOuterJoin(right, null, BufferedExternalSorter.options()));
+    p.enableAbandonedNodeEnforcement(false);
+  }
+
+  @Test
+  public void testDisplayData() {
+    PCollection<KV<String, String>> right = p.apply(Create.of(KV.of("a", "x")));
+    DisplayData displayData =
+        DisplayData.from(
+            SortMergeJoin.leftOuterJoin(
+                right, "", BufferedExternalSorter.options().withMemoryMB(42)));
+
+    assertThat(displayData, hasDisplayItem("leftOuter", true));
+    assertThat(displayData, hasDisplayItem("sorterMemoryMB", 42));
+    p.enableAbandonedNodeEnforcement(false);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.GenerateSequence;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SortedCount}. */
+@RunWith(JUnit4.class)
+public class SortedCountTest {
+
+  @Rule public final transient TestPipeline p = TestPipeline.create();
+
+  @Test
+  public void testCountPerElement() {
+    PCollection<KV<String, Long>> counts =
+        p.apply(Create.of("a", "b", "a", "c", "b", "a", ""))
+            .apply(SortedCount.perElement(BufferedExternalSorter.options()));
+
+    PAssert.that(counts)
+        .containsInAnyOrder(KV.of("a", 3L), KV.of("b", 2L), KV.of("c", 1L), KV.of("", 1L));
+    p.run();
+  }
+
+  @Test
+  public void testCountPerElementManyShards() {
+    List<String> input = new ArrayList<>();
+    List<KV<String, Long>> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      for (int j = 0; j <= i % 3; j++) {
+        input.add("value" + i);
+      }
+      expected.add(KV.of("value" + i, (long) (i % 3) + 1));
+    }
+
+    PCollection<KV<String, Long>> counts =
+        p.apply(Create.of(input))
+            .apply(
+                SortedCount.<String>perElement(BufferedExternalSorter.options()).withNumShards(7));
+
+    PAssert.that(counts).containsInAnyOrder(expected);
+    p.run();
+  }
+
+  @Test
+  public void testCountPerElementEmpty() {
+    PCollection<KV<String, Long>> counts =
+        p.apply(Create.empty(StringUtf8Coder.of()))
+            .apply(SortedCount.perElement(BufferedExternalSorter.options()));
+
+    PAssert.that(counts).empty();
+    p.run();
+  }
+
+  @Test
+  public void testCountPerElementInWindows() {
+    PCollection<KV<String, Long>> counts =
+        p.apply(
+                Create.timestamped(
+                    TimestampedValue.of("a", new Instant(0)),
+                    TimestampedValue.of("a", new Instant(1)),
+                    TimestampedValue.of("b", new Instant(2)),
+                    TimestampedValue.of("a", new Instant(10)),
+                    TimestampedValue.of("b", new Instant(11)),
+                    TimestampedValue.of("b", new Instant(12))))
+            .apply(Window.into(FixedWindows.of(Duration.millis(10))))
+            .apply(SortedCount.perElement(BufferedExternalSorter.options()));
+
+    PAssert.that(counts)
+        .inWindow(new IntervalWindow(new Instant(0), new Instant(10)))
+        .containsInAnyOrder(KV.of("a", 2L), KV.of("b", 1L));
+    PAssert.that(counts)
+        .inWindow(new IntervalWindow(new Instant(10), new Instant(20)))
+        .containsInAnyOrder(KV.of("a", 1L), KV.of("b", 2L));
+    p.run();
+  }
+
+  @Test
+  public void testUnboundedInputRejected() {
+    PCollection<Long> unbounded =
+        TestPipeline.create().apply(GenerateSequence.from(0).withRate(1, Duration.millis(1)));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> unbounded.apply(SortedCount.perElement(BufferedExternalSorter.options())));
+  }
+
+  @Test
+  public void testInvalidNumShards() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> SortedCount.perElement(BufferedExternalSorter.options()).withNumShards(0));
+  }
+
+  @Test
+  public void testDisplayData() {
+    DisplayData displayData =
+        DisplayData.from(
+            SortedCount.perElement(BufferedExternalSorter.options().withMemoryMB(50))
+                .withNumShards(16));
+
+    assertThat(displayData, hasDisplayItem("numShards", 16));
+    assertThat(displayData, hasDisplayItem("sorterMemoryMB", 50));
+  }
+}